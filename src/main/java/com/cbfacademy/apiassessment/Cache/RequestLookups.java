@@ -0,0 +1,105 @@
+package com.cbfacademy.apiassessment.Cache;
+
+import com.cbfacademy.apiassessment.Entity.Budget;
+import com.cbfacademy.apiassessment.Entity.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+// Memoizes the users and budgets resolved while one web request is handled, so services calling each other
+// resolve them once per request. Outside a request, e.g. in scheduled or async work, every lookup goes to the loader.
+@Component
+public class RequestLookups {
+
+    private static final Logger log = LoggerFactory.getLogger(RequestLookups.class);
+
+    private static final String ATTRIBUTE = RequestLookups.class.getName();
+
+    public User user(String usernameOrEmail, Function<String, User> loader) {
+        Lookups lookups = lookups();
+        if (lookups == null) {
+            return loader.apply(usernameOrEmail);
+        }
+        User user = lookups.users.get(usernameOrEmail);
+        if (user != null) {
+            lookups.usersAvoided++;
+            return user;
+        }
+        user = loader.apply(usernameOrEmail);
+        lookups.users.put(usernameOrEmail, user);
+        return user;
+    }
+
+    public Budget budget(User user, long budgetId, Function<Long, Budget> loader) {
+        Lookups lookups = lookups();
+        if (lookups == null) {
+            return loader.apply(budgetId);
+        }
+        List<Long> key = List.of(user.getId(), budgetId);
+        Budget budget = lookups.budgets.get(key);
+        if (budget != null) {
+            lookups.budgetsAvoided++;
+            return budget;
+        }
+        budget = loader.apply(budgetId);
+        lookups.budgets.put(key, budget);
+        return budget;
+    }
+
+    public void evictUser(String... usernamesOrEmails) {
+        Lookups lookups = lookups();
+        if (lookups != null) {
+            for (String usernameOrEmail : usernamesOrEmails) {
+                lookups.users.remove(usernameOrEmail);
+            }
+        }
+    }
+
+    public void evictBudget(User user, long budgetId) {
+        Lookups lookups = lookups();
+        if (lookups != null) {
+            lookups.budgets.remove(List.of(user.getId(), budgetId));
+        }
+    }
+
+    // Number of lookups the current request was served from memory, 0 outside a request
+    public int avoidedLookups() {
+        Lookups lookups = lookups();
+        return lookups == null ? 0 : lookups.usersAvoided + lookups.budgetsAvoided;
+    }
+
+    // The lookups of the current request, created on first use and logged when the request completes
+    private Lookups lookups() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes == null) {
+            return null;
+        }
+        Lookups lookups = (Lookups) attributes.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (lookups == null) {
+            Lookups created = new Lookups();
+            attributes.setAttribute(ATTRIBUTE, created, RequestAttributes.SCOPE_REQUEST);
+            attributes.registerDestructionCallback(ATTRIBUTE, () -> {
+                if (created.usersAvoided + created.budgetsAvoided > 0) {
+                    log.debug("Request reused {} user and {} budget lookups", created.usersAvoided, created.budgetsAvoided);
+                }
+            }, RequestAttributes.SCOPE_REQUEST);
+            lookups = created;
+        }
+        return lookups;
+    }
+
+    // A request is handled on one thread, so the maps are not shared between threads
+    private static final class Lookups {
+        private final Map<String, User> users = new HashMap<>();
+        private final Map<List<Long>, Budget> budgets = new HashMap<>();
+        private int usersAvoided;
+        private int budgetsAvoided;
+    }
+}
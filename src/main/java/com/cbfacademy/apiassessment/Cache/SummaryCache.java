@@ -0,0 +1,52 @@
+package com.cbfacademy.apiassessment.Cache;
+
+import com.cbfacademy.apiassessment.DTO.CacheStats;
+import com.cbfacademy.apiassessment.DTO.Summary;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.function.Function;
+
+// Cache of user summaries keyed by user id, evicted by every write that changes a user's budgets or expenses
+@Component
+public class SummaryCache {
+
+    private final BoundedCache<Long, Summary> cache;
+
+    public SummaryCache(@Value("${pf.cache.summary.max-size:10000}") int maxSize,
+                        @Value("${pf.cache.summary.ttl-seconds:300}") long ttlSeconds) {
+        this.cache = new BoundedCache<>("summary", maxSize, ttlSeconds * 1000);
+    }
+
+    public Summary get(Long userId, Function<Long, Summary> loader) {
+        return cache.get(userId, loader);
+    }
+
+    /**
+     * Evicts the summary of a user
+     * Inside a transaction the entry is evicted again after commit, so a summary
+     * rebuilt from the old rows while the transaction was running is not kept
+     *
+     * @param userId The id of the user whose budgets or expenses changed
+     */
+    public void evict(Long userId) {
+        if (userId == null) {
+            return;
+        }
+        cache.invalidate(userId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    cache.invalidate(userId);
+                }
+            });
+        }
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+}
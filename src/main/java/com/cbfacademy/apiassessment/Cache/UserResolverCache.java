@@ -0,0 +1,57 @@
+package com.cbfacademy.apiassessment.Cache;
+
+import com.cbfacademy.apiassessment.DTO.CacheStats;
+import com.cbfacademy.apiassessment.DTO.UserIdentity;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.function.Function;
+
+// Cache of user ids and roles keyed by username and by email, so resolving the caller of a request does not query the users table
+@Component
+public class UserResolverCache {
+
+    private final BoundedCache<String, UserIdentity> cache;
+
+    public UserResolverCache(@Value("${pf.cache.users.max-size:10000}") int maxSize,
+                             @Value("${pf.cache.users.ttl-seconds:600}") long ttlSeconds) {
+        this.cache = new BoundedCache<>("users", maxSize, ttlSeconds * 1000);
+    }
+
+    public UserIdentity resolve(String usernameOrEmail, Function<String, UserIdentity> loader) {
+        return cache.get(usernameOrEmail, loader);
+    }
+
+    /**
+     * Evicts the user identities cached under the given usernames and emails
+     * Inside a transaction the entries are evicted again after commit, so an id
+     * resolved from the old rows while the transaction was running is not kept
+     *
+     * @param usernamesOrEmails The usernames and emails of the user that changed
+     */
+    public void evict(String... usernamesOrEmails) {
+        invalidate(usernamesOrEmails);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    invalidate(usernamesOrEmails);
+                }
+            });
+        }
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    private void invalidate(String... usernamesOrEmails) {
+        for (String usernameOrEmail : usernamesOrEmails) {
+            if (usernameOrEmail != null) {
+                cache.invalidate(usernameOrEmail);
+            }
+        }
+    }
+}
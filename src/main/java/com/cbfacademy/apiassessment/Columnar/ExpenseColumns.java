@@ -0,0 +1,85 @@
+package com.cbfacademy.apiassessment.Columnar;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Layout of the columnar expense export, shared by the export writer and ExpenseColumnsReader. The package uses
+ * nothing but the JDK and is built into the columnar-reader jar for the consumers of the export.
+ *
+ * The export starts with a header: the magic bytes, the version, the amount scale, the user id and the category
+ * and subcategory names in ordinal order. Blocks of up to a page of expenses follow, each starting with its row
+ * count, and a block of zero rows ends the export. A block holds its rows column by column:
+ * ids and creation times as deltas from the row before, carried over from the previous block; update times as
+ * offsets from the creation time; amounts as fixed point longs of AMOUNT_SCALE decimals; categories and
+ * subcategories as ordinals; descriptions as indexes into the dictionary written at the start of the column;
+ * budget ids. Nullable columns store 0 for null and the value plus one otherwise. Every number is a base 128
+ * varint, zigzag encoded where it can be negative.
+ */
+public final class ExpenseColumns {
+
+    public static final byte[] MAGIC = {'P', 'F', 'X', 'C'};
+    public static final int VERSION = 1;
+    public static final int AMOUNT_SCALE = 4;
+
+    private ExpenseColumns() {
+    }
+
+    public static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    public static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Columnar export ends inside a value");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Columnar export has a malformed varint");
+    }
+
+    // Small negative numbers stay short: 0, -1, 1, -2 are written as 0, 1, 2, 3
+    public static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    public static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public static void writeZigZag(OutputStream out, long value) throws IOException {
+        writeVarLong(out, zigZag(value));
+    }
+
+    public static long readZigZag(InputStream in) throws IOException {
+        return unZigZag(readVarLong(in));
+    }
+
+    public static void writeString(OutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readString(InputStream in) throws IOException {
+        int length = Math.toIntExact(readVarLong(in));
+        byte[] bytes = in.readNBytes(length);
+        if (bytes.length < length) {
+            throw new EOFException("Columnar export ends inside a string");
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,167 @@
+package com.cbfacademy.apiassessment.Columnar;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.cbfacademy.apiassessment.Columnar.ExpenseColumns.*;
+
+/**
+ * Reads a columnar expense export a block at a time, only the current block is held in memory
+ *
+ * <pre>
+ * try (ExpenseColumnsReader reader = new ExpenseColumnsReader(in)) {
+ *     for (ExpenseColumnsReader.Row row = reader.next(); row != null; row = reader.next()) {
+ *         ...
+ *     }
+ * }
+ * </pre>
+ */
+public class ExpenseColumnsReader implements Closeable {
+
+    /**
+     * An expense of the export, times are epoch milliseconds
+     */
+    public record Row(long id, long createdAt, Long updatedAt, BigDecimal amount, String category,
+                      String subcategory, String description, Long budgetId) {
+    }
+
+    private final InputStream in;
+    private final int amountScale;
+    private final long userId;
+    private final List<String> categories;
+    private final List<String> subcategories;
+
+    private long lastId;
+    private long lastCreatedAt;
+    private Row[] block = new Row[0];
+    private int position;
+    private boolean ended;
+
+
+    /**
+     * Opens an export and reads its header
+     *
+     * @param in The export, gunzipped when it was exported with gzip
+     * @throws IOException If the stream is not a columnar expense export of a known version
+     */
+    public ExpenseColumnsReader(InputStream in) throws IOException {
+        this.in = in instanceof BufferedInputStream ? in : new BufferedInputStream(in);
+        byte[] magic = this.in.readNBytes(MAGIC.length);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a columnar expense export");
+        }
+        long version = readVarLong(this.in);
+        if (version != VERSION) {
+            throw new IOException("Unsupported columnar expense export version " + version);
+        }
+        amountScale = Math.toIntExact(readVarLong(this.in));
+        userId = readZigZag(this.in);
+        categories = readNames();
+        subcategories = readNames();
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    public List<String> getCategories() {
+        return categories;
+    }
+
+    public List<String> getSubcategories() {
+        return subcategories;
+    }
+
+
+    /**
+     * Reads the next expense, decoding the next block once the current one is used up
+     *
+     * @return The expense, or null at the end of the export
+     * @throws IOException If the export cannot be read or is cut short
+     */
+    public Row next() throws IOException {
+        while (position == block.length) {
+            if (ended) {
+                return null;
+            }
+            readBlock();
+        }
+        return block[position++];
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+
+    private void readBlock() throws IOException {
+        int rows = Math.toIntExact(readVarLong(in));
+        position = 0;
+        if (rows == 0) {
+            ended = true;
+            block = new Row[0];
+            return;
+        }
+
+        long[] ids = new long[rows];
+        for (int i = 0; i < rows; i++) {
+            lastId += readZigZag(in);
+            ids[i] = lastId;
+        }
+        long[] createdAt = new long[rows];
+        for (int i = 0; i < rows; i++) {
+            lastCreatedAt += readZigZag(in);
+            createdAt[i] = lastCreatedAt;
+        }
+        Long[] updatedAt = new Long[rows];
+        for (int i = 0; i < rows; i++) {
+            long offset = readVarLong(in);
+            updatedAt[i] = offset == 0 ? null : createdAt[i] + unZigZag(offset - 1);
+        }
+        BigDecimal[] amounts = new BigDecimal[rows];
+        for (int i = 0; i < rows; i++) {
+            amounts[i] = BigDecimal.valueOf(readZigZag(in), amountScale);
+        }
+        String[] category = readNamed(rows, categories);
+        String[] subcategory = readNamed(rows, subcategories);
+        List<String> dictionary = readNames();
+        String[] descriptions = readNamed(rows, dictionary);
+        Long[] budgetIds = new Long[rows];
+        for (int i = 0; i < rows; i++) {
+            long budgetId = readVarLong(in);
+            budgetIds[i] = budgetId == 0 ? null : budgetId - 1;
+        }
+
+        block = new Row[rows];
+        for (int i = 0; i < rows; i++) {
+            block[i] = new Row(ids[i], createdAt[i], updatedAt[i], amounts[i], category[i], subcategory[i],
+                    descriptions[i], budgetIds[i]);
+        }
+    }
+
+    private List<String> readNames() throws IOException {
+        String[] names = new String[Math.toIntExact(readVarLong(in))];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = readString(in);
+        }
+        return List.of(names);
+    }
+
+    private String[] readNamed(int rows, List<String> names) throws IOException {
+        String[] values = new String[rows];
+        for (int i = 0; i < rows; i++) {
+            int index = Math.toIntExact(readVarLong(in));
+            if (index > names.size()) {
+                throw new IOException("Columnar export refers to an unknown name " + index);
+            }
+            values[i] = index == 0 ? null : names.get(index - 1);
+        }
+        return values;
+    }
+}
@@ -1,7 +1,23 @@
 package com.cbfacademy.apiassessment.Controller;
 
+import com.cbfacademy.apiassessment.Cache.SummaryCache;
+import com.cbfacademy.apiassessment.Cache.UserResolverCache;
+import com.cbfacademy.apiassessment.DTO.CacheStats;
+import com.cbfacademy.apiassessment.DTO.ChangeFeed;
+import com.cbfacademy.apiassessment.DTO.CursorPage;
+import com.cbfacademy.apiassessment.DTO.ExportFormat;
+import com.cbfacademy.apiassessment.DTO.ExportJob;
+import com.cbfacademy.apiassessment.DTO.ExportStats;
+import com.cbfacademy.apiassessment.DTO.IngestStats;
+import com.cbfacademy.apiassessment.DTO.LedgerReconciliationReport;
+import com.cbfacademy.apiassessment.DTO.RollupBackfillReport;
 import com.cbfacademy.apiassessment.DTO.UserDTO;
 import com.cbfacademy.apiassessment.Mappers.UserMapper;
+import com.cbfacademy.apiassessment.Service.ChangeFeedService;
+import com.cbfacademy.apiassessment.Service.ExpenseIngestionService;
+import com.cbfacademy.apiassessment.Service.ExpenseRollupService;
+import com.cbfacademy.apiassessment.Service.ExportService;
+import com.cbfacademy.apiassessment.Service.LedgerReconciliationService;
 import com.cbfacademy.apiassessment.Service.UserService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
@@ -9,19 +25,17 @@ import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.FileSystemResource;
-import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.List;
-import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/PF/admin")
@@ -33,6 +47,27 @@ public class AdminController {
     @Autowired
     UserMapper userMapper;
 
+    @Autowired
+    LedgerReconciliationService ledgerReconciliationService;
+
+    @Autowired
+    SummaryCache summaryCache;
+
+    @Autowired
+    UserResolverCache userResolverCache;
+
+    @Autowired
+    ExpenseRollupService expenseRollupService;
+
+    @Autowired
+    ExpenseIngestionService expenseIngestionService;
+
+    @Autowired
+    ExportService exportService;
+
+    @Autowired
+    ChangeFeedService changeFeedService;
+
     @Operation(summary = "Find user by email or username")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "User found",
@@ -49,50 +84,210 @@ public class AdminController {
         return userMapper.INSTANCE.userDTO(userService.getUserByUsernameOrEmail(emailOrUsername));
     }
 
-    @Operation(summary = "Get all users")
+    @Operation(summary = "Get a page of users, optionally those whose username, email or name starts with a prefix")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Users found",
                     content = {@Content(mediaType = "application/json",
                             schema = @Schema(implementation = UserDTO.class))}),
-            @ApiResponse(responseCode = "404", description = "Users not found",
+            @ApiResponse(responseCode = "422", description = "Invalid Search Field, Limit or Cursor",
                     content = @Content),
             @ApiResponse(responseCode = "500", description = "An error occurred while processing your request",
                     content = @Content)
     })
     @GetMapping("/getAllUsers")
-    public List<UserDTO> getAllUsers() {
-        return userService.getAllUsers().
-                stream().map(userMapper.INSTANCE::userDTO).
-                collect(Collectors.toList());
+    public CursorPage<UserDTO> getAllUsers(
+            @Parameter(description = "Prefix the field starts with, every user is listed when missing")
+            @RequestParam(required = false) String search,
+            @Parameter(description = "Field the prefix is matched against, username, email or name")
+            @RequestParam(defaultValue = "username") String field,
+            @Parameter(description = "Maximum number of users to return")
+            @RequestParam(defaultValue = "50") int limit,
+            @Parameter(description = "Cursor returned with the previous page")
+            @RequestParam(required = false) String after) {
+        return userService.getUsers(search, field, limit, after);
     }
 
-    @Operation(summary = "Download all users as JSON")
+    @Operation(summary = "Stream All Users as JSON, NDJSON or CSV, optionally gzip compressed")
     @ApiResponses(value = {
-            @ApiResponse(responseCode = "200", description = "Users downloaded successfully"),
-            @ApiResponse(responseCode = "404", description = "Users not found",
+            @ApiResponse(responseCode = "200", description = "Users streamed page by page",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = UserDTO.class))}),
+            @ApiResponse(responseCode = "422", description = "Invalid export format",
                     content = @Content),
             @ApiResponse(responseCode = "500", description = "An error occurred while processing your request",
                     content = @Content)
     })
-    @GetMapping("/getAllUsers/download")
-    public ResponseEntity<?> downloadAllUsers() throws IOException {
-        userService.getAllUsersAsJSONFile();
-
-        Path filePath = Paths.get("src/main/resources/AllUsers.JSON");
-        Resource resource = new FileSystemResource(filePath.toFile());
-
-        // Set headers for the response
-        HttpHeaders headers = new HttpHeaders();
-        headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=AllUsers.json");
-
-        try {
-            return ResponseEntity.ok()
-                    .headers(headers)
-                    .contentLength(resource.contentLength())
-                    .contentType(MediaType.APPLICATION_JSON)
-                    .body(resource);
-        } catch (IOException e) {
-            throw new IOException("Error generating header");
+    @GetMapping("/getAllUsers/stream")
+    public ResponseEntity<StreamingResponseBody> streamAllUsers(
+            @Parameter(description = "Format of the rows, json, ndjson or csv, the Accept header is used when missing")
+            @RequestParam(required = false) String format,
+            @Parameter(description = "Whether the export is gzip compressed")
+            @RequestParam(defaultValue = "false") boolean gzip,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        ExportFormat exportFormat = ExportFormat.resolve(format, accept);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + exportFormat.filename("AllUsers", gzip))
+                .contentType(exportFormat.contentType(gzip))
+                .body(exportService.streamUsers(exportFormat, gzip));
+    }
+
+    @Operation(summary = "Start an export of all Users")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "202", description = "Export queued",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ExportJob.class))}),
+            @ApiResponse(responseCode = "422", description = "Invalid export format",
+                    content = @Content),
+            @ApiResponse(responseCode = "429", description = "Too many exports running, retry later",
+                    content = @Content)
+    })
+    @PostMapping("/getAllUsers/export")
+    public ResponseEntity<ExportJob> exportAllUsers(
+            @Parameter(description = "Format of the rows, json, ndjson or csv")
+            @RequestParam(defaultValue = "json") String format,
+            @Parameter(description = "Whether the export file is gzip compressed")
+            @RequestParam(defaultValue = "false") boolean gzip) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .body(exportService.exportUsers(ExportFormat.resolve(format, null), gzip));
+    }
+
+    @Operation(summary = "Get the status of an export of Users")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Export found",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ExportJob.class))}),
+            @ApiResponse(responseCode = "404", description = "Export does not exist",
+                    content = @Content)
+    })
+    @GetMapping("/getAllUsers/export/{jobId}")
+    public ExportJob getAllUsersExport(
+            @Parameter(description = "Id returned when the export started")
+            @PathVariable String jobId) {
+        return exportService.getUsersExport(jobId);
+    }
+
+    @Operation(summary = "Download a completed export of Users")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Export downloaded",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = UserDTO.class))}),
+            @ApiResponse(responseCode = "206", description = "Requested byte range of the export downloaded",
+                    content = @Content),
+            @ApiResponse(responseCode = "202", description = "Export has not completed yet",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ExportJob.class))}),
+            @ApiResponse(responseCode = "404", description = "Export does not exist or has expired",
+                    content = @Content),
+            @ApiResponse(responseCode = "416", description = "Requested byte range is outside the export",
+                    content = @Content)
+    })
+    @GetMapping("/getAllUsers/export/{jobId}/download")
+    public ResponseEntity<?> downloadAllUsersExport(
+            @Parameter(description = "Id returned when the export started")
+            @PathVariable String jobId,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        ExportJob job = exportService.getUsersExport(jobId);
+        if (job.getStatus() != ExportJob.Status.COMPLETED) {
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(job);
         }
+        exportService.sendExportFile(job, "AllUsers", request, response);
+        // sendExportFile has written the response, there is no body left for Spring to write
+        return null;
+    }
+
+    @Operation(summary = "Recompute budget spend ledgers and report drift")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Ledgers reconciled",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = LedgerReconciliationReport.class))}),
+            @ApiResponse(responseCode = "422", description = "Invalid Chunk Size",
+                    content = @Content),
+            @ApiResponse(responseCode = "500", description = "An error occurred while processing your request",
+                    content = @Content)
+    })
+    @PostMapping("/budgets/reconcile")
+    public LedgerReconciliationReport reconcileBudgetLedgers(
+            @Parameter(description = "Number of budgets to check per transaction")
+            @RequestParam(defaultValue = "500") int chunkSize) {
+        return ledgerReconciliationService.reconcileBudgetLedgers(chunkSize);
+    }
+
+    @Operation(summary = "Get the expenses and budgets of every user changed after a watermark, with the rows deleted since")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Changes found",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ChangeFeed.class))}),
+            @ApiResponse(responseCode = "422", description = "Invalid Watermark or Limit",
+                    content = @Content)
+    })
+    @GetMapping("/changes")
+    public ChangeFeed getAllChanges(
+            @Parameter(description = "Watermark returned by the previous sync, empty for every change")
+            @RequestParam(required = false) String watermark,
+            @Parameter(description = "Maximum number of changes to return")
+            @RequestParam(defaultValue = "50") int limit) {
+        return changeFeedService.getAllChanges(watermark, limit);
+    }
+
+    @Operation(summary = "Get summary cache hit, miss and eviction counters")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Cache statistics",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = CacheStats.class))})
+    })
+    @GetMapping("/cache/summary")
+    public CacheStats getSummaryCacheStats() {
+        return summaryCache.stats();
+    }
+
+    @Operation(summary = "Get username and email resolver cache hit, miss and eviction counters")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Cache statistics",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = CacheStats.class))})
+    })
+    @GetMapping("/cache/users")
+    public CacheStats getUserResolverCacheStats() {
+        return userResolverCache.stats();
+    }
+
+    @Operation(summary = "Get the export counters with the bytes written per second and the gzip compression ratio")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Export statistics",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ExportStats.class))})
+    })
+    @GetMapping("/exports/stats")
+    public ExportStats getExportStats() {
+        return exportService.stats();
+    }
+
+    @Operation(summary = "Get the expense ingestion queue depth and counters")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Ingestion statistics",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = IngestStats.class))})
+    })
+    @GetMapping("/ingest")
+    public IngestStats getIngestStats() {
+        return expenseIngestionService.stats();
+    }
+
+    @Operation(summary = "Rebuild daily and monthly expense rollups from the expense rows")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Rollups rebuilt",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = RollupBackfillReport.class))}),
+            @ApiResponse(responseCode = "422", description = "Invalid Chunk Size",
+                    content = @Content),
+            @ApiResponse(responseCode = "500", description = "An error occurred while processing your request",
+                    content = @Content)
+    })
+    @PostMapping("/rollups/backfill")
+    public RollupBackfillReport backfillExpenseRollups(
+            @Parameter(description = "Number of users to rebuild per transaction")
+            @RequestParam(defaultValue = "100") int chunkSize) {
+        return expenseRollupService.backfill(chunkSize);
     }
 }
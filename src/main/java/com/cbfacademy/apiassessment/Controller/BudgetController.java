@@ -1,31 +1,38 @@
 package com.cbfacademy.apiassessment.Controller;
 
 import com.cbfacademy.apiassessment.DTO.BudgetDTO;
+import com.cbfacademy.apiassessment.DTO.BulkBudgetUpdate;
+import com.cbfacademy.apiassessment.DTO.BulkResult;
+import com.cbfacademy.apiassessment.DTO.BulkSelection;
+import com.cbfacademy.apiassessment.DTO.CursorPage;
+import com.cbfacademy.apiassessment.DTO.ExportFormat;
+import com.cbfacademy.apiassessment.DTO.ExportJob;
+import com.cbfacademy.apiassessment.DTO.SearchFilter;
 import com.cbfacademy.apiassessment.Entity.Budget;
 import com.cbfacademy.apiassessment.Entity.SubCategories;
 import com.cbfacademy.apiassessment.Mappers.BudgetMapper;
 import com.cbfacademy.apiassessment.Service.BudgetService;
+import com.cbfacademy.apiassessment.Service.ExportService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.FileSystemResource;
-import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/PF/user/{usernameOrEmail}/budget")
@@ -37,6 +44,9 @@ public class BudgetController {
     @Autowired
     private BudgetMapper budgetMapper;
 
+    @Autowired
+    private ExportService exportService;
+
     @Operation(summary = "Create a Budget")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Budget Created",
@@ -106,6 +116,31 @@ public class BudgetController {
         }
     }
 
+    @Operation(summary = "Update any fields of a Budget with a JSON merge patch")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Budget Updated",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = BudgetDTO.class))}),
+            @ApiResponse(responseCode = "404", description = "User does not exist",
+                    content = @Content),
+            @ApiResponse(responseCode = "404", description = "Budget does not exist",
+                    content = @Content),
+            @ApiResponse(responseCode = "422", description = "Invalid Budget Parameters",
+                    content = @Content),
+            @ApiResponse(responseCode = "500", description = "An error occurred while processing your request",
+                    content = @Content)
+    })
+    @PatchMapping(value = "/update/{budgetId}", consumes = {"application/merge-patch+json", MediaType.APPLICATION_JSON_VALUE})
+    public BudgetDTO patchBudget(
+            @Parameter(description = "Username or email of the user")
+            @PathVariable String usernameOrEmail,
+            @Parameter(description = "The ID of the budget to be updated")
+            @PathVariable long budgetId,
+            @Parameter(description = "The fields to change (amount, category, subcategory or description), null clears a field")
+            @RequestBody Map<String, Object> patch) {
+        return budgetMapper.INSTANCE.budgetDTO(budgetService.patchBudget(usernameOrEmail, budgetId, patch));
+    }
+
     @Operation(summary = "Get a Budget by ID")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Budget Found",
@@ -125,7 +160,7 @@ public class BudgetController {
             @Parameter(description = "The ID of the budget")
             @PathVariable long budgetId) {
         try {
-            return budgetMapper.INSTANCE.budgetDTO(budgetService.getBudgetById(usernameOrEmail, budgetId));
+            return budgetService.getBudgetDTOById(usernameOrEmail, budgetId);
         } catch (Exception e) {
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "An error occurred while processing your request");
         }
@@ -148,15 +183,17 @@ public class BudgetController {
                     content = @Content)
     })
     @GetMapping("/getByCat/{category}")
-    public List<BudgetDTO> getBudgetByCategory(
+    public CursorPage<BudgetDTO> getBudgetByCategory(
             @Parameter(description = "Username or email of the user")
             @PathVariable String usernameOrEmail,
             @Parameter(description = "The budget category")
-            @PathVariable String category){
+            @PathVariable String category,
+            @Parameter(description = "Maximum number of budgets to return")
+            @RequestParam(defaultValue = "50") int limit,
+            @Parameter(description = "Cursor returned with the previous page")
+            @RequestParam(required = false) String after){
         try {
-            return budgetService.getBudgetsByCategory(usernameOrEmail, category).
-                    stream().map(budgetMapper.INSTANCE::budgetDTO).
-                    collect(Collectors.toList());
+            return budgetService.getBudgetsByCategory(usernameOrEmail, category, limit, after);
         } catch (Exception e) {
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "An error occurred while processing your request");
         }
@@ -178,17 +215,19 @@ public class BudgetController {
                     content = @Content)
     })
     @GetMapping("/getByAmount")
-    public List<BudgetDTO> getBudgetInPriceRange(
+    public CursorPage<BudgetDTO> getBudgetInPriceRange(
             @Parameter(description = "Username or email of the user")
             @PathVariable String usernameOrEmail,
             @Parameter(description = "The minimum budget amount in the range")
             @RequestParam double minAmount,
             @Parameter(description = "The maximum budget amount in the range")
-            @RequestParam double maxAmount){
+            @RequestParam double maxAmount,
+            @Parameter(description = "Maximum number of budgets to return")
+            @RequestParam(defaultValue = "50") int limit,
+            @Parameter(description = "Cursor returned with the previous page")
+            @RequestParam(required = false) String after){
         try {
-            return budgetService.getBudgetsInPriceRange(usernameOrEmail, minAmount, maxAmount).stream().
-                    map(budgetMapper.INSTANCE::budgetDTO).
-                    collect(Collectors.toList());
+            return budgetService.getBudgetsInPriceRange(usernameOrEmail, minAmount, maxAmount, limit, after);
         } catch (Exception e) {
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "An error occurred while processing your request");
         }
@@ -209,16 +248,18 @@ public class BudgetController {
                     content = @Content)
     })
     @GetMapping("/getByAmount/>")
-    public List<BudgetDTO> getBudgetGreaterThan(
+    public CursorPage<BudgetDTO> getBudgetGreaterThan(
             @Parameter(description = "Username or email of the user")
             @PathVariable String usernameOrEmail,
             @Parameter(description = "Minimum amount")
-            @RequestParam double minAmount){
+            @RequestParam double minAmount,
+            @Parameter(description = "Maximum number of budgets to return")
+            @RequestParam(defaultValue = "50") int limit,
+            @Parameter(description = "Cursor returned with the previous page")
+            @RequestParam(required = false) String after){
 
         try {
-            return budgetService.getBudgetsGreaterThan(usernameOrEmail, minAmount).
-                    stream().map(budgetMapper.INSTANCE::budgetDTO).
-                    collect(Collectors.toList());
+            return budgetService.getBudgetsGreaterThan(usernameOrEmail, minAmount, limit, after);
         } catch (Exception e) {
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "An error occurred while processing your request");
         }
@@ -239,15 +280,17 @@ public class BudgetController {
                     content = @Content)
     })
     @GetMapping("/getByAmount/<")
-    public List<BudgetDTO> getBudgetLessThan(
+    public CursorPage<BudgetDTO> getBudgetLessThan(
             @Parameter(description = "Username or email of the user")
             @PathVariable String usernameOrEmail,
             @Parameter(description = "Maximum Amount")
-            @RequestParam double maxAmount){
+            @RequestParam double maxAmount,
+            @Parameter(description = "Maximum number of budgets to return")
+            @RequestParam(defaultValue = "50") int limit,
+            @Parameter(description = "Cursor returned with the previous page")
+            @RequestParam(required = false) String after){
         try {
-            return budgetService.getBudgetsLessThan(usernameOrEmail, maxAmount).
-                    stream().map(budgetMapper.INSTANCE::budgetDTO).
-                    collect(Collectors.toList());
+            return budgetService.getBudgetsLessThan(usernameOrEmail, maxAmount, limit, after);
         } catch (Exception e) {
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "An error occurred while processing your request");
         }
@@ -269,17 +312,19 @@ public class BudgetController {
                     content = @Content)
     })
     @GetMapping("/getByDate")
-    public List<BudgetDTO> getBudgetInDateRange(
+    public CursorPage<BudgetDTO> getBudgetInDateRange(
             @Parameter(description = "Username or email of the user")
             @PathVariable String usernameOrEmail,
             @Parameter(description = "The start date of the date range")
             @RequestParam String startDate,
             @Parameter(description = "The end date of the date range")
-            @RequestParam String endDate){
+            @RequestParam String endDate,
+            @Parameter(description = "Maximum number of budgets to return")
+            @RequestParam(defaultValue = "50") int limit,
+            @Parameter(description = "Cursor returned with the previous page")
+            @RequestParam(required = false) String after){
         try {
-            return budgetService.getBudgetsByDateRange(usernameOrEmail, startDate, endDate).
-                    stream().map(budgetMapper.INSTANCE::budgetDTO).
-                    collect(Collectors.toList());
+            return budgetService.getBudgetsByDateRange(usernameOrEmail, startDate, endDate, limit, after);
         } catch (Exception e) {
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "An error occurred while processing your request");
         }
@@ -300,15 +345,17 @@ public class BudgetController {
                     content = @Content)
     })
     @GetMapping("/getByDate/before")
-    public List<BudgetDTO> getBudgetBefore(
+    public CursorPage<BudgetDTO> getBudgetBefore(
             @Parameter(description = "Username or email of the user")
             @PathVariable String usernameOrEmail,
             @Parameter(description = "The date")
-            @RequestParam String endDate){
+            @RequestParam String endDate,
+            @Parameter(description = "Maximum number of budgets to return")
+            @RequestParam(defaultValue = "50") int limit,
+            @Parameter(description = "Cursor returned with the previous page")
+            @RequestParam(required = false) String after){
         try {
-            return budgetService.getBudgetsBefore(usernameOrEmail, endDate).
-                    stream().map(budgetMapper.INSTANCE::budgetDTO).
-                    collect(Collectors.toList());
+            return budgetService.getBudgetsBefore(usernameOrEmail, endDate, limit, after);
         } catch (Exception e) {
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "An error occurred while processing your request");
         }
@@ -329,15 +376,17 @@ public class BudgetController {
                     content = @Content)
     })
     @GetMapping("/getByDate/after")
-    public List<BudgetDTO> getBudgetAfter(
+    public CursorPage<BudgetDTO> getBudgetAfter(
             @Parameter(description = "Username or email of the user")
             @PathVariable String usernameOrEmail,
             @Parameter(description = "The date")
-            @RequestParam String startDate){
+            @RequestParam String startDate,
+            @Parameter(description = "Maximum number of budgets to return")
+            @RequestParam(defaultValue = "50") int limit,
+            @Parameter(description = "Cursor returned with the previous page")
+            @RequestParam(required = false) String after){
         try {
-            return budgetService.getBudgetsAfter(usernameOrEmail, startDate).stream().
-                    map(budgetMapper.INSTANCE::budgetDTO).
-                    collect(Collectors.toList());
+            return budgetService.getBudgetsAfter(usernameOrEmail, startDate, limit, after);
         } catch (Exception e) {
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "An error occurred while processing your request");
         }
@@ -356,61 +405,172 @@ public class BudgetController {
                     content = @Content)
     })
     @GetMapping("/getAll")
-    public List<BudgetDTO> getAllBudgets(
+    public CursorPage<BudgetDTO> getAllBudgets(
             @Parameter(description = "Username or email of the user")
-            @PathVariable String usernameOrEmail) {
+            @PathVariable String usernameOrEmail,
+            @Parameter(description = "Maximum number of budgets to return")
+            @RequestParam(defaultValue = "50") int limit,
+            @Parameter(description = "Cursor returned with the previous page")
+            @RequestParam(required = false) String after) {
 
         try {
-            return budgetService.getAllBudgets(usernameOrEmail).stream().
-                    map(budgetMapper.INSTANCE::budgetDTO).
-                    collect(Collectors.toList());
+            return budgetService.getAllBudgets(usernameOrEmail, limit, after);
         } catch (Exception e) {
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "An error occurred while processing your request");
         }
     }
 
-    @Operation(summary = "Get All Budgets as JSON")
+    @Operation(summary = "Stream All Budgets as JSON, NDJSON or CSV, optionally gzip compressed")
     @ApiResponses(value = {
-            @ApiResponse(responseCode = "200", description = "Budgets Found",
+            @ApiResponse(responseCode = "200", description = "Budgets streamed page by page",
                     content = {@Content(mediaType = "application/json",
                             schema = @Schema(implementation = BudgetDTO.class))}),
             @ApiResponse(responseCode = "404", description = "User does not exist",
                     content = @Content),
-            @ApiResponse(responseCode = "404", description = "User has no Budgets",
+            @ApiResponse(responseCode = "422", description = "Invalid export format",
                     content = @Content),
             @ApiResponse(responseCode = "500", description = "An error occurred while processing your request",
                     content = @Content)
     })
-    @GetMapping("/getAll/download")
-    public ResponseEntity<?> downloadAllBudgets(
+    @GetMapping("/getAll/stream")
+    public ResponseEntity<StreamingResponseBody> streamAllBudgets(
             @Parameter(description = "Username or email of the user")
-            @PathVariable String usernameOrEmail) {
+            @PathVariable String usernameOrEmail,
+            @Parameter(description = "Format of the rows, json, ndjson or csv, the Accept header is used when missing")
+            @RequestParam(required = false) String format,
+            @Parameter(description = "Whether the export is gzip compressed")
+            @RequestParam(defaultValue = "false") boolean gzip,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        ExportFormat exportFormat = ExportFormat.resolve(format, accept);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + exportFormat.filename("AllBudgets", gzip))
+                .contentType(exportFormat.contentType(gzip))
+                .body(exportService.streamBudgets(usernameOrEmail, exportFormat, gzip));
+    }
 
-        try {
-            budgetService.getAllBudgetAsJSONFile(usernameOrEmail);
-
-            Path filePath = Paths.get("src/main/resources/AllBudgets.JSON");
-            Resource resource = new FileSystemResource(filePath.toFile());
-
-            // Set headers for the response
-            HttpHeaders headers = new HttpHeaders();
-            headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=AllBudgets.json");
-
-            try {
-                return ResponseEntity.ok()
-                        .headers(headers)
-                        .contentLength(resource.contentLength())
-                        .contentType(MediaType.APPLICATION_JSON)
-                        .body(resource);
-            } catch (IOException e) {
-                throw new IOException("Error Processing Request");
-            }
-        } catch (Exception e) {
-            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "An error occurred while processing your request");
-        }
+    @Operation(summary = "Start an export of all Budgets")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "202", description = "Export queued",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ExportJob.class))}),
+            @ApiResponse(responseCode = "404", description = "User does not exist",
+                    content = @Content),
+            @ApiResponse(responseCode = "422", description = "Invalid export format",
+                    content = @Content),
+            @ApiResponse(responseCode = "429", description = "Too many exports running, retry later",
+                    content = @Content)
+    })
+    @PostMapping("/getAll/export")
+    public ResponseEntity<ExportJob> exportAllBudgets(
+            @Parameter(description = "Username or email of the user")
+            @PathVariable String usernameOrEmail,
+            @Parameter(description = "Format of the rows, json, ndjson or csv")
+            @RequestParam(defaultValue = "json") String format,
+            @Parameter(description = "Whether the export file is gzip compressed")
+            @RequestParam(defaultValue = "false") boolean gzip) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .body(exportService.exportBudgets(usernameOrEmail, ExportFormat.resolve(format, null), gzip));
+    }
+
+    @Operation(summary = "Get the status of an export of Budgets")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Export found",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ExportJob.class))}),
+            @ApiResponse(responseCode = "404", description = "Export does not exist",
+                    content = @Content)
+    })
+    @GetMapping("/getAll/export/{jobId}")
+    public ExportJob getAllBudgetsExport(
+            @Parameter(description = "Username or email of the user")
+            @PathVariable String usernameOrEmail,
+            @Parameter(description = "Id returned when the export started")
+            @PathVariable String jobId) {
+        return exportService.getExport(usernameOrEmail, jobId);
+    }
 
+    @Operation(summary = "Download a completed export of Budgets")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Export downloaded",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = BudgetDTO.class))}),
+            @ApiResponse(responseCode = "206", description = "Requested byte range of the export downloaded",
+                    content = @Content),
+            @ApiResponse(responseCode = "202", description = "Export has not completed yet",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ExportJob.class))}),
+            @ApiResponse(responseCode = "404", description = "Export does not exist or has expired",
+                    content = @Content),
+            @ApiResponse(responseCode = "416", description = "Requested byte range is outside the export",
+                    content = @Content)
+    })
+    @GetMapping("/getAll/export/{jobId}/download")
+    public ResponseEntity<?> downloadAllBudgetsExport(
+            @Parameter(description = "Username or email of the user")
+            @PathVariable String usernameOrEmail,
+            @Parameter(description = "Id returned when the export started")
+            @PathVariable String jobId,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        ExportJob job = exportService.getExport(usernameOrEmail, jobId);
+        if (job.getStatus() != ExportJob.Status.COMPLETED) {
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(job);
+        }
+        exportService.sendExportFile(job, "AllBudgets", request, response);
+        // sendExportFile has written the response, there is no body left for Spring to write
+        return null;
     }
 
+    @Operation(summary = "Search Budgets by any combination of conditions in a single query")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Budgets Found",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = BudgetDTO.class))}),
+            @ApiResponse(responseCode = "404", description = "User does not exist",
+                    content = @Content),
+            @ApiResponse(responseCode = "404", description = "No Budgets match the search",
+                    content = @Content),
+            @ApiResponse(responseCode = "422", description = "Invalid Search Conditions",
+                    content = @Content),
+            @ApiResponse(responseCode = "500", description = "An error occurred while processing your request",
+                    content = @Content)
+    })
+    @GetMapping("/search")
+    public CursorPage<BudgetDTO> searchBudgets(
+            @Parameter(description = "Username or email of the user")
+            @PathVariable String usernameOrEmail,
+            @Parameter(description = "Category to match")
+            @RequestParam(required = false) String category,
+            @Parameter(description = "Subcategory to match")
+            @RequestParam(required = false) String subcategory,
+            @Parameter(description = "Lowest amount, inclusive")
+            @RequestParam(required = false) Double minAmount,
+            @Parameter(description = "Highest amount, inclusive")
+            @RequestParam(required = false) Double maxAmount,
+            @Parameter(description = "Earliest creation date (yyyy-MM-dd), inclusive")
+            @RequestParam(required = false) String startDate,
+            @Parameter(description = "Latest creation date (yyyy-MM-dd), inclusive")
+            @RequestParam(required = false) String endDate,
+            @Parameter(description = "Text the description contains, case-insensitive")
+            @RequestParam(required = false) String description,
+            @Parameter(description = "Optional sorting criteria in the same format as /sort, returns the first page only")
+            @RequestParam(required = false) String sortBy,
+            @Parameter(description = "Maximum number of budgets to return")
+            @RequestParam(defaultValue = "50") int limit,
+            @Parameter(description = "Cursor returned with the previous page")
+            @RequestParam(required = false) String after) {
+
+        SearchFilter filter = SearchFilter.builder()
+                .category(category)
+                .subcategory(subcategory)
+                .minAmount(minAmount)
+                .maxAmount(maxAmount)
+                .startDate(startDate)
+                .endDate(endDate)
+                .description(description)
+                .build();
+        return budgetService.searchBudgets(usernameOrEmail, filter, sortBy, limit, after);
+    }
 
     @Operation(summary = "Sort Budgets by specified criteria")
     @ApiResponses(value = {
@@ -430,13 +590,14 @@ public class BudgetController {
     public List<BudgetDTO> sortBudgetBy(
             @Parameter(description = "Username or email of the user")
             @PathVariable String usernameOrEmail,
-            @Parameter(description = "The sorting criteria (\"amount\", \"category\", \"subcategory\", or \"date\")")
-            @PathVariable String sortBy){
+            @Parameter(description = "The sorting criteria (\"amount\", \"category\", \"subcategory\", or \"date\"), " +
+                    "comma separated with an optional \":asc\" or \":desc\", e.g. \"category,amount:desc\"")
+            @PathVariable String sortBy,
+            @Parameter(description = "Maximum number of budgets to return")
+            @RequestParam(defaultValue = "50") int limit){
 
         try {
-            return budgetService.sortBudgetsBy(usernameOrEmail, sortBy).stream().
-                    map(budgetMapper.INSTANCE::budgetDTO).
-                    collect(Collectors.toList());
+            return budgetService.sortBudgetsBy(usernameOrEmail, sortBy, limit);
         } catch (Exception e) {
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "An error occurred while processing your request");
         }
@@ -468,6 +629,45 @@ public class BudgetController {
         }
     }
 
+    @Operation(summary = "Update every Budget matching a filter or id list")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Budgets updated, Budgets that would no longer match their Expenses are skipped",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = BulkResult.class))}),
+            @ApiResponse(responseCode = "404", description = "User does not exist",
+                    content = @Content),
+            @ApiResponse(responseCode = "422", description = "Invalid filter, ids or fields",
+                    content = @Content),
+            @ApiResponse(responseCode = "500", description = "An error occurred while processing your request",
+                    content = @Content)
+    })
+    @PatchMapping("/bulk")
+    public BulkResult bulkUpdateBudgets(
+            @Parameter(description = "Username or email of the user")
+            @PathVariable String usernameOrEmail,
+            @RequestBody BulkBudgetUpdate update) {
+        return budgetService.bulkUpdateBudgets(usernameOrEmail, update);
+    }
+
+    @Operation(summary = "Delete every Budget matching a filter or id list")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Budgets deleted",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = BulkResult.class))}),
+            @ApiResponse(responseCode = "404", description = "User does not exist",
+                    content = @Content),
+            @ApiResponse(responseCode = "422", description = "Invalid filter or ids",
+                    content = @Content),
+            @ApiResponse(responseCode = "500", description = "An error occurred while processing your request",
+                    content = @Content)
+    })
+    @DeleteMapping("/bulk")
+    public BulkResult bulkDeleteBudgets(
+            @Parameter(description = "Username or email of the user")
+            @PathVariable String usernameOrEmail,
+            @RequestBody BulkSelection selection) {
+        return budgetService.bulkDeleteBudgets(usernameOrEmail, selection);
+    }
 
-}
 
+}
@@ -1,32 +1,47 @@
 package com.cbfacademy.apiassessment.Controller;
 
 
+import com.cbfacademy.apiassessment.DTO.BulkExpenseUpdate;
+import com.cbfacademy.apiassessment.DTO.BulkResult;
+import com.cbfacademy.apiassessment.DTO.BulkSelection;
+import com.cbfacademy.apiassessment.DTO.CursorPage;
+import com.cbfacademy.apiassessment.DTO.ExpenseImportReport;
+import com.cbfacademy.apiassessment.DTO.ExpenseImportRow;
+import com.cbfacademy.apiassessment.DTO.ExpenseTrendPoint;
 import com.cbfacademy.apiassessment.DTO.ExpensesDTO;
+import com.cbfacademy.apiassessment.DTO.ExportFormat;
+import com.cbfacademy.apiassessment.DTO.ExportJob;
+import com.cbfacademy.apiassessment.DTO.IngestAck;
+import com.cbfacademy.apiassessment.DTO.SearchFilter;
 import com.cbfacademy.apiassessment.Entity.Expenses;
+import com.cbfacademy.apiassessment.Entity.RollupPeriod;
 import com.cbfacademy.apiassessment.Entity.SubCategories;
 import com.cbfacademy.apiassessment.Mappers.ExpensesMapper;
+import com.cbfacademy.apiassessment.Service.ExpenseImportService;
+import com.cbfacademy.apiassessment.Service.ExpenseIngestionService;
+import com.cbfacademy.apiassessment.Service.ExpenseRollupService;
 import com.cbfacademy.apiassessment.Service.ExpensesService;
+import com.cbfacademy.apiassessment.Service.ExportService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.FileSystemResource;
-import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/PF/user/{usernameOrEmail}/expenses")
@@ -35,6 +50,18 @@ public class ExpensesController {
     @Autowired
     private ExpensesService expensesService;
 
+    @Autowired
+    private ExpenseRollupService expenseRollupService;
+
+    @Autowired
+    private ExpenseImportService expenseImportService;
+
+    @Autowired
+    private ExpenseIngestionService expenseIngestionService;
+
+    @Autowired
+    private ExportService exportService;
+
 
     private ExpensesMapper expensesMapper;
 
@@ -119,6 +146,98 @@ public class ExpensesController {
     }
 
 
+    @Operation(summary = "Queue an Expense to be written in the background",
+            description = "For high rate feeds. The expense is validated and acknowledged once it is queued, " +
+                    "it is stored once under its client id however often it is sent")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "202", description = "Expense Queued",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = IngestAck.class))}),
+            @ApiResponse(responseCode = "404", description = "User does not exist",
+                    content = @Content),
+            @ApiResponse(responseCode = "404", description = "Budget does not exist",
+                    content = @Content),
+            @ApiResponse(responseCode = "422", description = "Invalid Expense Parameters",
+                    content = @Content),
+            @ApiResponse(responseCode = "429", description = "Too many Expenses queued, retry later",
+                    content = @Content),
+            @ApiResponse(responseCode = "500", description = "An error occurred while processing your request",
+                    content = @Content)
+    })
+    @PostMapping("/ingest")
+    public ResponseEntity<IngestAck> ingestExpense(
+            @Parameter(description = "Username or email of the user")
+            @PathVariable String usernameOrEmail,
+            @Parameter(description = "Id the client gives the expense, generated when not set")
+            @RequestParam(required = false) String clientId,
+            @Parameter(description = "Optional Budget ID")
+            @RequestParam(required = false) Long budgetId,
+            @Parameter(description = "Expense Amount")
+            @RequestParam String expenseAmount,
+            @Parameter(description = "Expense Category")
+            @RequestParam String expenseCategory,
+            @Parameter(description = "Expense Subcategory")
+            @RequestParam(required = false) String expenseSubcategory,
+            @Parameter(description = "Expense description")
+            @RequestParam String expenseDescription) throws IOException {
+        ExpenseImportRow row = new ExpenseImportRow(expenseAmount, expenseCategory, expenseSubcategory, expenseDescription,
+                budgetId != null ? budgetId.toString() : null, null);
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(expenseIngestionService.ingestExpense(usernameOrEmail, clientId, row));
+    }
+
+    @Operation(summary = "Import Expenses from a JSON array")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Expenses Imported",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ExpenseImportReport.class))}),
+            @ApiResponse(responseCode = "404", description = "User does not exist",
+                    content = @Content),
+            @ApiResponse(responseCode = "422", description = "Invalid Expense rows, nothing was imported",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ExpenseImportReport.class))}),
+            @ApiResponse(responseCode = "500", description = "An error occurred while processing your request",
+                    content = @Content)
+    })
+    @PostMapping(value = "/import", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<ExpenseImportReport> importExpenses(
+            @Parameter(description = "Username or email of the user")
+            @PathVariable String usernameOrEmail,
+            @Parameter(description = "The number of rows to insert per transaction")
+            @RequestParam(defaultValue = "1000") int chunkSize,
+            @RequestBody List<ExpenseImportRow> rows) {
+        return importResponse(expenseImportService.importExpenses(usernameOrEmail, rows, chunkSize));
+    }
+
+    @Operation(summary = "Import Expenses from CSV with a header line")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Expenses Imported",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ExpenseImportReport.class))}),
+            @ApiResponse(responseCode = "404", description = "User does not exist",
+                    content = @Content),
+            @ApiResponse(responseCode = "422", description = "Invalid Expense rows, nothing was imported",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ExpenseImportReport.class))}),
+            @ApiResponse(responseCode = "500", description = "An error occurred while processing your request",
+                    content = @Content)
+    })
+    @PostMapping(value = "/import", consumes = "text/csv")
+    public ResponseEntity<ExpenseImportReport> importExpensesCsv(
+            @Parameter(description = "Username or email of the user")
+            @PathVariable String usernameOrEmail,
+            @Parameter(description = "The number of rows to insert per transaction")
+            @RequestParam(defaultValue = "1000") int chunkSize,
+            @RequestBody String csv) {
+        return importResponse(expenseImportService.importExpensesCsv(usernameOrEmail, csv, chunkSize));
+    }
+
+    // The report is returned either way, with 422 when rows failed validation
+    private ResponseEntity<ExpenseImportReport> importResponse(ExpenseImportReport report) {
+        HttpStatus status = report.getErrors().isEmpty() ? HttpStatus.OK : HttpStatus.UNPROCESSABLE_ENTITY;
+        return ResponseEntity.status(status).body(report);
+    }
+
+
     @Operation(summary = "Update an Expense")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Expense Updated",
@@ -155,6 +274,33 @@ public class ExpensesController {
     }
 
 
+    @Operation(summary = "Update any fields of an Expense with a JSON merge patch")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Expense Updated",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ExpensesDTO.class))}),
+            @ApiResponse(responseCode = "404", description = "User does not exist",
+                    content = @Content),
+            @ApiResponse(responseCode = "404", description = "Budget does not exist",
+                    content = @Content),
+            @ApiResponse(responseCode = "404", description = "Expense does not exist",
+                    content = @Content),
+            @ApiResponse(responseCode = "422", description = "Invalid Expense Parameters",
+                    content = @Content),
+            @ApiResponse(responseCode = "500", description = "An error occurred while processing your request",
+                    content = @Content)
+    })
+    @PatchMapping(value = "/update/{expensesId}", consumes = {"application/merge-patch+json", MediaType.APPLICATION_JSON_VALUE})
+    public ExpensesDTO patchExpense(
+            @Parameter(description = "Username or email of the user")
+            @PathVariable String usernameOrEmail,
+            @Parameter(description = "The ID of the expense to be updated")
+            @PathVariable long expensesId,
+            @Parameter(description = "The fields to change (amount, category, subcategory, description or budget), null clears a field")
+            @RequestBody Map<String, Object> patch) {
+        return expensesMapper.INSTANCE.expensesDTO(expensesService.patchExpense(usernameOrEmail, expensesId, patch));
+    }
+
     @Operation(summary = "Get an Expense by ID")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Expense Found",
@@ -174,7 +320,7 @@ public class ExpensesController {
             @Parameter(description = "The ID of the expense")
             @PathVariable long expensesId) {
         try {
-            return expensesMapper.INSTANCE.expensesDTO(expensesService.getExpensesById(usernameOrEmail, expensesId));
+            return expensesService.getExpensesDTOById(usernameOrEmail, expensesId);
         } catch (Exception e) {
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "An error occurred while processing your request");
         }
@@ -195,15 +341,17 @@ public class ExpensesController {
                     content = @Content)
     })
     @GetMapping("/getByBudget/{budgetId}")
-    public List<ExpensesDTO> getExpensesByBudget(
+    public CursorPage<ExpensesDTO> getExpensesByBudget(
             @Parameter(description = "Username or email of the user")
             @PathVariable String usernameOrEmail,
             @Parameter(description = "The ID of the associated Budget")
-            @PathVariable long budgetId) {
+            @PathVariable long budgetId,
+            @Parameter(description = "Maximum number of expenses to return")
+            @RequestParam(defaultValue = "50") int limit,
+            @Parameter(description = "Cursor returned with the previous page")
+            @RequestParam(required = false) String after) {
         try {
-            return expensesService.getExpensesByBudget(usernameOrEmail, budgetId).
-                    stream().map(expensesMapper.INSTANCE::expensesDTO).
-                    collect(Collectors.toList());
+            return expensesService.getExpensesByBudget(usernameOrEmail, budgetId, limit, after);
         } catch (Exception e) {
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "An error occurred while processing your request");
         }
@@ -222,15 +370,17 @@ public class ExpensesController {
                     content = @Content)
     })
     @GetMapping("/getByCat/{category}")
-    public List<ExpensesDTO> getExpensesByCategory(
+    public CursorPage<ExpensesDTO> getExpensesByCategory(
             @Parameter(description = "Username or email of the user")
             @PathVariable String usernameOrEmail,
             @Parameter(description = "The expense category")
-            @PathVariable String category) {
+            @PathVariable String category,
+            @Parameter(description = "Maximum number of expenses to return")
+            @RequestParam(defaultValue = "50") int limit,
+            @Parameter(description = "Cursor returned with the previous page")
+            @RequestParam(required = false) String after) {
         try{
-            return expensesService.getExpensesByCategory(usernameOrEmail, category).
-                stream().map(expensesMapper.INSTANCE::expensesDTO).
-                collect(Collectors.toList());
+            return expensesService.getExpensesByCategory(usernameOrEmail, category, limit, after);
         }catch (Exception e) {
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "An error occurred while processing your request");
         }
@@ -251,16 +401,18 @@ public class ExpensesController {
                     content = @Content)
     })
     @GetMapping("/getByAmount")
-    public List<ExpensesDTO> getExpensesInPriceRange(
+    public CursorPage<ExpensesDTO> getExpensesInPriceRange(
             @Parameter(description = "Username or email of the user")
             @PathVariable String usernameOrEmail,
             @Parameter(description = "The minimum expense amount in the range")
             @RequestParam double minAmount,
             @Parameter(description = "The maximum expense amount in the range")
-            @RequestParam double maxAmount){
-        return expensesService.getExpensesInPriceRange(usernameOrEmail, minAmount, maxAmount).
-                    stream().map(expensesMapper.INSTANCE::expensesDTO).
-                    collect(Collectors.toList());
+            @RequestParam double maxAmount,
+            @Parameter(description = "Maximum number of expenses to return")
+            @RequestParam(defaultValue = "50") int limit,
+            @Parameter(description = "Cursor returned with the previous page")
+            @RequestParam(required = false) String after){
+        return expensesService.getExpensesInPriceRange(usernameOrEmail, minAmount, maxAmount, limit, after);
     }
 
     @Operation(summary = "Get Expenses greater than an amount")
@@ -278,15 +430,17 @@ public class ExpensesController {
                     content = @Content)
     })
     @GetMapping("/getByAmount/>")
-    public List<ExpensesDTO> getExpensesGreaterThan(
+    public CursorPage<ExpensesDTO> getExpensesGreaterThan(
             @Parameter(description = "Username or email of the user")
             @PathVariable String usernameOrEmail,
             @Parameter(description = "Minimum amount")
-            @RequestParam double minAmount){
+            @RequestParam double minAmount,
+            @Parameter(description = "Maximum number of expenses to return")
+            @RequestParam(defaultValue = "50") int limit,
+            @Parameter(description = "Cursor returned with the previous page")
+            @RequestParam(required = false) String after){
         try{
-            return expensesService.getExpensesGreaterThan(usernameOrEmail, minAmount).
-                    stream().map(expensesMapper.INSTANCE::expensesDTO).
-                    collect(Collectors.toList());
+            return expensesService.getExpensesGreaterThan(usernameOrEmail, minAmount, limit, after);
         } catch (Exception e) {
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "An error occurred while processing your request");
         }
@@ -307,15 +461,17 @@ public class ExpensesController {
                     content = @Content)
     })
     @GetMapping("/getByAmount/<")
-    public List<ExpensesDTO> getExpensesLessThan(
+    public CursorPage<ExpensesDTO> getExpensesLessThan(
             @Parameter(description = "Username or email of the user")
             @PathVariable String usernameOrEmail,
             @Parameter(description = "Maximum Amount")
-            @RequestParam double maxAmount){
+            @RequestParam double maxAmount,
+            @Parameter(description = "Maximum number of expenses to return")
+            @RequestParam(defaultValue = "50") int limit,
+            @Parameter(description = "Cursor returned with the previous page")
+            @RequestParam(required = false) String after){
         try {
-            return expensesService.getExpensesLessThan(usernameOrEmail, maxAmount).
-                    stream().map(expensesMapper.INSTANCE::expensesDTO).
-                    collect(Collectors.toList());
+            return expensesService.getExpensesLessThan(usernameOrEmail, maxAmount, limit, after);
         } catch (Exception e) {
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "An error occurred while processing your request");
         }
@@ -336,17 +492,19 @@ public class ExpensesController {
                     content = @Content)
     })
     @GetMapping("/getByDate")
-    public List<ExpensesDTO> getExpensesInDateRange(
+    public CursorPage<ExpensesDTO> getExpensesInDateRange(
             @Parameter(description = "Username or email of the user")
             @PathVariable String usernameOrEmail,
             @Parameter(description = "The start date of the date range")
             @RequestParam String startDate,
             @Parameter(description = "The end date of the date range")
-            @RequestParam String endDate){
+            @RequestParam String endDate,
+            @Parameter(description = "Maximum number of expenses to return")
+            @RequestParam(defaultValue = "50") int limit,
+            @Parameter(description = "Cursor returned with the previous page")
+            @RequestParam(required = false) String after){
         try {
-            return expensesService.getExpensesInDateRange(usernameOrEmail, startDate, endDate).
-                    stream().map(expensesMapper.INSTANCE::expensesDTO).
-                    collect(Collectors.toList());
+            return expensesService.getExpensesInDateRange(usernameOrEmail, startDate, endDate, limit, after);
         } catch (Exception e) {
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "An error occurred while processing your request");
         }
@@ -367,15 +525,17 @@ public class ExpensesController {
                     content = @Content)
     })
     @GetMapping("/getByDate/before")
-    public List<ExpensesDTO> getExpensesBefore(
+    public CursorPage<ExpensesDTO> getExpensesBefore(
             @Parameter(description = "Username or email of the user")
             @PathVariable String usernameOrEmail,
             @Parameter(description = "The date")
-            @RequestParam String endDate){
+            @RequestParam String endDate,
+            @Parameter(description = "Maximum number of expenses to return")
+            @RequestParam(defaultValue = "50") int limit,
+            @Parameter(description = "Cursor returned with the previous page")
+            @RequestParam(required = false) String after){
         try {
-            return expensesService.getExpensesBefore(usernameOrEmail, endDate).
-                    stream().map(expensesMapper.INSTANCE::expensesDTO).
-                    collect(Collectors.toList());
+            return expensesService.getExpensesBefore(usernameOrEmail, endDate, limit, after);
         } catch (Exception e) {
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "An error occurred while processing your request");
         }
@@ -396,20 +556,80 @@ public class ExpensesController {
                     content = @Content)
     })
     @GetMapping("/getByDate/after")
-    public List<ExpensesDTO> getExpensesAfter(
+    public CursorPage<ExpensesDTO> getExpensesAfter(
             @Parameter(description = "Username or email of the user")
             @PathVariable String usernameOrEmail,
             @Parameter(description = "The date")
-            @RequestParam String startDate){
+            @RequestParam String startDate,
+            @Parameter(description = "Maximum number of expenses to return")
+            @RequestParam(defaultValue = "50") int limit,
+            @Parameter(description = "Cursor returned with the previous page")
+            @RequestParam(required = false) String after){
         try {
-            return expensesService.getExpensesAfter(usernameOrEmail, startDate).
-                    stream().map(expensesMapper.INSTANCE::expensesDTO).
-                    collect(Collectors.toList());
+            return expensesService.getExpensesAfter(usernameOrEmail, startDate, limit, after);
         } catch (Exception e) {
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "An error occurred while processing your request");
         }
     }
 
+    @Operation(summary = "Get daily expense totals within a date range")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Expense Totals Found",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ExpenseTrendPoint.class))}),
+            @ApiResponse(responseCode = "404", description = "User does not exist",
+                    content = @Content),
+            @ApiResponse(responseCode = "404", description = "No Expenses within date range",
+                    content = @Content),
+            @ApiResponse(responseCode = "422", description = "Invalid Date, Category or Subcategory",
+                    content = @Content),
+            @ApiResponse(responseCode = "500", description = "An error occurred while processing your request",
+                    content = @Content)
+    })
+    @GetMapping("/trends/daily")
+    public List<ExpenseTrendPoint> getDailyExpenseTrend(
+            @Parameter(description = "Username or email of the user")
+            @PathVariable String usernameOrEmail,
+            @Parameter(description = "The start date of the date range")
+            @RequestParam String startDate,
+            @Parameter(description = "The end date of the date range")
+            @RequestParam String endDate,
+            @Parameter(description = "Optional category to filter by")
+            @RequestParam(required = false) String category,
+            @Parameter(description = "Optional subcategory to filter by")
+            @RequestParam(required = false) String subcategory){
+        return expenseRollupService.getTrend(usernameOrEmail, RollupPeriod.DAY, startDate, endDate, category, subcategory);
+    }
+
+    @Operation(summary = "Get monthly expense totals within a date range")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Expense Totals Found",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ExpenseTrendPoint.class))}),
+            @ApiResponse(responseCode = "404", description = "User does not exist",
+                    content = @Content),
+            @ApiResponse(responseCode = "404", description = "No Expenses within date range",
+                    content = @Content),
+            @ApiResponse(responseCode = "422", description = "Invalid Date, Category or Subcategory",
+                    content = @Content),
+            @ApiResponse(responseCode = "500", description = "An error occurred while processing your request",
+                    content = @Content)
+    })
+    @GetMapping("/trends/monthly")
+    public List<ExpenseTrendPoint> getMonthlyExpenseTrend(
+            @Parameter(description = "Username or email of the user")
+            @PathVariable String usernameOrEmail,
+            @Parameter(description = "A date in the first month of the range")
+            @RequestParam String startDate,
+            @Parameter(description = "A date in the last month of the range")
+            @RequestParam String endDate,
+            @Parameter(description = "Optional category to filter by")
+            @RequestParam(required = false) String category,
+            @Parameter(description = "Optional subcategory to filter by")
+            @RequestParam(required = false) String subcategory){
+        return expenseRollupService.getTrend(usernameOrEmail, RollupPeriod.MONTH, startDate, endDate, category, subcategory);
+    }
+
     @Operation(summary = "Get All Expenses")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Expenses Found",
@@ -423,60 +643,175 @@ public class ExpensesController {
                     content = @Content)
     })
     @GetMapping("/getAll")
-    public List<ExpensesDTO> getAllExpenses(
+    public CursorPage<ExpensesDTO> getAllExpenses(
             @Parameter(description = "Username or email of the user")
-            @PathVariable String usernameOrEmail) {
+            @PathVariable String usernameOrEmail,
+            @Parameter(description = "Maximum number of expenses to return")
+            @RequestParam(defaultValue = "50") int limit,
+            @Parameter(description = "Cursor returned with the previous page")
+            @RequestParam(required = false) String after) {
 
         try {
-            return expensesService.getAllExpenses(usernameOrEmail).
-                    stream().map(expensesMapper.INSTANCE::expensesDTO).
-                    collect(Collectors.toList());
+            return expensesService.getAllExpenses(usernameOrEmail, limit, after);
         } catch (Exception e) {
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "An error occurred while processing your request");
         }
     }
 
-    @Operation(summary = "Get All Expenses as JSON")
+    @Operation(summary = "Stream All Expenses as JSON, NDJSON or CSV, optionally gzip compressed")
     @ApiResponses(value = {
-            @ApiResponse(responseCode = "200", description = "Expenses Found",
+            @ApiResponse(responseCode = "200", description = "Expenses streamed page by page",
                     content = {@Content(mediaType = "application/json",
                             schema = @Schema(implementation = ExpensesDTO.class))}),
             @ApiResponse(responseCode = "404", description = "User does not exist",
                     content = @Content),
-            @ApiResponse(responseCode = "404", description = "User has no Expenses",
+            @ApiResponse(responseCode = "422", description = "Invalid export format",
                     content = @Content),
             @ApiResponse(responseCode = "500", description = "An error occurred while processing your request",
                     content = @Content)
     })
-    @GetMapping("/getAll/download")
-    public ResponseEntity<?> downloadAllExpenses(
+    @GetMapping("/getAll/stream")
+    public ResponseEntity<StreamingResponseBody> streamAllExpenses(
             @Parameter(description = "Username or email of the user")
-            @PathVariable String usernameOrEmail) {
+            @PathVariable String usernameOrEmail,
+            @Parameter(description = "Format of the rows, json, ndjson, csv or columnar, the Accept header is used when missing")
+            @RequestParam(required = false) String format,
+            @Parameter(description = "Whether the export is gzip compressed")
+            @RequestParam(defaultValue = "false") boolean gzip,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        ExportFormat exportFormat = ExportFormat.resolve(format, accept);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + exportFormat.filename("AllExpenses", gzip))
+                .contentType(exportFormat.contentType(gzip))
+                .body(exportService.streamExpenses(usernameOrEmail, exportFormat, gzip));
+    }
 
-        try {
-            expensesService.getAllExpensesAsJSONFile(usernameOrEmail);
-
-            Path filePath = Paths.get("src/main/resources/AllExpenses.JSON");
-            Resource resource = new FileSystemResource(filePath.toFile());
-
-            // Set headers for the response
-            HttpHeaders headers = new HttpHeaders();
-            headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=AllExpenses.json");
-
-            try {
-                return ResponseEntity.ok()
-                        .headers(headers)
-                        .contentLength(resource.contentLength())
-                        .contentType(MediaType.APPLICATION_JSON)
-                        .body(resource);
-            } catch (IOException e) {
-                throw new IOException("Error Processing Request");
-            }
-        } catch (Exception e) {
-            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "An error occurred while processing your request");
+    @Operation(summary = "Start an export of all Expenses")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "202", description = "Export queued",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ExportJob.class))}),
+            @ApiResponse(responseCode = "404", description = "User does not exist",
+                    content = @Content),
+            @ApiResponse(responseCode = "422", description = "Invalid export format",
+                    content = @Content),
+            @ApiResponse(responseCode = "429", description = "Too many exports running, retry later",
+                    content = @Content)
+    })
+    @PostMapping("/getAll/export")
+    public ResponseEntity<ExportJob> exportAllExpenses(
+            @Parameter(description = "Username or email of the user")
+            @PathVariable String usernameOrEmail,
+            @Parameter(description = "Format of the rows, json, ndjson, csv or columnar")
+            @RequestParam(defaultValue = "json") String format,
+            @Parameter(description = "Whether the export file is gzip compressed")
+            @RequestParam(defaultValue = "false") boolean gzip) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .body(exportService.exportExpenses(usernameOrEmail, ExportFormat.resolve(format, null), gzip));
+    }
+
+    @Operation(summary = "Get the status of an export of Expenses")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Export found",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ExportJob.class))}),
+            @ApiResponse(responseCode = "404", description = "Export does not exist",
+                    content = @Content)
+    })
+    @GetMapping("/getAll/export/{jobId}")
+    public ExportJob getAllExpensesExport(
+            @Parameter(description = "Username or email of the user")
+            @PathVariable String usernameOrEmail,
+            @Parameter(description = "Id returned when the export started")
+            @PathVariable String jobId) {
+        return exportService.getExport(usernameOrEmail, jobId);
+    }
+
+    @Operation(summary = "Download a completed export of Expenses")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Export downloaded",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ExpensesDTO.class))}),
+            @ApiResponse(responseCode = "206", description = "Requested byte range of the export downloaded",
+                    content = @Content),
+            @ApiResponse(responseCode = "202", description = "Export has not completed yet",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ExportJob.class))}),
+            @ApiResponse(responseCode = "404", description = "Export does not exist or has expired",
+                    content = @Content),
+            @ApiResponse(responseCode = "416", description = "Requested byte range is outside the export",
+                    content = @Content)
+    })
+    @GetMapping("/getAll/export/{jobId}/download")
+    public ResponseEntity<?> downloadAllExpensesExport(
+            @Parameter(description = "Username or email of the user")
+            @PathVariable String usernameOrEmail,
+            @Parameter(description = "Id returned when the export started")
+            @PathVariable String jobId,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        ExportJob job = exportService.getExport(usernameOrEmail, jobId);
+        if (job.getStatus() != ExportJob.Status.COMPLETED) {
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(job);
         }
+        exportService.sendExportFile(job, "AllExpenses", request, response);
+        // sendExportFile has written the response, there is no body left for Spring to write
+        return null;
     }
 
+    @Operation(summary = "Search Expenses by any combination of conditions in a single query")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Expenses Found",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ExpensesDTO.class))}),
+            @ApiResponse(responseCode = "404", description = "User does not exist",
+                    content = @Content),
+            @ApiResponse(responseCode = "404", description = "No Expenses match the search",
+                    content = @Content),
+            @ApiResponse(responseCode = "422", description = "Invalid Search Conditions",
+                    content = @Content),
+            @ApiResponse(responseCode = "500", description = "An error occurred while processing your request",
+                    content = @Content)
+    })
+    @GetMapping("/search")
+    public CursorPage<ExpensesDTO> searchExpenses(
+            @Parameter(description = "Username or email of the user")
+            @PathVariable String usernameOrEmail,
+            @Parameter(description = "Category to match")
+            @RequestParam(required = false) String category,
+            @Parameter(description = "Subcategory to match")
+            @RequestParam(required = false) String subcategory,
+            @Parameter(description = "Lowest amount, inclusive")
+            @RequestParam(required = false) Double minAmount,
+            @Parameter(description = "Highest amount, inclusive")
+            @RequestParam(required = false) Double maxAmount,
+            @Parameter(description = "Earliest creation date (yyyy-MM-dd), inclusive")
+            @RequestParam(required = false) String startDate,
+            @Parameter(description = "Latest creation date (yyyy-MM-dd), inclusive")
+            @RequestParam(required = false) String endDate,
+            @Parameter(description = "Only expenses connected to this budget")
+            @RequestParam(required = false) Long budgetId,
+            @Parameter(description = "Text the description contains, case-insensitive")
+            @RequestParam(required = false) String description,
+            @Parameter(description = "Optional sorting criteria in the same format as /sort, returns the first page only")
+            @RequestParam(required = false) String sortBy,
+            @Parameter(description = "Maximum number of expenses to return")
+            @RequestParam(defaultValue = "50") int limit,
+            @Parameter(description = "Cursor returned with the previous page")
+            @RequestParam(required = false) String after) {
+
+        SearchFilter filter = SearchFilter.builder()
+                .category(category)
+                .subcategory(subcategory)
+                .minAmount(minAmount)
+                .maxAmount(maxAmount)
+                .startDate(startDate)
+                .endDate(endDate)
+                .budgetId(budgetId)
+                .description(description)
+                .build();
+        return expensesService.searchExpenses(usernameOrEmail, filter, sortBy, limit, after);
+    }
 
     @Operation(summary = "Sort Expenses by specified criteria")
     @ApiResponses(value = {
@@ -496,12 +831,13 @@ public class ExpensesController {
     public List<ExpensesDTO> sortExpensesBy(
             @Parameter(description = "Username or email of the user")
             @PathVariable String usernameOrEmail,
-            @Parameter(description = "The sorting criteria (\"amount\", \"category\", \"subcategory\", or \"date\")")
-            @PathVariable String sortBy){
+            @Parameter(description = "The sorting criteria (\"amount\", \"category\", \"subcategory\", or \"date\"), " +
+                    "comma separated with an optional \":asc\" or \":desc\", e.g. \"category,amount:desc\"")
+            @PathVariable String sortBy,
+            @Parameter(description = "Maximum number of expenses to return")
+            @RequestParam(defaultValue = "50") int limit){
         try {
-            return expensesService.sortExpensesBy(usernameOrEmail, sortBy).
-                    stream().map(expensesMapper.INSTANCE::expensesDTO).
-                    collect(Collectors.toList());
+            return expensesService.sortExpensesBy(usernameOrEmail, sortBy, limit);
         } catch (Exception e) {
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "An error occurred while processing your request");
         }
@@ -532,6 +868,45 @@ public class ExpensesController {
         }
     }
 
+    @Operation(summary = "Update every Expense matching a filter or id list")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Expenses updated, Expenses that would no longer match their Budget are skipped",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = BulkResult.class))}),
+            @ApiResponse(responseCode = "404", description = "User does not exist",
+                    content = @Content),
+            @ApiResponse(responseCode = "422", description = "Invalid filter, ids or fields",
+                    content = @Content),
+            @ApiResponse(responseCode = "500", description = "An error occurred while processing your request",
+                    content = @Content)
+    })
+    @PatchMapping("/bulk")
+    public BulkResult bulkUpdateExpenses(
+            @Parameter(description = "Username or email of the user")
+            @PathVariable String usernameOrEmail,
+            @RequestBody BulkExpenseUpdate update) {
+        return expensesService.bulkUpdateExpenses(usernameOrEmail, update);
+    }
+
+    @Operation(summary = "Delete every Expense matching a filter or id list")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Expenses deleted",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = BulkResult.class))}),
+            @ApiResponse(responseCode = "404", description = "User does not exist",
+                    content = @Content),
+            @ApiResponse(responseCode = "422", description = "Invalid filter or ids",
+                    content = @Content),
+            @ApiResponse(responseCode = "500", description = "An error occurred while processing your request",
+                    content = @Content)
+    })
+    @DeleteMapping("/bulk")
+    public BulkResult bulkDeleteExpenses(
+            @Parameter(description = "Username or email of the user")
+            @PathVariable String usernameOrEmail,
+            @RequestBody BulkSelection selection) {
+        return expensesService.bulkDeleteExpenses(usernameOrEmail, selection);
+    }
 
-}
 
+}
@@ -1,10 +1,13 @@
 package com.cbfacademy.apiassessment.Controller;
 
 import com.cbfacademy.apiassessment.DTO.BudgetDTO;
+import com.cbfacademy.apiassessment.DTO.ChangeFeed;
 import com.cbfacademy.apiassessment.DTO.Summary;
 import com.cbfacademy.apiassessment.DTO.UserDTO;
+import com.cbfacademy.apiassessment.DTO.UserDeletionJob;
 import com.cbfacademy.apiassessment.Entity.User;
 import com.cbfacademy.apiassessment.Mappers.UserMapper;
+import com.cbfacademy.apiassessment.Service.ChangeFeedService;
 import com.cbfacademy.apiassessment.Service.SummaryService;
 import com.cbfacademy.apiassessment.Service.UserService;
 import io.swagger.v3.oas.annotations.Operation;
@@ -15,6 +18,7 @@ import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.server.ResponseStatusException;
@@ -33,6 +37,9 @@ public class UserController {
     @Autowired
     SummaryService summaryService;
 
+    @Autowired
+    ChangeFeedService changeFeedService;
+
 
     @Operation(summary = "Create a User")
     @ApiResponses(value = {
@@ -108,6 +115,27 @@ public class UserController {
         }
     }
 
+    @Operation(summary = "Get the Expenses and Budgets of a User changed after a watermark, with the ones deleted since")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Changes found",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ChangeFeed.class))}),
+            @ApiResponse(responseCode = "404", description = "User does not exist",
+                    content = @Content),
+            @ApiResponse(responseCode = "422", description = "Invalid Watermark or Limit",
+                    content = @Content)
+    })
+    @GetMapping("/user/{emailOrUsername}/changes")
+    public ChangeFeed getUserChanges(
+            @Parameter(description = "Username or email of the user")
+            @PathVariable String emailOrUsername,
+            @Parameter(description = "Watermark returned by the previous sync, empty for every change")
+            @RequestParam(required = false) String watermark,
+            @Parameter(description = "Maximum number of changes to return")
+            @RequestParam(defaultValue = "50") int limit) {
+        return changeFeedService.getChanges(emailOrUsername, watermark, limit);
+    }
+
     @Operation(summary = "Update a User")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "User Updated",
@@ -135,21 +163,37 @@ public class UserController {
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "User deleted",
                     content = {@Content(mediaType = "application/json",
-                            schema = @Schema(implementation = UserDTO.class))}),
+                            schema = @Schema(implementation = UserDeletionJob.class))}),
+            @ApiResponse(responseCode = "202", description = "User is being deleted in the background",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = UserDeletionJob.class))}),
             @ApiResponse(responseCode = "404", description = "User does not exist",
                     content = @Content),
             @ApiResponse(responseCode = "500", description = "An error occurred while processing your request",
                     content = @Content)
     })
     @DeleteMapping ("/user/{emailOrUsername}/delete")
-    public void deleteUser(
+    public ResponseEntity<UserDeletionJob> deleteUser(
             @Parameter(description = "Username or email of the user")
             @PathVariable String emailOrUsername){
-        try{
-            userService.deleteUser(emailOrUsername );
-        } catch (Exception e) {
-            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "An error occurred while processing your request");
-        }
+        UserDeletionJob job = userService.deleteUser(emailOrUsername);
+        HttpStatus status = job.getStatus() == UserDeletionJob.Status.COMPLETED ? HttpStatus.OK : HttpStatus.ACCEPTED;
+        return ResponseEntity.status(status).body(job);
+    }
+
+    @Operation(summary = "Get the progress of a User deletion")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Deletion found",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = UserDeletionJob.class))}),
+            @ApiResponse(responseCode = "404", description = "Deletion does not exist",
+                    content = @Content)
+    })
+    @GetMapping("/user/deletions/{jobId}")
+    public UserDeletionJob getUserDeletion(
+            @Parameter(description = "Id of the deletion job")
+            @PathVariable String jobId){
+        return userService.getUserDeletion(jobId);
     }
 
 }
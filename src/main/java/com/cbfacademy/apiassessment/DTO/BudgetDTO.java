@@ -1,5 +1,6 @@
 package com.cbfacademy.apiassessment.DTO;
 
+import com.cbfacademy.apiassessment.Entity.SubCategories;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
@@ -7,7 +8,7 @@ import java.util.Date;
 
 @Data
 @NoArgsConstructor
-public class BudgetDTO {
+public class BudgetDTO implements CursorRow {
     private Date created_at;
     private Long id;
     private double amount;
@@ -16,6 +17,9 @@ public class BudgetDTO {
     private String description;
     private Long user_id;
     private Date updated_at;
+    private double spent;
+    private double amountLeft;
+    private long expenseCount;
 
     public BudgetDTO(Long id, double amount, String category, String subcategory, String description, Long user_id){
         this.amount = amount;
@@ -25,4 +29,25 @@ public class BudgetDTO {
         this.description = description;
         this.user_id = user_id;
     }
+
+    // Selected straight from the Budget columns by the read queries, without loading the entity
+    public BudgetDTO(Long id, Date created_at, Date updated_at, double amount, SubCategories.Category category,
+                     SubCategories subcategory, String description, Long user_id, double spent, long expenseCount){
+        this(id, amount, category == null ? null : category.name(), subcategory == null ? null : subcategory.name(), description, user_id);
+        this.created_at = created_at;
+        this.updated_at = updated_at;
+        this.spent = spent;
+        this.expenseCount = expenseCount;
+        this.amountLeft = amount - spent;
+    }
+
+    @Override
+    public Date cursorCreatedAt() {
+        return created_at;
+    }
+
+    @Override
+    public Long cursorId() {
+        return id;
+    }
 }
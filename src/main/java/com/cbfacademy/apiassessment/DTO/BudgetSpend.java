@@ -0,0 +1,31 @@
+package com.cbfacademy.apiassessment.DTO;
+
+import com.cbfacademy.apiassessment.Entity.SubCategories;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Aggregated row returned by the grouped budget spend query
+@Data
+@NoArgsConstructor
+public class BudgetSpend {
+    private Long budgetId;
+    private double budgetAmount;
+    private SubCategories.Category budgetCategory;
+    private SubCategories budgetSubcategory;
+    private double amountSpent;
+    private long expenseCount;
+
+    public BudgetSpend(Long budgetId,
+                       Double budgetAmount,
+                       SubCategories.Category budgetCategory,
+                       SubCategories budgetSubcategory,
+                       Double amountSpent,
+                       Long expenseCount){
+        this.budgetId = budgetId;
+        this.budgetAmount = budgetAmount != null ? budgetAmount : 0;
+        this.budgetCategory = budgetCategory;
+        this.budgetSubcategory = budgetSubcategory;
+        this.amountSpent = amountSpent != null ? amountSpent : 0;
+        this.expenseCount = expenseCount != null ? expenseCount : 0;
+    }
+}
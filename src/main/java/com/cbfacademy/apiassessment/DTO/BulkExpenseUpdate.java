@@ -0,0 +1,20 @@
+package com.cbfacademy.apiassessment.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+// Fields set on every selected expense, fields left null are kept
+// With a category the subcategory is replaced too, so a missing subcategory clears it
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkExpenseUpdate {
+    private SearchFilter filter;
+    private List<Long> ids;
+    private String category;
+    private String subcategory;
+    private String description;
+}
@@ -0,0 +1,16 @@
+package com.cbfacademy.apiassessment.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Outcome of a bulk change, skipped rows matched the selection but would have broken a budget's category
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkResult {
+    private long matched;
+    private long changed;
+    private long skipped;
+    private long expensesDeleted;
+}
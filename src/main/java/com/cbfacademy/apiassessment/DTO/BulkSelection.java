@@ -0,0 +1,18 @@
+package com.cbfacademy.apiassessment.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+// The rows a bulk change applies to, the rows matching the filter and, when ids are given, only those ids
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkSelection {
+    public static final int MAX_IDS = 1000;
+
+    private SearchFilter filter;
+    private List<Long> ids;
+}
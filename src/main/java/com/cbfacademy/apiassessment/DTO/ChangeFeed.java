@@ -0,0 +1,21 @@
+package com.cbfacademy.apiassessment.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+// The expenses and budgets changed and the rows deleted after a watermark, in (updatedAt, id) order.
+// The watermark is passed back to get the next changes, hasMore is set when a full page was returned
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChangeFeed {
+    private List<ExpensesDTO> expenses;
+    private List<BudgetDTO> budgets;
+    private List<Tombstone> deleted;
+    private String watermark;
+    private boolean hasMore;
+    private int limit;
+}
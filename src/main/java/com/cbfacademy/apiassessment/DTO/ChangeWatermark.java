@@ -0,0 +1,70 @@
+package com.cbfacademy.apiassessment.DTO;
+
+import jakarta.validation.ValidationException;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Base64;
+import java.util.Date;
+
+// Position of a sync in the change feed, passed between requests as an opaque string. The expenses, budgets and
+// tombstones are read from their own indexes, so the watermark holds the (updatedAt, id) reached in each
+@Getter
+@AllArgsConstructor
+public class ChangeWatermark {
+
+    public record Position(Date at, Long id) {
+    }
+
+    private static final Position START = new Position(new Date(0), 0L);
+
+    private final Position expenses;
+    private final Position budgets;
+    private final Position deleted;
+
+    /**
+     * Decodes a watermark returned by the change feed
+     *
+     * @param watermark The watermark, or null to read every change from the start
+     * @return The positions to continue after
+     * @throws ValidationException If the watermark is not valid
+     */
+    public static ChangeWatermark decode(String watermark) throws ValidationException {
+        if (watermark == null || watermark.isBlank()) {
+            return new ChangeWatermark(START, START, START);
+        }
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(watermark), StandardCharsets.UTF_8).split(":");
+            if (parts.length != 6) {
+                throw new ValidationException("Invalid Watermark");
+            }
+            return new ChangeWatermark(position(parts[0], parts[1]), position(parts[2], parts[3]), position(parts[4], parts[5]));
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException("Invalid Watermark");
+        }
+    }
+
+    public String encode() {
+        String positions = encode(expenses) + ":" + encode(budgets) + ":" + encode(deleted);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(positions.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Times are kept to the nanosecond, a timestamp the database wrote with more precision than milliseconds
+    // would otherwise sort after its own watermark and be returned again
+    private static Position position(String at, String id) {
+        long nanos = Long.parseLong(at);
+        Timestamp timestamp = new Timestamp(nanos / 1_000_000_000 * 1000);
+        timestamp.setNanos((int) (nanos % 1_000_000_000));
+        return new Position(timestamp, Long.parseLong(id));
+    }
+
+    private static String encode(Position position) {
+        Date at = position.at();
+        long nanos = at instanceof Timestamp timestamp
+                ? Math.floorDiv(timestamp.getTime(), 1000) * 1_000_000_000 + timestamp.getNanos()
+                : at.getTime() * 1_000_000;
+        return nanos + ":" + position.id();
+    }
+}
@@ -0,0 +1,38 @@
+package com.cbfacademy.apiassessment.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+// One page of a list ordered by (createdAt, id), nextCursor is null on the last page
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CursorPage<T> {
+    private List<T> items;
+    private String nextCursor;
+    private int limit;
+
+    /**
+     * Builds a page from the rows of a keyset query that fetched one row more than the limit
+     *
+     * @param rows The rows returned by the query
+     * @param limit The number of rows in a page
+     * @return The page
+     */
+    public static <T extends CursorRow> CursorPage<T> of(List<T> rows, int limit) {
+        if (rows.size() <= limit) {
+            return new CursorPage<>(rows, null, limit);
+        }
+        List<T> items = rows.subList(0, limit);
+        return new CursorPage<>(items, PageCursor.encode(items.get(limit - 1)), limit);
+    }
+
+    public <R> CursorPage<R> map(Function<? super T, ? extends R> mapper) {
+        return new CursorPage<>(items.stream().map(mapper).collect(Collectors.toList()), nextCursor, limit);
+    }
+}
@@ -0,0 +1,9 @@
+package com.cbfacademy.apiassessment.DTO;
+
+import java.util.Date;
+
+// A row of a list ordered by (createdAt, id), a PageCursor continues after its position
+public interface CursorRow {
+    Date cursorCreatedAt();
+    Long cursorId();
+}
@@ -0,0 +1,14 @@
+package com.cbfacademy.apiassessment.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// A row of a bulk import that failed validation, rows are numbered from 1
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ExpenseImportError {
+    private int row;
+    private String message;
+}
@@ -0,0 +1,18 @@
+package com.cbfacademy.apiassessment.DTO;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+@Data
+public class ExpenseImportReport {
+    private Date startedAt;
+    private Date finishedAt;
+    private int chunkSize;
+    private long rowsReceived;
+    private long rowsImported;
+    private long chunksCommitted;
+    private List<ExpenseImportError> errors = new ArrayList<>();
+}
@@ -0,0 +1,18 @@
+package com.cbfacademy.apiassessment.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// One expense of a bulk import, kept as text so every row can be validated and reported on its own
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ExpenseImportRow {
+    private String amount;
+    private String category;
+    private String subcategory;
+    private String description;
+    private String budgetId;
+    private String date;
+}
@@ -0,0 +1,21 @@
+package com.cbfacademy.apiassessment.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ExpenseTrendPoint {
+    private String period;
+    private LocalDate periodStart;
+    private String category;
+    private String subcategory;
+    private double totalAmount;
+    private long expenseCount;
+    private double minAmount;
+    private double maxAmount;
+}
@@ -1,5 +1,6 @@
 package com.cbfacademy.apiassessment.DTO;
 
+import com.cbfacademy.apiassessment.Entity.SubCategories;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
@@ -8,7 +9,7 @@ import java.util.Date;
 
 @Data
 @NoArgsConstructor
-public class ExpensesDTO {
+public class ExpensesDTO implements CursorRow {
     private Date created;
     private Long id;
     private double amount;
@@ -48,4 +49,29 @@ public class ExpensesDTO {
         this.user_id = user_id;
         this.budget_id = budget_id;
     }
+
+    // Selected straight from the Expenses columns by the read queries, without loading the entity
+    public ExpensesDTO(Long id,
+                       Date created,
+                       Date updated,
+                       double amount,
+                       SubCategories.Category category,
+                       SubCategories subcategory,
+                       String description,
+                       Long user_id,
+                       Long budget_id){
+        this(id, amount, category == null ? null : category.name(), subcategory == null ? null : subcategory.name(), description, user_id, budget_id);
+        this.created = created;
+        this.updated = updated;
+    }
+
+    @Override
+    public Date cursorCreatedAt() {
+        return created;
+    }
+
+    @Override
+    public Long cursorId() {
+        return id;
+    }
 }
@@ -0,0 +1,75 @@
+package com.cbfacademy.apiassessment.DTO;
+
+import jakarta.validation.ValidationException;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+
+// Formats an export can be written in. NDJSON and CSV hold one row per line, so clients can parse them as they arrive.
+// COLUMNAR is the binary layout of ExpenseColumns, read with ExpenseColumnsReader, and only exports expenses
+public enum ExportFormat {
+    JSON(MediaType.APPLICATION_JSON, "json"),
+    NDJSON(MediaType.APPLICATION_NDJSON, "ndjson"),
+    CSV(new MediaType("text", "csv"), "csv"),
+    COLUMNAR(new MediaType("application", "vnd.pf.expense-columns"), "pfc");
+
+    public static final MediaType GZIP = new MediaType("application", "gzip");
+
+    private final MediaType mediaType;
+    private final String extension;
+
+    ExportFormat(MediaType mediaType, String extension) {
+        this.mediaType = mediaType;
+        this.extension = extension;
+    }
+
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    // A gzip export is sent as a gzip file so a resumed range is the same bytes as the file on disk
+    public MediaType contentType(boolean gzip) {
+        return gzip ? GZIP : mediaType;
+    }
+
+    public String filename(String baseName, boolean gzip) {
+        return baseName + "." + extension + (gzip ? ".gz" : "");
+    }
+
+    /**
+     * Picks the format of an export
+     * The format parameter wins, otherwise the first type in the Accept header that names a format, otherwise JSON
+     *
+     * @param format The format parameter, json, ndjson, csv or columnar, or null
+     * @param accept The Accept header, or null
+     * @return The format to write
+     * @throws ValidationException If the format parameter names no format
+     */
+    public static ExportFormat resolve(String format, String accept) throws ValidationException {
+        if (format != null && !format.isBlank()) {
+            for (ExportFormat candidate : values()) {
+                if (candidate.name().equalsIgnoreCase(format.trim()) || candidate.extension.equalsIgnoreCase(format.trim())) {
+                    return candidate;
+                }
+            }
+            throw new ValidationException("Invalid Export Format, use json, ndjson, csv or columnar");
+        }
+        if (accept != null) {
+            try {
+                for (MediaType accepted : MediaType.parseMediaTypes(accept)) {
+                    for (ExportFormat candidate : values()) {
+                        if (accepted.includes(candidate.mediaType)) {
+                            return candidate;
+                        }
+                    }
+                }
+            } catch (InvalidMediaTypeException e) {
+                return JSON;
+            }
+        }
+        return JSON;
+    }
+}
@@ -0,0 +1,39 @@
+package com.cbfacademy.apiassessment.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+
+// An export written to a file of its own in the background, downloadable once completed until it expires
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class ExportJob {
+
+    public enum Type { EXPENSES, BUDGETS, USERS }
+
+    public enum Status { QUEUED, RUNNING, COMPLETED, FAILED }
+
+    private String jobId;
+    private Type type;
+    // The user whose rows are exported, null for the export of all users
+    private Long userId;
+    private ExportFormat format;
+    private boolean gzip;
+    private Status status;
+    private long rows;
+    // Size of the file, compressed when gzip is set
+    private long bytes;
+    private long uncompressedBytes;
+    private double bytesPerSecond;
+    private double compressionRatio;
+    private Date createdAt;
+    private Date startedAt;
+    private Date finishedAt;
+    private Date expiresAt;
+    private String error;
+}
@@ -0,0 +1,22 @@
+package com.cbfacademy.apiassessment.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Export counters since the application started, bytes are as written and uncompressedBytes before gzip
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ExportStats {
+    private int queued;
+    private int running;
+    private long completed;
+    private long failed;
+    private long streamed;
+    private long rows;
+    private long bytes;
+    private long uncompressedBytes;
+    private double bytesPerSecond;
+    private double compressionRatio;
+}
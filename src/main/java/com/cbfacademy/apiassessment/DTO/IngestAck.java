@@ -0,0 +1,18 @@
+package com.cbfacademy.apiassessment.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+
+// Acknowledges a queued expense, the expense is stored once under its client id
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class IngestAck {
+    private String clientId;
+    private boolean duplicate;
+    private int queued;
+    private Date acceptedAt;
+}
@@ -0,0 +1,20 @@
+package com.cbfacademy.apiassessment.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class IngestStats {
+    private int queued;
+    private int capacity;
+    private long accepted;
+    private long rejected;
+    private long flushes;
+    private long flushed;
+    private long dropped;
+    // Expenses held back by a database outage, written again after a backoff
+    private int retrying;
+}
@@ -0,0 +1,17 @@
+package com.cbfacademy.apiassessment.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// A budget whose spend ledger did not match its expense rows
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LedgerDrift {
+    private Long budgetId;
+    private double ledgerSpent;
+    private double actualSpent;
+    private long ledgerExpenseCount;
+    private long actualExpenseCount;
+}
@@ -0,0 +1,18 @@
+package com.cbfacademy.apiassessment.DTO;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+@Data
+public class LedgerReconciliationReport {
+    private Date startedAt;
+    private Date finishedAt;
+    private int chunkSize;
+    private int chunksProcessed;
+    private long budgetsChecked;
+    private long budgetsCorrected;
+    private List<LedgerDrift> drift = new ArrayList<>();
+}
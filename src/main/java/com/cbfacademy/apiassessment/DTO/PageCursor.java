@@ -0,0 +1,78 @@
+package com.cbfacademy.apiassessment.DTO;
+
+import jakarta.validation.ValidationException;
+import lombok.Getter;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+
+// Position in a list ordered by (createdAt, id), passed between requests as an opaque string
+@Getter
+public class PageCursor {
+
+    public static final int DEFAULT_LIMIT = 50;
+    public static final int MAX_LIMIT = 500;
+
+    private static final PageCursor FIRST = new PageCursor(new Date(0), 0L);
+
+    private final Date createdAt;
+    private final Long id;
+
+    private PageCursor(Date createdAt, Long id) {
+        this.createdAt = createdAt;
+        this.id = id;
+    }
+
+    public boolean isFirst() {
+        return this == FIRST;
+    }
+
+    /**
+     * Decodes a cursor returned by a previous page
+     *
+     * @param after The cursor, or null for the first page
+     * @return The position to continue after
+     * @throws ValidationException If the cursor is not valid
+     */
+    public static PageCursor decode(String after) throws ValidationException {
+        if (after == null || after.isBlank()) {
+            return FIRST;
+        }
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(after), StandardCharsets.UTF_8).split(":");
+            if (parts.length != 2) {
+                throw new ValidationException("Invalid Cursor");
+            }
+            return new PageCursor(new Date(Long.parseLong(parts[0])), Long.parseLong(parts[1]));
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException("Invalid Cursor");
+        }
+    }
+
+    public static String encode(CursorRow row) {
+        String position = row.cursorCreatedAt().getTime() + ":" + row.cursorId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Builds the page request for a keyset query
+     * One row more than the limit is fetched to tell whether there is a next page
+     *
+     * @param limit The number of rows in a page
+     * @return The page request
+     * @throws ValidationException If the limit is not between 1 and MAX_LIMIT
+     */
+    public static Pageable pageRequest(int limit) throws ValidationException {
+        checkLimit(limit);
+        return PageRequest.of(0, limit + 1);
+    }
+
+    public static void checkLimit(int limit) throws ValidationException {
+        if (limit <= 0 || limit > MAX_LIMIT) {
+            throw new ValidationException("Limit must be between 1 and " + MAX_LIMIT);
+        }
+    }
+}
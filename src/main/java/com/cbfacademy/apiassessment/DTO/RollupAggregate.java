@@ -0,0 +1,49 @@
+package com.cbfacademy.apiassessment.DTO;
+
+import com.cbfacademy.apiassessment.Entity.SubCategories;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Sum, count, min and max of a group of expense rows, used to build and repair rollups
+// and, grouped per budget as well, to adjust the ledgers by the rows of a bulk change
+@Data
+@NoArgsConstructor
+public class RollupAggregate {
+    private Long userId;
+    private Long budgetId;
+    private Integer year;
+    private Integer month;
+    private Integer day;
+    private SubCategories.Category category;
+    private SubCategories subcategory;
+    private double totalAmount;
+    private long expenseCount;
+    private double minAmount;
+    private double maxAmount;
+
+    public RollupAggregate(Long userId, Integer year, Integer month, Integer day,
+                           SubCategories.Category category, SubCategories subcategory,
+                           Double totalAmount, Long expenseCount, Double minAmount, Double maxAmount) {
+        this.userId = userId;
+        this.year = year;
+        this.month = month;
+        this.day = day;
+        this.category = category;
+        this.subcategory = subcategory;
+        this.totalAmount = totalAmount != null ? totalAmount : 0;
+        this.expenseCount = expenseCount != null ? expenseCount : 0;
+        this.minAmount = minAmount != null ? minAmount : 0;
+        this.maxAmount = maxAmount != null ? maxAmount : 0;
+    }
+
+    public RollupAggregate(Long userId, Long budgetId, Integer year, Integer month, Integer day,
+                           SubCategories.Category category, SubCategories subcategory,
+                           Double totalAmount, Long expenseCount, Double minAmount, Double maxAmount) {
+        this(userId, year, month, day, category, subcategory, totalAmount, expenseCount, minAmount, maxAmount);
+        this.budgetId = budgetId;
+    }
+
+    public RollupAggregate(Double totalAmount, Long expenseCount, Double minAmount, Double maxAmount) {
+        this(null, null, null, null, null, null, totalAmount, expenseCount, minAmount, maxAmount);
+    }
+}
@@ -0,0 +1,15 @@
+package com.cbfacademy.apiassessment.DTO;
+
+import lombok.Data;
+
+import java.util.Date;
+
+@Data
+public class RollupBackfillReport {
+    private Date startedAt;
+    private Date finishedAt;
+    private int chunkSize;
+    private long usersProcessed;
+    private long rollupsWritten;
+    private long staleRollupsDeleted;
+}
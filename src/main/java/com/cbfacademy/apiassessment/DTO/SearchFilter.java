@@ -0,0 +1,30 @@
+package com.cbfacademy.apiassessment.DTO;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Optional conditions of a search, every condition that is set has to match
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SearchFilter {
+    private String category;
+    private String subcategory;
+    private Double minAmount;
+    private Double maxAmount;
+    private String startDate;
+    private String endDate;
+    private Long budgetId;
+    private String description;
+
+    // True when no condition is set, the search then matches every row of the user
+    @JsonIgnore
+    public boolean isEmpty() {
+        return category == null && subcategory == null && minAmount == null && maxAmount == null
+                && startDate == null && endDate == null && budgetId == null && (description == null || description.isBlank());
+    }
+}
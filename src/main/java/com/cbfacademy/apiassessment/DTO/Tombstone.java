@@ -0,0 +1,23 @@
+package com.cbfacademy.apiassessment.DTO;
+
+import com.cbfacademy.apiassessment.Entity.DeletedRow;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+
+// A deleted expense, budget or user in the change feed, id is the id the row had
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class Tombstone {
+    // Id of the tombstone itself, it orders the tombstones of the same millisecond in the feed
+    @JsonIgnore
+    private Long tombstoneId;
+    private DeletedRow.Type type;
+    private Long id;
+    private Long user_id;
+    private Date deleted_at;
+}
@@ -0,0 +1,51 @@
+package com.cbfacademy.apiassessment.DTO;
+
+import jakarta.validation.ValidationException;
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+// Position in a user listing ordered by (key, id), passed between requests as an opaque string.
+// The key is the searched column, a listing without a search is ordered by id alone and has an empty key
+@Getter
+public class UserCursor {
+
+    private static final UserCursor FIRST = new UserCursor("", 0L);
+
+    private final String key;
+    private final Long id;
+
+    private UserCursor(String key, Long id) {
+        this.key = key;
+        this.id = id;
+    }
+
+    /**
+     * Decodes a cursor returned by a previous page
+     *
+     * @param after The cursor, or null for the first page
+     * @return The position to continue after
+     * @throws ValidationException If the cursor is not valid
+     */
+    public static UserCursor decode(String after) throws ValidationException {
+        if (after == null || after.isBlank()) {
+            return FIRST;
+        }
+        try {
+            // The id comes first, the key may contain the separator
+            String[] parts = new String(Base64.getUrlDecoder().decode(after), StandardCharsets.UTF_8).split(":", 2);
+            if (parts.length != 2) {
+                throw new ValidationException("Invalid Cursor");
+            }
+            return new UserCursor(parts[1], Long.parseLong(parts[0]));
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException("Invalid Cursor");
+        }
+    }
+
+    public static String encode(String key, Long id) {
+        String position = id + ":" + (key == null ? "" : key);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+}
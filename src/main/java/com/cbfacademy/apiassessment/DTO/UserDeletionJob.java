@@ -0,0 +1,33 @@
+package com.cbfacademy.apiassessment.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+
+// Progress of deleting a user, the expenses and budgets are deleted in chunks before the user row
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserDeletionJob {
+
+    public enum Status { QUEUED, RUNNING, COMPLETED, FAILED }
+
+    private String jobId;
+    private Long userId;
+    private Status status;
+    private int chunkSize;
+    private long expensesTotal;
+    private long expensesDeleted;
+    private long budgetsTotal;
+    private long budgetsDeleted;
+    private long rollupsDeleted;
+    private int chunksCommitted;
+    private Date createdAt;
+    private Date startedAt;
+    private Date finishedAt;
+    private String error;
+}
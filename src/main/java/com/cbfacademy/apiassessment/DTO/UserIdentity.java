@@ -0,0 +1,15 @@
+package com.cbfacademy.apiassessment.DTO;
+
+import com.cbfacademy.apiassessment.Entity.UserRoles;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Id and role of a user, resolved from a username or email without loading the user
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserIdentity {
+    private Long id;
+    private UserRoles role;
+}
@@ -0,0 +1,20 @@
+package com.cbfacademy.apiassessment.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+
+// A user as listed to admins, selected straight from the users table so no entity or collection is loaded
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserRow {
+    private Long id;
+    private Date created;
+    private String name;
+    private String username;
+    private String email;
+    private Date updated;
+}
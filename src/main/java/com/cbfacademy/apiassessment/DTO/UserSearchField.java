@@ -0,0 +1,41 @@
+package com.cbfacademy.apiassessment.DTO;
+
+import jakarta.validation.ValidationException;
+
+import java.util.function.Function;
+
+// The column a user listing is searched and ordered by, each has an index the prefix search range scans
+public enum UserSearchField {
+    USERNAME(UserRow::getUsername),
+    EMAIL(UserRow::getEmail),
+    NAME(UserRow::getName);
+
+    private final Function<UserRow, String> key;
+
+    UserSearchField(Function<UserRow, String> key) {
+        this.key = key;
+    }
+
+    public String key(UserRow row) {
+        return key.apply(row);
+    }
+
+    /**
+     * Resolves the field named in a request
+     *
+     * @param field The name of the field, or null for the username
+     * @return The field
+     * @throws ValidationException If the field is not username, email or name
+     */
+    public static UserSearchField resolve(String field) throws ValidationException {
+        if (field == null || field.isBlank()) {
+            return USERNAME;
+        }
+        for (UserSearchField candidate : values()) {
+            if (candidate.name().equalsIgnoreCase(field.trim())) {
+                return candidate;
+            }
+        }
+        throw new ValidationException("Invalid Search Field, use username, email or name");
+    }
+}
@@ -2,6 +2,7 @@ package com.cbfacademy.apiassessment.Entity;
 
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.proxy.HibernateProxy;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.LastModifiedDate;
 
@@ -9,14 +10,12 @@ import java.io.Serializable;
 import java.util.Date;
 
 
-@Data
+@Getter
+@Setter
+@ToString
 @MappedSuperclass
 public abstract class BaseEntity implements Serializable {
 
-    @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
-    private Long Id;
-
     @CreatedDate
     @Temporal(TemporalType.TIMESTAMP)
     @Column(name = "created_at", updatable = false)
@@ -28,7 +27,44 @@ public abstract class BaseEntity implements Serializable {
     private Date updatedAt;
 
 
+    // The id is declared by IdentityEntity or PooledIdEntity, depending on how the table generates its ids
+    @ToString.Include
+    public abstract Long getId();
+
+    public abstract void setId(Long id);
+
     public void setUpdatedAt() {
         this.updatedAt = new java.util.Date();
     }
+
+    // Auditing is not enabled, so every insert and update through the entity stamps updatedAt here.
+    // The change feed reads rows in updatedAt order, a row without it would never be synced
+    @PrePersist
+    @PreUpdate
+    void stampUpdatedAt() {
+        setUpdatedAt();
+    }
+
+    // Entities are equal when they are the same row, so equality never loads associations or collections
+    // Unsaved entities are only equal to themselves, the hash code stays the same once the id is assigned
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || entityClass(this) != entityClass(o)) {
+            return false;
+        }
+        return getId() != null && getId().equals(((BaseEntity) o).getId());
+    }
+
+    @Override
+    public int hashCode() {
+        return entityClass(this).hashCode();
+    }
+
+    // The mapped class of an entity or of an uninitialized reference to one, without loading the reference
+    private static Class<?> entityClass(Object o) {
+        return o instanceof HibernateProxy proxy ? proxy.getHibernateLazyInitializer().getPersistentClass() : o.getClass();
+    }
 }
@@ -4,17 +4,26 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import io.swagger.v3.oas.annotations.media.Schema;
 import jakarta.persistence.*;
 import lombok.Builder;
-import lombok.Data;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.annotations.ColumnDefault;
 
 import java.io.Serializable;
 import java.util.List;
 
-@Data
+@Getter
+@Setter
 @NoArgsConstructor
 @Entity(name = "Budget")
-@Table(name = "Budget")
-public class Budget extends BaseEntity implements Serializable {
+@Table(name = "Budget", indexes = {
+        @Index(name = "idx_budget_user_created", columnList = "user_id, created_at"),
+        @Index(name = "idx_budget_user_amount", columnList = "user_id, amount"),
+        @Index(name = "idx_budget_user_category", columnList = "user_id, category, subcategory"),
+        @Index(name = "idx_budget_user_updated", columnList = "user_id, updated_at"),
+        @Index(name = "idx_budget_updated", columnList = "updated_at")
+})
+public class Budget extends PooledIdEntity implements Serializable {
     @Column(name = "amount")
     private double budgetAmount;
 
@@ -29,7 +38,17 @@ public class Budget extends BaseEntity implements Serializable {
     @Column(name = "description")
     private String description;
 
-    @ManyToOne
+    // Running totals of the expenses connected to this budget
+    // Only changed through BudgetRepository.adjustLedger / setLedger, never by saving the entity
+    @Column(name = "spent", nullable = false, updatable = false)
+    @ColumnDefault("0")
+    private double spent;
+
+    @Column(name = "expense_count", nullable = false, updatable = false)
+    @ColumnDefault("0")
+    private long expenseCount;
+
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id")
     @JsonIgnore
     private User user;
@@ -0,0 +1,43 @@
+package com.cbfacademy.apiassessment.Entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+import java.io.Serializable;
+
+// Tombstone of a deleted expense, budget or user for the change feed, createdAt is when the row was deleted.
+// A user tombstone stands for every expense and budget of the user, they get no tombstones of their own
+@Getter
+@Setter
+@ToString
+@NoArgsConstructor
+@Entity(name = "DeletedRow")
+@Table(name = "deleted_row", indexes = {
+        @Index(name = "idx_deleted_row_user_created", columnList = "user_id, created_at"),
+        @Index(name = "idx_deleted_row_created", columnList = "created_at")
+})
+public class DeletedRow extends PooledIdEntity implements Serializable {
+
+    public enum Type {
+        EXPENSE, BUDGET, USER
+    }
+
+    @Column(name = "entity_type", nullable = false, length = 16)
+    @Enumerated(EnumType.STRING)
+    private Type entityType;
+
+    @Column(name = "entity_id", nullable = false)
+    private Long entityId;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    public DeletedRow(Type entityType, Long entityId, Long userId) {
+        this.entityType = entityType;
+        this.entityId = entityId;
+        this.userId = userId;
+    }
+}
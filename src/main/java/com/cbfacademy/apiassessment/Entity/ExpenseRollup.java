@@ -0,0 +1,75 @@
+package com.cbfacademy.apiassessment.Entity;
+
+import jakarta.persistence.*;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+
+// Pre-aggregated expense totals of one user for one day or month, category and subcategory
+@Getter
+@Setter
+@ToString
+@NoArgsConstructor
+@Entity(name = "ExpenseRollup")
+@Table(name = "expense_rollup",
+        uniqueConstraints = @UniqueConstraint(name = "uk_expense_rollup_bucket",
+                columnNames = {"user_id", "period", "period_start", "category", "subcategory_key"}))
+public class ExpenseRollup extends IdentityEntity implements Serializable {
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(name = "period", nullable = false)
+    @Enumerated(EnumType.STRING)
+    private RollupPeriod period;
+
+    // First day of the day or month the bucket covers
+    @Column(name = "period_start", nullable = false)
+    private LocalDate periodStart;
+
+    @Column(name = "category", nullable = false)
+    @Enumerated(EnumType.STRING)
+    private SubCategories.Category category;
+
+    @Column(name = "subcategory", nullable = true)
+    @Enumerated(EnumType.STRING)
+    @Setter(AccessLevel.NONE)
+    private SubCategories subcategory;
+
+    // The subcategory, or an empty string for none. NULLs never collide in a unique key,
+    // so the bucket key uses this column to keep a single bucket without a subcategory
+    @Column(name = "subcategory_key", nullable = false, length = 32)
+    @Setter(AccessLevel.NONE)
+    private String subcategoryKey = "";
+
+    @Column(name = "total_amount", nullable = false)
+    private double totalAmount;
+
+    @Column(name = "expense_count", nullable = false)
+    private long expenseCount;
+
+    @Column(name = "min_amount", nullable = false)
+    private double minAmount;
+
+    @Column(name = "max_amount", nullable = false)
+    private double maxAmount;
+
+    public ExpenseRollup(Long userId, RollupPeriod period, LocalDate periodStart,
+                         SubCategories.Category category, SubCategories subcategory) {
+        setUserId(userId);
+        setPeriod(period);
+        setPeriodStart(periodStart);
+        setCategory(category);
+        setSubcategory(subcategory);
+    }
+
+    public void setSubcategory(SubCategories subcategory) {
+        this.subcategory = subcategory;
+        this.subcategoryKey = subcategory != null ? subcategory.name() : "";
+    }
+}
@@ -3,16 +3,27 @@ package com.cbfacademy.apiassessment.Entity;
 import com.fasterxml.jackson.annotation.JsonEnumDefaultValue;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
-import lombok.Data;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
 
 import java.io.Serializable;
 
-@Data
+@Getter
+@Setter
 @NoArgsConstructor
 @Entity(name = "Expenses")
-@Table(name = "Expenses")
-public class Expenses extends BaseEntity implements Serializable {
+@Table(name = "Expenses", indexes = {
+        @Index(name = "idx_expenses_user_created", columnList = "user_id, created_at"),
+        @Index(name = "idx_expenses_user_amount", columnList = "user_id, amount"),
+        @Index(name = "idx_expenses_user_category", columnList = "user_id, category, subcategory"),
+        @Index(name = "idx_expenses_budget", columnList = "budget_id"),
+        @Index(name = "idx_expenses_user_updated", columnList = "user_id, updated_at"),
+        @Index(name = "idx_expenses_updated", columnList = "updated_at")
+}, uniqueConstraints = @UniqueConstraint(name = "uk_expenses_user_client", columnNames = {"user_id", "client_id"}))
+// Fetch plan for updates that validate against the connected budget
+@NamedEntityGraph(name = "Expenses.budget", attributeNodes = @NamedAttributeNode("budget"))
+public class Expenses extends PooledIdEntity implements Serializable {
     @Column(name = "amount")
     private double expenseAmount;
 
@@ -27,12 +38,17 @@ public class Expenses extends BaseEntity implements Serializable {
     @Column(name = "description")
     private String description;
 
-    @ManyToOne
+    // Id the client sent with an ingested expense, so a retried or replayed expense is only stored once
+    @Column(name = "client_id", length = 64, updatable = false)
+    @JsonIgnore
+    private String clientId;
+
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id")
     @JsonIgnore
     private User user; // User who logged the expense
 
-    @ManyToOne(optional = true)
+    @ManyToOne(fetch = FetchType.LAZY, optional = true)
     @JoinColumn(name = "budget_id")
     @JsonIgnore
     private Budget budget; // The budget to which the expense is connected
@@ -0,0 +1,25 @@
+package com.cbfacademy.apiassessment.Entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+// The next free id of each table that uses PooledIdGenerator, only read and written by the generator
+@Getter
+@Setter
+@NoArgsConstructor
+@Entity(name = "IdSequence")
+@Table(name = "id_sequence")
+public class IdSequence {
+
+    @Id
+    @Column(name = "table_name", length = 64)
+    private String tableName;
+
+    @Column(name = "next_id", nullable = false)
+    private long nextId;
+}
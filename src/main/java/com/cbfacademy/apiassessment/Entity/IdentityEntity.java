@@ -0,0 +1,21 @@
+package com.cbfacademy.apiassessment.Entity;
+
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.MappedSuperclass;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.Serializable;
+
+// Entities whose ids are assigned by the database when the row is inserted
+@Getter
+@Setter
+@MappedSuperclass
+public abstract class IdentityEntity extends BaseEntity implements Serializable {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+}
@@ -0,0 +1,24 @@
+package com.cbfacademy.apiassessment.Entity;
+
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.Id;
+import jakarta.persistence.MappedSuperclass;
+import lombok.Getter;
+import lombok.Setter;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
+import java.io.Serializable;
+
+// Entities whose ids are handed out in blocks before the insert, so Hibernate can batch their inserts
+@Getter
+@Setter
+@MappedSuperclass
+public abstract class PooledIdEntity extends BaseEntity implements Serializable {
+
+    @Id
+    @GeneratedValue(generator = "pooled_ids")
+    @GenericGenerator(name = "pooled_ids", type = PooledIdGenerator.class,
+            parameters = @Parameter(name = PooledIdGenerator.BLOCK_SIZE, value = "50"))
+    private Long id;
+}
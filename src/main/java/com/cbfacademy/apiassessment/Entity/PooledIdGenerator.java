@@ -0,0 +1,141 @@
+package com.cbfacademy.apiassessment.Entity;
+
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.id.PersistentIdentifierGenerator;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.jdbc.AbstractReturningWork;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Hands out ids from blocks reserved in the id_sequence table, one row per table
+ * A block is reserved in its own transaction, so a long running insert does not hold the id_sequence row.
+ * The first block of a table starts after the largest id already in it, so tables that used
+ * AUTO_INCREMENT before keep their rows. Ids are unique but not gap free, an unused block is skipped on restart
+ * Two transactions starting a table's first block at once may deadlock on the gap lock of the missing row, the one
+ * rolled back retries and reads the row the other inserted
+ */
+public class PooledIdGenerator implements IdentifierGenerator {
+
+    public static final String BLOCK_SIZE = "block_size";
+
+    // Attempts at reserving a block before a duplicate key or deadlock is given up on
+    static final int MAX_ATTEMPTS = 5;
+
+    private String tableName;
+    private String idColumn;
+    private int blockSize;
+
+    private long nextId;
+    private long blockEnd;
+
+    @Override
+    public void configure(Type type, Properties parameters, ServiceRegistry serviceRegistry) {
+        tableName = parameters.getProperty(PersistentIdentifierGenerator.TABLE);
+        idColumn = parameters.getProperty(PersistentIdentifierGenerator.PK);
+        blockSize = ConfigurationHelper.getInt(BLOCK_SIZE, parameters, 50);
+    }
+
+    @Override
+    public synchronized Object generate(SharedSessionContractImplementor session, Object object) {
+        if (nextId >= blockEnd) {
+            nextId = reserve(session, tableName, idColumn, blockSize);
+            blockEnd = nextId + blockSize;
+        }
+        return nextId++;
+    }
+
+    /**
+     * Reserves a block of ids for a table in a transaction of its own
+     * Used by bulk inserts that write their rows without going through the entity
+     *
+     * @param session The session of the inserting transaction
+     * @param tableName The table the ids are for
+     * @param idColumn The id column of the table, read once to start the first block
+     * @param count The number of ids to reserve
+     * @return The first id of the block
+     */
+    public static long reserve(SharedSessionContractImplementor session, String tableName, String idColumn, int count) {
+        return session.getTransactionCoordinator().createIsolationDelegate().delegateWork(
+                new AbstractReturningWork<Long>() {
+                    @Override
+                    public Long execute(Connection connection) throws SQLException {
+                        return reserve(connection, tableName, idColumn, count);
+                    }
+                }, true);
+    }
+
+    /**
+     * Reserves a block of ids for a table
+     * Must run in a transaction of its own, the id_sequence row stays locked until it commits
+     *
+     * @param connection The connection of the reserving transaction
+     * @param tableName The table the ids are for
+     * @param idColumn The id column of the table, read once to start the first block
+     * @param count The number of ids to reserve
+     * @return The first id of the block
+     */
+    public static long reserve(Connection connection, String tableName, String idColumn, int count) throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return reserveOnce(connection, tableName, idColumn, count);
+            } catch (SQLException e) {
+                // Another transaction started the table's first block at the same time, or deadlocked with this one
+                // inserting it. Once rolled back the row it inserted is read and the next block taken
+                if (!isRetryable(e) || attempt >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+                connection.rollback();
+            }
+        }
+    }
+
+    // A duplicate key from the insert of the first block, or a deadlock between two transactions inserting it
+    static boolean isRetryable(SQLException e) {
+        String state = e.getSQLState();
+        return state != null && (state.startsWith("23") || state.equals("40001"));
+    }
+
+    private static long reserveOnce(Connection connection, String tableName, String idColumn, int count) throws SQLException {
+        String key = tableName.toLowerCase(Locale.ROOT);
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT next_id FROM id_sequence WHERE table_name = ? FOR UPDATE")) {
+            select.setString(1, key);
+            try (ResultSet resultSet = select.executeQuery()) {
+                if (resultSet.next()) {
+                    long blockStart = resultSet.getLong(1);
+                    try (PreparedStatement update = connection.prepareStatement(
+                            "UPDATE id_sequence SET next_id = ? WHERE table_name = ?")) {
+                        update.setLong(1, blockStart + count);
+                        update.setString(2, key);
+                        update.executeUpdate();
+                    }
+                    return blockStart;
+                }
+            }
+        }
+
+        long blockStart;
+        try (PreparedStatement max = connection.prepareStatement(
+                "SELECT COALESCE(MAX(" + idColumn + "), 0) + 1 FROM " + tableName);
+             ResultSet resultSet = max.executeQuery()) {
+            resultSet.next();
+            blockStart = resultSet.getLong(1);
+        }
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO id_sequence (table_name, next_id) VALUES (?, ?)")) {
+            insert.setString(1, key);
+            insert.setLong(2, blockStart + count);
+            insert.executeUpdate();
+        }
+        return blockStart;
+    }
+}
@@ -0,0 +1,6 @@
+package com.cbfacademy.apiassessment.Entity;
+
+public enum RollupPeriod {
+    DAY,
+    MONTH
+}
@@ -1,20 +1,25 @@
 package com.cbfacademy.apiassessment.Entity;
-import lombok.Data;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
 
 import jakarta.persistence.*;
 import java.io.Serializable;
 
-@Data
+@Getter
+@Setter
+@ToString
 @NoArgsConstructor
 @Entity
 @Table(name = "Subcategory")
-public class Subcategory extends BaseEntity implements Serializable {
+public class Subcategory extends IdentityEntity implements Serializable {
 
     @Column(name = "name")
     private String name;
 
-    @ManyToOne
+    @ToString.Exclude
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "category_id")
     private Category category;
 
@@ -5,20 +5,27 @@ import jakarta.persistence.*;
 import jakarta.validation.constraints.Pattern;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
-import lombok.Data;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
 
 import java.io.Serializable;
 import java.util.List;
 
-@Data
+@Getter
+@Setter
 @Entity
 @AllArgsConstructor
 @NoArgsConstructor
 @Builder
-@Table(name = "users")
+// username and email are unique and so indexed already, the name index serves the admin prefix search.
+// Users maps user_id as the key of the same table, so id has an index of its own for listings in id order
+@Table(name = "users", indexes = {
+        @Index(name = "idx_users_id", columnList = "id"),
+        @Index(name = "idx_users_name", columnList = "name, id")
+})
 @JsonIgnoreProperties({"hibernateLazyInitializer", "handler"})
-public class User extends BaseEntity implements Serializable {
+public class User extends IdentityEntity implements Serializable {
     // user_id is the primary key for the users table
 
     @Column(name = "name")
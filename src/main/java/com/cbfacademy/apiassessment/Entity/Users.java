@@ -2,10 +2,13 @@ package com.cbfacademy.apiassessment.Entity;
 
 import jakarta.persistence.*;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 
 import java.util.List;
 
 @Data
+@EqualsAndHashCode(onlyExplicitlyIncluded = true)
 @Entity
 // To ensure all emails in the users table are unique
 @Table(name = "users", uniqueConstraints = {
@@ -13,6 +16,7 @@ import java.util.List;
 })
 public class Users {
     // user_id is the primary key for the users table
+    @EqualsAndHashCode.Include
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private long user_id;
@@ -26,6 +30,7 @@ public class Users {
 
     // one-to-many relationship between users and watchlist
     // cascade - auto update the watchlist table whenever the user table is updated
+    @ToString.Exclude
     @OneToMany(mappedBy = "user", cascade = CascadeType.ALL)
     private List<Watchlist> watchlist;
 
@@ -0,0 +1,8 @@
+package com.cbfacademy.apiassessment.Exceptions;
+
+// Thrown when the ingestion queue stays full, the client should retry the expense later
+public class IngestQueueFullException extends RuntimeException {
+    public IngestQueueFullException(String message) {
+        super(message);
+    }
+}
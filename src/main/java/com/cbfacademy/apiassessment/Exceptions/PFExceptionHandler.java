@@ -54,4 +54,24 @@ public class PFExceptionHandler {
         return new ResponseEntity<>(apiException, badRequest);
     }
 
+    @ExceptionHandler(value = {IngestQueueFullException.class})
+    public ResponseEntity<Object> handlesIngestQueueFullException(IngestQueueFullException e){
+        HttpStatus badRequest = HttpStatus.TOO_MANY_REQUESTS;
+        APIException apiException = new APIException(
+                e.getMessage(),
+                badRequest,
+                new Date());
+        return new ResponseEntity<>(apiException, badRequest);
+    }
+
+    @ExceptionHandler(value = {TooManyExportsException.class})
+    public ResponseEntity<Object> handlesTooManyExportsException(TooManyExportsException e){
+        HttpStatus badRequest = HttpStatus.TOO_MANY_REQUESTS;
+        APIException apiException = new APIException(
+                e.getMessage(),
+                badRequest,
+                new Date());
+        return new ResponseEntity<>(apiException, badRequest);
+    }
+
 }
@@ -0,0 +1,8 @@
+package com.cbfacademy.apiassessment.Exceptions;
+
+// Thrown when a user already has the most exports running or the export queue is full, the client should retry later
+public class TooManyExportsException extends RuntimeException {
+    public TooManyExportsException(String message) {
+        super(message);
+    }
+}
@@ -1,6 +1,8 @@
 package com.cbfacademy.apiassessment.Mappers;
 
 import com.cbfacademy.apiassessment.DTO.BudgetDTO;
+import com.cbfacademy.apiassessment.DTO.UserIdentity;
+import com.cbfacademy.apiassessment.DTO.UserRow;
 import com.cbfacademy.apiassessment.Entity.Budget;
 import com.cbfacademy.apiassessment.Entity.User;
 import com.cbfacademy.apiassessment.Repository.UserRepository;
@@ -34,6 +36,36 @@ public interface BudgetMapper {
             return Optional.empty();
         }
 
+        @Override
+        public List<UserIdentity> findIdentityByUsernameOrEmail(String usernameOrEmail) {
+            return null;
+        }
+
+        @Override
+        public int deleteUserRow(Long userId) {
+            return 0;
+        }
+
+        @Override
+        public List<UserRow> findRowsAfterId(Long afterId, Pageable pageable) {
+            return null;
+        }
+
+        @Override
+        public List<UserRow> findRowsByUsernamePrefix(String prefix, String afterKey, Long afterId, Pageable pageable) {
+            return null;
+        }
+
+        @Override
+        public List<UserRow> findRowsByEmailPrefix(String prefix, String afterKey, Long afterId, Pageable pageable) {
+            return null;
+        }
+
+        @Override
+        public List<UserRow> findRowsByNamePrefix(String prefix, String afterKey, Long afterId, Pageable pageable) {
+            return null;
+        }
+
         @Override
         public void flush() {
 
@@ -190,7 +222,10 @@ public interface BudgetMapper {
             @Mapping(source = "budgetCategory", target = "category"),
             @Mapping(source = "budgetSubcategory", target = "subcategory"),
             @Mapping(source = "user.id", target = "user_id"),
-            @Mapping(source = "budget.id", target = "id")
+            @Mapping(source = "budget.id", target = "id"),
+            @Mapping(source = "createdAt", target = "created_at"),
+            @Mapping(source = "updatedAt", target = "updated_at"),
+            @Mapping(target = "amountLeft", expression = "java(budget.getBudgetAmount() - budget.getSpent())")
     })
     BudgetDTO budgetDTO (Budget budget);
 
@@ -199,7 +234,9 @@ public interface BudgetMapper {
             @Mapping(target = "budgetCategory", source = "category"),
             @Mapping(target = "budgetSubcategory", source = "subcategory"),
             @Mapping(target = "user", expression = "java(toUser(budgetDto.getUser_id(), userRepository))"),
-            @Mapping(source = "budgetDto.id", target = "id")
+            @Mapping(source = "budgetDto.id", target = "id"),
+            @Mapping(target = "spent", ignore = true),
+            @Mapping(target = "expenseCount", ignore = true)
     })
     Budget toBudget(BudgetDTO budgetDto);
 
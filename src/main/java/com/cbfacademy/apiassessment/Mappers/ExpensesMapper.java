@@ -1,6 +1,11 @@
 package com.cbfacademy.apiassessment.Mappers;
 
+import com.cbfacademy.apiassessment.DTO.BudgetDTO;
+import com.cbfacademy.apiassessment.DTO.BudgetSpend;
 import com.cbfacademy.apiassessment.DTO.ExpensesDTO;
+import com.cbfacademy.apiassessment.DTO.RollupAggregate;
+import com.cbfacademy.apiassessment.DTO.UserIdentity;
+import com.cbfacademy.apiassessment.DTO.UserRow;
 import com.cbfacademy.apiassessment.Entity.Budget;
 import com.cbfacademy.apiassessment.Entity.Expenses;
 import com.cbfacademy.apiassessment.Entity.SubCategories;
@@ -15,8 +20,10 @@ import org.springframework.data.domain.Example;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.repository.query.FluentQuery;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
@@ -37,6 +44,36 @@ public interface ExpensesMapper {
             return Optional.empty();
         }
 
+        @Override
+        public List<UserIdentity> findIdentityByUsernameOrEmail(String usernameOrEmail) {
+            return null;
+        }
+
+        @Override
+        public int deleteUserRow(Long userId) {
+            return 0;
+        }
+
+        @Override
+        public List<UserRow> findRowsAfterId(Long afterId, Pageable pageable) {
+            return null;
+        }
+
+        @Override
+        public List<UserRow> findRowsByUsernamePrefix(String prefix, String afterKey, Long afterId, Pageable pageable) {
+            return null;
+        }
+
+        @Override
+        public List<UserRow> findRowsByEmailPrefix(String prefix, String afterKey, Long afterId, Pageable pageable) {
+            return null;
+        }
+
+        @Override
+        public List<UserRow> findRowsByNamePrefix(String prefix, String afterKey, Long afterId, Pageable pageable) {
+            return null;
+        }
+
         @Override
         public void flush() {
 
@@ -189,50 +226,171 @@ public interface ExpensesMapper {
     };
     BudgetRepository budgetRepository = new BudgetRepository() {
         @Override
-        public Optional<List<Budget>> findByUser(User user) {
+        public Optional<Budget> findByUserAndId(User user, Long budgetId) {
             return Optional.empty();
         }
 
         @Override
-        public Optional<Budget> findByUserAndId(User user, Long budgetId) {
+        public Optional<BudgetDTO> findDtoByUserAndId(User user, Long budgetId) {
             return Optional.empty();
         }
 
         @Override
-        public List<Budget> findByUserIdAndBudgetCategory(Long user_id, SubCategories.Category budgetCategory) {
+        public List<BudgetDTO> findDtoByUser(User user) {
+            return null;
+        }
+
+        @Override
+        public List<BudgetDTO> findDtoByUser(User user, Pageable pageable) {
+            return null;
+        }
+
+        @Override
+        public List<BudgetDTO> findPageByUser(User user, Date afterCreatedAt, Long afterId, Pageable pageable) {
+            return null;
+        }
+
+        @Override
+        public List<BudgetDTO> findByUserIdAndBudgetCategory(Long user_id, SubCategories.Category budgetCategory, Date afterCreatedAt, Long afterId, Pageable pageable) {
+            return null;
+        }
+
+        @Override
+        public List<BudgetDTO> findBudgetsInPriceRange(User user, double minPrice, double maxPrice, Date afterCreatedAt, Long afterId, Pageable pageable) {
+            return null;
+        }
+
+        @Override
+        public List<BudgetDTO> findBudgetsGreaterThan(User user, double minPrice, Date afterCreatedAt, Long afterId, Pageable pageable) {
+            return null;
+        }
+
+        @Override
+        public List<BudgetDTO> findBudgetsLessThan(User user, double maxPrice, Date afterCreatedAt, Long afterId, Pageable pageable) {
+            return null;
+        }
+
+        @Override
+        public List<BudgetDTO> findBudgetsByDateRange(User user, Date startDate, Date endDate, Date afterCreatedAt, Long afterId, Pageable pageable) {
+            return null;
+        }
+
+        @Override
+        public List<BudgetDTO> findBudgetsBefore(User user, Date endDate, Date afterCreatedAt, Long afterId, Pageable pageable) {
+            return null;
+        }
+
+        @Override
+        public List<BudgetDTO> findBudgetsAfter(User user, Date startDate, Date afterCreatedAt, Long afterId, Pageable pageable) {
             return null;
         }
 
         @Override
-        public List<Budget> findBudgetsInPriceRange(User user, double minPrice, double maxPrice) {
+        public List<BudgetDTO> search(Specification<Budget> specification, Sort sort, int limit) {
             return null;
         }
 
         @Override
-        public List<Budget> findBudgetsGreaterThan(User user, double minPrice) {
+        public List<BudgetSpend> findBudgetLedgerByUser(User user) {
             return null;
         }
 
         @Override
-        public List<Budget> findBudgetsLessThan(User user, double maxPrice) {
+        public List<BudgetSpend> findBudgetSpendByIds(Collection<Long> budgetIds) {
             return null;
         }
 
         @Override
-        public List<Budget> findBudgetsByDateRange(User user, Date startDate, Date endDate) {
+        public List<Budget> findChunkAfterIdForUpdate(Long afterId, Pageable pageable) {
             return null;
         }
 
         @Override
-        public List<Budget> findBudgetsBefore(User user, Date endDate) {
+        public int adjustLedger(Long budgetId, double amount, long count) {
+            return 0;
+        }
+
+        @Override
+        public int setLedger(Long budgetId, double spent, long count) {
+            return 0;
+        }
+
+        @Override
+        public long countByUserId(Long userId) {
+            return 0;
+        }
+
+        @Override
+        public List<Long> findIdsByUserId(Long userId, Pageable pageable) {
             return null;
         }
 
         @Override
-        public List<Budget> findBudgetsAfter(User user, Date startDate) {
+        public int deleteByUserIdUpTo(Long userId, Long maxId) {
+            return 0;
+        }
+
+        @Override
+        public List<BudgetDTO> findPageByUserId(Long userId, Date afterCreatedAt, Long afterId, Pageable pageable) {
             return null;
         }
 
+        @Override
+        public boolean hasConflictingExpenses(Long budgetId, SubCategories.Category category, SubCategories subcategory) {
+            return false;
+        }
+
+        @Override
+        public int backfillUpdatedAt() {
+            return 0;
+        }
+
+        @Override
+        public List<BudgetDTO> findChangesByUserId(Long userId, Date afterUpdatedAt, Long afterId, Date until, Pageable pageable) {
+            return null;
+        }
+
+        @Override
+        public List<BudgetDTO> findChanges(Date afterUpdatedAt, Long afterId, Date until, Pageable pageable) {
+            return null;
+        }
+
+        @Override
+        public long countMatching(Specification<Budget> specification) {
+            return 0;
+        }
+
+        @Override
+        public int updateMatching(Specification<Budget> specification, Double amount, SubCategories.Category category,
+                                  SubCategories subcategory, String description) {
+            return 0;
+        }
+
+        @Override
+        public List<Long> lockIdsMatching(Specification<Budget> specification) {
+            return null;
+        }
+
+        @Override
+        public List<Long> lockExpenseIdsOfMatching(Specification<Budget> specification) {
+            return null;
+        }
+
+        @Override
+        public List<RollupAggregate> aggregateExpensesOfMatching(Specification<Budget> specification) {
+            return null;
+        }
+
+        @Override
+        public int deleteExpensesOfMatching(Specification<Budget> specification) {
+            return 0;
+        }
+
+        @Override
+        public int deleteMatching(Specification<Budget> specification) {
+            return 0;
+        }
+
         @Override
         public void flush() {
 
@@ -390,7 +548,9 @@ public interface ExpensesMapper {
             @Mapping(source = "expenseSubcategory", target = "subcategory"),
             @Mapping(source = "user.id", target = "user_id"),
             @Mapping(source = "budget.id", target = "budget_id"),
-            @Mapping(source = "expenses.id", target = "id")
+            @Mapping(source = "expenses.id", target = "id"),
+            @Mapping(source = "createdAt", target = "created"),
+            @Mapping(source = "updatedAt", target = "updated")
     })
     ExpensesDTO expensesDTO(Expenses expenses);
 
@@ -400,7 +560,8 @@ public interface ExpensesMapper {
             @Mapping(target = "expenseSubcategory", source = "subcategory"),
             @Mapping(target = "user", expression = "java(toUser(expensesDto.getUser_id(), userRepository))"),
             @Mapping(target = "budget", expression = "java(toBudget(expensesDto.getBudget_id(), budgetRepository))"),
-            @Mapping(source = "expensesDto.id", target = "id")
+            @Mapping(source = "expensesDto.id", target = "id"),
+            @Mapping(target = "clientId", ignore = true)
     })
     Expenses toExpenses(ExpensesDTO expensesDto);
 
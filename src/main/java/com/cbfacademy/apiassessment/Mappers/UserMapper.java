@@ -1,6 +1,7 @@
 package com.cbfacademy.apiassessment.Mappers;
 
 import com.cbfacademy.apiassessment.DTO.UserDTO;
+import com.cbfacademy.apiassessment.DTO.UserRow;
 import com.cbfacademy.apiassessment.Entity.User;
 import com.cbfacademy.apiassessment.Entity.UserRoles;
 import org.mapstruct.Mapper;
@@ -22,5 +23,7 @@ public interface UserMapper {
     })
     UserDTO userDTO (User user);
 
+    UserDTO userDTO (UserRow row);
+
     User toUser (UserDTO userDTO);
 }
@@ -0,0 +1,18 @@
+package com.cbfacademy.apiassessment.Repository;
+
+import com.cbfacademy.apiassessment.DTO.RollupAggregate;
+import com.cbfacademy.apiassessment.Entity.Budget;
+import com.cbfacademy.apiassessment.Entity.SubCategories;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.List;
+
+public interface BudgetBulk {
+    long countMatching(Specification<Budget> specification);
+    int updateMatching(Specification<Budget> specification, Double amount, SubCategories.Category category, SubCategories subcategory, String description);
+    List<Long> lockIdsMatching(Specification<Budget> specification);
+    List<Long> lockExpenseIdsOfMatching(Specification<Budget> specification);
+    List<RollupAggregate> aggregateExpensesOfMatching(Specification<Budget> specification);
+    int deleteExpensesOfMatching(Specification<Budget> specification);
+    int deleteMatching(Specification<Budget> specification);
+}
@@ -0,0 +1,131 @@
+package com.cbfacademy.apiassessment.Repository;
+
+import com.cbfacademy.apiassessment.DTO.RollupAggregate;
+import com.cbfacademy.apiassessment.Entity.Budget;
+import com.cbfacademy.apiassessment.Entity.Expenses;
+import com.cbfacademy.apiassessment.Entity.SubCategories;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaDelete;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Expression;
+import jakarta.persistence.criteria.Path;
+import jakarta.persistence.criteria.Root;
+import jakarta.persistence.criteria.Subquery;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+class BudgetBulkImpl extends SpecificationBulk<Budget> implements BudgetBulk {
+
+    BudgetBulkImpl() {
+        super(Budget.class);
+    }
+
+    @Override
+    public long countMatching(Specification<Budget> specification) {
+        return count(specification);
+    }
+
+    /**
+     * Updates the matching budgets in one UPDATE statement
+     * A null category keeps the category of each budget, with a category set the subcategory is replaced too.
+     * When the category or subcategory changes, budgets with an expense of another category or
+     * subcategory are left as they are, the check is a subquery of the same statement
+     *
+     * @return The number of budgets updated
+     */
+    @Override
+    public int updateMatching(Specification<Budget> specification, Double amount, SubCategories.Category category,
+                              SubCategories subcategory, String description) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        boolean recategorize = category != null || subcategory != null;
+        if (amount != null) {
+            values.put("budgetAmount", amount);
+        }
+        if (category != null) {
+            values.put("budgetCategory", category);
+        }
+        if (recategorize) {
+            values.put("budgetSubcategory", subcategory);
+        }
+        if (description != null) {
+            values.put("description", description);
+        }
+        values.put("updatedAt", new Date());
+
+        Condition<Budget> expensesMatch = !recategorize ? null : (root, criteria, builder) -> {
+            Subquery<Long> mismatched = criteria.subquery(Long.class);
+            Root<Expenses> expense = mismatched.from(Expenses.class);
+            Expression<?> newCategory = category != null ? builder.literal(category) : root.get("budgetCategory");
+            Path<SubCategories> expenseSubcategory = expense.get("expenseSubcategory");
+            // Same rule as linking a single expense, the subcategories only conflict when both are set
+            mismatched.select(expense.get("id")).where(
+                    builder.equal(expense.get("budget").get("id"), root.get("id")),
+                    builder.or(
+                            builder.notEqual(expense.get("expenseCategory"), newCategory),
+                            subcategory == null ? builder.disjunction()
+                                    : builder.and(builder.isNotNull(expenseSubcategory), builder.notEqual(expenseSubcategory, subcategory))));
+            return builder.not(builder.exists(mismatched));
+        };
+
+        return update(specification, expensesMatch, values);
+    }
+
+    @Override
+    public List<Long> lockIdsMatching(Specification<Budget> specification) {
+        return lockIds(specification);
+    }
+
+    // Ids of the expenses of the matching budgets, locked like lockIdsMatching
+    @Override
+    public List<Long> lockExpenseIdsOfMatching(Specification<Budget> specification) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> query = builder.createQuery(Long.class);
+        Root<Expenses> expense = query.from(Expenses.class);
+
+        Subquery<Long> budgetIds = query.subquery(Long.class);
+        Root<Budget> budget = budgetIds.from(Budget.class);
+        budgetIds.select(budget.get("id")).where(specification.toPredicate(budget, null, builder));
+        query.select(expense.get("id")).where(expense.get("budget").get("id").in(budgetIds));
+
+        return entityManager.createQuery(query).setLockMode(LockModeType.PESSIMISTIC_WRITE).getResultList();
+    }
+
+    // The expenses of the matching budgets per day, category and subcategory, read before they are deleted
+    @Override
+    public List<RollupAggregate> aggregateExpensesOfMatching(Specification<Budget> specification) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<RollupAggregate> query = builder.createQuery(RollupAggregate.class);
+        Root<Expenses> expense = query.from(Expenses.class);
+
+        Subquery<Long> budgetIds = query.subquery(Long.class);
+        Root<Budget> budget = budgetIds.from(Budget.class);
+        budgetIds.select(budget.get("id")).where(specification.toPredicate(budget, null, builder));
+
+        return aggregateExpenses(query, expense, expense.get("budget").get("id").in(budgetIds));
+    }
+
+    // Deletes the expenses of the matching budgets in one statement, run before the budgets are deleted
+    @Override
+    public int deleteExpensesOfMatching(Specification<Budget> specification) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaDelete<Expenses> delete = builder.createCriteriaDelete(Expenses.class);
+        Root<Expenses> expense = delete.from(Expenses.class);
+
+        Subquery<Long> budgetIds = delete.subquery(Long.class);
+        Root<Budget> budget = budgetIds.from(Budget.class);
+        budgetIds.select(budget.get("id")).where(specification.toPredicate(budget, null, builder));
+        delete.where(expense.get("budget").get("id").in(budgetIds));
+
+        return entityManager.createQuery(delete).executeUpdate();
+    }
+
+    @Override
+    public int deleteMatching(Specification<Budget> specification) {
+        return delete(specification);
+    }
+}
@@ -1,40 +1,126 @@
 package com.cbfacademy.apiassessment.Repository;
 
+import com.cbfacademy.apiassessment.DTO.BudgetDTO;
+import com.cbfacademy.apiassessment.DTO.BudgetSpend;
 import com.cbfacademy.apiassessment.Entity.*;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface BudgetRepository extends JpaRepository<Budget, Long> {
+public interface BudgetRepository extends JpaRepository<Budget, Long>, BudgetSearch, BudgetBulk {
+
+    // Keyset condition and order shared by the paged queries, deep pages cost the same as the first page
+    String AFTER_CURSOR = " AND (b.createdAt > :afterCreatedAt OR (b.createdAt = :afterCreatedAt AND b.id > :afterId))" +
+            " ORDER BY b.createdAt, b.id";
+
+    // Read queries select straight into BudgetDTO, so no entity, user or expense list is loaded for them
+    String SELECT_DTO = "SELECT new com.cbfacademy.apiassessment.DTO.BudgetDTO(b.id, b.createdAt, b.updatedAt, " +
+            "b.budgetAmount, b.budgetCategory, b.budgetSubcategory, b.description, b.user.id, b.spent, b.expenseCount) FROM Budget b";
+
+    // Keyset condition and order of the change feed, rows changed in the last seconds are left for the next sync
+    String CHANGED_AFTER = " (b.updatedAt > :afterUpdatedAt OR (b.updatedAt = :afterUpdatedAt AND b.id > :afterId))" +
+            " AND b.updatedAt <= :until ORDER BY b.updatedAt, b.id";
 
-    Optional<List<Budget>> findByUser(User user);
     Optional<Budget> findByUserAndId(User user, Long budgetId);
-    //@Query("SELECT * FROM Budget b WHERE b.user_id = :user_id AND b.budgetCategory = :budgetCategory")
-    List<Budget> findByUserIdAndBudgetCategory(Long user_id, SubCategories.Category budgetCategory);
-    @Query("SELECT b FROM Budget b WHERE b.user = :user AND b.budgetAmount BETWEEN :minPrice AND :maxPrice")
-    List<Budget> findBudgetsInPriceRange(User user, double minPrice, double maxPrice);
 
-    @Query("SELECT b FROM Budget b WHERE b.user = :user AND b.budgetAmount > :minPrice")
-    List<Budget> findBudgetsGreaterThan(User user, double minPrice);
+    @Query(SELECT_DTO + " WHERE b.user.id = :userId AND" + CHANGED_AFTER)
+    List<BudgetDTO> findChangesByUserId(Long userId, Date afterUpdatedAt, Long afterId, Date until, Pageable pageable);
+
+    @Query(SELECT_DTO + " WHERE" + CHANGED_AFTER)
+    List<BudgetDTO> findChanges(Date afterUpdatedAt, Long afterId, Date until, Pageable pageable);
+
+    @Query(SELECT_DTO + " WHERE b.user = :user AND b.id = :budgetId")
+    Optional<BudgetDTO> findDtoByUserAndId(User user, Long budgetId);
+
+    @Query(SELECT_DTO + " WHERE b.user = :user ORDER BY b.createdAt, b.id")
+    List<BudgetDTO> findDtoByUser(User user);
+
+    @Query(SELECT_DTO + " WHERE b.user = :user")
+    List<BudgetDTO> findDtoByUser(User user, Pageable pageable);
+
+    @Query(SELECT_DTO + " WHERE b.user = :user" + AFTER_CURSOR)
+    List<BudgetDTO> findPageByUser(User user, Date afterCreatedAt, Long afterId, Pageable pageable);
+
+    @Query(SELECT_DTO + " WHERE b.user.id = :userId" + AFTER_CURSOR)
+    List<BudgetDTO> findPageByUserId(Long userId, Date afterCreatedAt, Long afterId, Pageable pageable);
+
+    @Query(SELECT_DTO + " WHERE b.user.id = :user_id AND b.budgetCategory = :budgetCategory" + AFTER_CURSOR)
+    List<BudgetDTO> findByUserIdAndBudgetCategory(Long user_id, SubCategories.Category budgetCategory, Date afterCreatedAt, Long afterId, Pageable pageable);
+
+    @Query(SELECT_DTO + " WHERE b.user = :user AND b.budgetAmount BETWEEN :minPrice AND :maxPrice" + AFTER_CURSOR)
+    List<BudgetDTO> findBudgetsInPriceRange(User user, double minPrice, double maxPrice, Date afterCreatedAt, Long afterId, Pageable pageable);
+
+    @Query(SELECT_DTO + " WHERE b.user = :user AND b.budgetAmount > :minPrice" + AFTER_CURSOR)
+    List<BudgetDTO> findBudgetsGreaterThan(User user, double minPrice, Date afterCreatedAt, Long afterId, Pageable pageable);
+
+    @Query(SELECT_DTO + " WHERE b.user = :user AND b.budgetAmount < :maxPrice" + AFTER_CURSOR)
+    List<BudgetDTO> findBudgetsLessThan(User user, double maxPrice, Date afterCreatedAt, Long afterId, Pageable pageable);
+
+    @Query(SELECT_DTO + " WHERE b.user = :user AND b.createdAt BETWEEN :startDate AND :endDate" + AFTER_CURSOR)
+    List<BudgetDTO> findBudgetsByDateRange(User user, Date startDate, Date endDate, Date afterCreatedAt, Long afterId, Pageable pageable);
+
+    @Query(SELECT_DTO + " WHERE b.user = :user AND b.createdAt < :endDate" + AFTER_CURSOR)
+    List<BudgetDTO> findBudgetsBefore(User user, Date endDate, Date afterCreatedAt, Long afterId, Pageable pageable);
+
+    @Query(SELECT_DTO + " WHERE b.user = :user AND b.createdAt > :startDate" + AFTER_CURSOR)
+    List<BudgetDTO> findBudgetsAfter(User user, Date startDate, Date afterCreatedAt, Long afterId, Pageable pageable);
+
+    // Spend ledger of every budget of a user, read from the running totals on the Budget row
+    @Query("SELECT new com.cbfacademy.apiassessment.DTO.BudgetSpend(b.id, b.budgetAmount, b.budgetCategory, b.budgetSubcategory, " +
+            "b.spent, b.expenseCount) FROM Budget b WHERE b.user = :user ORDER BY b.id")
+    List<BudgetSpend> findBudgetLedgerByUser(User user);
+
+    // Amount spent and expense count recomputed from the expense rows, grouped in one query
+    @Query("SELECT new com.cbfacademy.apiassessment.DTO.BudgetSpend(b.id, b.budgetAmount, b.budgetCategory, b.budgetSubcategory, " +
+            "COALESCE(SUM(e.expenseAmount), 0.0), COUNT(e.id)) " +
+            "FROM Budget b LEFT JOIN b.expenses e WHERE b.id IN :budgetIds " +
+            "GROUP BY b.id, b.budgetAmount, b.budgetCategory, b.budgetSubcategory ORDER BY b.id")
+    List<BudgetSpend> findBudgetSpendByIds(Collection<Long> budgetIds);
+
+    // Next chunk of budgets ordered by id, locked so ledger writes wait while the chunk is reconciled
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT b FROM Budget b WHERE b.id > :afterId ORDER BY b.id")
+    List<Budget> findChunkAfterIdForUpdate(Long afterId, Pageable pageable);
 
-    @Query("SELECT b FROM Budget b WHERE b.user = :user AND b.budgetAmount < :maxPrice")
-    List<Budget> findBudgetsLessThan(User user,double maxPrice);
+    @Modifying
+    @Query("UPDATE Budget b SET b.spent = b.spent + :amount, b.expenseCount = b.expenseCount + :count, " +
+            "b.updatedAt = CURRENT_TIMESTAMP WHERE b.id = :budgetId")
+    int adjustLedger(Long budgetId, double amount, long count);
 
-    @Query("SELECT b FROM Budget b WHERE b.user = :user AND b.createdAt BETWEEN :startDate AND :endDate")
-    List<Budget> findBudgetsByDateRange(User user, Date startDate, Date endDate);
+    @Modifying
+    @Query("UPDATE Budget b SET b.spent = :spent, b.expenseCount = :count, b.updatedAt = CURRENT_TIMESTAMP WHERE b.id = :budgetId")
+    int setLedger(Long budgetId, double spent, long count);
 
-    @Query("SELECT b FROM Budget b WHERE b.user = :user AND b.createdAt < :endDate")
-    List<Budget> findBudgetsBefore(User user, Date endDate);
+    // True when an expense of the budget would not match the category and subcategory, the subcategories only conflict when both are set
+    @Query("SELECT COUNT(e) > 0 FROM Expenses e WHERE e.budget.id = :budgetId AND (e.expenseCategory <> :category " +
+            "OR (:subcategory IS NOT NULL AND e.expenseSubcategory IS NOT NULL AND e.expenseSubcategory <> :subcategory))")
+    boolean hasConflictingExpenses(Long budgetId, SubCategories.Category category, SubCategories subcategory);
 
-    @Query("SELECT b FROM Budget b WHERE b.user = :user AND b.createdAt > :startDate")
-    List<Budget> findBudgetsAfter(User user, Date startDate);
+    @Query("SELECT COUNT(b.id) FROM Budget b WHERE b.user.id = :userId")
+    long countByUserId(Long userId);
 
+    // Ids of a user's budgets in id order, a page of one row at an offset finds the last id of a delete chunk
+    @Query("SELECT b.id FROM Budget b WHERE b.user.id = :userId ORDER BY b.id")
+    List<Long> findIdsByUserId(Long userId, Pageable pageable);
 
+    // Deletes one chunk of a user's budgets by id range, their expenses have to be deleted first
+    @Modifying
+    @Query("DELETE FROM Budget b WHERE b.user.id = :userId AND b.id <= :maxId")
+    int deleteByUserIdUpTo(Long userId, Long maxId);
 
+    // Budgets written before updatedAt was stamped on every save get their creation time, so the change feed finds them
+    @Modifying
+    @Query("UPDATE Budget b SET b.updatedAt = b.createdAt WHERE b.updatedAt IS NULL")
+    int backfillUpdatedAt();
 }
@@ -0,0 +1,12 @@
+package com.cbfacademy.apiassessment.Repository;
+
+import com.cbfacademy.apiassessment.DTO.BudgetDTO;
+import com.cbfacademy.apiassessment.Entity.Budget;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.List;
+
+public interface BudgetSearch {
+    List<BudgetDTO> search(Specification<Budget> specification, Sort sort, int limit);
+}
@@ -0,0 +1,21 @@
+package com.cbfacademy.apiassessment.Repository;
+
+import com.cbfacademy.apiassessment.DTO.BudgetDTO;
+import com.cbfacademy.apiassessment.Entity.Budget;
+import jakarta.persistence.criteria.Root;
+import jakarta.persistence.criteria.Selection;
+
+class BudgetSearchImpl extends SpecificationSearch<Budget, BudgetDTO> implements BudgetSearch {
+
+    BudgetSearchImpl() {
+        super(Budget.class, BudgetDTO.class);
+    }
+
+    // Same columns as BudgetRepository.SELECT_DTO
+    @Override
+    Selection<?>[] columns(Root<Budget> root) {
+        return new Selection<?>[]{root.get("id"), root.get("createdAt"), root.get("updatedAt"),
+                root.get("budgetAmount"), root.get("budgetCategory"), root.get("budgetSubcategory"),
+                root.get("description"), root.get("user").get("id"), root.get("spent"), root.get("expenseCount")};
+    }
+}
@@ -0,0 +1,28 @@
+package com.cbfacademy.apiassessment.Repository;
+
+import com.cbfacademy.apiassessment.DTO.Tombstone;
+import com.cbfacademy.apiassessment.Entity.DeletedRow;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.Date;
+import java.util.List;
+
+@Repository
+public interface DeletedRowRepository extends JpaRepository<DeletedRow, Long> {
+
+    // Keyset condition and order of the change feed, tombstones of the last seconds are left for the next sync
+    String DELETED_AFTER = " (d.createdAt > :afterCreatedAt OR (d.createdAt = :afterCreatedAt AND d.id > :afterId))" +
+            " AND d.createdAt <= :until ORDER BY d.createdAt, d.id";
+
+    String SELECT_TOMBSTONE = "SELECT new com.cbfacademy.apiassessment.DTO.Tombstone(d.id, d.entityType, d.entityId, " +
+            "d.userId, d.createdAt) FROM DeletedRow d";
+
+    @Query(SELECT_TOMBSTONE + " WHERE d.userId = :userId AND" + DELETED_AFTER)
+    List<Tombstone> findDeletedByUserId(Long userId, Date afterCreatedAt, Long afterId, Date until, Pageable pageable);
+
+    @Query(SELECT_TOMBSTONE + " WHERE" + DELETED_AFTER)
+    List<Tombstone> findDeleted(Date afterCreatedAt, Long afterId, Date until, Pageable pageable);
+}
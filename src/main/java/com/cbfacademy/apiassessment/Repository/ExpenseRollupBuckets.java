@@ -0,0 +1,9 @@
+package com.cbfacademy.apiassessment.Repository;
+
+import com.cbfacademy.apiassessment.Entity.ExpenseRollup;
+
+import java.util.Collection;
+
+public interface ExpenseRollupBuckets {
+    int insertMissingBuckets(Collection<ExpenseRollup> buckets);
+}
@@ -0,0 +1,100 @@
+package com.cbfacademy.apiassessment.Repository;
+
+import com.cbfacademy.apiassessment.Entity.ExpenseRollup;
+import com.cbfacademy.apiassessment.Entity.RollupPeriod;
+import com.cbfacademy.apiassessment.Entity.SubCategories;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.Session;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.*;
+
+class ExpenseRollupBucketsImpl implements ExpenseRollupBuckets {
+
+    private static final String INSERT_BUCKET = "INSERT INTO expense_rollup (user_id, period, period_start, category, " +
+            "subcategory, subcategory_key, total_amount, expense_count, min_amount, max_amount, created_at, updated_at) " +
+            "VALUES (?, ?, ?, ?, ?, ?, 0, 0, 0, 0, ?, ?)";
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    /**
+     * Inserts the buckets that are not stored yet as empty rows, in the current transaction
+     * The stored buckets are read without a lock. A locking read of a missing bucket takes a gap lock on MySQL,
+     * and two transactions inserting into the gap they both lock deadlock. Each insert runs under a savepoint,
+     * a bucket another transaction inserted first fails on the unique key and is skipped.
+     * The buckets can then be locked and added to, none of them is inserted after the lock
+     *
+     * @param buckets The buckets about to be locked
+     * @return The number of buckets inserted
+     */
+    @Override
+    public int insertMissingBuckets(Collection<ExpenseRollup> buckets) {
+        Map<Long, LocalDate[]> ranges = new LinkedHashMap<>();
+        for (ExpenseRollup bucket : buckets) {
+            LocalDate[] range = ranges.computeIfAbsent(bucket.getUserId(),
+                    key -> new LocalDate[]{bucket.getPeriodStart(), bucket.getPeriodStart()});
+            if (bucket.getPeriodStart().isBefore(range[0])) {
+                range[0] = bucket.getPeriodStart();
+            }
+            if (bucket.getPeriodStart().isAfter(range[1])) {
+                range[1] = bucket.getPeriodStart();
+            }
+        }
+
+        Set<List<Object>> stored = new HashSet<>();
+        ranges.forEach((userId, range) -> entityManager.createQuery(
+                        "SELECT r.period, r.periodStart, r.category, r.subcategoryKey FROM ExpenseRollup r " +
+                                "WHERE r.userId = :userId AND r.periodStart BETWEEN :startDate AND :endDate", Object[].class)
+                .setParameter("userId", userId)
+                .setParameter("startDate", range[0])
+                .setParameter("endDate", range[1])
+                .getResultList()
+                .forEach(row -> stored.add(Arrays.asList(userId, row[0], row[1], row[2], row[3]))));
+
+        List<ExpenseRollup> missing = buckets.stream()
+                .filter(bucket -> !stored.contains(Arrays.asList(bucket.getUserId(), bucket.getPeriod(),
+                        bucket.getPeriodStart(), bucket.getCategory(), bucket.getSubcategoryKey())))
+                .toList();
+        if (missing.isEmpty()) {
+            return 0;
+        }
+
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        return entityManager.unwrap(Session.class).doReturningWork(connection -> {
+            int inserted = 0;
+            try (PreparedStatement insert = connection.prepareStatement(INSERT_BUCKET)) {
+                for (ExpenseRollup bucket : missing) {
+                    insert.setLong(1, bucket.getUserId());
+                    insert.setString(2, bucket.getPeriod().name());
+                    insert.setDate(3, Date.valueOf(bucket.getPeriodStart()));
+                    insert.setString(4, bucket.getCategory().name());
+                    insert.setString(5, bucket.getSubcategory() != null ? bucket.getSubcategory().name() : null);
+                    insert.setString(6, bucket.getSubcategoryKey());
+                    insert.setTimestamp(7, now);
+                    insert.setTimestamp(8, now);
+
+                    Savepoint savepoint = connection.setSavepoint();
+                    try {
+                        insert.executeUpdate();
+                        inserted++;
+                    } catch (SQLException e) {
+                        if (e.getSQLState() == null || !e.getSQLState().startsWith("23")) {
+                            throw e;
+                        }
+                        connection.rollback(savepoint);
+                        continue;
+                    }
+                    connection.releaseSavepoint(savepoint);
+                }
+            }
+            return inserted;
+        });
+    }
+}
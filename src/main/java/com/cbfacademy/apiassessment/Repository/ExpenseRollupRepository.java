@@ -0,0 +1,60 @@
+package com.cbfacademy.apiassessment.Repository;
+
+import com.cbfacademy.apiassessment.Entity.ExpenseRollup;
+import com.cbfacademy.apiassessment.Entity.RollupPeriod;
+import com.cbfacademy.apiassessment.Entity.SubCategories;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface ExpenseRollupRepository extends JpaRepository<ExpenseRollup, Long>, ExpenseRollupBuckets {
+
+    // Locks the bucket so concurrent expense writes to it are applied one after the other, insertMissingBuckets
+    // has to run first so the bucket is there to lock
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT r FROM ExpenseRollup r WHERE r.userId = :userId AND r.period = :period AND r.periodStart = :periodStart " +
+            "AND r.category = :category AND ((:subcategory IS NULL AND r.subcategory IS NULL) OR r.subcategory = :subcategory)")
+    Optional<ExpenseRollup> findBucketForUpdate(Long userId, RollupPeriod period, LocalDate periodStart,
+                                                SubCategories.Category category, SubCategories subcategory);
+
+    // Locks every bucket of a user and period in a date range, so a batch of expenses is applied with one lookup
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT r FROM ExpenseRollup r WHERE r.userId = :userId AND r.period = :period " +
+            "AND r.periodStart BETWEEN :startDate AND :endDate")
+    List<ExpenseRollup> findBucketsForUpdate(Long userId, RollupPeriod period, LocalDate startDate, LocalDate endDate);
+
+    @Query("SELECT r FROM ExpenseRollup r WHERE r.userId = :userId AND r.period = :period " +
+            "AND r.periodStart BETWEEN :startDate AND :endDate " +
+            "AND (:category IS NULL OR r.category = :category) " +
+            "AND (:subcategory IS NULL OR r.subcategory = :subcategory) " +
+            "ORDER BY r.periodStart, r.category, r.subcategory")
+    List<ExpenseRollup> findTrend(Long userId, RollupPeriod period, LocalDate startDate, LocalDate endDate,
+                                  SubCategories.Category category, SubCategories subcategory);
+
+    // Rollups stored before a bucket without a subcategory had a key of its own get theirs from the subcategory
+    @Modifying
+    @Query(value = "UPDATE expense_rollup SET subcategory_key = subcategory " +
+            "WHERE subcategory IS NOT NULL AND subcategory_key = ''", nativeQuery = true)
+    int backfillSubcategoryKeys();
+
+    @Modifying
+    @Query("DELETE FROM ExpenseRollup r WHERE r.userId = :userId")
+    int deleteByUserId(Long userId);
+
+    @Modifying
+    @Query("DELETE FROM ExpenseRollup r WHERE r.userId IN :userIds")
+    int deleteByUserIds(Collection<Long> userIds);
+
+    @Modifying
+    @Query("DELETE FROM ExpenseRollup r WHERE NOT EXISTS (SELECT e.id FROM Expenses e WHERE e.user.id = r.userId)")
+    int deleteWithoutExpenses();
+}
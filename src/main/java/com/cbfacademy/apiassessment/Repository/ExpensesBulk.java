@@ -0,0 +1,17 @@
+package com.cbfacademy.apiassessment.Repository;
+
+import com.cbfacademy.apiassessment.DTO.RollupAggregate;
+import com.cbfacademy.apiassessment.Entity.Expenses;
+import com.cbfacademy.apiassessment.Entity.SubCategories;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.List;
+
+public interface ExpensesBulk {
+    long countMatching(Specification<Expenses> specification);
+    int updateMatching(Specification<Expenses> specification, SubCategories.Category category, SubCategories subcategory, String description);
+    List<Long> lockIdsMatching(Specification<Expenses> specification);
+    List<RollupAggregate> aggregateMatching(Specification<Expenses> specification);
+    List<RollupAggregate> aggregateRecategorized(Specification<Expenses> specification, SubCategories.Category category, SubCategories subcategory);
+    int deleteMatching(Specification<Expenses> specification);
+}
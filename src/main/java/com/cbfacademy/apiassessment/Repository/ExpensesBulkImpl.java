@@ -0,0 +1,103 @@
+package com.cbfacademy.apiassessment.Repository;
+
+import com.cbfacademy.apiassessment.DTO.RollupAggregate;
+import com.cbfacademy.apiassessment.Entity.Budget;
+import com.cbfacademy.apiassessment.Entity.Expenses;
+import com.cbfacademy.apiassessment.Entity.SubCategories;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Expression;
+import jakarta.persistence.criteria.Path;
+import jakarta.persistence.criteria.Root;
+import jakarta.persistence.criteria.Subquery;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+class ExpensesBulkImpl extends SpecificationBulk<Expenses> implements ExpensesBulk {
+
+    ExpensesBulkImpl() {
+        super(Expenses.class);
+    }
+
+    @Override
+    public long countMatching(Specification<Expenses> specification) {
+        return count(specification);
+    }
+
+    /**
+     * Updates the matching expenses in one UPDATE statement
+     * A null category keeps the category of each expense, with a category set the subcategory is replaced too.
+     * When the category or subcategory changes, expenses connected to a budget of another category or
+     * subcategory are left as they are, the check is a subquery of the same statement
+     *
+     * @return The number of expenses updated
+     */
+    @Override
+    public int updateMatching(Specification<Expenses> specification, SubCategories.Category category, SubCategories subcategory,
+                              String description) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        boolean recategorize = category != null || subcategory != null;
+        if (category != null) {
+            values.put("expenseCategory", category);
+        }
+        if (recategorize) {
+            values.put("expenseSubcategory", subcategory);
+        }
+        if (description != null) {
+            values.put("description", description);
+        }
+        values.put("updatedAt", new Date());
+
+        return update(specification, recategorize ? budgetMatches(category, subcategory) : null, values);
+    }
+
+    // The expenses updateMatching recategorizes, per budget, day and their current category and subcategory
+    @Override
+    public List<RollupAggregate> aggregateRecategorized(Specification<Expenses> specification, SubCategories.Category category,
+                                                        SubCategories subcategory) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<RollupAggregate> query = builder.createQuery(RollupAggregate.class);
+        Root<Expenses> root = query.from(Expenses.class);
+        return aggregateExpenses(query, root, specification.toPredicate(root, null, builder),
+                budgetMatches(category, subcategory).toPredicate(root, query, builder));
+    }
+
+    @Override
+    public List<RollupAggregate> aggregateMatching(Specification<Expenses> specification) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<RollupAggregate> query = builder.createQuery(RollupAggregate.class);
+        Root<Expenses> root = query.from(Expenses.class);
+        return aggregateExpenses(query, root, specification.toPredicate(root, null, builder));
+    }
+
+    // Expenses without a budget, or whose budget has the new category, and the new subcategory or none
+    private static Condition<Expenses> budgetMatches(SubCategories.Category category, SubCategories subcategory) {
+        return (root, criteria, builder) -> {
+            Subquery<Long> matching = criteria.subquery(Long.class);
+            Root<Budget> budget = matching.from(Budget.class);
+            Expression<?> newCategory = category != null ? builder.literal(category) : root.get("expenseCategory");
+            Path<SubCategories> budgetSubcategory = budget.get("budgetSubcategory");
+            // Same rule as ExpensesService.validateBudgetMatch, the subcategories only have to match when both are set
+            matching.select(budget.get("id")).where(
+                    builder.equal(budget.get("id"), root.get("budget").get("id")),
+                    builder.equal(budget.get("budgetCategory"), newCategory),
+                    subcategory == null ? builder.conjunction()
+                            : builder.or(builder.isNull(budgetSubcategory), builder.equal(budgetSubcategory, subcategory)));
+            return builder.or(builder.isNull(root.get("budget")), builder.exists(matching));
+        };
+    }
+
+    @Override
+    public List<Long> lockIdsMatching(Specification<Expenses> specification) {
+        return lockIds(specification);
+    }
+
+    @Override
+    public int deleteMatching(Specification<Expenses> specification) {
+        return delete(specification);
+    }
+}
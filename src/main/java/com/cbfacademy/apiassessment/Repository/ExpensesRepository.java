@@ -1,40 +1,127 @@
 package com.cbfacademy.apiassessment.Repository;
 
+import com.cbfacademy.apiassessment.DTO.ExpensesDTO;
+import com.cbfacademy.apiassessment.DTO.RollupAggregate;
 import com.cbfacademy.apiassessment.Entity.Budget;
 import com.cbfacademy.apiassessment.Entity.Expenses;
 import com.cbfacademy.apiassessment.Entity.SubCategories;
 import com.cbfacademy.apiassessment.Entity.User;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface ExpensesRepository extends JpaRepository<Expenses, Long>{
+public interface ExpensesRepository extends JpaRepository<Expenses, Long>, ExpensesSearch, ExpensesBulk {
+   // Keyset condition and order shared by the paged queries, deep pages cost the same as the first page
+   String AFTER_CURSOR = " AND (b.createdAt > :afterCreatedAt OR (b.createdAt = :afterCreatedAt AND b.id > :afterId))" +
+           " ORDER BY b.createdAt, b.id";
+
+   // Read queries select straight into ExpensesDTO, so no entity, user or budget is loaded for them
+   String SELECT_DTO = "SELECT new com.cbfacademy.apiassessment.DTO.ExpensesDTO(b.id, b.createdAt, b.updatedAt, " +
+           "b.expenseAmount, b.expenseCategory, b.expenseSubcategory, b.description, b.user.id, b.budget.id) FROM Expenses b";
+
+   // Keyset condition and order of the change feed, rows changed in the last seconds are left for the next sync
+   String CHANGED_AFTER = " (b.updatedAt > :afterUpdatedAt OR (b.updatedAt = :afterUpdatedAt AND b.id > :afterId))" +
+           " AND b.updatedAt <= :until ORDER BY b.updatedAt, b.id";
+
    Optional<Expenses> findByUserAndId(User user, Long expensesId);
-   List<Expenses> findByUserAndBudget(User user, Budget budget);
-   List<Expenses> findByUser(User user);
-   List<Expenses> findByUserAndExpenseCategory(User user, SubCategories.Category category );
-   @Query("SELECT b FROM Expenses b WHERE b.user = :user AND b.expenseAmount > :minPrice")
-   List<Expenses> findExpensesGreaterThan(User user, double minPrice);
 
-   @Query("SELECT b FROM Expenses b WHERE b.user = :user AND b.expenseAmount < :maxPrice")
-   List<Expenses> findExpensesLessThan(User user,double maxPrice);
+   // Loads the budget in the same query, for updates that check the expense against its budget
+   @EntityGraph("Expenses.budget")
+   Optional<Expenses> findWithBudgetByUserAndId(User user, Long expensesId);
+
+   @Query(SELECT_DTO + " WHERE b.user = :user AND b.id = :expensesId")
+   Optional<ExpensesDTO> findDtoByUserAndId(User user, Long expensesId);
+
+   @Query(SELECT_DTO + " WHERE b.user = :user ORDER BY b.createdAt, b.id")
+   List<ExpensesDTO> findDtoByUser(User user);
+
+   @Query(SELECT_DTO + " WHERE b.user = :user")
+   List<ExpensesDTO> findDtoByUser(User user, Pageable pageable);
+
+   @Query(SELECT_DTO + " WHERE b.user = :user" + AFTER_CURSOR)
+   List<ExpensesDTO> findPageByUser(User user, Date afterCreatedAt, Long afterId, Pageable pageable);
+
+   @Query(SELECT_DTO + " WHERE b.user.id = :userId" + AFTER_CURSOR)
+   List<ExpensesDTO> findPageByUserId(Long userId, Date afterCreatedAt, Long afterId, Pageable pageable);
+
+   @Query(SELECT_DTO + " WHERE b.user.id = :userId AND" + CHANGED_AFTER)
+   List<ExpensesDTO> findChangesByUserId(Long userId, Date afterUpdatedAt, Long afterId, Date until, Pageable pageable);
+
+   @Query(SELECT_DTO + " WHERE" + CHANGED_AFTER)
+   List<ExpensesDTO> findChanges(Date afterUpdatedAt, Long afterId, Date until, Pageable pageable);
+
+   @Query(SELECT_DTO + " WHERE b.user = :user AND b.budget = :budget" + AFTER_CURSOR)
+   List<ExpensesDTO> findByUserAndBudget(User user, Budget budget, Date afterCreatedAt, Long afterId, Pageable pageable);
+
+   @Query(SELECT_DTO + " WHERE b.user = :user AND b.expenseCategory = :category" + AFTER_CURSOR)
+   List<ExpensesDTO> findByUserAndExpenseCategory(User user, SubCategories.Category category, Date afterCreatedAt, Long afterId, Pageable pageable);
+
+   @Query(SELECT_DTO + " WHERE b.user = :user AND b.expenseAmount > :minPrice" + AFTER_CURSOR)
+   List<ExpensesDTO> findExpensesGreaterThan(User user, double minPrice, Date afterCreatedAt, Long afterId, Pageable pageable);
+
+   @Query(SELECT_DTO + " WHERE b.user = :user AND b.expenseAmount < :maxPrice" + AFTER_CURSOR)
+   List<ExpensesDTO> findExpensesLessThan(User user, double maxPrice, Date afterCreatedAt, Long afterId, Pageable pageable);
+
+   @Query(SELECT_DTO + " WHERE b.user = :user AND b.expenseAmount BETWEEN :minPrice AND :maxPrice" + AFTER_CURSOR)
+   List<ExpensesDTO> findExpensesInPriceRange(User user, double minPrice, double maxPrice, Date afterCreatedAt, Long afterId, Pageable pageable);
+
+   @Query(SELECT_DTO + " WHERE b.user = :user AND b.createdAt BETWEEN :startDate AND :endDate" + AFTER_CURSOR)
+   List<ExpensesDTO> findExpensesByDateRange(User user, Date startDate, Date endDate, Date afterCreatedAt, Long afterId, Pageable pageable);
+
+   @Query(SELECT_DTO + " WHERE b.user = :user AND b.createdAt < :endDate" + AFTER_CURSOR)
+   List<ExpensesDTO> findExpensesBefore(User user, Date endDate, Date afterCreatedAt, Long afterId, Pageable pageable);
+
+   @Query(SELECT_DTO + " WHERE b.user = :user AND b.createdAt > :startDate" + AFTER_CURSOR)
+   List<ExpensesDTO> findExpensesAfter(User user, Date startDate, Date afterCreatedAt, Long afterId, Pageable pageable);
+
+   @Query("SELECT COALESCE(SUM(b.expenseAmount), 0.0) FROM Expenses b WHERE b.user = :user")
+   double sumExpenseAmountByUser(User user);
+
+   // Daily totals per category and subcategory for a set of users, used to backfill rollups
+   @Query("SELECT new com.cbfacademy.apiassessment.DTO.RollupAggregate(b.user.id, " +
+           "EXTRACT(YEAR FROM b.createdAt), EXTRACT(MONTH FROM b.createdAt), EXTRACT(DAY FROM b.createdAt), " +
+           "b.expenseCategory, b.expenseSubcategory, SUM(b.expenseAmount), COUNT(b.id), MIN(b.expenseAmount), MAX(b.expenseAmount)) " +
+           "FROM Expenses b WHERE b.user.id IN :userIds " +
+           "GROUP BY b.user.id, EXTRACT(YEAR FROM b.createdAt), EXTRACT(MONTH FROM b.createdAt), EXTRACT(DAY FROM b.createdAt), " +
+           "b.expenseCategory, b.expenseSubcategory")
+   List<RollupAggregate> findDailyAggregatesByUserIds(Collection<Long> userIds);
+
+   // Totals of the expenses in a single rollup bucket, used when a removal changes its min or max
+   @Query("SELECT new com.cbfacademy.apiassessment.DTO.RollupAggregate(SUM(b.expenseAmount), COUNT(b.id), MIN(b.expenseAmount), MAX(b.expenseAmount)) " +
+           "FROM Expenses b WHERE b.user.id = :userId AND b.createdAt >= :startDate AND b.createdAt < :endDate " +
+           "AND b.expenseCategory = :category " +
+           "AND ((:subcategory IS NULL AND b.expenseSubcategory IS NULL) OR b.expenseSubcategory = :subcategory)")
+   RollupAggregate aggregateRollupBucket(Long userId, Date startDate, Date endDate,
+                                         SubCategories.Category category, SubCategories subcategory);
+
+   @Query("SELECT DISTINCT b.user.id FROM Expenses b WHERE b.user.id > :afterId ORDER BY b.user.id")
+   List<Long> findUserIdsWithExpensesAfter(Long afterId, Pageable pageable);
 
-   @Query("SELECT b FROM Expenses b WHERE b.user = :user AND b.expenseAmount BETWEEN :minPrice AND :maxPrice")
-   List<Expenses> findExpensesInPriceRange(User user, double minPrice, double maxPrice);
+   @Query("SELECT COUNT(b.id) FROM Expenses b WHERE b.user.id = :userId")
+   long countByUserId(Long userId);
 
-   @Query("SELECT b FROM Expenses b WHERE b.user = :user AND b.createdAt BETWEEN :startDate AND :endDate")
-   List<Expenses> findExpensesByDateRange(User user, Date startDate, Date endDate);
+   // Ids of a user's expenses in id order, a page of one row at an offset finds the last id of a delete chunk
+   @Query("SELECT b.id FROM Expenses b WHERE b.user.id = :userId ORDER BY b.id")
+   List<Long> findIdsByUserId(Long userId, Pageable pageable);
 
-   @Query("SELECT b FROM Expenses b WHERE b.user = :user AND b.createdAt < :endDate")
-   List<Expenses> findExpensesBefore(User user, Date endDate);
+   // Deletes one chunk of a user's expenses by id range, over the user index without loading them
+   @Modifying
+   @Query("DELETE FROM Expenses b WHERE b.user.id = :userId AND b.id <= :maxId")
+   int deleteByUserIdUpTo(Long userId, Long maxId);
 
-   @Query("SELECT b FROM Expenses b WHERE b.user = :user AND b.createdAt > :startDate")
-   List<Expenses> findExpensesAfter(User user, Date startDate);
+   // Expenses written before updatedAt was stamped on every save get their creation time, so the change feed finds them
+   @Modifying
+   @Query("UPDATE Expenses b SET b.updatedAt = b.createdAt WHERE b.updatedAt IS NULL")
+   int backfillUpdatedAt();
 
 }
@@ -0,0 +1,12 @@
+package com.cbfacademy.apiassessment.Repository;
+
+import com.cbfacademy.apiassessment.DTO.ExpensesDTO;
+import com.cbfacademy.apiassessment.Entity.Expenses;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.List;
+
+public interface ExpensesSearch {
+    List<ExpensesDTO> search(Specification<Expenses> specification, Sort sort, int limit);
+}
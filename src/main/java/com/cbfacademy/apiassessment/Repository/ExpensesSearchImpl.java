@@ -0,0 +1,21 @@
+package com.cbfacademy.apiassessment.Repository;
+
+import com.cbfacademy.apiassessment.DTO.ExpensesDTO;
+import com.cbfacademy.apiassessment.Entity.Expenses;
+import jakarta.persistence.criteria.Root;
+import jakarta.persistence.criteria.Selection;
+
+class ExpensesSearchImpl extends SpecificationSearch<Expenses, ExpensesDTO> implements ExpensesSearch {
+
+    ExpensesSearchImpl() {
+        super(Expenses.class, ExpensesDTO.class);
+    }
+
+    // Same columns as ExpensesRepository.SELECT_DTO
+    @Override
+    Selection<?>[] columns(Root<Expenses> root) {
+        return new Selection<?>[]{root.get("id"), root.get("createdAt"), root.get("updatedAt"),
+                root.get("expenseAmount"), root.get("expenseCategory"), root.get("expenseSubcategory"),
+                root.get("description"), root.get("user").get("id"), root.get("budget").get("id")};
+    }
+}
@@ -0,0 +1,75 @@
+package com.cbfacademy.apiassessment.Repository;
+
+import com.cbfacademy.apiassessment.DTO.PageCursor;
+import jakarta.persistence.criteria.Path;
+import jakarta.persistence.criteria.Root;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.Collection;
+import java.util.Date;
+
+// Conditions combined into a single search query, a condition built from a null value matches everything
+public class SearchSpecifications {
+
+    public static <T> Specification<T> equal(String attribute, Object value) {
+        if (value == null) {
+            return null;
+        }
+        return (root, query, builder) -> builder.equal(path(root, attribute), value);
+    }
+
+    public static <T, Y extends Comparable<? super Y>> Specification<T> atLeast(String attribute, Y value) {
+        if (value == null) {
+            return null;
+        }
+        return (root, query, builder) -> builder.greaterThanOrEqualTo(path(root, attribute), value);
+    }
+
+    public static <T, Y extends Comparable<? super Y>> Specification<T> atMost(String attribute, Y value) {
+        if (value == null) {
+            return null;
+        }
+        return (root, query, builder) -> builder.lessThanOrEqualTo(path(root, attribute), value);
+    }
+
+    public static <T> Specification<T> in(String attribute, Collection<?> values) {
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        return (root, query, builder) -> path(root, attribute).in(values);
+    }
+
+    // Case-insensitive substring match, this is checked on the rows the other conditions select through an index
+    public static <T> Specification<T> contains(String attribute, String text) {
+        if (text == null || text.isBlank()) {
+            return null;
+        }
+        String pattern = "%" + text.toLowerCase().replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+        return (root, query, builder) -> builder.like(builder.lower(path(root, attribute)), pattern, '\\');
+    }
+
+    // Same keyset condition as the AFTER_CURSOR queries, the caller orders by (createdAt, id)
+    public static <T> Specification<T> after(PageCursor cursor) {
+        if (cursor.isFirst()) {
+            return null;
+        }
+        return (root, query, builder) -> {
+            Path<Date> createdAt = root.get("createdAt");
+            Path<Long> id = root.get("id");
+            return builder.or(
+                    builder.greaterThan(createdAt, cursor.getCreatedAt()),
+                    builder.and(builder.equal(createdAt, cursor.getCreatedAt()), builder.greaterThan(id, cursor.getId())));
+        };
+    }
+
+    // Resolves a dotted attribute such as "budget.id" without joining the associated table
+    private static <Y> Path<Y> path(Root<?> root, String attribute) {
+        Path<?> path = root;
+        for (String part : attribute.split("\\.")) {
+            path = path.get(part);
+        }
+        @SuppressWarnings("unchecked")
+        Path<Y> typed = (Path<Y>) path;
+        return typed;
+    }
+}
@@ -0,0 +1,109 @@
+package com.cbfacademy.apiassessment.Repository;
+
+import com.cbfacademy.apiassessment.DTO.RollupAggregate;
+import com.cbfacademy.apiassessment.Entity.Expenses;
+import com.cbfacademy.apiassessment.Entity.SubCategories;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.criteria.CommonAbstractCriteria;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaDelete;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.CriteriaUpdate;
+import jakarta.persistence.criteria.Expression;
+import jakarta.persistence.criteria.Path;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+// Runs a Specification as a single UPDATE or DELETE statement, the matching rows are changed in the database
+// without being loaded. Entities already in the persistence context are not refreshed.
+// The search specifications only use the root and the builder, so they are given no query
+abstract class SpecificationBulk<T> {
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    private final Class<T> domainClass;
+
+    SpecificationBulk(Class<T> domainClass) {
+        this.domainClass = domainClass;
+    }
+
+    // A condition checked in the same statement, the criteria is there to build subqueries on other tables
+    interface Condition<T> {
+        Predicate toPredicate(Root<T> root, CommonAbstractCriteria criteria, CriteriaBuilder builder);
+    }
+
+    long count(Specification<T> specification) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> query = builder.createQuery(Long.class);
+        Root<T> root = query.from(domainClass);
+        query.select(builder.count(root)).where(specification.toPredicate(root, query, builder));
+        return entityManager.createQuery(query).getSingleResult();
+    }
+
+    // Ids of the matching rows, locked so the rows recorded before a delete are the rows the delete removes
+    List<Long> lockIds(Specification<T> specification) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> query = builder.createQuery(Long.class);
+        Root<T> root = query.from(domainClass);
+        query.select(root.get("id")).where(specification.toPredicate(root, query, builder));
+        return entityManager.createQuery(query).setLockMode(LockModeType.PESSIMISTIC_WRITE).getResultList();
+    }
+
+    // Sets the attributes on every row that matches both the specification and the condition, a null value clears the column
+    int update(Specification<T> specification, Condition<T> condition, Map<String, Object> values) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaUpdate<T> update = builder.createCriteriaUpdate(domainClass);
+        Root<T> root = update.from(domainClass);
+
+        for (Map.Entry<String, Object> value : values.entrySet()) {
+            update.set(value.getKey(), value.getValue());
+        }
+
+        List<Predicate> predicates = new ArrayList<>();
+        predicates.add(specification.toPredicate(root, null, builder));
+        if (condition != null) {
+            predicates.add(condition.toPredicate(root, update, builder));
+        }
+        update.where(predicates.toArray(new Predicate[0]));
+
+        return entityManager.createQuery(update).executeUpdate();
+    }
+
+    int delete(Specification<T> specification) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaDelete<T> delete = builder.createCriteriaDelete(domainClass);
+        Root<T> root = delete.from(domainClass);
+        delete.where(specification.toPredicate(root, null, builder));
+        return entityManager.createQuery(delete).executeUpdate();
+    }
+
+    // Sum, count, min and max of the expenses matching the predicates per budget, day, category and subcategory,
+    // read before a bulk change so the ledgers and rollups can be adjusted by what it changes
+    List<RollupAggregate> aggregateExpenses(CriteriaQuery<RollupAggregate> query, Root<Expenses> expense, Predicate... predicates) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        Path<Date> createdAt = expense.get("createdAt");
+        Expression<Integer> year = builder.function("year", Integer.class, createdAt);
+        Expression<Integer> month = builder.function("month", Integer.class, createdAt);
+        Expression<Integer> day = builder.function("day", Integer.class, createdAt);
+        Path<Long> userId = expense.get("user").get("id");
+        Path<Long> budgetId = expense.get("budget").get("id");
+        Path<SubCategories.Category> category = expense.get("expenseCategory");
+        Path<SubCategories> subcategory = expense.get("expenseSubcategory");
+        Path<Double> amount = expense.get("expenseAmount");
+
+        query.select(builder.construct(RollupAggregate.class, userId, budgetId, year, month, day, category, subcategory,
+                        builder.sum(amount), builder.count(expense), builder.min(amount), builder.max(amount)))
+                .where(predicates)
+                .groupBy(userId, budgetId, year, month, day, category, subcategory);
+        return entityManager.createQuery(query).getResultList();
+    }
+}
@@ -0,0 +1,47 @@
+package com.cbfacademy.apiassessment.Repository;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import jakarta.persistence.criteria.Selection;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+
+import java.util.List;
+
+// Runs a Specification as one ordered query with a row limit and without the count query of a Page,
+// the matching rows are selected straight into the result DTO
+abstract class SpecificationSearch<T, R> {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final Class<T> domainClass;
+    private final Class<R> resultClass;
+
+    SpecificationSearch(Class<T> domainClass, Class<R> resultClass) {
+        this.domainClass = domainClass;
+        this.resultClass = resultClass;
+    }
+
+    // The columns passed to the result constructor, in the order of its parameters
+    abstract Selection<?>[] columns(Root<T> root);
+
+    public List<R> search(Specification<T> specification, Sort sort, int limit) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<R> query = builder.createQuery(resultClass);
+        Root<T> root = query.from(domainClass);
+
+        Predicate predicate = specification == null ? null : specification.toPredicate(root, query, builder);
+        if (predicate != null) {
+            query.where(predicate);
+        }
+        query.select(builder.construct(resultClass, columns(root))).orderBy(QueryUtils.toOrders(sort, root, builder));
+
+        return entityManager.createQuery(query).setMaxResults(limit).getResultList();
+    }
+}
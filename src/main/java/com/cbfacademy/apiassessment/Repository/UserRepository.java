@@ -1,15 +1,56 @@
 package com.cbfacademy.apiassessment.Repository;
 
+import com.cbfacademy.apiassessment.DTO.UserIdentity;
+import com.cbfacademy.apiassessment.DTO.UserRow;
 import com.cbfacademy.apiassessment.Entity.User;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
 import java.util.Optional;
 
 @Repository
 
 public interface UserRepository extends JpaRepository<User, Long> {
+    // Listings select straight into UserRow, so no user entity is loaded or kept in the persistence context
+    String SELECT_ROW = "SELECT new com.cbfacademy.apiassessment.DTO.UserRow(u.id, u.createdAt, u.name, u.username, " +
+            "u.email, u.updatedAt) FROM User u";
+
+    // The prefix ends in the only wildcard, so each search is a range scan of the column's index and the keyset
+    // condition continues in the same index order. '!' escapes the wildcards typed in the prefix
+    String LIKE_PREFIX = " LIKE :prefix ESCAPE '!'";
+
     Optional<User> findByUsername(String username);
     Optional<User> findByEmail(String email);
+
+    // One round trip over the unique username and email indexes, a username match is returned first
+    @Query("SELECT new com.cbfacademy.apiassessment.DTO.UserIdentity(u.id, u.role) FROM User u " +
+            "WHERE u.username = :usernameOrEmail OR u.email = :usernameOrEmail " +
+            "ORDER BY CASE WHEN u.username = :usernameOrEmail THEN 0 ELSE 1 END")
+    List<UserIdentity> findIdentityByUsernameOrEmail(String usernameOrEmail);
+
+    // Users in id order after a position, for listings and exports that page through every user
+    @Query(SELECT_ROW + " WHERE u.id > :afterId ORDER BY u.id")
+    List<UserRow> findRowsAfterId(Long afterId, Pageable pageable);
+
+    @Query(SELECT_ROW + " WHERE u.username" + LIKE_PREFIX +
+            " AND (u.username > :afterKey OR (u.username = :afterKey AND u.id > :afterId)) ORDER BY u.username, u.id")
+    List<UserRow> findRowsByUsernamePrefix(String prefix, String afterKey, Long afterId, Pageable pageable);
+
+    @Query(SELECT_ROW + " WHERE u.email" + LIKE_PREFIX +
+            " AND (u.email > :afterKey OR (u.email = :afterKey AND u.id > :afterId)) ORDER BY u.email, u.id")
+    List<UserRow> findRowsByEmailPrefix(String prefix, String afterKey, Long afterId, Pageable pageable);
+
+    @Query(SELECT_ROW + " WHERE u.name" + LIKE_PREFIX +
+            " AND (u.name > :afterKey OR (u.name = :afterKey AND u.id > :afterId)) ORDER BY u.name, u.id")
+    List<UserRow> findRowsByNamePrefix(String prefix, String afterKey, Long afterId, Pageable pageable);
+
+    // Deletes the user row alone, the budgets and expenses are deleted beforehand in chunks
+    @Modifying
+    @Query("DELETE FROM User u WHERE u.id = :userId")
+    int deleteUserRow(Long userId);
 }
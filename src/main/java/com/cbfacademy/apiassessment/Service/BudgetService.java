@@ -1,35 +1,54 @@
 package com.cbfacademy.apiassessment.Service;
 
+import com.cbfacademy.apiassessment.Cache.RequestLookups;
+import com.cbfacademy.apiassessment.Cache.SummaryCache;
 import com.cbfacademy.apiassessment.DTO.*;
 import com.cbfacademy.apiassessment.Entity.*;
 import com.cbfacademy.apiassessment.Mappers.*;
 import com.cbfacademy.apiassessment.Repository.*;
-import com.google.gson.Gson;
+import com.cbfacademy.apiassessment.Validators.SortCriteria;
 import jakarta.persistence.EntityNotFoundException;
 import jakarta.validation.ValidationException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 import static com.cbfacademy.apiassessment.Validators.ValidateArgs.*;
 
 @Service
 public class BudgetService implements IBudgetService{
 
+    // Sort keys accepted by sortBudgetsBy and the properties they sort on
+    private static final Map<String, String> SORT_PROPERTIES = Map.of(
+            "amount", "budgetAmount",
+            "category", "budgetCategory",
+            "subcategory", "budgetSubcategory",
+            "date", "createdAt");
+
     @Autowired
     BudgetRepository budgetRepository;
     @Autowired
     UserService userService;
+    @Autowired
+    SummaryCache summaryCache;
+    @Autowired
+    RequestLookups requestLookups;
+    @Autowired
+    ExpenseRollupService expenseRollupService;
+    @Autowired
+    ChangeFeedService changeFeedService;
 
     BudgetMapper budgetMapper;
 
@@ -49,7 +68,7 @@ public class BudgetService implements IBudgetService{
     public Budget saveBudget(String usernameOrEmail, Budget budget) throws EntityNotFoundException, ValidationException {
 
         // Check if the user exists
-        User user = userService.getUserByUsernameOrEmail(usernameOrEmail);
+        User user = userService.getUserReference(usernameOrEmail);
         if (user == null) {
             throw new EntityNotFoundException("User Does Not Exist, Cannot Create Budget");
         }
@@ -72,7 +91,10 @@ public class BudgetService implements IBudgetService{
         }
 
         // Save the budget to the repository
-        return budgetRepository.save(budget);
+        Budget savedBudget = budgetRepository.save(budget);
+        summaryCache.evict(user.getId());
+
+        return savedBudget;
     }
 
 
@@ -88,13 +110,41 @@ public class BudgetService implements IBudgetService{
      * @throws EntityNotFoundException If the user or budget does not exist
      */
     @Override
+    @Transactional
     public Budget updateBudgetByID(String usernameOrEmail, long budgetId, String update, String value)
             throws ValidationException, EntityNotFoundException {
+        // A single field is a patch with one member
+        Map<String, Object> patch = new HashMap<>();
+        patch.put(update, value);
+        return patchBudget(usernameOrEmail, budgetId, patch);
+    }
+
+
+    /**
+     * Applies a JSON merge patch to a budget for a specified user
+     * Every member is validated before anything changes, a null member clears the subcategory or description.
+     * A new category or subcategory has to match the expenses already connected to the budget. The budget is
+     * written with one UPDATE when a field changed and left as it is otherwise
+     *
+     * @param usernameOrEmail The username or email of the user
+     * @param budgetId The ID of the budget to be updated
+     * @param patch The fields to change (amount, category, subcategory or description) and their new values
+     * @return The updated budget
+     * @throws ValidationException If a field or value is not valid, or an expense would not match the budget
+     * @throws EntityNotFoundException If the user or budget does not exist
+     */
+    @Override
+    @Transactional
+    public Budget patchBudget(String usernameOrEmail, long budgetId, Map<String, Object> patch)
+            throws ValidationException, EntityNotFoundException {
         // Get the user by username or email
-        User user = userService.getUserByUsernameOrEmail(usernameOrEmail);
+        User user = userService.getUserReference(usernameOrEmail);
         if (user == null) {
             throw new EntityNotFoundException("User Does Not Exist, Cannot Update Budget");
         }
+        if (patch == null || patch.isEmpty()) {
+            throw new ValidationException("Nothing To Update");
+        }
 
         // Retrieve the existing budget by user and budget ID
         Optional<Budget> existingBudget = budgetRepository.findByUserAndId(user, budgetId);
@@ -104,28 +154,54 @@ public class BudgetService implements IBudgetService{
 
 
         Budget budget = existingBudget.get();
-
-        // Switch statement to validate and update parameters
-        switch (update) {
-            case "amount" -> {
-                if (!isAmountValid(value)) throw new ValidationException("Invalid Amount, Cannot Update Budget");
-                budget.setBudgetAmount(Double.parseDouble(value));
-            }
-            case "category" -> {
-                if (!isValidCategory(value)) throw new ValidationException("Invalid Category, Cannot Update Budget");
-                budget.setBudgetCategory(SubCategories.Category.valueOf(value));
+        double amount = budget.getBudgetAmount();
+        SubCategories.Category category = budget.getBudgetCategory();
+        SubCategories subcategory = budget.getBudgetSubcategory();
+        String description = budget.getDescription();
+
+        // Validates every member before anything is changed
+        for (Map.Entry<String, Object> member : patch.entrySet()) {
+            String value = member.getValue() == null ? null : member.getValue().toString();
+            switch (member.getKey()) {
+                case "amount" -> {
+                    if (value == null || !isAmountValid(value)) throw new ValidationException("Invalid Amount, Cannot Update Budget");
+                    amount = Double.parseDouble(value);
+                }
+                case "category" -> {
+                    if (value == null || !isValidCategory(value)) throw new ValidationException("Invalid Category, Cannot Update Budget");
+                    category = SubCategories.Category.valueOf(value);
+                }
+                case "subcategory" -> {
+                    if (value != null && !isValidSubCategory(value)) throw new ValidationException("Invalid SubCategory, Cannot Update Budget");
+                    subcategory = value == null ? null : SubCategories.valueOf(value);
+                }
+                case "description" -> description = value;
+                default -> throw new ValidationException("Invalid update type");
             }
-            case "subcategory" -> {
-                if (!(isValidSubCategory(value))) throw new ValidationException("Invalid SubCategory, Cannot Update Budget");
-                budget.setBudgetSubcategory(SubCategories.valueOf(value));
-            }
-            case "description" -> budget.setDescription(value);
-            default -> throw new ValidationException("Invalid update type");
         }
 
+        boolean recategorized = category != budget.getBudgetCategory() || subcategory != budget.getBudgetSubcategory();
+        if (!recategorized && amount == budget.getBudgetAmount() && Objects.equals(description, budget.getDescription())) {
+            return budget;
+        }
+
+        // The ledger count says whether there are expenses to check, an empty budget takes any category
+        if (recategorized && budget.getExpenseCount() > 0
+                && budgetRepository.hasConflictingExpenses(budget.getId(), category, subcategory)) {
+            throw new ValidationException("Budget has Expenses that do not match Category " + category.name()
+                    + (subcategory != null ? " and Subcategory " + subcategory.name() : ""));
+        }
+
+        budget.setBudgetAmount(amount);
+        budget.setBudgetCategory(category);
+        budget.setBudgetSubcategory(subcategory);
+        budget.setDescription(description);
         budget.setUpdatedAt();
 
-        return budgetRepository.save(budget);
+        Budget savedBudget = budgetRepository.save(budget);
+        summaryCache.evict(user.getId());
+
+        return savedBudget;
     }
 
 
@@ -140,17 +216,35 @@ public class BudgetService implements IBudgetService{
     @Override
     public Budget getBudgetById(String usernameOrEmail, long budgetId) throws EntityNotFoundException {
 
-        User user = userService.getUserByUsernameOrEmail(usernameOrEmail);
+        User user = userService.getUserReference(usernameOrEmail);
         if (user == null) {
             throw new EntityNotFoundException("User Does Not Exist, Cannot Get Budget");
         }
 
-        Optional<Budget> existingBudget = budgetRepository.findByUserAndId(user, budgetId);
-        if (existingBudget.isEmpty()) {
-            throw new EntityNotFoundException("Budget Does Not Exist");
+        // Resolved once per web request however many services ask for the budget
+        return requestLookups.budget(user, budgetId, id -> budgetRepository.findByUserAndId(user, id)
+                .orElseThrow(() -> new EntityNotFoundException("Budget Does Not Exist")));
+    }
+
+
+    /**
+     * Gets a budget by its ID for a specified user, selected straight into the response shape
+     *
+     * @param usernameOrEmail The username or email of the user
+     * @param budgetId The ID of the budget
+     * @return  The budget
+     * @throws EntityNotFoundException If the user or budget does not exist
+     */
+    @Override
+    public BudgetDTO getBudgetDTOById(String usernameOrEmail, long budgetId) throws EntityNotFoundException {
+
+        User user = userService.getUserReference(usernameOrEmail);
+        if (user == null) {
+            throw new EntityNotFoundException("User Does Not Exist, Cannot Get Budget");
         }
 
-        return existingBudget.get();
+        return budgetRepository.findDtoByUserAndId(user, budgetId)
+                .orElseThrow(() -> new EntityNotFoundException("Budget Does Not Exist"));
     }
 
 
@@ -158,23 +252,26 @@ public class BudgetService implements IBudgetService{
      * Gets all budgets for a specified user
      *
      * @param usernameOrEmail The username or email of the user
-     * @return List of budgets
+     * @param limit The maximum number of budgets to return
+     * @param after The cursor returned with the previous page, or null for the first page
+     * @return List of budgets, one page at a time ordered by creation date
      * @throws EntityNotFoundException If the user does not exist
      */
     @Override
-    public List<Budget> getAllBudgets(String usernameOrEmail) throws EntityNotFoundException {
+    public CursorPage<BudgetDTO> getAllBudgets(String usernameOrEmail, int limit, String after) throws EntityNotFoundException {
 
-        User user = userService.getUserByUsernameOrEmail(usernameOrEmail);
+        User user = userService.getUserReference(usernameOrEmail);
         if (user == null) {
             throw new EntityNotFoundException("User Does Not Exist, Cannot Get Budget");
         }
 
-        Optional<List<Budget>> existingBudget = budgetRepository.findByUser(user);
-        if (existingBudget.isEmpty()) {
+        PageCursor cursor = PageCursor.decode(after);
+        List<BudgetDTO> existingBudget = budgetRepository.findPageByUser(user, cursor.getCreatedAt(), cursor.getId(), PageCursor.pageRequest(limit));
+        if (existingBudget.isEmpty() && cursor.isFirst()) {
             throw new EntityNotFoundException("User has not created any budgets");
         }
 
-        return existingBudget.get();
+        return CursorPage.of(existingBudget, limit);
     }
 
 
@@ -183,25 +280,29 @@ public class BudgetService implements IBudgetService{
      *
      * @param usernameOrEmail The username or email of the user
      * @param category        The budget category
-     * @return List of budgets for the specified user and category
+     * @param limit The maximum number of budgets to return
+     * @param after The cursor returned with the previous page, or null for the first page
+     * @return List of budgets for the specified user and category, one page at a time ordered by creation date
      * @throws EntityNotFoundException If the user or budget with the specified category does not exist
      * @throws ValidationException If the category is not valid
      */
     @Override
-    public List<Budget> getBudgetsByCategory(String usernameOrEmail, String category)
+    public CursorPage<BudgetDTO> getBudgetsByCategory(String usernameOrEmail, String category, int limit, String after)
             throws EntityNotFoundException, ValidationException {
-        User user = userService.getUserByUsernameOrEmail(usernameOrEmail);
+        User user = userService.getUserReference(usernameOrEmail);
         if(user == null){
             throw new EntityNotFoundException("User Does Not Exist, Cannot Get Budget");
         }
         if (!isValidCategory(category)) throw new ValidationException("Invalid Category, Cannot Get Budget");
 
-        List<Budget> existingBudget = budgetRepository.findByUserIdAndBudgetCategory(user.getId(), SubCategories.Category.valueOf(category));
+        PageCursor cursor = PageCursor.decode(after);
+        List<BudgetDTO> existingBudget = budgetRepository.findByUserIdAndBudgetCategory(user.getId(), SubCategories.Category.valueOf(category),
+                cursor.getCreatedAt(), cursor.getId(), PageCursor.pageRequest(limit));
 
-        if (existingBudget.isEmpty()) {
+        if (existingBudget.isEmpty() && cursor.isFirst()) {
             throw new EntityNotFoundException("Budget with Category"+ category +" Does Not Exist");
         }
-        return existingBudget;
+        return CursorPage.of(existingBudget, limit);
     }
 
 
@@ -211,15 +312,17 @@ public class BudgetService implements IBudgetService{
      * @param usernameOrEmail The username or email of the user
      * @param minPrice        The minimum budget amount in the range
      * @param maxPrice        The maximum budget amount in the range
-     * @return A list of budgets within the specified price range
+     * @param limit The maximum number of budgets to return
+     * @param after The cursor returned with the previous page, or null for the first page
+     * @return A list of budgets within the specified price range, one page at a time ordered by creation date
      * @throws EntityNotFoundException If the user does not exist or if no budgets are found within the specified range
      * @throws ValidationException If the minPrice or maxPrice is not valid
      */
     @Override
-    public List<Budget> getBudgetsInPriceRange(String usernameOrEmail, double minPrice, double maxPrice)
+    public CursorPage<BudgetDTO> getBudgetsInPriceRange(String usernameOrEmail, double minPrice, double maxPrice, int limit, String after)
             throws EntityNotFoundException, ValidationException {
 
-        User user = userService.getUserByUsernameOrEmail(usernameOrEmail);
+        User user = userService.getUserReference(usernameOrEmail);
         if (user == null) {
             throw new EntityNotFoundException("User Does Not Exist, Cannot Get Budget");
         }
@@ -230,21 +333,22 @@ public class BudgetService implements IBudgetService{
         }
 
         // Get budgets within the specified price range
-        Optional<List<Budget>> existingBudget = Optional.ofNullable(budgetRepository.findBudgetsInPriceRange(user, minPrice, maxPrice));
+        PageCursor cursor = PageCursor.decode(after);
+        List<BudgetDTO> existingBudget = budgetRepository.findBudgetsInPriceRange(user, minPrice, maxPrice, cursor.getCreatedAt(), cursor.getId(), PageCursor.pageRequest(limit));
 
 
-        if (existingBudget.isEmpty()) {
+        if (existingBudget.isEmpty() && cursor.isFirst()) {
             throw new EntityNotFoundException("Budget within Range " + minPrice + " and " + maxPrice + " Does Not Exist");
         }
 
 
-        return existingBudget.get();
+        return CursorPage.of(existingBudget, limit);
     }
     @Override
-    public List<Budget> getBudgetsGreaterThan(String usernameOrEmail, double minPrice)
+    public CursorPage<BudgetDTO> getBudgetsGreaterThan(String usernameOrEmail, double minPrice, int limit, String after)
             throws EntityNotFoundException, ValidationException {
 
-        User user = userService.getUserByUsernameOrEmail(usernameOrEmail);
+        User user = userService.getUserReference(usernameOrEmail);
         if (user == null) {
             throw new EntityNotFoundException("User Does Not Exist, Cannot Get Budget");
         }
@@ -255,22 +359,23 @@ public class BudgetService implements IBudgetService{
         }
 
 
-        List<Budget> existingBudget = budgetRepository.findBudgetsGreaterThan(user, minPrice);
+        PageCursor cursor = PageCursor.decode(after);
+        List<BudgetDTO> existingBudget = budgetRepository.findBudgetsGreaterThan(user, minPrice, cursor.getCreatedAt(), cursor.getId(), PageCursor.pageRequest(limit));
 
 
-        if (existingBudget.isEmpty()) {
+        if (existingBudget.isEmpty() && cursor.isFirst()) {
             throw new EntityNotFoundException("Budgets Greater than " + minPrice + " Does Not Exist");
         }
 
 
-        return existingBudget;
+        return CursorPage.of(existingBudget, limit);
     }
 
     @Override
-    public List<Budget> getBudgetsLessThan(String usernameOrEmail, double maxPrice)
+    public CursorPage<BudgetDTO> getBudgetsLessThan(String usernameOrEmail, double maxPrice, int limit, String after)
             throws EntityNotFoundException, ValidationException {
 
-        User user = userService.getUserByUsernameOrEmail(usernameOrEmail);
+        User user = userService.getUserReference(usernameOrEmail);
         if (user == null) {
             throw new EntityNotFoundException("User Does Not Exist, Cannot Get Budget");
         }
@@ -281,15 +386,16 @@ public class BudgetService implements IBudgetService{
         }
 
         // Get budgets within the specified price range
-        List<Budget> existingBudget = budgetRepository.findBudgetsLessThan(user, maxPrice);
+        PageCursor cursor = PageCursor.decode(after);
+        List<BudgetDTO> existingBudget = budgetRepository.findBudgetsLessThan(user, maxPrice, cursor.getCreatedAt(), cursor.getId(), PageCursor.pageRequest(limit));
 
 
-        if (existingBudget.isEmpty()) {
+        if (existingBudget.isEmpty() && cursor.isFirst()) {
             throw new EntityNotFoundException("Budgets less than " + maxPrice + " Does Not Exist");
         }
 
 
-        return existingBudget;
+        return CursorPage.of(existingBudget, limit);
     }
 
 
@@ -299,14 +405,16 @@ public class BudgetService implements IBudgetService{
      * @param usernameOrEmail The username or email of the user
      * @param startDate        The start date of the date range
      * @param endDate          The end date of the date range
-     * @return A list of budgets within the specified date range
+     * @param limit The maximum number of budgets to return
+     * @param after The cursor returned with the previous page, or null for the first page
+     * @return A list of budgets within the specified date range, one page at a time ordered by creation date
      * @throws EntityNotFoundException If the user does not exist or if the budgets within the date range do not exist
      * @throws ValidationException     If the provided date values are invalid
      */
     @Override
-    public List<Budget> getBudgetsByDateRange(String usernameOrEmail, String startDate, String endDate)
+    public CursorPage<BudgetDTO> getBudgetsByDateRange(String usernameOrEmail, String startDate, String endDate, int limit, String after)
             throws EntityNotFoundException, ValidationException{
-        User user = userService.getUserByUsernameOrEmail(usernameOrEmail);
+        User user = userService.getUserReference(usernameOrEmail);
         if (user == null) {
             throw new EntityNotFoundException("User Does Not Exist, Cannot Get Budget");
         }
@@ -329,19 +437,20 @@ public class BudgetService implements IBudgetService{
         }
 
         // Retrieve budgets within the specified date range
-        List<Budget> existingBudget = budgetRepository.findBudgetsByDateRange(user, parsedStartDate, parsedEndDate);
+        PageCursor cursor = PageCursor.decode(after);
+        List<BudgetDTO> existingBudget = budgetRepository.findBudgetsByDateRange(user, parsedStartDate, parsedEndDate, cursor.getCreatedAt(), cursor.getId(), PageCursor.pageRequest(limit));
 
-        if (existingBudget.isEmpty()) {
+        if (existingBudget.isEmpty() && cursor.isFirst()) {
             throw new EntityNotFoundException("Budget within Date range " + startDate + " and " + endDate + " Does Not Exist");
         }
 
-        return existingBudget;
+        return CursorPage.of(existingBudget, limit);
     }
 
     @Override
-    public List<Budget> getBudgetsBefore(String usernameOrEmail, String endDate)
+    public CursorPage<BudgetDTO> getBudgetsBefore(String usernameOrEmail, String endDate, int limit, String after)
             throws EntityNotFoundException, ValidationException{
-        User user = userService.getUserByUsernameOrEmail(usernameOrEmail);
+        User user = userService.getUserReference(usernameOrEmail);
         if (user == null) {
             throw new EntityNotFoundException("User Does Not Exist, Cannot Get Budget");
         }
@@ -361,19 +470,20 @@ public class BudgetService implements IBudgetService{
         }
 
         // Retrieve budgets within the specified date range
-        List<Budget> existingBudget = budgetRepository.findBudgetsBefore(user, parsedEndDate);
+        PageCursor cursor = PageCursor.decode(after);
+        List<BudgetDTO> existingBudget = budgetRepository.findBudgetsBefore(user, parsedEndDate, cursor.getCreatedAt(), cursor.getId(), PageCursor.pageRequest(limit));
 
-        if (existingBudget.isEmpty()) {
+        if (existingBudget.isEmpty() && cursor.isFirst()) {
             throw new EntityNotFoundException("Budgets created before " + endDate + " Does Not Exist");
         }
 
-        return existingBudget;
+        return CursorPage.of(existingBudget, limit);
     }
 
     @Override
-    public List<Budget> getBudgetsAfter(String usernameOrEmail, String startDate)
+    public CursorPage<BudgetDTO> getBudgetsAfter(String usernameOrEmail, String startDate, int limit, String after)
             throws EntityNotFoundException, ValidationException{
-        User user = userService.getUserByUsernameOrEmail(usernameOrEmail);
+        User user = userService.getUserReference(usernameOrEmail);
         if (user == null) {
             throw new EntityNotFoundException("User Does Not Exist, Cannot Get Budget");
         }
@@ -393,55 +503,93 @@ public class BudgetService implements IBudgetService{
         }
 
         // Retrieve budgets within the specified date range
-        List<Budget> existingBudget = budgetRepository.findBudgetsAfter(user, parsedStartDate);
+        PageCursor cursor = PageCursor.decode(after);
+        List<BudgetDTO> existingBudget = budgetRepository.findBudgetsAfter(user, parsedStartDate, cursor.getCreatedAt(), cursor.getId(), PageCursor.pageRequest(limit));
 
-        if (existingBudget.isEmpty()) {
+        if (existingBudget.isEmpty() && cursor.isFirst()) {
             throw new EntityNotFoundException("Budgets created after " + startDate + " Does Not Exist");
         }
 
-        return existingBudget;
+        return CursorPage.of(existingBudget, limit);
+    }
+
+
+    /**
+     * Searches the budgets of a specified user with any combination of conditions in a single query
+     * Without sortBy the results are paged by creation date, with sortBy the first page of the sorted results is returned
+     *
+     * @param usernameOrEmail The username or email of the user
+     * @param filter The conditions to match, conditions that are not set are ignored, the budget id does not apply to budgets
+     * @param sortBy Optional sorting criteria, in the same format as sortBudgetsBy
+     * @param limit The maximum number of budgets to return
+     * @param after The cursor returned with the previous page, or null for the first page
+     * @return The matching budgets
+     * @throws EntityNotFoundException If the user does not exist or no budgets match
+     * @throws ValidationException If a condition, the sorting criteria, the limit or the cursor is not valid
+     */
+    @Override
+    public CursorPage<BudgetDTO> searchBudgets(String usernameOrEmail, SearchFilter filter, String sortBy, int limit, String after)
+            throws EntityNotFoundException, ValidationException {
+        User user = userService.getUserReference(usernameOrEmail);
+        if (user == null) {
+            throw new EntityNotFoundException("User Does Not Exist, Cannot Get Budget");
+        }
+
+        Specification<Budget> specification = searchSpecification(user, filter);
+
+        if (sortBy != null) {
+            if (after != null) {
+                throw new ValidationException("Cursor cannot be combined with SortBy");
+            }
+            Sort sort = SortCriteria.parse(sortBy, SORT_PROPERTIES);
+            PageCursor.checkLimit(limit);
+
+            List<BudgetDTO> budgets = budgetRepository.search(specification, sort, limit);
+            if (budgets.isEmpty()) {
+                throw new EntityNotFoundException("No Budgets Match The Search");
+            }
+            return new CursorPage<>(budgets, null, limit);
+        }
+
+        PageCursor cursor = PageCursor.decode(after);
+        PageCursor.checkLimit(limit);
+        List<BudgetDTO> budgets = budgetRepository.search(specification.and(SearchSpecifications.after(cursor)),
+                Sort.by("createdAt", "id"), limit + 1);
+        if (budgets.isEmpty() && cursor.isFirst()) {
+            throw new EntityNotFoundException("No Budgets Match The Search");
+        }
+
+        return CursorPage.of(budgets, limit);
     }
 
 
     /**
      * Sorts the budgets for a specific user based on the specified criteria
+     * The sort and limit are applied by the database, so only the requested rows are loaded
      *
      * @param usernameOrEmail The username or email of the user
-     * @param sortBy The sorting criteria ("amount", "category", "subcategory", or "date")
+     * @param sortBy The sorting criteria, comma separated keys ("amount", "category", "subcategory", or "date")
+     *               each optionally followed by ":asc" or ":desc", e.g. "category,amount:desc"
+     * @param limit The maximum number of budgets to return
      * @return A list of budgets sorted according to the specified criteria
-     * @throws ValidationException if the sorting criteria is invalid
+     * @throws ValidationException if the sorting criteria or limit is invalid
      * @throws EntityNotFoundException if the user or budgets do not exist
      */
     @Override
-    public List<Budget> sortBudgetsBy(String usernameOrEmail, String sortBy)
+    public List<BudgetDTO> sortBudgetsBy(String usernameOrEmail, String sortBy, int limit)
             throws ValidationException, EntityNotFoundException {
 
-        User user = userService.getUserByUsernameOrEmail(usernameOrEmail);
+        User user = userService.getUserReference(usernameOrEmail);
         if (user == null) {
             throw new EntityNotFoundException("User Does Not Exist, Cannot Get Budget");
         }
 
-        Optional<List<Budget>> existingBudget = budgetRepository.findByUser(user);
-        if (existingBudget.isEmpty()) {
-            throw new EntityNotFoundException("Budget Does Not Exist");
-        }
+        Sort sort = SortCriteria.parse(sortBy, SORT_PROPERTIES);
+        PageCursor.checkLimit(limit);
 
-        List<Budget> budgets = existingBudget.get();
-
-        // Sort budgets based on the specified criteria
-        switch (sortBy.toLowerCase()) {
-            case "amount" ->
-                    budgets.sort(Comparator.comparingDouble(Budget::getBudgetAmount));
-            case "category" ->
-                    budgets.sort(Comparator.comparing(b -> b.getBudgetCategory().name()));
-            case "subcategory" ->
-                    budgets.sort(Comparator.comparing(b ->
-                            b.getBudgetSubcategory() != null ? b.getBudgetSubcategory().name() : null, Comparator.nullsFirst(String::compareTo)));
-
-            case "date" ->
-                    budgets.sort(Comparator.comparing(Budget::getCreatedAt));
-            default ->
-                    throw new ValidationException("Invalid SortBy value");
+        List<BudgetDTO> budgets = budgetRepository.findDtoByUser(user, PageRequest.of(0, limit, sort));
+        if (budgets.isEmpty()) {
+            throw new EntityNotFoundException("Budget Does Not Exist");
         }
 
         return budgets;
@@ -449,71 +597,185 @@ public class BudgetService implements IBudgetService{
 
 
     /**
-     * Retrieves all budgets for a user and writes them to a JSON file.
+     * Deletes a budget for the specified user based on the budget ID
+     * The budget's expenses are deleted with it in one DELETE statement, and taken off their rollups
      *
-     * @throws IOException If an error occurs while generating the file.
-     * @throws EntityNotFoundException If the user or budget do not exist.
+     * @param usernameOrEmail The username or email of the user
+     * @param budgetId The ID of the budget to be deleted
+     * @throws EntityNotFoundException If the user or budget does not exist
      */
     @Override
-    public void getAllBudgetAsJSONFile(String usernameOrEmail) throws EntityNotFoundException, IOException {
-        User user = userService.getUserByUsernameOrEmail(usernameOrEmail);
-        if (user == null) {
-            throw new EntityNotFoundException("User Does Not Exist, Cannot Get Budget");
+    @Transactional
+    public void deleteBudget(String usernameOrEmail, long budgetId)
+            throws EntityNotFoundException {
+
+        User user = userService.getUserReference(usernameOrEmail);
+        if(user == null){
+            throw new EntityNotFoundException("User Does Not Exist, Cannot Delete Budget");
         }
 
-        Optional<List<Budget>> existingBudget = budgetRepository.findByUser(user);
-        if (existingBudget.isEmpty()) {
-            throw new EntityNotFoundException("User has not created any Budget");
+        // The budget is locked first, then its expenses are grouped, recorded for the change feed and deleted
+        // with one statement each, none of them is loaded
+        Specification<Budget> specification = Specification.where(SearchSpecifications.<Budget>equal("user", user))
+                .and(SearchSpecifications.equal("id", budgetId));
+        if (budgetRepository.lockIdsMatching(specification).isEmpty()) {
+            throw new EntityNotFoundException("Budget Does Not Exist");
         }
 
-        List<BudgetDTO> budget = existingBudget.get().stream().map(budgetMapper.INSTANCE::budgetDTO).collect(Collectors.toList());
+        // The deleted expenses get tombstones of their own, a sync may hold them without the budget
+        List<Long> expenseIds = budgetRepository.lockExpenseIdsOfMatching(specification);
+        List<RollupAggregate> removed = budgetRepository.aggregateExpensesOfMatching(specification);
+        budgetRepository.deleteExpensesOfMatching(specification);
+        budgetRepository.deleteMatching(specification);
+        // The expenses leave their rollups too, once they are gone a bucket can be recomputed without them
+        if (!removed.isEmpty()) {
+            expenseRollupService.removeAggregates(removed);
+        }
+        changeFeedService.recordDeleted(DeletedRow.Type.EXPENSE, user.getId(), expenseIds);
+        changeFeedService.recordDeleted(DeletedRow.Type.BUDGET, user.getId(), List.of(budgetId));
+        requestLookups.evictBudget(user, budgetId);
+        summaryCache.evict(user.getId());
+    }
 
-        String outputFile = "src/main/resources/AllBudget.JSON";
-        Gson gson = new Gson();
 
-        // Delete the existing file if it exists
-        File file = new File(outputFile);
-        if (file.exists()){
 
-            file.delete();
+    /**
+     * Updates every budget of the user that matches the selection, in one UPDATE statement
+     * When the category or subcategory changes, budgets with an expense of another category or
+     * subcategory are skipped. The check is part of the UPDATE, so no budget or expense is loaded
+     *
+     * @param usernameOrEmail The username or email of the user
+     * @param update The selection and the fields to set on it
+     * @return The number of budgets matched, updated and skipped
+     * @throws EntityNotFoundException If the user does not exist
+     * @throws ValidationException If the selection or a field is not valid
+     */
+    @Override
+    @Transactional
+    public BulkResult bulkUpdateBudgets(String usernameOrEmail, BulkBudgetUpdate update)
+            throws EntityNotFoundException, ValidationException {
+        User user = userService.getUserReference(usernameOrEmail);
+        if (user == null) {
+            throw new EntityNotFoundException("User Does Not Exist, Cannot Update Budgets");
         }
 
-        try (FileWriter writer = new FileWriter(outputFile)) {
-            // Create a new file
-            gson.toJson(budget, writer);
-        } catch (IOException e) {
-            throw new IOException("Error generating File");
+        Specification<Budget> specification = bulkSpecification(user, update.getFilter(), update.getIds());
+        if (update.getAmount() == null && update.getCategory() == null && update.getSubcategory() == null
+                && update.getDescription() == null) {
+            throw new ValidationException("Nothing To Update");
+        }
+        if (update.getAmount() != null && !isAmountValid(update.getAmount())) {
+            throw new ValidationException("Invalid Amount, Cannot Update Budgets");
         }
+        if (update.getCategory() != null && !isValidCategory(update.getCategory())) {
+            throw new ValidationException("Invalid Category, Cannot Update Budgets");
+        }
+        if (update.getSubcategory() != null && !isValidSubCategory(update.getSubcategory())) {
+            throw new ValidationException("Invalid Subcategory, Cannot Update Budgets");
+        }
+        SubCategories.Category category = update.getCategory() == null ? null : SubCategories.Category.valueOf(update.getCategory());
+        SubCategories subcategory = update.getSubcategory() == null ? null : SubCategories.valueOf(update.getSubcategory());
 
-    }
+        long matched = budgetRepository.countMatching(specification);
+        int updated = budgetRepository.updateMatching(specification, update.getAmount(), category, subcategory, update.getDescription());
+        summaryCache.evict(user.getId());
 
+        return new BulkResult(matched, updated, matched - updated, 0);
+    }
 
 
     /**
-     * Deletes a budget for the specified user based on the budget ID
+     * Deletes every budget of the user that matches the selection together with its expenses
+     * The expenses and the budgets are each deleted in one DELETE statement after their ids are locked and
+     * recorded for the change feed. The expenses are grouped per day, category and subcategory before they are
+     * deleted, and only those rollup buckets are adjusted afterwards
      *
      * @param usernameOrEmail The username or email of the user
-     * @param budgetId The ID of the budget to be deleted
-     * @throws EntityNotFoundException If the user or budget does not exist
+     * @param selection The budgets to delete
+     * @return The number of budgets and expenses deleted
+     * @throws EntityNotFoundException If the user does not exist
+     * @throws ValidationException If the selection is not valid
      */
     @Override
-    public void deleteBudget(String usernameOrEmail, long budgetId)
-            throws EntityNotFoundException {
+    @Transactional
+    public BulkResult bulkDeleteBudgets(String usernameOrEmail, BulkSelection selection)
+            throws EntityNotFoundException, ValidationException {
+        User user = userService.getUserReference(usernameOrEmail);
+        if (user == null) {
+            throw new EntityNotFoundException("User Does Not Exist, Cannot Delete Budgets");
+        }
 
-        User user = userService.getUserByUsernameOrEmail(usernameOrEmail);
-        if(user == null){
-            throw new EntityNotFoundException("User Does Not Exist, Cannot Delete Budget");
+        Specification<Budget> specification = bulkSpecification(user, selection.getFilter(), selection.getIds());
+        changeFeedService.recordDeleted(DeletedRow.Type.EXPENSE, user.getId(), budgetRepository.lockExpenseIdsOfMatching(specification));
+        changeFeedService.recordDeleted(DeletedRow.Type.BUDGET, user.getId(), budgetRepository.lockIdsMatching(specification));
+        List<RollupAggregate> removed = budgetRepository.aggregateExpensesOfMatching(specification);
+        int expensesDeleted = budgetRepository.deleteExpensesOfMatching(specification);
+        int deleted = budgetRepository.deleteMatching(specification);
+
+        if (expensesDeleted > 0) {
+            expenseRollupService.removeAggregates(removed);
         }
+        summaryCache.evict(user.getId());
 
-        Optional<Budget> existingBudget = budgetRepository.findByUserAndId(user, budgetId);
+        return new BulkResult(deleted, deleted, 0, expensesDeleted);
+    }
 
-        if (existingBudget.isEmpty()) {
-            throw new EntityNotFoundException("Budget Does Not Exist");
+
+    // Validates the conditions of a search and combines them into one specification
+    private Specification<Budget> searchSpecification(User user, SearchFilter filter) throws ValidationException {
+        if (filter.getCategory() != null && !isValidCategory(filter.getCategory())) {
+            throw new ValidationException("Invalid Category");
+        }
+        if (filter.getSubcategory() != null && !isValidSubCategory(filter.getSubcategory())) {
+            throw new ValidationException("Invalid Subcategory");
+        }
+        if ((filter.getMinAmount() != null && !isAmountValid(filter.getMinAmount()))
+                || (filter.getMaxAmount() != null && !isAmountValid(filter.getMaxAmount()))) {
+            throw new ValidationException("Invalid Amount");
         }
 
-        budgetRepository.delete(existingBudget.get());
+        // Every condition is part of the same WHERE clause, the user condition leads so the user indexes apply
+        return Specification.where(SearchSpecifications.<Budget>equal("user", user))
+                .and(SearchSpecifications.equal("budgetCategory",
+                        filter.getCategory() == null ? null : SubCategories.Category.valueOf(filter.getCategory())))
+                .and(SearchSpecifications.equal("budgetSubcategory",
+                        filter.getSubcategory() == null ? null : SubCategories.valueOf(filter.getSubcategory())))
+                .and(SearchSpecifications.atLeast("budgetAmount", filter.getMinAmount()))
+                .and(SearchSpecifications.atMost("budgetAmount", filter.getMaxAmount()))
+                .and(SearchSpecifications.atLeast("createdAt", parseSearchDate(filter.getStartDate())))
+                .and(SearchSpecifications.atMost("createdAt", parseSearchDate(filter.getEndDate())))
+                .and(SearchSpecifications.contains("description", filter.getDescription()));
     }
 
 
+    // A bulk change needs a filter condition or an id list, so an empty request never selects every budget
+    private Specification<Budget> bulkSpecification(User user, SearchFilter filter, List<Long> ids) throws ValidationException {
+        boolean hasIds = ids != null && !ids.isEmpty();
+        if ((filter == null || filter.isEmpty()) && !hasIds) {
+            throw new ValidationException("A Filter Or Ids Are Required");
+        }
+        if (hasIds && ids.size() > BulkSelection.MAX_IDS) {
+            throw new ValidationException("At Most " + BulkSelection.MAX_IDS + " Ids Can Be Changed At Once");
+        }
+        return searchSpecification(user, filter == null ? new SearchFilter() : filter)
+                .and(SearchSpecifications.in("id", ids));
+    }
+
+
+    // Parses an optional yyyy-MM-dd search bound, null when the bound is not set
+    private Date parseSearchDate(String date) throws ValidationException {
+        if (date == null) {
+            return null;
+        }
+        if (!isValidDate(date)) {
+            throw new ValidationException("Invalid Date");
+        }
+        try {
+            return new SimpleDateFormat("yyyy-MM-dd").parse(date);
+        } catch (ParseException e) {
+            throw new ValidationException("Invalid Date");
+        }
+    }
+
 
 }
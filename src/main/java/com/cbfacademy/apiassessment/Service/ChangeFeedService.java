@@ -0,0 +1,191 @@
+package com.cbfacademy.apiassessment.Service;
+
+import com.cbfacademy.apiassessment.DTO.BudgetDTO;
+import com.cbfacademy.apiassessment.DTO.ChangeFeed;
+import com.cbfacademy.apiassessment.DTO.ChangeWatermark;
+import com.cbfacademy.apiassessment.DTO.ExpensesDTO;
+import com.cbfacademy.apiassessment.DTO.PageCursor;
+import com.cbfacademy.apiassessment.DTO.Tombstone;
+import com.cbfacademy.apiassessment.Entity.DeletedRow;
+import com.cbfacademy.apiassessment.Entity.PooledIdGenerator;
+import com.cbfacademy.apiassessment.Repository.BudgetRepository;
+import com.cbfacademy.apiassessment.Repository.DeletedRowRepository;
+import com.cbfacademy.apiassessment.Repository.ExpensesRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityNotFoundException;
+import jakarta.persistence.PersistenceContext;
+import jakarta.validation.ValidationException;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+@Service
+public class ChangeFeedService implements IChangeFeedService {
+
+    private static final Logger log = LoggerFactory.getLogger(ChangeFeedService.class);
+
+    private static final String INSERT_DELETED_ROW = "INSERT INTO deleted_row " +
+            "(id, entity_type, entity_id, user_id, created_at, updated_at) VALUES (?, ?, ?, ?, ?, ?)";
+
+    @Autowired
+    UserService userService;
+    @Autowired
+    ExpensesRepository expensesRepository;
+    @Autowired
+    BudgetRepository budgetRepository;
+    @Autowired
+    DeletedRowRepository deletedRowRepository;
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+    @Autowired
+    TransactionTemplate transactionTemplate;
+    @PersistenceContext
+    EntityManager entityManager;
+
+    // Rows are stamped before their transaction commits, so the feed stops this far behind the clock and a row
+    // committed late is not passed by the watermark before it can be read
+    @Value("${pf.changes.settle-seconds:5}")
+    long settleSeconds;
+
+
+    // Rows saved before updatedAt was stamped on every insert have none, they are given their creation time once
+    @PostConstruct
+    void backfillUpdatedAt() {
+        transactionTemplate.executeWithoutResult(status -> {
+            int expenses = expensesRepository.backfillUpdatedAt();
+            int budgets = budgetRepository.backfillUpdatedAt();
+            if (expenses + budgets > 0) {
+                log.info("Set updatedAt on {} expenses and {} budgets for the change feed", expenses, budgets);
+            }
+        });
+    }
+
+
+    /**
+     * Gets the expenses and budgets of a user changed after a watermark, with the ones deleted since
+     * Each kind is read in (updatedAt, id) order from its own index, and the three are merged into one page
+     * of at most the limit. The returned watermark continues after the last row of each kind in the page
+     *
+     * @param usernameOrEmail The username or email of the user
+     * @param watermark The watermark of the previous sync, or null for every change
+     * @param limit The maximum number of changes to return
+     * @return The changes and the watermark to continue from
+     * @throws ValidationException If the watermark or the limit is not valid
+     * @throws EntityNotFoundException If the user does not exist
+     */
+    @Override
+    public ChangeFeed getChanges(String usernameOrEmail, String watermark, int limit)
+            throws ValidationException, EntityNotFoundException {
+        ChangeWatermark after = ChangeWatermark.decode(watermark);
+        Pageable page = PageCursor.pageRequest(limit);
+        Long userId = userService.resolveUser(usernameOrEmail).getId();
+        Date until = settledUntil();
+
+        return merge(after, limit,
+                expensesRepository.findChangesByUserId(userId, after.getExpenses().at(), after.getExpenses().id(), until, page),
+                budgetRepository.findChangesByUserId(userId, after.getBudgets().at(), after.getBudgets().id(), until, page),
+                deletedRowRepository.findDeletedByUserId(userId, after.getDeleted().at(), after.getDeleted().id(), until, page));
+    }
+
+    /**
+     * Gets the expenses and budgets of every user changed after a watermark, with the rows deleted since
+     * A deleted user has a single tombstone, their expenses and budgets are not listed one by one
+     *
+     * @param watermark The watermark of the previous sync, or null for every change
+     * @param limit The maximum number of changes to return
+     * @return The changes and the watermark to continue from
+     * @throws ValidationException If the watermark or the limit is not valid
+     */
+    @Override
+    public ChangeFeed getAllChanges(String watermark, int limit) throws ValidationException {
+        ChangeWatermark after = ChangeWatermark.decode(watermark);
+        Pageable page = PageCursor.pageRequest(limit);
+        Date until = settledUntil();
+
+        return merge(after, limit,
+                expensesRepository.findChanges(after.getExpenses().at(), after.getExpenses().id(), until, page),
+                budgetRepository.findChanges(after.getBudgets().at(), after.getBudgets().id(), until, page),
+                deletedRowRepository.findDeleted(after.getDeleted().at(), after.getDeleted().id(), until, page));
+    }
+
+    /**
+     * Records tombstones for rows deleted in the current transaction
+     * Written with one JDBC batch, the ids are reserved as a block like the expense import does
+     *
+     * @param type The kind of row deleted
+     * @param userId The id of the user the rows belonged to
+     * @param ids The ids of the deleted rows
+     */
+    @Override
+    public void recordDeleted(DeletedRow.Type type, Long userId, Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        long[] nextId = {PooledIdGenerator.reserve(entityManager.unwrap(SharedSessionContractImplementor.class),
+                "deleted_row", "id", ids.size())};
+        Timestamp deletedAt = new Timestamp(System.currentTimeMillis());
+        jdbcTemplate.batchUpdate(INSERT_DELETED_ROW, ids, ids.size(), (statement, id) -> {
+            statement.setLong(1, nextId[0]++);
+            statement.setString(2, type.name());
+            statement.setLong(3, id);
+            statement.setLong(4, userId);
+            statement.setTimestamp(5, deletedAt);
+            statement.setTimestamp(6, deletedAt);
+        });
+    }
+
+
+    private Date settledUntil() {
+        return new Date(System.currentTimeMillis() - settleSeconds * 1000);
+    }
+
+    // A row of one of the three lists at its position in the feed
+    private record Change(Date at, Long id, Object row) {
+    }
+
+    // Takes the first changes of the three lists in (time, id) order. Each list was read with one row more than
+    // the limit, so when every row fits there is nothing left after them
+    private ChangeFeed merge(ChangeWatermark after, int limit,
+                             List<ExpensesDTO> expenses, List<BudgetDTO> budgets, List<Tombstone> deleted) {
+        List<Change> changes = new ArrayList<>(expenses.size() + budgets.size() + deleted.size());
+        expenses.forEach(expense -> changes.add(new Change(expense.getUpdated(), expense.getId(), expense)));
+        budgets.forEach(budget -> changes.add(new Change(budget.getUpdated_at(), budget.getId(), budget)));
+        deleted.forEach(tombstone -> changes.add(new Change(tombstone.getDeleted_at(), tombstone.getTombstoneId(), tombstone)));
+        changes.sort(Comparator.comparing(Change::at).thenComparing(Change::id));
+
+        ChangeWatermark.Position expensesAt = after.getExpenses();
+        ChangeWatermark.Position budgetsAt = after.getBudgets();
+        ChangeWatermark.Position deletedAt = after.getDeleted();
+        ChangeFeed feed = new ChangeFeed(new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), null,
+                changes.size() > limit, limit);
+        for (Change change : changes.subList(0, Math.min(limit, changes.size()))) {
+            ChangeWatermark.Position position = new ChangeWatermark.Position(change.at(), change.id());
+            if (change.row() instanceof ExpensesDTO expense) {
+                feed.getExpenses().add(expense);
+                expensesAt = position;
+            } else if (change.row() instanceof BudgetDTO budget) {
+                feed.getBudgets().add(budget);
+                budgetsAt = position;
+            } else {
+                feed.getDeleted().add((Tombstone) change.row());
+                deletedAt = position;
+            }
+        }
+        feed.setWatermark(new ChangeWatermark(expensesAt, budgetsAt, deletedAt).encode());
+        return feed;
+    }
+}
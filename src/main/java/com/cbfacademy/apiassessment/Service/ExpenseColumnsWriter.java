@@ -0,0 +1,92 @@
+package com.cbfacademy.apiassessment.Service;
+
+import com.cbfacademy.apiassessment.DTO.ExpensesDTO;
+import com.cbfacademy.apiassessment.Entity.SubCategories;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.cbfacademy.apiassessment.Columnar.ExpenseColumns.*;
+
+// Writes the columnar expense export laid out in ExpenseColumns, a block for each page of expenses
+class ExpenseColumnsWriter {
+
+    private static final double AMOUNT_FACTOR = Math.pow(10, AMOUNT_SCALE);
+
+    private final OutputStream out;
+    private long lastId;
+    private long lastCreatedAt;
+
+    ExpenseColumnsWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    void writeHeader(Long userId) throws IOException {
+        out.write(MAGIC);
+        writeVarLong(out, VERSION);
+        writeVarLong(out, AMOUNT_SCALE);
+        writeZigZag(out, userId);
+        writeVarLong(out, SubCategories.Category.values().length);
+        for (SubCategories.Category category : SubCategories.Category.values()) {
+            writeString(out, category.name());
+        }
+        writeVarLong(out, SubCategories.values().length);
+        for (SubCategories subcategory : SubCategories.values()) {
+            writeString(out, subcategory.name());
+        }
+    }
+
+    void writeBlock(List<ExpensesDTO> rows) throws IOException {
+        writeVarLong(out, rows.size());
+        for (ExpensesDTO row : rows) {
+            writeZigZag(out, row.getId() - lastId);
+            lastId = row.getId();
+        }
+        for (ExpensesDTO row : rows) {
+            long createdAt = row.getCreated().getTime();
+            writeZigZag(out, createdAt - lastCreatedAt);
+            lastCreatedAt = createdAt;
+        }
+        for (ExpensesDTO row : rows) {
+            Date updated = row.getUpdated();
+            writeVarLong(out, updated == null ? 0 : zigZag(updated.getTime() - row.getCreated().getTime()) + 1);
+        }
+        for (ExpensesDTO row : rows) {
+            writeZigZag(out, Math.round(row.getAmount() * AMOUNT_FACTOR));
+        }
+        for (ExpensesDTO row : rows) {
+            writeVarLong(out, row.getCategory() == null ? 0 : SubCategories.Category.valueOf(row.getCategory()).ordinal() + 1);
+        }
+        for (ExpensesDTO row : rows) {
+            writeVarLong(out, row.getSubcategory() == null ? 0 : SubCategories.valueOf(row.getSubcategory()).ordinal() + 1);
+        }
+
+        // Each block has a dictionary of its own, so memory stays bounded by the page however many distinct
+        // descriptions the user has
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        int[] descriptions = new int[rows.size()];
+        for (int i = 0; i < descriptions.length; i++) {
+            String description = rows.get(i).getDescription();
+            descriptions[i] = description == null ? 0 : dictionary.computeIfAbsent(description, d -> dictionary.size() + 1);
+        }
+        writeVarLong(out, dictionary.size());
+        for (String description : dictionary.keySet()) {
+            writeString(out, description);
+        }
+        for (int description : descriptions) {
+            writeVarLong(out, description);
+        }
+
+        for (ExpensesDTO row : rows) {
+            writeVarLong(out, row.getBudget_id() == null ? 0 : row.getBudget_id() + 1);
+        }
+    }
+
+    void finish() throws IOException {
+        writeVarLong(out, 0);
+    }
+}
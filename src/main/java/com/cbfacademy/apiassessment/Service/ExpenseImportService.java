@@ -0,0 +1,340 @@
+package com.cbfacademy.apiassessment.Service;
+
+import com.cbfacademy.apiassessment.Cache.SummaryCache;
+import com.cbfacademy.apiassessment.DTO.ExpenseImportError;
+import com.cbfacademy.apiassessment.DTO.ExpenseImportReport;
+import com.cbfacademy.apiassessment.DTO.ExpenseImportRow;
+import com.cbfacademy.apiassessment.DTO.RollupAggregate;
+import com.cbfacademy.apiassessment.Entity.Budget;
+import com.cbfacademy.apiassessment.Entity.PooledIdGenerator;
+import com.cbfacademy.apiassessment.Entity.SubCategories;
+import com.cbfacademy.apiassessment.Entity.User;
+import com.cbfacademy.apiassessment.Repository.BudgetRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityNotFoundException;
+import jakarta.persistence.PersistenceContext;
+import jakarta.validation.ValidationException;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.*;
+
+import static com.cbfacademy.apiassessment.Validators.ValidateArgs.*;
+
+@Service
+public class ExpenseImportService implements IExpenseImportService {
+
+    private static final int MAX_CHUNK_SIZE = 5000;
+    private static final int MAX_ROWS = 100_000;
+    private static final int MAX_DESCRIPTION_LENGTH = 255;
+
+    private static final String INSERT_EXPENSE = "INSERT INTO expenses " +
+            "(id, amount, category, subcategory, description, user_id, budget_id, created_at, updated_at, client_id) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final List<String> CSV_COLUMNS = List.of("amount", "category", "subcategory", "description", "budgetId", "date");
+
+    @Autowired
+    UserService userService;
+    @Autowired
+    BudgetRepository budgetRepository;
+    @Autowired
+    ExpenseRollupService expenseRollupService;
+    @Autowired
+    SummaryCache summaryCache;
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+    @Autowired
+    TransactionTemplate transactionTemplate;
+    @PersistenceContext
+    EntityManager entityManager;
+
+    // The zone the expense dates are stored in, an imported date starts at its midnight
+    @Value("${pf.time-zone:UTC}")
+    ZoneId zone = ZoneOffset.UTC;
+
+
+    /**
+     * Imports a batch of expenses for the specified user
+     * Every row is validated before anything is written, when a row is invalid nothing is imported and the
+     * report lists each invalid row. Valid imports are inserted with JDBC batches, one chunk per transaction,
+     * and each chunk updates the budget ledgers and rollups once per budget and bucket
+     *
+     * @param usernameOrEmail The username or email of the user
+     * @param rows The expenses to import
+     * @param chunkSize The number of rows to insert per transaction
+     * @return A report of the rows imported, or of the rows that failed validation
+     * @throws EntityNotFoundException If the user does not exist
+     * @throws ValidationException If there are no rows, too many rows or the chunk size is not valid
+     */
+    @Override
+    public ExpenseImportReport importExpenses(String usernameOrEmail, List<ExpenseImportRow> rows, int chunkSize)
+            throws EntityNotFoundException, ValidationException {
+        if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE) {
+            throw new ValidationException("Chunk size must be between 1 and " + MAX_CHUNK_SIZE);
+        }
+        if (rows == null || rows.isEmpty()) {
+            throw new ValidationException("No Expenses to Import");
+        }
+        if (rows.size() > MAX_ROWS) {
+            throw new ValidationException("Cannot Import more than " + MAX_ROWS + " Expenses at once");
+        }
+
+        User user = userService.getUserReference(usernameOrEmail);
+        if (user == null) {
+            throw new EntityNotFoundException("User Does Not Exist, Cannot Import Expenses");
+        }
+
+        ExpenseImportReport report = new ExpenseImportReport();
+        report.setStartedAt(new Date());
+        report.setChunkSize(chunkSize);
+        report.setRowsReceived(rows.size());
+
+        // Validate every row up front, so a bad row does not leave half an import behind
+        Map<Long, Optional<Budget>> budgets = new HashMap<>();
+        List<ImportedExpense> expenses = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            try {
+                expenses.add(validate(user, rows.get(i), null, budgets));
+            } catch (ValidationException | EntityNotFoundException e) {
+                report.getErrors().add(new ExpenseImportError(i + 1, e.getMessage()));
+            }
+        }
+
+        if (report.getErrors().isEmpty()) {
+            for (int from = 0; from < expenses.size(); from += chunkSize) {
+                List<ImportedExpense> chunk = expenses.subList(from, Math.min(from + chunkSize, expenses.size()));
+                transactionTemplate.executeWithoutResult(status -> insertChunk(user.getId(), chunk));
+                report.setRowsImported(report.getRowsImported() + chunk.size());
+                report.setChunksCommitted(report.getChunksCommitted() + 1);
+            }
+            summaryCache.evict(user.getId());
+        }
+
+        report.setFinishedAt(new Date());
+        return report;
+    }
+
+
+    /**
+     * Imports a batch of expenses for the specified user from CSV
+     * The first line is a header naming the columns amount, category, subcategory, description,
+     * budgetId and date, in any order. Only amount and category are required
+     *
+     * @param usernameOrEmail The username or email of the user
+     * @param csv The expenses to import
+     * @param chunkSize The number of rows to insert per transaction
+     * @return A report of the rows imported, or of the rows that failed validation
+     * @throws EntityNotFoundException If the user does not exist
+     * @throws ValidationException If the header is not valid, there are no rows, too many rows or the chunk size is not valid
+     */
+    @Override
+    public ExpenseImportReport importExpensesCsv(String usernameOrEmail, String csv, int chunkSize)
+            throws EntityNotFoundException, ValidationException {
+        List<List<String>> records = parseCsv(csv == null ? "" : csv);
+        if (records.isEmpty()) {
+            throw new ValidationException("No Expenses to Import");
+        }
+
+        List<String> header = records.get(0);
+        int[] columns = new int[CSV_COLUMNS.size()];
+        Arrays.fill(columns, -1);
+        for (int i = 0; i < header.size(); i++) {
+            int column = indexOfIgnoreCase(header.get(i).trim());
+            if (column < 0) {
+                throw new ValidationException("Unknown Column " + header.get(i));
+            }
+            columns[column] = i;
+        }
+        if (columns[0] < 0 || columns[1] < 0) {
+            throw new ValidationException("The amount and category Columns are required");
+        }
+
+        List<ExpenseImportRow> rows = new ArrayList<>(records.size() - 1);
+        for (List<String> record : records.subList(1, records.size())) {
+            rows.add(new ExpenseImportRow(field(record, columns[0]), field(record, columns[1]), field(record, columns[2]),
+                    field(record, columns[3]), field(record, columns[4]), field(record, columns[5])));
+        }
+        return importExpenses(usernameOrEmail, rows, chunkSize);
+    }
+
+
+    // Checks a row the same way saveExpenses does, budgets are looked up once per import
+    ImportedExpense validate(User user, ExpenseImportRow row, String clientId, Map<Long, Optional<Budget>> budgets)
+            throws ValidationException, EntityNotFoundException {
+        if (row == null || !isAmountValid(row.getAmount())) {
+            throw new ValidationException("Invalid Amount");
+        }
+        if (row.getCategory() == null || !isValidCategory(row.getCategory())) {
+            throw new ValidationException("Invalid Category");
+        }
+        if (!isBlank(row.getSubcategory()) && !isValidSubCategory(row.getSubcategory())) {
+            throw new ValidationException("Invalid Subcategory");
+        }
+        if (!isBlank(row.getDate()) && !isValidDate(row.getDate())) {
+            throw new ValidationException("Invalid Date");
+        }
+        if (row.getDescription() != null && row.getDescription().length() > MAX_DESCRIPTION_LENGTH) {
+            throw new ValidationException("Description must be at most " + MAX_DESCRIPTION_LENGTH + " characters");
+        }
+
+        double amount = Double.parseDouble(row.getAmount());
+        SubCategories.Category category = SubCategories.Category.valueOf(row.getCategory());
+        SubCategories subcategory = isBlank(row.getSubcategory()) ? null : SubCategories.valueOf(row.getSubcategory());
+        LocalDateTime createdAt = isBlank(row.getDate()) ? LocalDateTime.now(zone) : LocalDate.parse(row.getDate()).atStartOfDay();
+
+        Long budgetId = null;
+        if (!isBlank(row.getBudgetId())) {
+            try {
+                budgetId = Long.parseLong(row.getBudgetId().trim());
+            } catch (NumberFormatException e) {
+                throw new ValidationException("Invalid Budget Id");
+            }
+            Budget budget = budgets.computeIfAbsent(budgetId, id -> budgetRepository.findByUserAndId(user, id))
+                    .orElseThrow(() -> new EntityNotFoundException("Budget Does Not Exist"));
+
+            ExpensesService.validateBudgetMatch(budget, category, subcategory);
+        }
+
+        return new ImportedExpense(amount, category, subcategory, row.getDescription(), budgetId, createdAt, clientId);
+    }
+
+
+    // Inserts a chunk in one JDBC batch, then adds it to the ledgers and rollups in the same transaction
+    // The chunk's ids are reserved as one block from the same id_sequence row the Expenses entity uses
+    void insertChunk(Long userId, List<ImportedExpense> chunk) {
+        long[] nextId = {PooledIdGenerator.reserve(entityManager.unwrap(SharedSessionContractImplementor.class),
+                "expenses", "id", chunk.size())};
+        // The rows are dated by the import, updatedAt is when they were written so the change feed picks them up
+        Timestamp importedAt = new Timestamp(System.currentTimeMillis());
+        jdbcTemplate.batchUpdate(INSERT_EXPENSE, chunk, chunk.size(), (statement, expense) -> {
+            statement.setLong(1, nextId[0]++);
+            statement.setDouble(2, expense.amount());
+            statement.setString(3, expense.category().name());
+            statement.setString(4, expense.subcategory() != null ? expense.subcategory().name() : null);
+            statement.setString(5, expense.description());
+            statement.setLong(6, userId);
+            if (expense.budgetId() != null) {
+                statement.setLong(7, expense.budgetId());
+            } else {
+                statement.setNull(7, Types.BIGINT);
+            }
+            statement.setTimestamp(8, Timestamp.from(expense.createdAt().atZone(zone).toInstant()));
+            statement.setTimestamp(9, importedAt);
+            statement.setString(10, expense.clientId());
+        });
+
+        Map<Long, double[]> ledgers = new LinkedHashMap<>();
+        Map<List<Object>, RollupAggregate> days = new LinkedHashMap<>();
+        for (ImportedExpense expense : chunk) {
+            if (expense.budgetId() != null) {
+                double[] ledger = ledgers.computeIfAbsent(expense.budgetId(), id -> new double[2]);
+                ledger[0] += expense.amount();
+                ledger[1]++;
+            }
+
+            LocalDate day = expense.createdAt().toLocalDate();
+            RollupAggregate aggregate = days.computeIfAbsent(Arrays.asList(day, expense.category(), expense.subcategory()),
+                    key -> new RollupAggregate(userId, day.getYear(), day.getMonthValue(), day.getDayOfMonth(),
+                            expense.category(), expense.subcategory(), 0.0, 0L, expense.amount(), expense.amount()));
+            aggregate.setTotalAmount(aggregate.getTotalAmount() + expense.amount());
+            aggregate.setExpenseCount(aggregate.getExpenseCount() + 1);
+            aggregate.setMinAmount(Math.min(aggregate.getMinAmount(), expense.amount()));
+            aggregate.setMaxAmount(Math.max(aggregate.getMaxAmount(), expense.amount()));
+        }
+
+        ledgers.forEach((budgetId, ledger) -> budgetRepository.adjustLedger(budgetId, ledger[0], (long) ledger[1]));
+        expenseRollupService.recordAggregates(new ArrayList<>(days.values()));
+
+        // The persistence context can outlive the chunk transaction, so the chunk's rollups are not kept in it
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+
+    // Splits CSV text into records, quoted fields may contain commas, line breaks and doubled quotes
+    static List<List<String>> parseCsv(String csv) {
+        List<List<String>> records = new ArrayList<>();
+        List<String> record = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < csv.length(); i++) {
+            char c = csv.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < csv.length() && csv.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                record.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n' || c == '\r') {
+                if (c == '\r' && i + 1 < csv.length() && csv.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                record.add(field.toString());
+                field.setLength(0);
+                addRecord(records, record);
+                record = new ArrayList<>();
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new ValidationException("Unterminated Quote in CSV");
+        }
+        record.add(field.toString());
+        addRecord(records, record);
+        return records;
+    }
+
+    // Blank lines are skipped
+    private static void addRecord(List<List<String>> records, List<String> record) {
+        if (record.size() > 1 || !record.get(0).isBlank()) {
+            records.add(record);
+        }
+    }
+
+    private static int indexOfIgnoreCase(String column) {
+        for (int i = 0; i < CSV_COLUMNS.size(); i++) {
+            if (CSV_COLUMNS.get(i).equalsIgnoreCase(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String field(List<String> record, int column) {
+        if (column < 0 || column >= record.size()) {
+            return null;
+        }
+        String value = record.get(column);
+        return value.isEmpty() ? null : value;
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+
+    // A validated row, ready to insert, the client id is only set for ingested expenses
+    record ImportedExpense(double amount, SubCategories.Category category, SubCategories subcategory,
+                           String description, Long budgetId, LocalDateTime createdAt, String clientId) {
+    }
+}
@@ -0,0 +1,483 @@
+package com.cbfacademy.apiassessment.Service;
+
+import com.cbfacademy.apiassessment.Cache.SummaryCache;
+import com.cbfacademy.apiassessment.DTO.ExpenseImportRow;
+import com.cbfacademy.apiassessment.DTO.IngestAck;
+import com.cbfacademy.apiassessment.DTO.IngestStats;
+import com.cbfacademy.apiassessment.Entity.SubCategories;
+import com.cbfacademy.apiassessment.Entity.User;
+import com.cbfacademy.apiassessment.Exceptions.IngestQueueFullException;
+import com.cbfacademy.apiassessment.Service.ExpenseImportService.ImportedExpense;
+import com.google.gson.Gson;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityNotFoundException;
+import jakarta.validation.ValidationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+/**
+ * Write-behind ingestion of expenses for high rate feeds
+ * An expense is validated, appended to a local spool file and queued, then acknowledged with its client id.
+ * A background thread writes the queue in one transaction once it holds batch-size expenses or its oldest
+ * expense has waited flush-millis. Expenses still in the spool file when the application starts are queued
+ * again, and the client id makes sure an expense is only stored once however often it is written
+ */
+@Service
+public class ExpenseIngestionService implements IExpenseIngestionService {
+
+    private static final Logger log = LoggerFactory.getLogger(ExpenseIngestionService.class);
+
+    private static final Gson gson = new Gson();
+
+    private static final int MAX_CLIENT_ID_LENGTH = 64;
+
+    @Autowired
+    UserService userService;
+    @Autowired
+    ExpenseImportService expenseImportService;
+    @Autowired
+    SummaryCache summaryCache;
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Value("${pf.ingest.capacity:10000}")
+    int capacity;
+    @Value("${pf.ingest.batch-size:500}")
+    int batchSize;
+    @Value("${pf.ingest.flush-millis:200}")
+    long flushMillis;
+    @Value("${pf.ingest.offer-timeout-millis:100}")
+    long offerTimeoutMillis;
+    @Value("${pf.ingest.spool-path:data/expense-ingest.spool}")
+    String spoolPath;
+    @Value("${pf.ingest.spool-fsync:true}")
+    boolean spoolFsync;
+    @Value("${pf.ingest.retry-max-millis:30000}")
+    long retryMaxMillis;
+
+    private BlockingQueue<QueuedExpense> queue;
+    // Users and client ids of the queued expenses, so a retried expense is not queued twice
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    // Expenses whose write failed while the database was unavailable, they go first in the next batch.
+    // Guarded by flushLock, written again once retryAtNanos has passed
+    private final Deque<QueuedExpense> retrying = new ArrayDeque<>();
+    private volatile int retryingCount;
+    private volatile long retryAtNanos;
+    private int retryAttempts;
+    private final Object spoolLock = new Object();
+    private final Object flushLock = new Object();
+    private FileChannel spool;
+    private long spooledSinceCompaction;
+    private Thread flusher;
+    private volatile boolean running;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong flushed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+
+    // Queues the expenses left in the spool by the last run before new ones are accepted
+    @PostConstruct
+    void start() throws IOException {
+        queue = new ArrayBlockingQueue<>(capacity);
+        Path path = Paths.get(spoolPath);
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        List<QueuedExpense> spooled = new ArrayList<>();
+        if (Files.exists(path)) {
+            List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+            for (int i = 0; i < lines.size(); i++) {
+                if (lines.get(i).isBlank()) {
+                    continue;
+                }
+                // A crash part way through an append leaves a torn last line, it was never acknowledged
+                try {
+                    spooled.add(gson.fromJson(lines.get(i), SpoolRecord.class).toQueuedExpense());
+                } catch (RuntimeException e) {
+                    log.warn("Skipped unreadable line {} of the ingestion spool {}", i + 1, path, e);
+                }
+            }
+        }
+        spool = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        spooledSinceCompaction = spooled.size();
+
+        running = true;
+        flusher = new Thread(this::runFlusher, "expense-ingest-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+
+        for (QueuedExpense expense : spooled) {
+            if (pending.add(expense.key())) {
+                try {
+                    queue.put(expense);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while queueing spooled expenses", e);
+                }
+            }
+        }
+        if (!spooled.isEmpty()) {
+            log.info("Queued {} expenses from the ingestion spool {}", spooled.size(), path);
+        }
+    }
+
+    // Writes what is still queued, whatever cannot be written stays in the spool for the next start
+    @PreDestroy
+    void stop() throws IOException, InterruptedException {
+        running = false;
+        LockSupport.unpark(flusher);
+        flusher.join(TimeUnit.SECONDS.toMillis(30));
+        try {
+            flushPending();
+        } finally {
+            synchronized (spoolLock) {
+                spool.close();
+            }
+        }
+    }
+
+
+    /**
+     * Queues an expense for the specified user and acknowledges it once it is in the spool file
+     * The expense is validated like saveExpenses before it is queued. An expense whose client id is
+     * already queued is acknowledged as a duplicate and not queued again
+     *
+     * @param usernameOrEmail The username or email of the user
+     * @param clientId The id the client gives the expense, generated when not set
+     * @param row The expense to queue
+     * @return The acknowledgement with the client id and the number of queued expenses
+     * @throws EntityNotFoundException If the user or budget does not exist
+     * @throws ValidationException If the expense or client id is not valid
+     * @throws IngestQueueFullException If the queue stays full for offer-timeout-millis
+     * @throws IOException If the expense cannot be written to the spool file
+     */
+    @Override
+    public IngestAck ingestExpense(String usernameOrEmail, String clientId, ExpenseImportRow row)
+            throws EntityNotFoundException, ValidationException, IOException {
+        User user = userService.getUserReference(usernameOrEmail);
+        if (user == null) {
+            throw new EntityNotFoundException("User Does Not Exist, Cannot Create Expense");
+        }
+
+        if (clientId == null) {
+            clientId = UUID.randomUUID().toString();
+        } else if (clientId.isBlank() || clientId.length() > MAX_CLIENT_ID_LENGTH) {
+            throw new ValidationException("Client Id must be between 1 and " + MAX_CLIENT_ID_LENGTH + " characters");
+        }
+
+        QueuedExpense expense = new QueuedExpense(user.getId(),
+                expenseImportService.validate(user, row, clientId, new HashMap<>()), System.nanoTime());
+        if (!pending.add(expense.key())) {
+            return new IngestAck(clientId, true, queue.size(), new Date());
+        }
+
+        // Backpressure, the caller waits for room in the queue and is turned away when none frees up
+        boolean queued;
+        try {
+            queued = queue.offer(expense, offerTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            queued = false;
+        }
+        if (!queued) {
+            pending.remove(expense.key());
+            rejected.incrementAndGet();
+            throw new IngestQueueFullException("Too many Expenses queued, retry later");
+        }
+
+        try {
+            appendToSpool(expense);
+        } catch (IOException e) {
+            queue.remove(expense);
+            pending.remove(expense.key());
+            throw e;
+        }
+
+        accepted.incrementAndGet();
+        if (queue.size() >= batchSize) {
+            LockSupport.unpark(flusher);
+        }
+        return new IngestAck(clientId, false, queue.size(), new Date());
+    }
+
+
+    /**
+     * Writes every queued expense now instead of waiting for the size or time threshold
+     * Stops at the first batch the database cannot take, those expenses stay queued and in the spool
+     */
+    @Override
+    public void flushPending() {
+        while (!queue.isEmpty() || retryingCount > 0) {
+            if (!flushBatch()) {
+                return;
+            }
+        }
+    }
+
+
+    @Override
+    public IngestStats stats() {
+        return new IngestStats(queue.size(), capacity, accepted.get(), rejected.get(),
+                flushes.get(), flushed.get(), dropped.get(), retryingCount);
+    }
+
+
+    private void runFlusher() {
+        long flushNanos = TimeUnit.MILLISECONDS.toNanos(flushMillis);
+        while (running) {
+            if (retryingCount > 0) {
+                long backoffNanos = retryAtNanos - System.nanoTime();
+                if (backoffNanos > 0) {
+                    LockSupport.parkNanos(this, backoffNanos);
+                    continue;
+                }
+            }
+            QueuedExpense oldest = queue.peek();
+            long waitNanos = oldest == null ? flushNanos : oldest.queuedAt() + flushNanos - System.nanoTime();
+            if (retryingCount > 0 || (oldest != null && (queue.size() >= batchSize || waitNanos <= 0))) {
+                try {
+                    flushBatch();
+                } catch (RuntimeException e) {
+                    log.error("Flushing queued expenses failed", e);
+                }
+            } else {
+                LockSupport.parkNanos(this, Math.max(waitNanos, TimeUnit.MILLISECONDS.toNanos(1)));
+            }
+        }
+    }
+
+    // Writes up to batch-size queued expenses in one transaction. When that fails each expense is written on
+    // its own, so one expense whose budget was deleted in the meantime does not hold back the others.
+    // Only expenses the database rejects are dropped. When it is unavailable the expenses are held back with
+    // their spool lines and written again after a backoff. Returns false when expenses were held back
+    private boolean flushBatch() {
+        synchronized (flushLock) {
+            List<QueuedExpense> batch = new ArrayList<>(batchSize);
+            while (batch.size() < batchSize && !retrying.isEmpty()) {
+                batch.add(retrying.poll());
+            }
+            queue.drainTo(batch, batchSize - batch.size());
+            if (batch.isEmpty()) {
+                return true;
+            }
+
+            List<QueuedExpense> held = new ArrayList<>();
+            try {
+                transactionTemplate.executeWithoutResult(status -> insert(batch));
+                flushed.addAndGet(batch.size());
+            } catch (RuntimeException e) {
+                if (isTransient(e)) {
+                    log.warn("Database unavailable, holding back {} queued expenses", batch.size(), e);
+                    held.addAll(batch);
+                } else {
+                    log.warn("Writing {} queued expenses in one transaction failed, writing them one by one", batch.size(), e);
+                    for (QueuedExpense expense : batch) {
+                        try {
+                            transactionTemplate.executeWithoutResult(status -> insert(List.of(expense)));
+                            flushed.incrementAndGet();
+                        } catch (RuntimeException expenseFailure) {
+                            if (isTransient(expenseFailure)) {
+                                held.add(expense);
+                            } else {
+                                dropped.incrementAndGet();
+                                log.error("Dropped queued expense {} of user {}", expense.expense().clientId(), expense.userId(), expenseFailure);
+                            }
+                        }
+                    }
+                }
+            } finally {
+                flushes.incrementAndGet();
+            }
+
+            // Held back expenses keep their place ahead of the queue and their pending key, so a retry of the
+            // same client id is still a duplicate
+            for (int i = held.size() - 1; i >= 0; i--) {
+                retrying.addFirst(held.get(i));
+            }
+            retryingCount = retrying.size();
+            if (held.isEmpty()) {
+                retryAttempts = 0;
+            } else {
+                retryAttempts++;
+                long backoffMillis = Math.min(retryMaxMillis, flushMillis << Math.min(retryAttempts, 16));
+                retryAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffMillis);
+            }
+
+            Set<QueuedExpense> heldBack = new HashSet<>(held);
+            batch.stream().filter(expense -> !heldBack.contains(expense)).forEach(expense -> pending.remove(expense.key()));
+            batch.stream().filter(expense -> !heldBack.contains(expense))
+                    .map(QueuedExpense::userId).distinct().forEach(summaryCache::evict);
+            compactSpool();
+            return held.isEmpty();
+        }
+    }
+
+    // Connection failures, timeouts, deadlocks and lock waits go away on their own, the expense is kept.
+    // Anything else, a deleted budget or a constraint the row breaks, fails the same way every time
+    static boolean isTransient(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TransientDataAccessException || cause instanceof RecoverableDataAccessException
+                    || cause instanceof DataAccessResourceFailureException || cause instanceof CannotCreateTransactionException
+                    || cause instanceof SQLTransientException || cause instanceof SQLRecoverableException) {
+                return true;
+            }
+            // Class 08 is a connection failure, class 40 a rolled back transaction such as a deadlock
+            if (cause instanceof SQLException sql && sql.getSQLState() != null
+                    && (sql.getSQLState().startsWith("08") || sql.getSQLState().startsWith("40"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Inserts the expenses per user, skipping the ones already stored under their client id
+    private void insert(List<QueuedExpense> batch) {
+        Map<Long, List<ImportedExpense>> byUser = batch.stream().collect(Collectors.groupingBy(QueuedExpense::userId,
+                LinkedHashMap::new, Collectors.mapping(QueuedExpense::expense, Collectors.toList())));
+
+        byUser.forEach((userId, expenses) -> {
+            String placeholders = String.join(", ", Collections.nCopies(expenses.size(), "?"));
+            List<Object> arguments = new ArrayList<>(expenses.size() + 1);
+            arguments.add(userId);
+            expenses.forEach(expense -> arguments.add(expense.clientId()));
+            Set<String> stored = new HashSet<>(jdbcTemplate.queryForList(
+                    "SELECT client_id FROM expenses WHERE user_id = ? AND client_id IN (" + placeholders + ")",
+                    String.class, arguments.toArray()));
+
+            List<ImportedExpense> newExpenses = expenses.stream()
+                    .filter(expense -> !stored.contains(expense.clientId())).collect(Collectors.toList());
+            if (!newExpenses.isEmpty()) {
+                expenseImportService.insertChunk(userId, newExpenses);
+            }
+        });
+    }
+
+    private void appendToSpool(QueuedExpense expense) throws IOException {
+        ByteBuffer line = ByteBuffer.wrap((gson.toJson(SpoolRecord.of(expense)) + "\n").getBytes(StandardCharsets.UTF_8));
+        synchronized (spoolLock) {
+            while (line.hasRemaining()) {
+                spool.write(line);
+            }
+            if (spoolFsync) {
+                spool.force(false);
+            }
+            spooledSinceCompaction++;
+        }
+    }
+
+    // Rewrites the spool with only the expenses held back or still queued, once the queue is empty or the spool
+    // has grown by a queue's worth of expenses. Runs under flushLock, so every expense not yet committed is in one
+    // of the two. An expense may end up in the spool twice, its client id keeps it stored once
+    private void compactSpool() {
+        synchronized (spoolLock) {
+            if (!queue.isEmpty() && spooledSinceCompaction < capacity) {
+                return;
+            }
+            Path path = Paths.get(spoolPath);
+            Path compacted = path.resolveSibling(path.getFileName() + ".tmp");
+            try {
+                List<String> lines = new ArrayList<>();
+                for (QueuedExpense expense : retrying) {
+                    lines.add(gson.toJson(SpoolRecord.of(expense)));
+                }
+                for (QueuedExpense expense : queue) {
+                    lines.add(gson.toJson(SpoolRecord.of(expense)));
+                }
+                Files.write(compacted, lines, StandardCharsets.UTF_8);
+                try (FileChannel channel = FileChannel.open(compacted, StandardOpenOption.WRITE)) {
+                    channel.force(true);
+                }
+                spool.close();
+                Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                spool = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                spooledSinceCompaction = lines.size();
+            } catch (IOException e) {
+                log.error("Compacting the ingestion spool {} failed", path, e);
+                try {
+                    if (!spool.isOpen()) {
+                        spool = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                    }
+                } catch (IOException reopenFailure) {
+                    throw new IllegalStateException("Cannot reopen the ingestion spool " + path, reopenFailure);
+                }
+            }
+        }
+    }
+
+
+    // A validated expense waiting to be written, queuedAt is a System.nanoTime value
+    record QueuedExpense(Long userId, ImportedExpense expense, long queuedAt) {
+        String key() {
+            return userId + ":" + expense.clientId();
+        }
+    }
+
+    // One line of the spool file
+    private static final class SpoolRecord {
+        private Long userId;
+        private String clientId;
+        private double amount;
+        private String category;
+        private String subcategory;
+        private String description;
+        private Long budgetId;
+        private String createdAt;
+
+        static SpoolRecord of(QueuedExpense queued) {
+            ImportedExpense expense = queued.expense();
+            SpoolRecord record = new SpoolRecord();
+            record.userId = queued.userId();
+            record.clientId = expense.clientId();
+            record.amount = expense.amount();
+            record.category = expense.category().name();
+            record.subcategory = expense.subcategory() != null ? expense.subcategory().name() : null;
+            record.description = expense.description();
+            record.budgetId = expense.budgetId();
+            record.createdAt = expense.createdAt().toString();
+            return record;
+        }
+
+        QueuedExpense toQueuedExpense() {
+            return new QueuedExpense(userId, new ImportedExpense(amount, SubCategories.Category.valueOf(category),
+                    subcategory != null ? SubCategories.valueOf(subcategory) : null, description, budgetId,
+                    LocalDateTime.parse(createdAt), clientId), System.nanoTime());
+        }
+    }
+}
@@ -0,0 +1,461 @@
+package com.cbfacademy.apiassessment.Service;
+
+import com.cbfacademy.apiassessment.DTO.ExpenseTrendPoint;
+import com.cbfacademy.apiassessment.DTO.RollupAggregate;
+import com.cbfacademy.apiassessment.DTO.RollupBackfillReport;
+import com.cbfacademy.apiassessment.Entity.*;
+import com.cbfacademy.apiassessment.Repository.ExpenseRollupRepository;
+import com.cbfacademy.apiassessment.Repository.ExpensesRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityNotFoundException;
+import jakarta.validation.ValidationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static com.cbfacademy.apiassessment.Validators.ValidateArgs.*;
+
+@Service
+public class ExpenseRollupService implements IExpenseRollupService {
+
+    private static final Logger log = LoggerFactory.getLogger(ExpenseRollupService.class);
+
+    private static final int MAX_CHUNK_SIZE = 1000;
+
+    @Autowired
+    ExpenseRollupRepository expenseRollupRepository;
+    @Autowired
+    ExpensesRepository expensesRepository;
+    @Autowired
+    UserService userService;
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    // The zone the expense dates are stored in, the days of the buckets are taken in it like the grouped
+    // queries of the backfill and bulk changes take them from the stored dates
+    @Value("${pf.time-zone:UTC}")
+    ZoneId zone = ZoneOffset.UTC;
+
+
+    // Rollups stored before buckets without a subcategory had a key of their own get one, so the unique bucket key holds
+    @PostConstruct
+    void backfillSubcategoryKeys() {
+        transactionTemplate.executeWithoutResult(status -> {
+            int rollups = expenseRollupRepository.backfillSubcategoryKeys();
+            if (rollups > 0) {
+                log.info("Set the subcategory key on {} expense rollups", rollups);
+            }
+        });
+    }
+
+
+    /**
+     * Adds an expense to its daily and monthly rollups
+     * Must run in the transaction that saved the expense. Missing buckets are inserted before they are locked
+     *
+     * @param expenses The saved expense
+     */
+    @Override
+    public void recordExpense(Expenses expenses) {
+        List<ExpenseRollup> buckets = new ArrayList<>();
+        for (RollupPeriod period : RollupPeriod.values()) {
+            buckets.add(new ExpenseRollup(expenses.getUser().getId(), period, periodStart(period, expenses.getCreatedAt()),
+                    expenses.getExpenseCategory(), expenses.getExpenseSubcategory()));
+        }
+        expenseRollupRepository.insertMissingBuckets(buckets);
+
+        for (ExpenseRollup bucket : buckets) {
+            ExpenseRollup rollup = expenseRollupRepository.findBucketForUpdate(bucket.getUserId(), bucket.getPeriod(),
+                    bucket.getPeriodStart(), bucket.getCategory(), bucket.getSubcategory()).orElse(bucket);
+
+            double amount = expenses.getExpenseAmount();
+            add(rollup, amount, 1, amount, amount);
+            rollup.setUpdatedAt();
+
+            expenseRollupRepository.save(rollup);
+        }
+    }
+
+
+    /**
+     * Adds groups of expenses to their daily and monthly rollups
+     * Must run in the transaction that inserted the expenses. The existing buckets are locked and loaded
+     * with one query per user and period, so a large batch does not look up its buckets one by one
+     *
+     * @param dailyAggregates The sum, count, min and max of the inserted expenses per user, day, category and subcategory
+     */
+    @Override
+    public void recordAggregates(List<RollupAggregate> dailyAggregates) {
+        Map<List<Object>, ExpenseRollup> buckets = foldBuckets(dailyAggregates);
+        Map<List<Object>, ExpenseRollup> existing = lockBuckets(buckets.values(), true);
+
+        List<ExpenseRollup> rollups = new ArrayList<>(buckets.size());
+        buckets.forEach((key, bucket) -> {
+            ExpenseRollup rollup = existing.get(key);
+            if (rollup == null) {
+                rollups.add(bucket);
+                return;
+            }
+            add(rollup, bucket.getTotalAmount(), bucket.getExpenseCount(), bucket.getMinAmount(), bucket.getMaxAmount());
+            rollup.setUpdatedAt();
+            rollups.add(rollup);
+        });
+        expenseRollupRepository.saveAll(rollups);
+    }
+
+
+    /**
+     * Removes groups of expenses from their daily and monthly rollups
+     * Must run in the transaction that deleted or changed the expenses, after they were deleted or changed.
+     * The buckets are locked and loaded like in recordAggregates, a bucket whose min or max was removed
+     * is recomputed from its own expense rows
+     *
+     * @param dailyAggregates The sum, count, min and max of the removed expenses per user, day, category and subcategory
+     */
+    @Override
+    public void removeAggregates(List<RollupAggregate> dailyAggregates) {
+        Map<List<Object>, ExpenseRollup> buckets = foldBuckets(dailyAggregates);
+        Map<List<Object>, ExpenseRollup> existing = lockBuckets(buckets.values(), false);
+
+        List<ExpenseRollup> changed = new ArrayList<>();
+        List<ExpenseRollup> emptied = new ArrayList<>();
+        buckets.forEach((key, bucket) -> {
+            ExpenseRollup rollup = existing.get(key);
+            if (rollup == null) {
+                return;
+            }
+            if (rollup.getExpenseCount() <= bucket.getExpenseCount()) {
+                emptied.add(rollup);
+                return;
+            }
+
+            if (bucket.getMinAmount() <= rollup.getMinAmount() || bucket.getMaxAmount() >= rollup.getMaxAmount()) {
+                RollupAggregate aggregate = expensesRepository.aggregateRollupBucket(rollup.getUserId(),
+                        toDate(rollup.getPeriodStart()), toDate(periodEnd(rollup.getPeriod(), rollup.getPeriodStart())),
+                        rollup.getCategory(), rollup.getSubcategory());
+                if (aggregate == null || aggregate.getExpenseCount() == 0) {
+                    emptied.add(rollup);
+                    return;
+                }
+                rollup.setTotalAmount(aggregate.getTotalAmount());
+                rollup.setExpenseCount(aggregate.getExpenseCount());
+                rollup.setMinAmount(aggregate.getMinAmount());
+                rollup.setMaxAmount(aggregate.getMaxAmount());
+            } else {
+                rollup.setTotalAmount(rollup.getTotalAmount() - bucket.getTotalAmount());
+                rollup.setExpenseCount(rollup.getExpenseCount() - bucket.getExpenseCount());
+            }
+            rollup.setUpdatedAt();
+            changed.add(rollup);
+        });
+        expenseRollupRepository.deleteAll(emptied);
+        expenseRollupRepository.saveAll(changed);
+    }
+
+
+    /**
+     * Removes an expense from its daily and monthly rollups
+     * Must run in the transaction that deleted or changed the expense. When the removed amount was the
+     * bucket's min or max, the bucket is recomputed from its own expense rows
+     *
+     * @param userId The id of the user the expense belongs to
+     * @param createdAt When the expense was created
+     * @param category The category the expense was recorded under
+     * @param subcategory The subcategory the expense was recorded under
+     * @param amount The amount that was recorded
+     */
+    @Override
+    public void removeExpense(Long userId, Date createdAt, SubCategories.Category category, SubCategories subcategory, double amount) {
+        for (RollupPeriod period : RollupPeriod.values()) {
+            LocalDate periodStart = periodStart(period, createdAt);
+            Optional<ExpenseRollup> existingRollup = expenseRollupRepository.findBucketForUpdate(userId, period, periodStart, category, subcategory);
+            if (existingRollup.isEmpty()) {
+                continue;
+            }
+
+            ExpenseRollup rollup = existingRollup.get();
+            if (rollup.getExpenseCount() <= 1) {
+                expenseRollupRepository.delete(rollup);
+                continue;
+            }
+
+            if (amount <= rollup.getMinAmount() || amount >= rollup.getMaxAmount()) {
+                RollupAggregate aggregate = expensesRepository.aggregateRollupBucket(userId,
+                        toDate(periodStart), toDate(periodEnd(period, periodStart)), category, subcategory);
+                if (aggregate == null || aggregate.getExpenseCount() == 0) {
+                    expenseRollupRepository.delete(rollup);
+                    continue;
+                }
+                rollup.setTotalAmount(aggregate.getTotalAmount());
+                rollup.setExpenseCount(aggregate.getExpenseCount());
+                rollup.setMinAmount(aggregate.getMinAmount());
+                rollup.setMaxAmount(aggregate.getMaxAmount());
+            } else {
+                rollup.setTotalAmount(rollup.getTotalAmount() - amount);
+                rollup.setExpenseCount(rollup.getExpenseCount() - 1);
+            }
+            rollup.setUpdatedAt();
+
+            expenseRollupRepository.save(rollup);
+        }
+    }
+
+
+    /**
+     * Moves an expense's amount within its daily and monthly rollups, for a change that keeps its category and subcategory
+     * Must run in the transaction that changed the expense, after it was changed. The buckets take the difference,
+     * one whose min or max was the old amount is recomputed from its own expense rows, which already hold the new one
+     *
+     * @param expenses The changed expense
+     * @param previousAmount The amount that was recorded
+     */
+    @Override
+    public void changeExpenseAmount(Expenses expenses, double previousAmount) {
+        double amount = expenses.getExpenseAmount();
+        for (RollupPeriod period : RollupPeriod.values()) {
+            LocalDate periodStart = periodStart(period, expenses.getCreatedAt());
+            Optional<ExpenseRollup> existingRollup = expenseRollupRepository.findBucketForUpdate(expenses.getUser().getId(),
+                    period, periodStart, expenses.getExpenseCategory(), expenses.getExpenseSubcategory());
+            if (existingRollup.isEmpty()) {
+                continue;
+            }
+
+            ExpenseRollup rollup = existingRollup.get();
+            if (previousAmount > rollup.getMinAmount() && previousAmount < rollup.getMaxAmount()) {
+                rollup.setTotalAmount(rollup.getTotalAmount() + amount - previousAmount);
+                rollup.setMinAmount(Math.min(rollup.getMinAmount(), amount));
+                rollup.setMaxAmount(Math.max(rollup.getMaxAmount(), amount));
+            } else {
+                RollupAggregate aggregate = expensesRepository.aggregateRollupBucket(rollup.getUserId(), toDate(periodStart),
+                        toDate(periodEnd(period, periodStart)), rollup.getCategory(), rollup.getSubcategory());
+                if (aggregate == null || aggregate.getExpenseCount() == 0) {
+                    continue;
+                }
+                rollup.setTotalAmount(aggregate.getTotalAmount());
+                rollup.setExpenseCount(aggregate.getExpenseCount());
+                rollup.setMinAmount(aggregate.getMinAmount());
+                rollup.setMaxAmount(aggregate.getMaxAmount());
+            }
+            rollup.setUpdatedAt();
+
+            expenseRollupRepository.save(rollup);
+        }
+    }
+
+
+    /**
+     * Gets the expense totals of a user per day or month, read only from the rollups
+     *
+     * @param usernameOrEmail The username or email of the user
+     * @param period DAY or MONTH
+     * @param startDate The start date of the range (yyyy-MM-dd), for months any day of the first month
+     * @param endDate The end date of the range (yyyy-MM-dd), for months any day of the last month
+     * @param category Optional category to filter by
+     * @param subcategory Optional subcategory to filter by
+     * @return The totals per period, category and subcategory
+     * @throws EntityNotFoundException If the user does not exist or has no expenses in the range
+     * @throws ValidationException If the dates, category or subcategory are not valid
+     */
+    @Override
+    public List<ExpenseTrendPoint> getTrend(String usernameOrEmail, RollupPeriod period, String startDate, String endDate,
+                                            String category, String subcategory)
+            throws EntityNotFoundException, ValidationException {
+        User user = userService.getUserReference(usernameOrEmail);
+        if (user == null) {
+            throw new EntityNotFoundException("User Does Not Exist, Cannot get Expense Trend");
+        }
+
+        if (!isValidDate(startDate) || !isValidDate(endDate)) {
+            throw new ValidationException("Invalid Date");
+        }
+        if (category != null && !isValidCategory(category)) {
+            throw new ValidationException("Invalid Category");
+        }
+        if (subcategory != null && !isValidSubCategory(subcategory)) {
+            throw new ValidationException("Invalid Subcategory");
+        }
+
+        LocalDate parsedStartDate = LocalDate.parse(startDate);
+        LocalDate parsedEndDate = LocalDate.parse(endDate);
+        if (period == RollupPeriod.MONTH) {
+            parsedStartDate = parsedStartDate.withDayOfMonth(1);
+            parsedEndDate = parsedEndDate.withDayOfMonth(1);
+        }
+
+        List<ExpenseRollup> rollups = expenseRollupRepository.findTrend(user.getId(), period, parsedStartDate, parsedEndDate,
+                category != null ? SubCategories.Category.valueOf(category) : null,
+                subcategory != null ? SubCategories.valueOf(subcategory) : null);
+
+        if (rollups.isEmpty()) {
+            throw new EntityNotFoundException("Expenses within Date range " + startDate + " and " + endDate + " Does Not Exist");
+        }
+
+        return rollups.stream().map(rollup -> new ExpenseTrendPoint(
+                rollup.getPeriod().name(),
+                rollup.getPeriodStart(),
+                rollup.getCategory().name(),
+                rollup.getSubcategory() != null ? rollup.getSubcategory().name() : null,
+                rollup.getTotalAmount(),
+                rollup.getExpenseCount(),
+                rollup.getMinAmount(),
+                rollup.getMaxAmount())).collect(Collectors.toList());
+    }
+
+
+    /**
+     * Rebuilds the rollups of every user from the expense rows
+     * Users are processed in id order, one chunk of users per transaction. Rollups of users
+     * that no longer have expenses are deleted at the end
+     *
+     * @param chunkSize The number of users to rebuild per transaction
+     * @return A report of the users processed and rollups written
+     * @throws ValidationException If the chunk size is not valid
+     */
+    @Override
+    public RollupBackfillReport backfill(int chunkSize) throws ValidationException {
+        if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE) {
+            throw new ValidationException("Chunk size must be between 1 and " + MAX_CHUNK_SIZE);
+        }
+
+        RollupBackfillReport report = new RollupBackfillReport();
+        report.setStartedAt(new Date());
+        report.setChunkSize(chunkSize);
+
+        long lastUserId = 0;
+        while (true) {
+            List<Long> userIds = expensesRepository.findUserIdsWithExpensesAfter(lastUserId, PageRequest.of(0, chunkSize));
+            if (userIds.isEmpty()) {
+                break;
+            }
+
+            Integer written = transactionTemplate.execute(status -> rebuildRollups(userIds));
+            report.setRollupsWritten(report.getRollupsWritten() + (written != null ? written : 0));
+            report.setUsersProcessed(report.getUsersProcessed() + userIds.size());
+            lastUserId = userIds.get(userIds.size() - 1);
+        }
+
+        Integer staleDeleted = transactionTemplate.execute(status -> expenseRollupRepository.deleteWithoutExpenses());
+        report.setStaleRollupsDeleted(staleDeleted != null ? staleDeleted : 0);
+        report.setFinishedAt(new Date());
+        return report;
+    }
+
+
+    // Replaces the rollups of a chunk of users, monthly buckets are folded from the daily aggregates
+    private int rebuildRollups(List<Long> userIds) {
+        expenseRollupRepository.deleteByUserIds(userIds);
+
+        Map<List<Object>, ExpenseRollup> monthly = new LinkedHashMap<>();
+        List<ExpenseRollup> rollups = new ArrayList<>();
+
+        for (RollupAggregate aggregate : expensesRepository.findDailyAggregatesByUserIds(userIds)) {
+            LocalDate day = LocalDate.of(aggregate.getYear(), aggregate.getMonth(), aggregate.getDay());
+            ExpenseRollup daily = new ExpenseRollup(aggregate.getUserId(), RollupPeriod.DAY, day,
+                    aggregate.getCategory(), aggregate.getSubcategory());
+            daily.setTotalAmount(aggregate.getTotalAmount());
+            daily.setExpenseCount(aggregate.getExpenseCount());
+            daily.setMinAmount(aggregate.getMinAmount());
+            daily.setMaxAmount(aggregate.getMaxAmount());
+            rollups.add(daily);
+
+            LocalDate month = day.withDayOfMonth(1);
+            ExpenseRollup monthRollup = monthly.computeIfAbsent(
+                    Arrays.asList(aggregate.getUserId(), month, aggregate.getCategory(), aggregate.getSubcategory()),
+                    key -> new ExpenseRollup(aggregate.getUserId(), RollupPeriod.MONTH, month,
+                            aggregate.getCategory(), aggregate.getSubcategory()));
+            add(monthRollup, aggregate.getTotalAmount(), aggregate.getExpenseCount(), aggregate.getMinAmount(), aggregate.getMaxAmount());
+        }
+
+        rollups.addAll(monthly.values());
+        expenseRollupRepository.saveAll(rollups);
+        return rollups.size();
+    }
+
+
+    // Folds daily aggregates into the daily and monthly buckets they belong to
+    private static Map<List<Object>, ExpenseRollup> foldBuckets(List<RollupAggregate> dailyAggregates) {
+        Map<List<Object>, ExpenseRollup> buckets = new LinkedHashMap<>();
+        for (RollupAggregate aggregate : dailyAggregates) {
+            LocalDate day = LocalDate.of(aggregate.getYear(), aggregate.getMonth(), aggregate.getDay());
+            for (RollupPeriod period : RollupPeriod.values()) {
+                LocalDate periodStart = period == RollupPeriod.MONTH ? day.withDayOfMonth(1) : day;
+                ExpenseRollup bucket = buckets.computeIfAbsent(
+                        bucketKey(aggregate.getUserId(), period, periodStart, aggregate.getCategory(), aggregate.getSubcategory()),
+                        key -> new ExpenseRollup(aggregate.getUserId(), period, periodStart,
+                                aggregate.getCategory(), aggregate.getSubcategory()));
+                add(bucket, aggregate.getTotalAmount(), aggregate.getExpenseCount(), aggregate.getMinAmount(), aggregate.getMaxAmount());
+            }
+        }
+        return buckets;
+    }
+
+    // Locks and loads the stored buckets in the date range of the given ones, one query per user and period.
+    // When adding, the missing ones are inserted first so a first write to a bucket does not race another
+    private Map<List<Object>, ExpenseRollup> lockBuckets(Collection<ExpenseRollup> buckets, boolean insertMissing) {
+        if (insertMissing) {
+            expenseRollupRepository.insertMissingBuckets(buckets);
+        }
+
+        Map<List<Object>, LocalDate[]> ranges = new LinkedHashMap<>();
+        for (ExpenseRollup bucket : buckets) {
+            LocalDate[] range = ranges.computeIfAbsent(Arrays.asList(bucket.getUserId(), bucket.getPeriod()),
+                    key -> new LocalDate[]{bucket.getPeriodStart(), bucket.getPeriodStart()});
+            if (bucket.getPeriodStart().isBefore(range[0])) {
+                range[0] = bucket.getPeriodStart();
+            }
+            if (bucket.getPeriodStart().isAfter(range[1])) {
+                range[1] = bucket.getPeriodStart();
+            }
+        }
+
+        Map<List<Object>, ExpenseRollup> existing = new HashMap<>();
+        ranges.forEach((key, range) -> {
+            for (ExpenseRollup rollup : expenseRollupRepository.findBucketsForUpdate((Long) key.get(0), (RollupPeriod) key.get(1), range[0], range[1])) {
+                existing.put(bucketKey(rollup.getUserId(), rollup.getPeriod(), rollup.getPeriodStart(),
+                        rollup.getCategory(), rollup.getSubcategory()), rollup);
+            }
+        });
+        return existing;
+    }
+
+    private static List<Object> bucketKey(Long userId, RollupPeriod period, LocalDate periodStart,
+                                          SubCategories.Category category, SubCategories subcategory) {
+        return Arrays.asList(userId, period, periodStart, category, subcategory);
+    }
+
+    // Adds a group of expenses to a bucket, an empty bucket takes the group's min and max
+    private static void add(ExpenseRollup rollup, double totalAmount, long expenseCount, double minAmount, double maxAmount) {
+        if (rollup.getExpenseCount() == 0) {
+            rollup.setMinAmount(minAmount);
+            rollup.setMaxAmount(maxAmount);
+        } else {
+            rollup.setMinAmount(Math.min(rollup.getMinAmount(), minAmount));
+            rollup.setMaxAmount(Math.max(rollup.getMaxAmount(), maxAmount));
+        }
+        rollup.setTotalAmount(rollup.getTotalAmount() + totalAmount);
+        rollup.setExpenseCount(rollup.getExpenseCount() + expenseCount);
+    }
+
+    private LocalDate periodStart(RollupPeriod period, Date date) {
+        LocalDate day = date.toInstant().atZone(zone).toLocalDate();
+        return period == RollupPeriod.MONTH ? day.withDayOfMonth(1) : day;
+    }
+
+    private static LocalDate periodEnd(RollupPeriod period, LocalDate periodStart) {
+        return period == RollupPeriod.MONTH ? periodStart.plusMonths(1) : periodStart.plusDays(1);
+    }
+
+    private Date toDate(LocalDate date) {
+        return Date.from(date.atStartOfDay(zone).toInstant());
+    }
+}
@@ -1,39 +1,66 @@
 package com.cbfacademy.apiassessment.Service;
 
+import com.cbfacademy.apiassessment.Cache.SummaryCache;
+import com.cbfacademy.apiassessment.DTO.BulkExpenseUpdate;
+import com.cbfacademy.apiassessment.DTO.BulkResult;
+import com.cbfacademy.apiassessment.DTO.BulkSelection;
+import com.cbfacademy.apiassessment.DTO.CursorPage;
 import com.cbfacademy.apiassessment.DTO.ExpensesDTO;
+import com.cbfacademy.apiassessment.DTO.PageCursor;
+import com.cbfacademy.apiassessment.DTO.RollupAggregate;
+import com.cbfacademy.apiassessment.DTO.SearchFilter;
 import com.cbfacademy.apiassessment.Entity.*;
 import com.cbfacademy.apiassessment.Mappers.BudgetMapper;
 import com.cbfacademy.apiassessment.Mappers.ExpensesMapper;
 import com.cbfacademy.apiassessment.Mappers.UserMapper;
 import com.cbfacademy.apiassessment.Repository.*;
-import com.google.gson.Gson;
+import com.cbfacademy.apiassessment.Validators.SortCriteria;
 import jakarta.persistence.EntityNotFoundException;
 import jakarta.validation.ValidationException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.Comparator;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 import static com.cbfacademy.apiassessment.Validators.ValidateArgs.*;
 
 @Service
 public class ExpensesService implements IExpensesService{
 
+    // Sort keys accepted by sortExpensesBy and the properties they sort on
+    private static final Map<String, String> SORT_PROPERTIES = Map.of(
+            "amount", "expenseAmount",
+            "category", "expenseCategory",
+            "subcategory", "expenseSubcategory",
+            "date", "createdAt");
+
     @Autowired
     ExpensesRepository expensesRepository;
     @Autowired
     UserService userService;
     @Autowired
     BudgetService budgetService;
+    @Autowired
+    BudgetRepository budgetRepository;
+    @Autowired
+    SummaryCache summaryCache;
+    @Autowired
+    ExpenseRollupService expenseRollupService;
+    @Autowired
+    ChangeFeedService changeFeedService;
     BudgetMapper budgetMapper;
     ExpensesMapper expensesMapper;
     UserMapper userMapper;
@@ -54,11 +81,12 @@ public class ExpensesService implements IExpensesService{
      * @throws ValidationException If the Expense parameters are not valid
      */
     @Override
+    @Transactional
     public Expenses saveExpenses(String usernameOrEmail, long budgetId, Expenses expenses)
             throws EntityNotFoundException, ValidationException {
 
         // Check if the user exists
-        User user = userService.getUserByUsernameOrEmail(usernameOrEmail);
+        User user = userService.getUserReference(usernameOrEmail);
         if (user == null) {
             throw new EntityNotFoundException("User Does Not Exist, Cannot Create Expense");
         }
@@ -87,17 +115,16 @@ public class ExpensesService implements IExpensesService{
             }
         }
 
-        if (!existingBudget.getBudgetCategory().equals(expenses.getExpenseCategory())) {
-            throw new ValidationException("Budget Category "+ existingBudget.getBudgetCategory().name() + " and Expense Category " + expenses.getExpenseCategory().name() +" do not match");
-        }
+        validateBudgetMatch(existingBudget, expenses.getExpenseCategory(), expenses.getExpenseSubcategory());
 
-        if (!existingBudget.getBudgetSubcategory().equals(expenses.getExpenseSubcategory())) {
-            throw new ValidationException("Budget Subcategory "+ existingBudget.getBudgetSubcategory().name() + " and Expense Subcategory " + expenses.getExpenseSubcategory() +" do not match");
-        }
 
+        // Save the expenses to the repository and add it to the budget's ledger
+        Expenses savedExpenses = expensesRepository.save(expenses);
+        moveLedger(null, 0, existingBudget, expenses.getExpenseAmount());
+        expenseRollupService.recordExpense(savedExpenses);
+        summaryCache.evict(user.getId());
 
-        // Save the expenses to the repository
-        return expensesRepository.save(expenses);
+        return savedExpenses;
     }
 
 
@@ -111,11 +138,12 @@ public class ExpensesService implements IExpensesService{
      * @throws ValidationException If the Expense parameters are not valid
      */
     @Override
+    @Transactional
     public Expenses saveExpenses(String usernameOrEmail, Expenses expenses)
             throws EntityNotFoundException {
 
         // Check if the user exists
-        User user = userService.getUserByUsernameOrEmail(usernameOrEmail);
+        User user = userService.getUserReference(usernameOrEmail);
         if (user == null) {
             throw new EntityNotFoundException("User Does Not Exist, Cannot Create Expense");
         }
@@ -141,9 +169,12 @@ public class ExpensesService implements IExpensesService{
             }
         }
 
-        // Save the expenses to the repository
-        return expensesRepository.save(expenses);
+        // Save the expenses to the repository and add it to the rollups
+        Expenses savedExpenses = expensesRepository.save(expenses);
+        expenseRollupService.recordExpense(savedExpenses);
+        summaryCache.evict(user.getId());
 
+        return savedExpenses;
     }
 
 
@@ -159,76 +190,115 @@ public class ExpensesService implements IExpensesService{
      * @throws ValidationException If the update or value is not valid
      */
     @Override
+    @Transactional
     public Expenses updateExpensesByID(String usernameOrEmail, long expensesId, String update, String value)
             throws ValidationException, EntityNotFoundException {
+        // A single field is a patch with one member
+        Map<String, Object> patch = new HashMap<>();
+        patch.put(update, value);
+        return patchExpense(usernameOrEmail, expensesId, patch);
+    }
+
+
+    /**
+     * Applies a JSON merge patch to an expense for the specified user
+     * Every member is validated against the patched expense, so the category, subcategory and budget can change
+     * together. A null member clears the subcategory, description or budget. The expense is written with one
+     * UPDATE when a field changed and left as it is otherwise
+     *
+     * @param usernameOrEmail The username or email of the user
+     * @param expensesId The ID of the expense to be updated
+     * @param patch The fields to change (amount, category, subcategory, description or budget) and their new values
+     * @return The updated expense
+     * @throws EntityNotFoundException If the user, expense or budget does not exist
+     * @throws ValidationException If a field or value is not valid, or the expense would not match its budget
+     */
+    @Override
+    @Transactional
+    public Expenses patchExpense(String usernameOrEmail, long expensesId, Map<String, Object> patch)
+            throws ValidationException, EntityNotFoundException {
         // Check if the user exists
-        User user = userService.getUserByUsernameOrEmail(usernameOrEmail);
+        User user = userService.getUserReference(usernameOrEmail);
         if (user == null) {
             throw new EntityNotFoundException("User Does Not Exist, Cannot Update Expense");
         }
+        if (patch == null || patch.isEmpty()) {
+            throw new ValidationException("Nothing To Update");
+        }
 
-        // Retrieve the existing expenses by user and expense ID
-        Optional<Expenses> existingExpense = expensesRepository.findByUserAndId(user, expensesId);
+        // Retrieve the existing expenses by user and expense ID, with the budget it is validated against
+        Optional<Expenses> existingExpense = expensesRepository.findWithBudgetByUserAndId(user, expensesId);
         if ( existingExpense.isEmpty()) {
             throw new EntityNotFoundException("Expense Does Not Exist");
         }
 
 
         Expenses expenses = existingExpense.get();
-
-        // Switch statement to validate and update parameters
-        switch (update) {
-            case "amount" -> {
-                if (!isAmountValid(value)) throw new ValidationException("Invalid Amount, Cannot Update Expense");
-                expenses.setExpenseAmount(Double.parseDouble(value));
-            }
-            case "budget" ->{
-                // Check if Budget exists
-                Budget existingBudget = budgetService.getBudgetById(usernameOrEmail, Long.parseLong(value));
-                if (existingBudget == null) {
-                    throw new EntityNotFoundException("Budget Does Not Exist, Cannot update Expense");
+        Budget previousBudget = expenses.getBudget();
+        double previousAmount = expenses.getExpenseAmount();
+        SubCategories.Category previousCategory = expenses.getExpenseCategory();
+        SubCategories previousSubcategory = expenses.getExpenseSubcategory();
+
+        double amount = previousAmount;
+        SubCategories.Category category = previousCategory;
+        SubCategories subcategory = previousSubcategory;
+        String description = expenses.getDescription();
+        Budget budget = previousBudget;
+
+        // Validates every member before anything is changed
+        for (Map.Entry<String, Object> member : patch.entrySet()) {
+            String value = member.getValue() == null ? null : member.getValue().toString();
+            switch (member.getKey()) {
+                case "amount" -> {
+                    if (value == null || !isAmountValid(value)) throw new ValidationException("Invalid Amount, Cannot Update Expense");
+                    amount = Double.parseDouble(value);
                 }
-
-                if (!existingBudget.getBudgetCategory().equals(expenses.getExpenseCategory())) {
-                    throw new ValidationException("Budget Category "+ existingBudget.getBudgetCategory().name() + " and Expense Category " + expenses.getExpenseCategory().name() +" do not match");
+                case "category" -> {
+                    if (value == null || !isValidCategory(value)) throw new ValidationException("Invalid Category, Cannot Update Expense");
+                    category = SubCategories.Category.valueOf(value);
                 }
-
-
-                if(existingBudget.getBudgetSubcategory() != null & expenses.getExpenseSubcategory() != null) {
-                    if (!existingBudget.getBudgetSubcategory().equals(expenses.getExpenseSubcategory())) {
-                        throw new ValidationException("Budget Subcategory " + existingBudget.getBudgetSubcategory().name() + " and Expense Subcategory " + expenses.getExpenseSubcategory().name() + " do not match");
-                    }
+                case "subcategory" -> {
+                    if (value != null && !isValidSubCategory(value)) throw new ValidationException("Invalid Subcategory, Cannot Update Expense");
+                    subcategory = value == null ? null : SubCategories.valueOf(value);
                 }
-                expenses.setBudget(existingBudget);
-
+                case "description" -> description = value;
+                case "budget" -> budget = value == null ? null : patchedBudget(usernameOrEmail, previousBudget, value);
+                default -> throw new ValidationException("Invalid update type");
             }
-            case "category" -> {
-                if (!isValidCategory(value)) throw new ValidationException("Invalid Category, Cannot Update Expense");
+        }
 
-                if(expenses.getBudget() != null){
-                    if(!expenses.getBudget().getBudgetCategory().name().equals(value)){
-                        throw new ValidationException("Budget Category "+ expenses.getBudget().getBudgetCategory().name() + " and Expense Category " + value +" do not match");
-                    }
-                }
-                expenses.setExpenseCategory(SubCategories.Category.valueOf(value));
-            }
-            case "subcategory" -> {
-                if (!isValidSubCategory(value)) throw new ValidationException("Invalid Subcategory, Cannot Update Expense");
+        boolean recategorized = category != previousCategory || subcategory != previousSubcategory;
+        boolean budgetChanged = !Objects.equals(budgetId(budget), budgetId(previousBudget));
+        if (!recategorized && !budgetChanged && amount == previousAmount && Objects.equals(description, expenses.getDescription())) {
+            return expenses;
+        }
 
-                if(expenses.getBudget() != null) {
-                    if (!expenses.getBudget().getBudgetSubcategory().name().equals(value)) {
-                        throw new ValidationException("Budget Subcategory " + expenses.getBudget().getBudgetSubcategory().name() + " and Expense subcategory " + value + " do not match");
-                    }
-                }
-                expenses.setExpenseSubcategory(SubCategories.valueOf(value));
-            }
-            case "description" -> expenses.setDescription(value);
-            default -> throw new ValidationException("Invalid update type");
+        // Checked on the final state, so a change of category and budget in the same patch is allowed
+        if (budget != null && (recategorized || budgetChanged)) {
+            validateBudgetMatch(budget, category, subcategory);
         }
 
+        expenses.setExpenseAmount(amount);
+        expenses.setExpenseCategory(category);
+        expenses.setExpenseSubcategory(subcategory);
+        expenses.setDescription(description);
+        expenses.setBudget(budget);
         expenses.setUpdatedAt();
 
-        return expensesRepository.save(expenses);
+        Expenses savedExpenses = expensesRepository.save(expenses);
+        moveLedger(previousBudget, previousAmount, budget, amount);
+
+        // Only the amount, category and subcategory are part of the rollups. An amount change stays in the same
+        // buckets, which take the difference rather than losing and regaining the expense
+        if (recategorized) {
+            expenseRollupService.removeExpense(user.getId(), expenses.getCreatedAt(), previousCategory, previousSubcategory, previousAmount);
+            expenseRollupService.recordExpense(savedExpenses);
+        } else if (previousAmount != amount) {
+            expenseRollupService.changeExpenseAmount(savedExpenses, previousAmount);
+        }
+        summaryCache.evict(user.getId());
+
+        return savedExpenses;
     }
 
 
@@ -243,7 +313,7 @@ public class ExpensesService implements IExpensesService{
     @Override
     public Expenses getExpensesById(String usernameOrEmail, long expensesId) throws EntityNotFoundException {
         // Check if the user exists
-        User user = userService.getUserByUsernameOrEmail(usernameOrEmail);
+        User user = userService.getUserReference(usernameOrEmail);
         if (user == null) {
             throw new EntityNotFoundException("User Does Not Exist, Cannot get Expense");
         }
@@ -257,18 +327,41 @@ public class ExpensesService implements IExpensesService{
     }
 
 
+    /**
+     * Gets an expense by its ID for a specified user, selected straight into the response shape
+     *
+     * @param usernameOrEmail The username or email of the user
+     * @param expensesId The ID of the expense
+     * @return  The expense
+     * @throws EntityNotFoundException If the user or expenses does not exist
+     */
+    @Override
+    public ExpensesDTO getExpensesDTOById(String usernameOrEmail, long expensesId) throws EntityNotFoundException {
+        // Check if the user exists
+        User user = userService.getUserReference(usernameOrEmail);
+        if (user == null) {
+            throw new EntityNotFoundException("User Does Not Exist, Cannot get Expense");
+        }
+
+        return expensesRepository.findDtoByUserAndId(user, expensesId)
+                .orElseThrow(() -> new EntityNotFoundException("Expenses Does Not Exist"));
+    }
+
+
     /**
      * Gets all expenses associated with a budget for a specified user
      *
      * @param usernameOrEmail The username or email of the user
      * @param budgetId budget ID of associated budget
-     * @return List of Expenses
+     * @param limit The maximum number of expenses to return
+     * @param after The cursor returned with the previous page, or null for the first page
+     * @return List of Expenses, one page at a time ordered by creation date
      * @throws EntityNotFoundException If the user, Budget or expenses does not exist
      */
     @Override
-    public List<Expenses> getExpensesByBudget(String usernameOrEmail, long budgetId) throws EntityNotFoundException {
+    public CursorPage<ExpensesDTO> getExpensesByBudget(String usernameOrEmail, long budgetId, int limit, String after) throws EntityNotFoundException {
         // Check if the user exists
-        User user = userService.getUserByUsernameOrEmail(usernameOrEmail);
+        User user = userService.getUserReference(usernameOrEmail);
         if (user == null) {
             throw new EntityNotFoundException("User Does Not Exist, Cannot get Expense");
         }
@@ -278,12 +371,13 @@ public class ExpensesService implements IExpensesService{
             throw new EntityNotFoundException("Budget Does Not Exist, Cannot Get Expenses");
         }
 
-        List<Expenses> existingExpenses = expensesRepository.findByUserAndBudget(user, budget);
-        if (existingExpenses.isEmpty()) {
+        PageCursor cursor = PageCursor.decode(after);
+        List<ExpensesDTO> existingExpenses = expensesRepository.findByUserAndBudget(user, budget, cursor.getCreatedAt(), cursor.getId(), PageCursor.pageRequest(limit));
+        if (existingExpenses.isEmpty() && cursor.isFirst()) {
             throw new EntityNotFoundException("No Expenses Associated With This Budget");
         }
 
-        return existingExpenses;
+        return CursorPage.of(existingExpenses, limit);
     }
 
 
@@ -291,23 +385,26 @@ public class ExpensesService implements IExpensesService{
      * Gets all expenses for a specified user
      *
      * @param usernameOrEmail The username or email of the user
-     * @return List of expenses
+     * @param limit The maximum number of expenses to return
+     * @param after The cursor returned with the previous page, or null for the first page
+     * @return List of expenses, one page at a time ordered by creation date
      * @throws EntityNotFoundException If the user or expenses does not exist
      */
     @Override
-    public List<Expenses> getAllExpenses(String usernameOrEmail) throws EntityNotFoundException {
+    public CursorPage<ExpensesDTO> getAllExpenses(String usernameOrEmail, int limit, String after) throws EntityNotFoundException {
         // Check if the user exists
-        User user = userService.getUserByUsernameOrEmail(usernameOrEmail);
+        User user = userService.getUserReference(usernameOrEmail);
         if (user == null) {
             throw new EntityNotFoundException("User Does Not Exist, Cannot get Expense");
         }
 
-        List<Expenses> existingExpenses = expensesRepository.findByUser(user);
-        if (existingExpenses.isEmpty()) {
+        PageCursor cursor = PageCursor.decode(after);
+        List<ExpensesDTO> existingExpenses = expensesRepository.findPageByUser(user, cursor.getCreatedAt(), cursor.getId(), PageCursor.pageRequest(limit));
+        if (existingExpenses.isEmpty() && cursor.isFirst()) {
             throw new EntityNotFoundException("Expenses Does Not Exist");
         }
 
-        return existingExpenses;
+        return CursorPage.of(existingExpenses, limit);
     }
 
 
@@ -316,26 +413,30 @@ public class ExpensesService implements IExpensesService{
      *
      * @param usernameOrEmail The username or email of the user
      * @param category        The expense category
-     * @return List of expenses for the specified user and category
+     * @param limit The maximum number of expenses to return
+     * @param after The cursor returned with the previous page, or null for the first page
+     * @return List of expenses for the specified user and category, one page at a time ordered by creation date
      * @throws EntityNotFoundException If the user or expense with the specified category does not exist
      * @throws ValidationException If the category is not valid
      */
     @Override
-    public List<Expenses> getExpensesByCategory(String usernameOrEmail, String category)
+    public CursorPage<ExpensesDTO> getExpensesByCategory(String usernameOrEmail, String category, int limit, String after)
             throws EntityNotFoundException, ValidationException {
         // Check if the user exists
-        User user = userService.getUserByUsernameOrEmail(usernameOrEmail);
+        User user = userService.getUserReference(usernameOrEmail);
         if (user == null) {
             throw new EntityNotFoundException("User Does Not Exist, Cannot get Expense");
         }
         if (!isValidCategory(category)) throw new ValidationException("Invalid Category, Cannot Get Expenses");
 
-       List<Expenses> existingExpenses = expensesRepository.findByUserAndExpenseCategory(user, SubCategories.Category.valueOf(category));
+        PageCursor cursor = PageCursor.decode(after);
+        List<ExpensesDTO> existingExpenses = expensesRepository.findByUserAndExpenseCategory(user, SubCategories.Category.valueOf(category),
+                cursor.getCreatedAt(), cursor.getId(), PageCursor.pageRequest(limit));
 
-        if (existingExpenses.isEmpty()) {
+        if (existingExpenses.isEmpty() && cursor.isFirst()) {
             throw new EntityNotFoundException("Expense with Category"+ category +" Does Not Exist");
         }
-        return existingExpenses;
+        return CursorPage.of(existingExpenses, limit);
     }
 
 
@@ -345,15 +446,17 @@ public class ExpensesService implements IExpensesService{
      * @param usernameOrEmail The username or email of the user
      * @param minPrice        The minimum expense amount in the range
      * @param maxPrice        The maximum expense amount in the range
-     * @return A list of expense within the specified price range
+     * @param limit The maximum number of expenses to return
+     * @param after The cursor returned with the previous page, or null for the first page
+     * @return A list of expense within the specified price range, one page at a time ordered by creation date
      * @throws EntityNotFoundException If the user does not exist or if no expenses are found within the specified range
      * @throws ValidationException If the minPrice or maxPrice is not valid
      */
     @Override
-    public List<Expenses> getExpensesInPriceRange(String usernameOrEmail, double minPrice, double maxPrice)
+    public CursorPage<ExpensesDTO> getExpensesInPriceRange(String usernameOrEmail, double minPrice, double maxPrice, int limit, String after)
             throws EntityNotFoundException, ValidationException {
         // Check if the user exists
-        User user = userService.getUserByUsernameOrEmail(usernameOrEmail);
+        User user = userService.getUserReference(usernameOrEmail);
         if (user == null) {
             throw new EntityNotFoundException("User Does Not Exist, Cannot get Expense");
         }
@@ -364,22 +467,23 @@ public class ExpensesService implements IExpensesService{
         }
 
         // Get expenses within the specified price range
-        List<Expenses> existingExpenses = expensesRepository.findExpensesInPriceRange(user, minPrice, maxPrice);
+        PageCursor cursor = PageCursor.decode(after);
+        List<ExpensesDTO> existingExpenses = expensesRepository.findExpensesInPriceRange(user, minPrice, maxPrice, cursor.getCreatedAt(), cursor.getId(), PageCursor.pageRequest(limit));
 
 
-        if (existingExpenses.isEmpty()) {
+        if (existingExpenses.isEmpty() && cursor.isFirst()) {
             throw new EntityNotFoundException("Expenses within Range " + minPrice + " and " + maxPrice + " Does Not Exist");
         }
 
 
-        return existingExpenses;
+        return CursorPage.of(existingExpenses, limit);
     }
 
     @Override
-    public List<Expenses> getExpensesGreaterThan(String usernameOrEmail, double minPrice)
+    public CursorPage<ExpensesDTO> getExpensesGreaterThan(String usernameOrEmail, double minPrice, int limit, String after)
             throws EntityNotFoundException, ValidationException {
         // Check if the user exists
-        User user = userService.getUserByUsernameOrEmail(usernameOrEmail);
+        User user = userService.getUserReference(usernameOrEmail);
         if (user == null) {
             throw new EntityNotFoundException("User Does Not Exist, Cannot get Expense");
         }
@@ -390,22 +494,23 @@ public class ExpensesService implements IExpensesService{
         }
 
         // Get expenses within the specified price range
-        List<Expenses> existingExpenses = expensesRepository.findExpensesGreaterThan(user, minPrice);
+        PageCursor cursor = PageCursor.decode(after);
+        List<ExpensesDTO> existingExpenses = expensesRepository.findExpensesGreaterThan(user, minPrice, cursor.getCreatedAt(), cursor.getId(), PageCursor.pageRequest(limit));
 
 
-        if (existingExpenses.isEmpty()) {
+        if (existingExpenses.isEmpty() && cursor.isFirst()) {
             throw new EntityNotFoundException("Expenses greater than " + minPrice + " Does Not Exist");
         }
 
 
-        return existingExpenses;
+        return CursorPage.of(existingExpenses, limit);
     }
 
     @Override
-    public List<Expenses> getExpensesLessThan(String usernameOrEmail, double maxPrice)
+    public CursorPage<ExpensesDTO> getExpensesLessThan(String usernameOrEmail, double maxPrice, int limit, String after)
             throws EntityNotFoundException, ValidationException {
         // Check if the user exists
-        User user = userService.getUserByUsernameOrEmail(usernameOrEmail);
+        User user = userService.getUserReference(usernameOrEmail);
         if (user == null) {
             throw new EntityNotFoundException("User Does Not Exist, Cannot get Expense");
         }
@@ -416,15 +521,16 @@ public class ExpensesService implements IExpensesService{
         }
 
         // Get expenses within the specified price range
-        List<Expenses> existingExpenses = expensesRepository.findExpensesLessThan(user, maxPrice);
+        PageCursor cursor = PageCursor.decode(after);
+        List<ExpensesDTO> existingExpenses = expensesRepository.findExpensesLessThan(user, maxPrice, cursor.getCreatedAt(), cursor.getId(), PageCursor.pageRequest(limit));
 
 
-        if (existingExpenses.isEmpty()) {
+        if (existingExpenses.isEmpty() && cursor.isFirst()) {
             throw new EntityNotFoundException("Expenses greater that " + maxPrice + " Does Not Exist");
         }
 
 
-        return existingExpenses;
+        return CursorPage.of(existingExpenses, limit);
     }
 
     /**
@@ -433,15 +539,17 @@ public class ExpensesService implements IExpensesService{
      * @param usernameOrEmail The username or email of the user
      * @param startDate        The start date of the date range
      * @param endDate          The end date of the date range
-     * @return A list of expenses within the specified date range
+     * @param limit The maximum number of expenses to return
+     * @param after The cursor returned with the previous page, or null for the first page
+     * @return A list of expenses within the specified date range, one page at a time ordered by creation date
      * @throws EntityNotFoundException If the user does not exist or if the expenses within the date range do not exist
      * @throws ValidationException     If the provided date values are invalid
      */
     @Override
-    public List<Expenses> getExpensesInDateRange(String usernameOrEmail, String startDate, String endDate)
+    public CursorPage<ExpensesDTO> getExpensesInDateRange(String usernameOrEmail, String startDate, String endDate, int limit, String after)
             throws EntityNotFoundException, ValidationException {
         // Check if the user exists
-        User user = userService.getUserByUsernameOrEmail(usernameOrEmail);
+        User user = userService.getUserReference(usernameOrEmail);
         if (user == null) {
             throw new EntityNotFoundException("User Does Not Exist, Cannot get Expense");
         }
@@ -462,21 +570,22 @@ public class ExpensesService implements IExpensesService{
         }
 
         // Retrieve budgets within the specified date range
-        List<Expenses>existingExpenses = expensesRepository.findExpensesByDateRange(user, parsedStartDate, parsedEndDate);
+        PageCursor cursor = PageCursor.decode(after);
+        List<ExpensesDTO> existingExpenses = expensesRepository.findExpensesByDateRange(user, parsedStartDate, parsedEndDate, cursor.getCreatedAt(), cursor.getId(), PageCursor.pageRequest(limit));
 
-        if (existingExpenses.isEmpty()) {
+        if (existingExpenses.isEmpty() && cursor.isFirst()) {
             throw new EntityNotFoundException("Expenses within Date range " + startDate + " and " + endDate + " Does Not Exist");
         }
 
-        return existingExpenses;
+        return CursorPage.of(existingExpenses, limit);
     }
 
 
     @Override
-    public List<Expenses> getExpensesBefore(String usernameOrEmail, String endDate)
+    public CursorPage<ExpensesDTO> getExpensesBefore(String usernameOrEmail, String endDate, int limit, String after)
             throws EntityNotFoundException, ValidationException{
         // Check if the user exists
-        User user = userService.getUserByUsernameOrEmail(usernameOrEmail);
+        User user = userService.getUserReference(usernameOrEmail);
         if (user == null) {
             throw new EntityNotFoundException("User Does Not Exist, Cannot get Expense");
         }
@@ -496,20 +605,21 @@ public class ExpensesService implements IExpensesService{
         }
 
         // Retrieve budgets within the specified date range
-        List<Expenses> existingExpenses = expensesRepository.findExpensesBefore(user, parsedEndDate);
+        PageCursor cursor = PageCursor.decode(after);
+        List<ExpensesDTO> existingExpenses = expensesRepository.findExpensesBefore(user, parsedEndDate, cursor.getCreatedAt(), cursor.getId(), PageCursor.pageRequest(limit));
 
-        if (existingExpenses.isEmpty()) {
+        if (existingExpenses.isEmpty() && cursor.isFirst()) {
             throw new EntityNotFoundException("Expenses created before " + endDate + " Does Not Exist");
         }
 
-        return existingExpenses;
+        return CursorPage.of(existingExpenses, limit);
     }
 
     @Override
-    public List<Expenses> getExpensesAfter(String usernameOrEmail, String startDate)
+    public CursorPage<ExpensesDTO> getExpensesAfter(String usernameOrEmail, String startDate, int limit, String after)
             throws EntityNotFoundException, ValidationException{
         // Check if the user exists
-        User user = userService.getUserByUsernameOrEmail(usernameOrEmail);
+        User user = userService.getUserReference(usernameOrEmail);
         if (user == null) {
             throw new EntityNotFoundException("User Does Not Exist, Cannot get Expense");
         }
@@ -529,99 +639,97 @@ public class ExpensesService implements IExpensesService{
         }
 
         // Retrieve budgets within the specified date range
-        List<Expenses> existingExpenses = expensesRepository.findExpensesAfter(user, parsedStartDate);
+        PageCursor cursor = PageCursor.decode(after);
+        List<ExpensesDTO> existingExpenses = expensesRepository.findExpensesAfter(user, parsedStartDate, cursor.getCreatedAt(), cursor.getId(), PageCursor.pageRequest(limit));
 
-        if (existingExpenses.isEmpty()) {
+        if (existingExpenses.isEmpty() && cursor.isFirst()) {
             throw new EntityNotFoundException("Expenses created after " + startDate + " Does Not Exist");
         }
 
-        return existingExpenses;
+        return CursorPage.of(existingExpenses, limit);
     }
 
 
     /**
-     * Sorts the Expenses for a specific user based on the specified criteria
+     * Searches the expenses of a specified user with any combination of conditions in a single query
+     * Without sortBy the results are paged by creation date, with sortBy the first page of the sorted results is returned
      *
      * @param usernameOrEmail The username or email of the user
-     * @param sortBy The sorting criteria ("amount", "category", "subcategory", or "date")
-     * @return A list of expenses sorted according to the specified criteria
-     * @throws ValidationException if the sorting criteria is invalid
-     * @throws EntityNotFoundException if the user or expenses do not exist
+     * @param filter The conditions to match, conditions that are not set are ignored
+     * @param sortBy Optional sorting criteria, in the same format as sortExpensesBy
+     * @param limit The maximum number of expenses to return
+     * @param after The cursor returned with the previous page, or null for the first page
+     * @return The matching expenses
+     * @throws EntityNotFoundException If the user does not exist or no expenses match
+     * @throws ValidationException If a condition, the sorting criteria, the limit or the cursor is not valid
      */
     @Override
-    public List<Expenses> sortExpensesBy(String usernameOrEmail, String sortBy) throws ValidationException, EntityNotFoundException {
-
+    public CursorPage<ExpensesDTO> searchExpenses(String usernameOrEmail, SearchFilter filter, String sortBy, int limit, String after)
+            throws EntityNotFoundException, ValidationException {
         // Check if the user exists
-        User user = userService.getUserByUsernameOrEmail(usernameOrEmail);
+        User user = userService.getUserReference(usernameOrEmail);
         if (user == null) {
             throw new EntityNotFoundException("User Does Not Exist, Cannot get Expense");
         }
 
-        List<Expenses> expenses = expensesRepository.findByUser(user);
-        if (expenses.isEmpty()) {
-            throw new EntityNotFoundException("User has not created any Expenses");
-        }
-
+        Specification<Expenses> specification = searchSpecification(user, filter);
 
+        if (sortBy != null) {
+            if (after != null) {
+                throw new ValidationException("Cursor cannot be combined with SortBy");
+            }
+            Sort sort = SortCriteria.parse(sortBy, SORT_PROPERTIES);
+            PageCursor.checkLimit(limit);
 
-        // Sort budgets based on the specified criteria
-        switch (sortBy.toLowerCase()) {
-            case "amount" ->
-                    expenses.sort(Comparator.comparingDouble(Expenses::getExpenseAmount));
-            case "category" ->
-                    expenses.sort(Comparator.comparing(e -> e.getExpenseCategory().name()));
-            case "subcategory" ->
-                    expenses.sort(Comparator.comparing(e ->
-                            e.getExpenseSubcategory() != null ? e.getExpenseSubcategory().name() : null, Comparator.nullsFirst(String::compareTo)));
+            List<ExpensesDTO> expenses = expensesRepository.search(specification, sort, limit);
+            if (expenses.isEmpty()) {
+                throw new EntityNotFoundException("No Expenses Match The Search");
+            }
+            return new CursorPage<>(expenses, null, limit);
+        }
 
-            case "date" ->
-                    expenses.sort(Comparator.comparing(Expenses::getCreatedAt));
-            default ->
-                    throw new ValidationException("Invalid SortBy value");
+        PageCursor cursor = PageCursor.decode(after);
+        PageCursor.checkLimit(limit);
+        List<ExpensesDTO> expenses = expensesRepository.search(specification.and(SearchSpecifications.after(cursor)),
+                Sort.by("createdAt", "id"), limit + 1);
+        if (expenses.isEmpty() && cursor.isFirst()) {
+            throw new EntityNotFoundException("No Expenses Match The Search");
         }
 
-        return expenses;
+        return CursorPage.of(expenses, limit);
     }
 
 
     /**
-     * Retrieves all expenses and writes them to a JSON file.
+     * Sorts the Expenses for a specific user based on the specified criteria
+     * The sort and limit are applied by the database, so only the requested rows are loaded
      *
-     * @throws IOException If an error occurs while generating the file.
-     * @throws EntityNotFoundException If the user or expenses do not exist.
+     * @param usernameOrEmail The username or email of the user
+     * @param sortBy The sorting criteria, comma separated keys ("amount", "category", "subcategory", or "date")
+     *               each optionally followed by ":asc" or ":desc", e.g. "category,amount:desc"
+     * @param limit The maximum number of expenses to return
+     * @return A list of expenses sorted according to the specified criteria
+     * @throws ValidationException if the sorting criteria or limit is invalid
+     * @throws EntityNotFoundException if the user or expenses do not exist
      */
     @Override
-    public void getAllExpensesAsJSONFile(String usernameOrEmail) throws EntityNotFoundException, IOException {
+    public List<ExpensesDTO> sortExpensesBy(String usernameOrEmail, String sortBy, int limit) throws ValidationException, EntityNotFoundException {
+
         // Check if the user exists
-        User user = userService.getUserByUsernameOrEmail(usernameOrEmail);
+        User user = userService.getUserReference(usernameOrEmail);
         if (user == null) {
             throw new EntityNotFoundException("User Does Not Exist, Cannot get Expense");
         }
 
-        List<Expenses> existingExpenses = expensesRepository.findByUser(user);
-        if (existingExpenses.isEmpty()) {
-            throw new EntityNotFoundException("User has not created any Expenses");
-        }
-
-        List<ExpensesDTO> expenses = existingExpenses.stream().map(expensesMapper.INSTANCE::expensesDTO).collect(Collectors.toList());
-
-        String outputFile = "src/main/resources/AllExpenses.JSON";
-        Gson gson = new Gson();
+        Sort sort = SortCriteria.parse(sortBy, SORT_PROPERTIES);
+        PageCursor.checkLimit(limit);
 
-        // Delete the existing file if it exists
-        File file = new File(outputFile);
-        if (file.exists()){
-
-            file.delete();
-        }
-
-        try (FileWriter writer = new FileWriter(outputFile)) {
-            // Create a new file
-            gson.toJson(expenses, writer);
-        } catch (IOException e) {
-            throw new IOException("Error generating File");
+        List<ExpensesDTO> expenses = expensesRepository.findDtoByUser(user, PageRequest.of(0, limit, sort));
+        if (expenses.isEmpty()) {
+            throw new EntityNotFoundException("User has not created any Expenses");
         }
 
+        return expenses;
     }
 
 
@@ -633,9 +741,10 @@ public class ExpensesService implements IExpensesService{
      * @throws EntityNotFoundException If the user or expense does not exist
      */
     @Override
+    @Transactional
     public void deleteExpense(String usernameOrEmail, long ExpenseId) throws EntityNotFoundException  {
         // Check if the user exists
-        User user = userService.getUserByUsernameOrEmail(usernameOrEmail);
+        User user = userService.getUserReference(usernameOrEmail);
         if (user == null) {
             throw new EntityNotFoundException("User Does Not Exist, Cannot delete Expense");
         }
@@ -647,7 +756,251 @@ public class ExpensesService implements IExpensesService{
         }
 
         expensesRepository.delete(existingExpense.get());
+        changeFeedService.recordDeleted(DeletedRow.Type.EXPENSE, user.getId(), List.of(ExpenseId));
+        moveLedger(existingExpense.get().getBudget(), existingExpense.get().getExpenseAmount(), null, 0);
+        expenseRollupService.removeExpense(user.getId(), existingExpense.get().getCreatedAt(),
+                existingExpense.get().getExpenseCategory(), existingExpense.get().getExpenseSubcategory(),
+                existingExpense.get().getExpenseAmount());
+        summaryCache.evict(user.getId());
+
+    }
+
+
+    /**
+     * Updates every expense of the user that matches the selection, in one UPDATE statement
+     * When the category or subcategory changes, expenses connected to a budget of another category or
+     * subcategory are skipped. The check is part of the UPDATE, so no expense is loaded
+     *
+     * @param usernameOrEmail The username or email of the user
+     * @param update The selection and the fields to set on it
+     * @return The number of expenses matched, updated and skipped
+     * @throws EntityNotFoundException If the user does not exist
+     * @throws ValidationException If the selection or a field is not valid
+     */
+    @Override
+    @Transactional
+    public BulkResult bulkUpdateExpenses(String usernameOrEmail, BulkExpenseUpdate update)
+            throws EntityNotFoundException, ValidationException {
+        User user = userService.getUserReference(usernameOrEmail);
+        if (user == null) {
+            throw new EntityNotFoundException("User Does Not Exist, Cannot Update Expenses");
+        }
+
+        Specification<Expenses> specification = bulkSpecification(user, update.getFilter(), update.getIds());
+        if (update.getCategory() == null && update.getSubcategory() == null && update.getDescription() == null) {
+            throw new ValidationException("Nothing To Update");
+        }
+        if (update.getCategory() != null && !isValidCategory(update.getCategory())) {
+            throw new ValidationException("Invalid Category, Cannot Update Expenses");
+        }
+        if (update.getSubcategory() != null && !isValidSubCategory(update.getSubcategory())) {
+            throw new ValidationException("Invalid Subcategory, Cannot Update Expenses");
+        }
+        SubCategories.Category category = update.getCategory() == null ? null : SubCategories.Category.valueOf(update.getCategory());
+        SubCategories subcategory = update.getSubcategory() == null ? null : SubCategories.valueOf(update.getSubcategory());
 
+        long matched = expensesRepository.countMatching(specification);
+        // The rows to recategorize are locked and grouped first, only the buckets they leave and join are changed
+        List<RollupAggregate> moved = new ArrayList<>();
+        if (category != null || subcategory != null) {
+            expensesRepository.lockIdsMatching(specification);
+            for (RollupAggregate aggregate : expensesRepository.aggregateRecategorized(specification, category, subcategory)) {
+                SubCategories.Category newCategory = category != null ? category : aggregate.getCategory();
+                if (aggregate.getCategory() != newCategory || aggregate.getSubcategory() != subcategory) {
+                    moved.add(aggregate);
+                }
+            }
+        }
+        int updated = expensesRepository.updateMatching(specification, category, subcategory, update.getDescription());
+
+        // The ledgers only hold amounts, the rollups follow the expenses to their new category
+        if (!moved.isEmpty()) {
+            expenseRollupService.removeAggregates(moved);
+            expenseRollupService.recordAggregates(moved.stream().map(aggregate -> new RollupAggregate(aggregate.getUserId(),
+                    aggregate.getBudgetId(), aggregate.getYear(), aggregate.getMonth(), aggregate.getDay(),
+                    category != null ? category : aggregate.getCategory(), subcategory, aggregate.getTotalAmount(),
+                    aggregate.getExpenseCount(), aggregate.getMinAmount(), aggregate.getMaxAmount())).toList());
+        }
+        summaryCache.evict(user.getId());
+
+        return new BulkResult(matched, updated, matched - updated, 0);
+    }
+
+
+    /**
+     * Deletes every expense of the user that matches the selection, in one DELETE statement
+     * The matching ids are locked and recorded for the change feed first, and the rows are grouped per budget, day,
+     * category and subcategory. Only those budget ledgers and rollup buckets are adjusted afterwards
+     *
+     * @param usernameOrEmail The username or email of the user
+     * @param selection The expenses to delete
+     * @return The number of expenses deleted
+     * @throws EntityNotFoundException If the user does not exist
+     * @throws ValidationException If the selection is not valid
+     */
+    @Override
+    @Transactional
+    public BulkResult bulkDeleteExpenses(String usernameOrEmail, BulkSelection selection)
+            throws EntityNotFoundException, ValidationException {
+        User user = userService.getUserReference(usernameOrEmail);
+        if (user == null) {
+            throw new EntityNotFoundException("User Does Not Exist, Cannot Delete Expenses");
+        }
+
+        Specification<Expenses> specification = bulkSpecification(user, selection.getFilter(), selection.getIds());
+        changeFeedService.recordDeleted(DeletedRow.Type.EXPENSE, user.getId(), expensesRepository.lockIdsMatching(specification));
+        List<RollupAggregate> removed = expensesRepository.aggregateMatching(specification);
+        int deleted = expensesRepository.deleteMatching(specification);
+
+        if (deleted > 0) {
+            removeFromLedgers(removed);
+            expenseRollupService.removeAggregates(removed);
+        }
+        summaryCache.evict(user.getId());
+
+        return new BulkResult(deleted, deleted, 0, deleted);
+    }
+
+
+    /**
+     * Checks that an expense can be linked to a budget, used by every path that links one
+     * The categories must be equal, the subcategories only have to match when both are set.
+     * Bulk updates apply the same rule in the SQL condition of their UPDATE
+     *
+     * @param budget The budget the expense is linked to
+     * @param category The category of the expense
+     * @param subcategory The subcategory of the expense, null when it has none
+     * @throws ValidationException If the expense does not match the budget
+     */
+    static void validateBudgetMatch(Budget budget, SubCategories.Category category, SubCategories subcategory)
+            throws ValidationException {
+        if (budget.getBudgetCategory() != category) {
+            throw new ValidationException("Budget Category " + budget.getBudgetCategory().name() + " and Expense Category " + category.name() + " do not match");
+        }
+        if (!isMatchingSubCategory(budget.getBudgetSubcategory(), subcategory)) {
+            throw new ValidationException("Budget Subcategory " + budget.getBudgetSubcategory().name() + " and Expense Subcategory " + subcategory.name() + " do not match");
+        }
+    }
+
+
+    // Takes deleted expenses off the ledgers of their budgets, one relative update per budget
+    private void removeFromLedgers(List<RollupAggregate> removed) {
+        Map<Long, double[]> ledgers = new LinkedHashMap<>();
+        for (RollupAggregate aggregate : removed) {
+            if (aggregate.getBudgetId() != null) {
+                double[] ledger = ledgers.computeIfAbsent(aggregate.getBudgetId(), id -> new double[2]);
+                ledger[0] += aggregate.getTotalAmount();
+                ledger[1] += aggregate.getExpenseCount();
+            }
+        }
+        ledgers.forEach((budgetId, ledger) -> budgetRepository.adjustLedger(budgetId, -ledger[0], -(long) ledger[1]));
+    }
+
+
+    // Validates the conditions of a search and combines them into one specification
+    private Specification<Expenses> searchSpecification(User user, SearchFilter filter) throws ValidationException {
+        if (filter.getCategory() != null && !isValidCategory(filter.getCategory())) {
+            throw new ValidationException("Invalid Category");
+        }
+        if (filter.getSubcategory() != null && !isValidSubCategory(filter.getSubcategory())) {
+            throw new ValidationException("Invalid Subcategory");
+        }
+        if ((filter.getMinAmount() != null && !isAmountValid(filter.getMinAmount()))
+                || (filter.getMaxAmount() != null && !isAmountValid(filter.getMaxAmount()))) {
+            throw new ValidationException("Invalid Amount");
+        }
+
+        // Every condition is part of the same WHERE clause, the user condition leads so the user indexes apply
+        return Specification.where(SearchSpecifications.<Expenses>equal("user", user))
+                .and(SearchSpecifications.equal("expenseCategory",
+                        filter.getCategory() == null ? null : SubCategories.Category.valueOf(filter.getCategory())))
+                .and(SearchSpecifications.equal("expenseSubcategory",
+                        filter.getSubcategory() == null ? null : SubCategories.valueOf(filter.getSubcategory())))
+                .and(SearchSpecifications.atLeast("expenseAmount", filter.getMinAmount()))
+                .and(SearchSpecifications.atMost("expenseAmount", filter.getMaxAmount()))
+                .and(SearchSpecifications.atLeast("createdAt", parseSearchDate(filter.getStartDate())))
+                .and(SearchSpecifications.atMost("createdAt", parseSearchDate(filter.getEndDate())))
+                .and(SearchSpecifications.equal("budget.id", filter.getBudgetId()))
+                .and(SearchSpecifications.contains("description", filter.getDescription()));
+    }
+
+
+    // A bulk change needs a filter condition or an id list, so an empty request never selects every expense
+    private Specification<Expenses> bulkSpecification(User user, SearchFilter filter, List<Long> ids) throws ValidationException {
+        boolean hasIds = ids != null && !ids.isEmpty();
+        if ((filter == null || filter.isEmpty()) && !hasIds) {
+            throw new ValidationException("A Filter Or Ids Are Required");
+        }
+        if (hasIds && ids.size() > BulkSelection.MAX_IDS) {
+            throw new ValidationException("At Most " + BulkSelection.MAX_IDS + " Ids Can Be Changed At Once");
+        }
+        return searchSpecification(user, filter == null ? new SearchFilter() : filter)
+                .and(SearchSpecifications.in("id", ids));
+    }
+
+
+    // Parses an optional yyyy-MM-dd search bound, null when the bound is not set
+    private Date parseSearchDate(String date) throws ValidationException {
+        if (date == null) {
+            return null;
+        }
+        if (!isValidDate(date)) {
+            throw new ValidationException("Invalid Date");
+        }
+        try {
+            return new SimpleDateFormat("yyyy-MM-dd").parse(date);
+        } catch (ParseException e) {
+            throw new ValidationException("Invalid Date");
+        }
+    }
+
+
+    // The budget named by a patch, the current budget is reused without another lookup
+    private Budget patchedBudget(String usernameOrEmail, Budget currentBudget, String value) throws ValidationException {
+        long budgetId;
+        try {
+            budgetId = Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new ValidationException("Invalid Budget, Cannot Update Expense");
+        }
+        if (currentBudget != null && currentBudget.getId() == budgetId) {
+            return currentBudget;
+        }
+        Budget existingBudget = budgetService.getBudgetById(usernameOrEmail, budgetId);
+        if (existingBudget == null) {
+            throw new EntityNotFoundException("Budget Does Not Exist, Cannot update Expense");
+        }
+        return existingBudget;
+    }
+
+
+    private static Long budgetId(Budget budget) {
+        return budget == null ? null : budget.getId();
+    }
+
+
+    /**
+     * Moves an expense amount between budget spend ledgers
+     * The ledger columns are changed with relative UPDATE statements so concurrent writes to the same budget add up
+     *
+     * @param previousBudget The budget the expense was connected to, or null
+     * @param previousAmount The amount that was recorded against the previous budget
+     * @param newBudget The budget the expense is now connected to, or null
+     * @param newAmount The amount to record against the new budget
+     */
+    private void moveLedger(Budget previousBudget, double previousAmount, Budget newBudget, double newAmount) {
+        if (previousBudget != null && newBudget != null && previousBudget.getId().equals(newBudget.getId())) {
+            if (previousAmount != newAmount) {
+                budgetRepository.adjustLedger(newBudget.getId(), newAmount - previousAmount, 0);
+            }
+            return;
+        }
+        if (previousBudget != null) {
+            budgetRepository.adjustLedger(previousBudget.getId(), -previousAmount, -1);
+        }
+        if (newBudget != null) {
+            budgetRepository.adjustLedger(newBudget.getId(), newAmount, 1);
+        }
     }
 
 
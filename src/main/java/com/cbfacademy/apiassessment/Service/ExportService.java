@@ -0,0 +1,792 @@
+package com.cbfacademy.apiassessment.Service;
+
+import com.cbfacademy.apiassessment.DTO.BudgetDTO;
+import com.cbfacademy.apiassessment.DTO.ExportFormat;
+import com.cbfacademy.apiassessment.DTO.ExportJob;
+import com.cbfacademy.apiassessment.DTO.ExportStats;
+import com.cbfacademy.apiassessment.DTO.ExpensesDTO;
+import com.cbfacademy.apiassessment.DTO.PageCursor;
+import com.cbfacademy.apiassessment.DTO.UserRow;
+import com.cbfacademy.apiassessment.Exceptions.TooManyExportsException;
+import com.cbfacademy.apiassessment.Mappers.UserMapper;
+import com.cbfacademy.apiassessment.Repository.BudgetRepository;
+import com.cbfacademy.apiassessment.Repository.ExpensesRepository;
+import com.cbfacademy.apiassessment.Repository.UserRepository;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityNotFoundException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.validation.ValidationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exports expenses, budgets and users as a JSON array, NDJSON or CSV, and expenses in the binary columnar layout
+ * too, optionally gzip compressed. Rows are written one page at a time so the memory used does not grow with their
+ * number. An export is either streamed straight to the
+ * response or run as a job: a bounded pool of workers writes each job to a file of its own in the export directory,
+ * which is downloaded once the job completes and deleted when it expires
+ */
+@Service
+public class ExportService implements IExportService {
+
+    private static final Logger log = LoggerFactory.getLogger(ExportService.class);
+
+    private static final Gson gson = new Gson();
+
+    // Request attributes through which Tomcat sends a file with sendfile once the handler returns
+    static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    @Autowired
+    UserService userService;
+    @Autowired
+    ExpensesRepository expensesRepository;
+    @Autowired
+    BudgetRepository budgetRepository;
+    @Autowired
+    UserRepository userRepository;
+
+    @Value("${pf.export.dir:${java.io.tmpdir}/pf-exports}")
+    String exportDir;
+    @Value("${pf.export.workers:2}")
+    int workers;
+    @Value("${pf.export.queue-capacity:50}")
+    int queueCapacity;
+    @Value("${pf.export.max-per-user:2}")
+    int maxPerUser;
+    @Value("${pf.export.ttl-minutes:60}")
+    long ttlMinutes;
+    @Value("${pf.export.page-size:1000}")
+    int pageSize;
+
+    // CSV columns in the order they are written, named after the JSON fields
+    static final String[] EXPENSE_COLUMNS = {"id", "created", "updated", "amount", "category", "subcategory",
+            "description", "user_id", "budget_id"};
+    static final String[] BUDGET_COLUMNS = {"id", "created_at", "updated_at", "amount", "category", "subcategory",
+            "description", "user_id", "spent", "amountLeft", "expenseCount"};
+    static final String[] USER_COLUMNS = {"created", "name", "username", "email", "updated"};
+
+    private final AtomicLong completedExports = new AtomicLong();
+    private final AtomicLong failedExports = new AtomicLong();
+    private final AtomicLong streamedExports = new AtomicLong();
+    private final AtomicLong rowsWritten = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong uncompressedBytesWritten = new AtomicLong();
+    private final AtomicLong nanosWriting = new AtomicLong();
+
+    private final Map<String, ExportJob> jobs = new ConcurrentHashMap<>();
+    private Path directory;
+    ThreadPoolExecutor executor;
+    private ScheduledExecutorService cleaner;
+
+
+    @PostConstruct
+    void start() throws IOException {
+        directory = Paths.get(exportDir);
+        Files.createDirectories(directory);
+        // Files left by a previous run belong to jobs that are no longer known
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.{export,part}")) {
+            for (Path file : files) {
+                deleteQuietly(file);
+            }
+        }
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), daemonThreads("export-worker"));
+        cleaner = Executors.newSingleThreadScheduledExecutor(daemonThreads("export-cleanup"));
+        cleaner.scheduleWithFixedDelay(this::removeExpired, 1, 1, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        cleaner.shutdownNow();
+        executor.shutdownNow();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+
+    /**
+     * Starts an export of all expenses of a user
+     *
+     * @param usernameOrEmail The username or email of the user
+     * @param format The format the expenses are written in
+     * @param gzip Whether the file is gzip compressed
+     * @return The queued export job
+     * @throws EntityNotFoundException If the user does not exist
+     * @throws TooManyExportsException If the user has the most exports running or the queue is full
+     */
+    @Override
+    public ExportJob exportExpenses(String usernameOrEmail, ExportFormat format, boolean gzip)
+            throws EntityNotFoundException, TooManyExportsException {
+        Long userId = userService.resolveUser(usernameOrEmail).getId();
+        return startExport(ExportJob.Type.EXPENSES, userId, format, gzip, expenseRows(userId, format));
+    }
+
+
+    /**
+     * Starts an export of all budgets of a user
+     *
+     * @param usernameOrEmail The username or email of the user
+     * @param format The format the budgets are written in
+     * @param gzip Whether the file is gzip compressed
+     * @return The queued export job
+     * @throws ValidationException If the format is columnar, which only exports expenses
+     * @throws EntityNotFoundException If the user does not exist
+     * @throws TooManyExportsException If the user has the most exports running or the queue is full
+     */
+    @Override
+    public ExportJob exportBudgets(String usernameOrEmail, ExportFormat format, boolean gzip)
+            throws EntityNotFoundException, TooManyExportsException {
+        requireText(format);
+        Long userId = userService.resolveUser(usernameOrEmail).getId();
+        return startExport(ExportJob.Type.BUDGETS, userId, format, gzip,
+                (out, progress) -> writeBudgets(userId, format, textWriter(out), progress));
+    }
+
+
+    /**
+     * Starts an export of all users, the limit on running exports is shared by the admins
+     *
+     * @param format The format the users are written in
+     * @param gzip Whether the file is gzip compressed
+     * @return The queued export job
+     * @throws ValidationException If the format is columnar, which only exports expenses
+     * @throws TooManyExportsException If the most user exports are running or the queue is full
+     */
+    @Override
+    public ExportJob exportUsers(ExportFormat format, boolean gzip) throws TooManyExportsException {
+        requireText(format);
+        return startExport(ExportJob.Type.USERS, null, format, gzip,
+                (out, progress) -> writeUsers(format, textWriter(out), progress));
+    }
+
+
+    /**
+     * Gets an expense or budget export of a user
+     *
+     * @param usernameOrEmail The username or email of the user
+     * @param jobId The id returned when the export started
+     * @return The export job
+     * @throws EntityNotFoundException If the user does not exist or has no export with the id
+     */
+    @Override
+    public ExportJob getExport(String usernameOrEmail, String jobId) throws EntityNotFoundException {
+        Long userId = userService.resolveUser(usernameOrEmail).getId();
+        ExportJob job = jobs.get(jobId);
+        if (job == null || job.getType() == ExportJob.Type.USERS || !Objects.equals(job.getUserId(), userId)) {
+            throw new EntityNotFoundException("Export Does Not Exist");
+        }
+        return snapshot(job);
+    }
+
+
+    /**
+     * Gets an export of all users
+     *
+     * @param jobId The id returned when the export started
+     * @return The export job
+     * @throws EntityNotFoundException If there is no user export with the id
+     */
+    @Override
+    public ExportJob getUsersExport(String jobId) throws EntityNotFoundException {
+        ExportJob job = jobs.get(jobId);
+        if (job == null || job.getType() != ExportJob.Type.USERS) {
+            throw new EntityNotFoundException("Export Does Not Exist");
+        }
+        return snapshot(job);
+    }
+
+
+    /**
+     * Gets the file a completed export was written to
+     *
+     * @param job The export job
+     * @return The path of the export file
+     * @throws EntityNotFoundException If the export has not completed or has expired
+     */
+    @Override
+    public Path getExportFile(ExportJob job) throws EntityNotFoundException {
+        Path file = fileOf(job.getJobId());
+        if (job.getStatus() != ExportJob.Status.COMPLETED || !Files.exists(file)) {
+            throw new EntityNotFoundException("Export File Does Not Exist");
+        }
+        return file;
+    }
+
+
+    /**
+     * Sends a completed export file, or the byte range asked for, without copying it through the heap
+     * Tomcat sends the file with sendfile when the connector supports it, otherwise the file channel transfers
+     * it to the response. A Range request resumes an interrupted download, one with an If-Range that no longer
+     * matches the export gets the whole file
+     *
+     * @param job The completed export job
+     * @param baseName The name the file is downloaded as, the extension of its format is added
+     * @param request The download request, its Range and If-Range headers are read
+     * @param response The response the file is sent to
+     * @throws EntityNotFoundException If the export has not completed or has expired
+     * @throws IOException If the file cannot be read or sent
+     */
+    @Override
+    public void sendExportFile(ExportJob job, String baseName, HttpServletRequest request, HttpServletResponse response)
+            throws EntityNotFoundException, IOException {
+        Path file = getExportFile(job);
+        long length = Files.size(file);
+        // An export file never changes, so its job id identifies the content
+        String etag = "\"" + job.getJobId() + "\"";
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                "attachment; filename=" + job.getFormat().filename(baseName, job.isGzip()));
+        response.setContentType(job.getFormat().contentType(job.isGzip()).toString());
+
+        long start = 0;
+        long end = length;
+        HttpRange range = singleRange(request.getHeader(HttpHeaders.RANGE));
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (range != null && (ifRange == null || ifRange.equals(etag))) {
+            start = range.getRangeStart(length);
+            end = range.getRangeEnd(length) + 1;
+            if (start >= length || start >= end) {
+                response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                return;
+            }
+            response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + (end - 1) + "/" + length);
+        }
+        response.setContentLengthLong(end - start);
+
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, file.toRealPath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            while (position < end) {
+                position += channel.transferTo(position, end - position, out);
+            }
+        }
+    }
+
+
+    /**
+     * Streams all expenses of a user, the user is resolved before anything is written
+     *
+     * @param usernameOrEmail The username or email of the user
+     * @param format The format the expenses are written in
+     * @param gzip Whether the response is gzip compressed
+     * @return The response body writing the expenses page by page
+     * @throws EntityNotFoundException If the user does not exist
+     */
+    @Override
+    public StreamingResponseBody streamExpenses(String usernameOrEmail, ExportFormat format, boolean gzip)
+            throws EntityNotFoundException {
+        Long userId = userService.resolveUser(usernameOrEmail).getId();
+        return stream(gzip, expenseRows(userId, format));
+    }
+
+
+    /**
+     * Streams all budgets of a user, the user is resolved before anything is written
+     *
+     * @param usernameOrEmail The username or email of the user
+     * @param format The format the budgets are written in
+     * @param gzip Whether the response is gzip compressed
+     * @return The response body writing the budgets page by page
+     * @throws ValidationException If the format is columnar, which only exports expenses
+     * @throws EntityNotFoundException If the user does not exist
+     */
+    @Override
+    public StreamingResponseBody streamBudgets(String usernameOrEmail, ExportFormat format, boolean gzip)
+            throws EntityNotFoundException {
+        requireText(format);
+        Long userId = userService.resolveUser(usernameOrEmail).getId();
+        return stream(gzip, (out, progress) -> writeBudgets(userId, format, textWriter(out), progress));
+    }
+
+
+    /**
+     * Streams all users
+     *
+     * @param format The format the users are written in
+     * @param gzip Whether the response is gzip compressed
+     * @return The response body writing the users page by page
+     * @throws ValidationException If the format is columnar, which only exports expenses
+     */
+    @Override
+    public StreamingResponseBody streamUsers(ExportFormat format, boolean gzip) {
+        requireText(format);
+        return stream(gzip, (out, progress) -> writeUsers(format, textWriter(out), progress));
+    }
+
+
+    /**
+     * Gets the export counters since the application started
+     * The rate is the bytes written per second spent writing, the ratio the bytes before gzip per byte written
+     *
+     * @return The exports queued and running now, and the totals of those that finished or were streamed
+     */
+    @Override
+    public ExportStats stats() {
+        int queued = 0;
+        int running = 0;
+        for (ExportJob job : jobs.values()) {
+            ExportJob.Status status = snapshot(job).getStatus();
+            if (status == ExportJob.Status.QUEUED) {
+                queued++;
+            } else if (status == ExportJob.Status.RUNNING) {
+                running++;
+            }
+        }
+        long bytes = bytesWritten.get();
+        long uncompressed = uncompressedBytesWritten.get();
+        return new ExportStats(queued, running, completedExports.get(), failedExports.get(), streamedExports.get(),
+                rowsWritten.get(), bytes, uncompressed, bytesPerSecond(bytes, nanosWriting.get()),
+                compressionRatio(uncompressed, bytes));
+    }
+
+
+    long writeExpenses(Long userId, ExportFormat format, Writer writer, LongConsumer progress) throws IOException {
+        return writeExpenses(expensePages(userId), format, writer, progress);
+    }
+
+    long writeExpenses(PageSource<ExpensesDTO> pages, ExportFormat format, Writer writer, LongConsumer progress) throws IOException {
+        return writeRows(writer, format, EXPENSE_COLUMNS, pages, Function.<ExpensesDTO>identity(), progress);
+    }
+
+    long writeExpenseColumns(Long userId, OutputStream out, LongConsumer progress) throws IOException {
+        // The columns are written a varint at a time, the buffer keeps them from reaching gzip byte by byte
+        OutputStream buffered = new BufferedOutputStream(out, 64 * 1024);
+        ExpenseColumnsWriter columns = new ExpenseColumnsWriter(buffered);
+        columns.writeHeader(userId);
+        long rows = writePages(expensePages(userId), page -> {
+            columns.writeBlock(page);
+            buffered.flush();
+        }, progress);
+        columns.finish();
+        buffered.flush();
+        return rows;
+    }
+
+    long writeBudgets(Long userId, ExportFormat format, Writer writer, LongConsumer progress) throws IOException {
+        PageCursor first = PageCursor.decode(null);
+        Pageable page = PageRequest.of(0, pageSize);
+        return writeRows(writer, format, BUDGET_COLUMNS, last -> budgetRepository.findPageByUserId(userId,
+                last == null ? first.getCreatedAt() : last.cursorCreatedAt(),
+                last == null ? first.getId() : last.cursorId(), page), Function.<BudgetDTO>identity(), progress);
+    }
+
+    long writeUsers(ExportFormat format, Writer writer, LongConsumer progress) throws IOException {
+        Pageable page = PageRequest.of(0, pageSize);
+        // Users are read as rows rather than entities, nothing is kept in the persistence context between pages
+        return writeRows(writer, format, USER_COLUMNS, last -> userRepository.findRowsAfterId(last == null ? 0L : last.getId(), page),
+                (UserRow row) -> UserMapper.INSTANCE.userDTO(row), progress);
+    }
+
+
+    private PageSource<ExpensesDTO> expensePages(Long userId) {
+        PageCursor first = PageCursor.decode(null);
+        Pageable page = PageRequest.of(0, pageSize);
+        return last -> expensesRepository.findPageByUserId(userId,
+                last == null ? first.getCreatedAt() : last.cursorCreatedAt(),
+                last == null ? first.getId() : last.cursorId(), page);
+    }
+
+    private RowWriter expenseRows(Long userId, ExportFormat format) {
+        if (format == ExportFormat.COLUMNAR) {
+            return (out, progress) -> writeExpenseColumns(userId, out, progress);
+        }
+        return (out, progress) -> writeExpenses(userId, format, textWriter(out), progress);
+    }
+
+    private static void requireText(ExportFormat format) throws ValidationException {
+        if (format == ExportFormat.COLUMNAR) {
+            throw new ValidationException("Columnar Exports Are Only Available For Expenses");
+        }
+    }
+
+    private <T> long writeRows(Writer writer, ExportFormat format, String[] columns, PageSource<T> pages,
+                               Function<T, ?> toRow, LongConsumer progress) throws IOException {
+        RowEncoder encoder = encoder(format, writer, columns);
+        encoder.begin();
+        long rows = writePages(pages, page -> {
+            for (T row : page) {
+                encoder.row(toRow.apply(row));
+            }
+            writer.flush();
+        }, progress);
+        encoder.end();
+        writer.flush();
+        return rows;
+    }
+
+    // Only one page of rows is held at a time, each is written out before the next is read
+    private <T> long writePages(PageSource<T> pages, PageWriter<T> writer, LongConsumer progress) throws IOException {
+        long rows = 0;
+        List<T> page = pages.next(null);
+        while (!page.isEmpty()) {
+            writer.write(page);
+            rows += page.size();
+            progress.accept(rows);
+            if (page.size() < pageSize) {
+                break;
+            }
+            page = pages.next(page.get(page.size() - 1));
+        }
+        return rows;
+    }
+
+    private static RowEncoder encoder(ExportFormat format, Writer writer, String[] columns) throws IOException {
+        switch (format) {
+            case NDJSON:
+                return value -> {
+                    gson.toJson(value, value.getClass(), writer);
+                    writer.write('\n');
+                };
+            case CSV:
+                return new RowEncoder() {
+                    @Override
+                    public void begin() throws IOException {
+                        writer.write(String.join(",", columns));
+                        writer.write("\r\n");
+                    }
+
+                    @Override
+                    public void row(Object value) throws IOException {
+                        JsonObject fields = gson.toJsonTree(value).getAsJsonObject();
+                        for (int i = 0; i < columns.length; i++) {
+                            if (i > 0) {
+                                writer.write(',');
+                            }
+                            writer.write(csvCell(fields.get(columns[i])));
+                        }
+                        writer.write("\r\n");
+                    }
+                };
+            default:
+                JsonWriter json = gson.newJsonWriter(writer);
+                return new RowEncoder() {
+                    @Override
+                    public void begin() throws IOException {
+                        json.beginArray();
+                    }
+
+                    @Override
+                    public void row(Object value) {
+                        gson.toJson(value, value.getClass(), json);
+                    }
+
+                    @Override
+                    public void end() throws IOException {
+                        json.endArray();
+                    }
+                };
+        }
+    }
+
+    // Cells are quoted when they hold a separator, quote or line break. Text that a spreadsheet would read as a
+    // formula is prefixed with a quote so an opened export cannot run it
+    static String csvCell(JsonElement value) {
+        if (value == null || value.isJsonNull()) {
+            return "";
+        }
+        String cell = value.getAsString();
+        if (value.getAsJsonPrimitive().isString() && !cell.isEmpty() && "=+-@\t\r".indexOf(cell.charAt(0)) >= 0) {
+            cell = "'" + cell;
+        }
+        if (cell.contains(",") || cell.contains("\"") || cell.contains("\n") || cell.contains("\r")) {
+            cell = "\"" + cell.replace("\"", "\"\"") + "\"";
+        }
+        return cell;
+    }
+
+
+    // The file or response is counted as written and, under gzip, before compression. A sync flush sends each
+    // page on as it is written instead of holding it in the deflater
+    private Written write(OutputStream out, boolean gzip, RowWriter rows, LongConsumer progress) throws IOException {
+        long started = System.nanoTime();
+        CountingOutputStream written = new CountingOutputStream(out);
+        GZIPOutputStream compressed = gzip ? new GZIPOutputStream(written, 8192, true) : null;
+        CountingOutputStream uncompressed = new CountingOutputStream(gzip ? compressed : written);
+        long count = rows.write(uncompressed, progress);
+        uncompressed.flush();
+        if (compressed != null) {
+            compressed.finish();
+        }
+        written.flush();
+        return new Written(count, written.count, uncompressed.count, System.nanoTime() - started);
+    }
+
+    private StreamingResponseBody stream(boolean gzip, RowWriter rows) {
+        return out -> {
+            try {
+                record(write(out, gzip, rows, count -> {}));
+                streamedExports.incrementAndGet();
+            } catch (IOException | RuntimeException e) {
+                failedExports.incrementAndGet();
+                throw e;
+            }
+        };
+    }
+
+    private void record(Written written) {
+        rowsWritten.addAndGet(written.rows());
+        bytesWritten.addAndGet(written.bytes());
+        uncompressedBytesWritten.addAndGet(written.uncompressedBytes());
+        nanosWriting.addAndGet(written.nanos());
+    }
+
+
+    // Counts and queues under one lock so two requests cannot both take the last free export of a user
+    private synchronized ExportJob startExport(ExportJob.Type type, Long userId, ExportFormat format, boolean gzip,
+                                               RowWriter rows) throws TooManyExportsException {
+        long running = jobs.values().stream()
+                .filter(job -> Objects.equals(job.getUserId(), userId))
+                .map(job -> snapshot(job).getStatus())
+                .filter(status -> status == ExportJob.Status.QUEUED || status == ExportJob.Status.RUNNING)
+                .count();
+        if (running >= maxPerUser) {
+            throw new TooManyExportsException("At most " + maxPerUser + " exports can run at once, retry when one has finished");
+        }
+
+        ExportJob job = ExportJob.builder()
+                .jobId(UUID.randomUUID().toString())
+                .type(type)
+                .userId(userId)
+                .format(format)
+                .gzip(gzip)
+                .status(ExportJob.Status.QUEUED)
+                .createdAt(new Date())
+                .build();
+        jobs.put(job.getJobId(), job);
+        try {
+            executor.execute(() -> run(job, rows));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getJobId());
+            throw new TooManyExportsException("Export queue is full, retry later");
+        }
+        return snapshot(job);
+    }
+
+    // The rows go to a part file that is renamed once complete, so a download never reads a partial export
+    private void run(ExportJob job, RowWriter rows) {
+        update(job, running -> {
+            running.setStatus(ExportJob.Status.RUNNING);
+            running.setStartedAt(new Date());
+        });
+        Path part = directory.resolve(job.getJobId() + ".part");
+        try {
+            Written written;
+            try (OutputStream out = Files.newOutputStream(part)) {
+                written = write(out, job.isGzip(), rows, count -> update(job, running -> running.setRows(count)));
+            }
+            Files.move(part, fileOf(job.getJobId()), StandardCopyOption.ATOMIC_MOVE);
+            record(written);
+            completedExports.incrementAndGet();
+            update(job, completed -> {
+                completed.setStatus(ExportJob.Status.COMPLETED);
+                completed.setRows(written.rows());
+                completed.setBytes(written.bytes());
+                completed.setUncompressedBytes(written.uncompressedBytes());
+                completed.setBytesPerSecond(bytesPerSecond(written.bytes(), written.nanos()));
+                completed.setCompressionRatio(compressionRatio(written.uncompressedBytes(), written.bytes()));
+                finish(completed);
+            });
+        } catch (IOException | RuntimeException e) {
+            log.error("Export {} of {} failed", job.getJobId(), job.getType(), e);
+            deleteQuietly(part);
+            failedExports.incrementAndGet();
+            update(job, failed -> {
+                failed.setStatus(ExportJob.Status.FAILED);
+                failed.setError(e.getMessage());
+                finish(failed);
+            });
+        }
+    }
+
+    private void finish(ExportJob job) {
+        Date now = new Date();
+        job.setFinishedAt(now);
+        job.setExpiresAt(new Date(now.getTime() + TimeUnit.MINUTES.toMillis(ttlMinutes)));
+    }
+
+    // Drops finished jobs past their expiry with their files, queued and running jobs have no expiry yet
+    void removeExpired() {
+        try {
+            Date now = new Date();
+            for (ExportJob job : jobs.values()) {
+                Date expiresAt = snapshot(job).getExpiresAt();
+                if (expiresAt != null && !expiresAt.after(now)) {
+                    jobs.remove(job.getJobId());
+                    deleteQuietly(fileOf(job.getJobId()));
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error("Removing expired exports failed", e);
+        }
+    }
+
+
+    // Several ranges or an invalid header get the whole file, which a server may always send instead
+    private static HttpRange singleRange(String header) {
+        if (header == null) {
+            return null;
+        }
+        try {
+            List<HttpRange> ranges = HttpRange.parseRanges(header);
+            return ranges.size() == 1 ? ranges.get(0) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private Path fileOf(String jobId) {
+        return directory.resolve(jobId + ".export");
+    }
+
+    private static Writer textWriter(OutputStream out) {
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    private static double bytesPerSecond(long bytes, long nanos) {
+        return nanos == 0 ? 0 : bytes * 1e9 / nanos;
+    }
+
+    private static double compressionRatio(long uncompressedBytes, long bytes) {
+        return bytes == 0 ? 0 : (double) uncompressedBytes / bytes;
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Could not delete export file {}", file, e);
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // The job is changed by its worker and read by requests, both hold its lock
+    private static void update(ExportJob job, Consumer<ExportJob> change) {
+        synchronized (job) {
+            change.accept(job);
+        }
+    }
+
+    private static ExportJob snapshot(ExportJob job) {
+        synchronized (job) {
+            return job.toBuilder().build();
+        }
+    }
+
+    // The next page after the last row written, the first page when there is none yet
+    interface PageSource<T> {
+        List<T> next(T last);
+    }
+
+    interface PageWriter<T> {
+        void write(List<T> page) throws IOException;
+    }
+
+    interface RowWriter {
+        long write(OutputStream out, LongConsumer progress) throws IOException;
+    }
+
+    // Writes the rows of one format, the JSON array opens and closes around them and CSV starts with a header
+    interface RowEncoder {
+        default void begin() throws IOException {
+        }
+
+        void row(Object value) throws IOException;
+
+        default void end() throws IOException {
+        }
+    }
+
+    record Written(long rows, long bytes, long uncompressedBytes, long nanos) {
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -1,12 +1,17 @@
 package com.cbfacademy.apiassessment.Service;
 
 import com.cbfacademy.apiassessment.DTO.BudgetDTO;
+import com.cbfacademy.apiassessment.DTO.BulkBudgetUpdate;
+import com.cbfacademy.apiassessment.DTO.BulkResult;
+import com.cbfacademy.apiassessment.DTO.BulkSelection;
+import com.cbfacademy.apiassessment.DTO.CursorPage;
+import com.cbfacademy.apiassessment.DTO.SearchFilter;
 import com.cbfacademy.apiassessment.Entity.*;
 import jakarta.persistence.EntityNotFoundException;
 import jakarta.validation.ValidationException;
 
-import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public interface IBudgetService {
@@ -14,30 +19,38 @@ public interface IBudgetService {
             throws EntityNotFoundException, ValidationException;
     Budget updateBudgetByID(String usernameOrEmail, long budgetId, String update, String value)
             throws ValidationException, EntityNotFoundException;
+    Budget patchBudget(String usernameOrEmail, long budgetId, Map<String, Object> patch)
+            throws ValidationException, EntityNotFoundException;
     Budget getBudgetById(String usernameOrEmail, long budgetId)
             throws EntityNotFoundException;
-    List<Budget> getAllBudgets(String usernameOrEmail)
+    BudgetDTO getBudgetDTOById(String usernameOrEmail, long budgetId)
+            throws EntityNotFoundException;
+    CursorPage<BudgetDTO> getAllBudgets(String usernameOrEmail, int limit, String after)
             throws EntityNotFoundException;
-    List<Budget> getBudgetsByCategory(String usernameOrEmail, String category)
+    CursorPage<BudgetDTO> getBudgetsByCategory(String usernameOrEmail, String category, int limit, String after)
+            throws EntityNotFoundException, ValidationException;
+    CursorPage<BudgetDTO> getBudgetsInPriceRange(String usernameOrEmail, double minPrice, double maxPrice, int limit, String after)
             throws EntityNotFoundException, ValidationException;
-    List<Budget> getBudgetsInPriceRange(String usernameOrEmail, double minPrice, double maxPrice)
+    CursorPage<BudgetDTO> getBudgetsGreaterThan(String usernameOrEmail, double minPrice, int limit, String after)
             throws EntityNotFoundException, ValidationException;
-    List<Budget> getBudgetsGreaterThan(String usernameOrEmail, double minPrice)
+    CursorPage<BudgetDTO> getBudgetsLessThan(String usernameOrEmail, double maxPrice, int limit, String after)
             throws EntityNotFoundException, ValidationException;
-    List<Budget> getBudgetsLessThan(String usernameOrEmail, double maxPrice)
+    CursorPage<BudgetDTO> getBudgetsByDateRange(String usernameOrEmail, String startDate, String endDate, int limit, String after)
             throws EntityNotFoundException, ValidationException;
-    List<Budget> getBudgetsByDateRange(String usernameOrEmail, String startDate, String endDate)
+    CursorPage<BudgetDTO> getBudgetsBefore(String usernameOrEmail, String endDate, int limit, String after)
             throws EntityNotFoundException, ValidationException;
-    List<Budget> getBudgetsBefore(String usernameOrEmail, String endDate)
+    CursorPage<BudgetDTO> getBudgetsAfter(String usernameOrEmail, String endDate, int limit, String after)
             throws EntityNotFoundException, ValidationException;
-    List<Budget> getBudgetsAfter(String usernameOrEmail, String endDate)
+    CursorPage<BudgetDTO> searchBudgets(String usernameOrEmail, SearchFilter filter, String sortBy, int limit, String after)
             throws EntityNotFoundException, ValidationException;
-    List<Budget> sortBudgetsBy(String usernameOrEmail, String sortBy)
+    List<BudgetDTO> sortBudgetsBy(String usernameOrEmail, String sortBy, int limit)
             throws ValidationException, EntityNotFoundException;
-    void getAllBudgetAsJSONFile(String usernameOrEmail)
-            throws EntityNotFoundException, IOException;
     void deleteBudget(String usernameOrEmail, long budgetId)
             throws EntityNotFoundException;
+    BulkResult bulkUpdateBudgets(String usernameOrEmail, BulkBudgetUpdate update)
+            throws EntityNotFoundException, ValidationException;
+    BulkResult bulkDeleteBudgets(String usernameOrEmail, BulkSelection selection)
+            throws EntityNotFoundException, ValidationException;
 
 
 }
@@ -0,0 +1,14 @@
+package com.cbfacademy.apiassessment.Service;
+
+import com.cbfacademy.apiassessment.DTO.ChangeFeed;
+import com.cbfacademy.apiassessment.Entity.DeletedRow;
+import jakarta.persistence.EntityNotFoundException;
+import jakarta.validation.ValidationException;
+
+import java.util.Collection;
+
+public interface IChangeFeedService {
+    ChangeFeed getChanges(String usernameOrEmail, String watermark, int limit) throws ValidationException, EntityNotFoundException;
+    ChangeFeed getAllChanges(String watermark, int limit) throws ValidationException;
+    void recordDeleted(DeletedRow.Type type, Long userId, Collection<Long> ids);
+}
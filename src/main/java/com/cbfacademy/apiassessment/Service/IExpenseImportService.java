@@ -0,0 +1,15 @@
+package com.cbfacademy.apiassessment.Service;
+
+import com.cbfacademy.apiassessment.DTO.ExpenseImportReport;
+import com.cbfacademy.apiassessment.DTO.ExpenseImportRow;
+import jakarta.persistence.EntityNotFoundException;
+import jakarta.validation.ValidationException;
+
+import java.util.List;
+
+public interface IExpenseImportService {
+    ExpenseImportReport importExpenses(String usernameOrEmail, List<ExpenseImportRow> rows, int chunkSize)
+            throws EntityNotFoundException, ValidationException;
+    ExpenseImportReport importExpensesCsv(String usernameOrEmail, String csv, int chunkSize)
+            throws EntityNotFoundException, ValidationException;
+}
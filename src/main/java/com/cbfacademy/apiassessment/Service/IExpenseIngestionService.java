@@ -0,0 +1,16 @@
+package com.cbfacademy.apiassessment.Service;
+
+import com.cbfacademy.apiassessment.DTO.ExpenseImportRow;
+import com.cbfacademy.apiassessment.DTO.IngestAck;
+import com.cbfacademy.apiassessment.DTO.IngestStats;
+import jakarta.persistence.EntityNotFoundException;
+import jakarta.validation.ValidationException;
+
+import java.io.IOException;
+
+public interface IExpenseIngestionService {
+    IngestAck ingestExpense(String usernameOrEmail, String clientId, ExpenseImportRow row)
+            throws EntityNotFoundException, ValidationException, IOException;
+    void flushPending();
+    IngestStats stats();
+}
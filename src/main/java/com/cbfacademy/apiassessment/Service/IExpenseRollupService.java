@@ -0,0 +1,26 @@
+package com.cbfacademy.apiassessment.Service;
+
+import com.cbfacademy.apiassessment.DTO.ExpenseTrendPoint;
+import com.cbfacademy.apiassessment.DTO.RollupAggregate;
+import com.cbfacademy.apiassessment.DTO.RollupBackfillReport;
+import com.cbfacademy.apiassessment.Entity.Expenses;
+import com.cbfacademy.apiassessment.Entity.RollupPeriod;
+import com.cbfacademy.apiassessment.Entity.SubCategories;
+import jakarta.persistence.EntityNotFoundException;
+import jakarta.validation.ValidationException;
+
+import java.util.Date;
+import java.util.List;
+
+public interface IExpenseRollupService {
+    void recordExpense(Expenses expenses);
+    void recordAggregates(List<RollupAggregate> dailyAggregates);
+    void removeAggregates(List<RollupAggregate> dailyAggregates);
+    void removeExpense(Long userId, Date createdAt, SubCategories.Category category, SubCategories subcategory, double amount);
+
+    void changeExpenseAmount(Expenses expenses, double previousAmount);
+    List<ExpenseTrendPoint> getTrend(String usernameOrEmail, RollupPeriod period, String startDate, String endDate,
+                                     String category, String subcategory)
+            throws EntityNotFoundException, ValidationException;
+    RollupBackfillReport backfill(int chunkSize) throws ValidationException;
+}
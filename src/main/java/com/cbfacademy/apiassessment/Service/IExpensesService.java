@@ -1,11 +1,17 @@
 package com.cbfacademy.apiassessment.Service;
 
+import com.cbfacademy.apiassessment.DTO.BulkExpenseUpdate;
+import com.cbfacademy.apiassessment.DTO.BulkResult;
+import com.cbfacademy.apiassessment.DTO.BulkSelection;
+import com.cbfacademy.apiassessment.DTO.CursorPage;
+import com.cbfacademy.apiassessment.DTO.ExpensesDTO;
+import com.cbfacademy.apiassessment.DTO.SearchFilter;
 import com.cbfacademy.apiassessment.Entity.Expenses;
 import jakarta.persistence.EntityNotFoundException;
 import jakarta.validation.ValidationException;
 
-import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public interface IExpensesService {
@@ -13,23 +19,28 @@ public interface IExpensesService {
     Expenses saveExpenses(String usernameOrEmail, Expenses expenses) throws EntityNotFoundException;
     Expenses updateExpensesByID(String usernameOrEmail, long expensesId, String update, String value)
             throws ValidationException, EntityNotFoundException;
+    Expenses patchExpense(String usernameOrEmail, long expensesId, Map<String, Object> patch) throws ValidationException, EntityNotFoundException;
     Expenses getExpensesById(String usernameOrEmail, long expensesId) throws EntityNotFoundException;
-    List<Expenses> getExpensesByBudget(String usernameOrEmail, long budgetId) throws EntityNotFoundException;
-    List<Expenses> getAllExpenses(String usernameOrEmail) throws EntityNotFoundException;
-    List<Expenses> getExpensesByCategory(String usernameOrEmail, String category) throws EntityNotFoundException, ValidationException;
-    List<Expenses> getExpensesInPriceRange(String usernameOrEmail, double minPrice, double maxPrice) throws EntityNotFoundException, ValidationException;
-    List<Expenses> getExpensesGreaterThan(String usernameOrEmail, double maxPrice)
+    ExpensesDTO getExpensesDTOById(String usernameOrEmail, long expensesId) throws EntityNotFoundException;
+    CursorPage<ExpensesDTO> getExpensesByBudget(String usernameOrEmail, long budgetId, int limit, String after) throws EntityNotFoundException;
+    CursorPage<ExpensesDTO> getAllExpenses(String usernameOrEmail, int limit, String after) throws EntityNotFoundException;
+    CursorPage<ExpensesDTO> getExpensesByCategory(String usernameOrEmail, String category, int limit, String after) throws EntityNotFoundException, ValidationException;
+    CursorPage<ExpensesDTO> getExpensesInPriceRange(String usernameOrEmail, double minPrice, double maxPrice, int limit, String after) throws EntityNotFoundException, ValidationException;
+    CursorPage<ExpensesDTO> getExpensesGreaterThan(String usernameOrEmail, double maxPrice, int limit, String after)
             throws EntityNotFoundException, ValidationException;
-    List<Expenses> getExpensesLessThan(String usernameOrEmail, double maxPrice)
+    CursorPage<ExpensesDTO> getExpensesLessThan(String usernameOrEmail, double maxPrice, int limit, String after)
             throws EntityNotFoundException, ValidationException;
-    List<Expenses> getExpensesInDateRange(String usernameOrEmail, String startDate, String endDate) throws EntityNotFoundException, ValidationException;
-    List<Expenses> getExpensesBefore(String usernameOrEmail, String endDate)
+    CursorPage<ExpensesDTO> getExpensesInDateRange(String usernameOrEmail, String startDate, String endDate, int limit, String after) throws EntityNotFoundException, ValidationException;
+    CursorPage<ExpensesDTO> getExpensesBefore(String usernameOrEmail, String endDate, int limit, String after)
             throws EntityNotFoundException, ValidationException;
-    List<Expenses> getExpensesAfter(String usernameOrEmail, String startDate)
+    CursorPage<ExpensesDTO> getExpensesAfter(String usernameOrEmail, String startDate, int limit, String after)
             throws EntityNotFoundException, ValidationException;
-    List<Expenses> sortExpensesBy(String usernameOrEmail, String sortBy) throws ValidationException, EntityNotFoundException;
-    void getAllExpensesAsJSONFile(String usernameOrEmail) throws IOException;
+    CursorPage<ExpensesDTO> searchExpenses(String usernameOrEmail, SearchFilter filter, String sortBy, int limit, String after)
+            throws EntityNotFoundException, ValidationException;
+    List<ExpensesDTO> sortExpensesBy(String usernameOrEmail, String sortBy, int limit) throws ValidationException, EntityNotFoundException;
     void deleteExpense(String usernameOrEmail, long ExpenseId) throws EntityNotFoundException;
+    BulkResult bulkUpdateExpenses(String usernameOrEmail, BulkExpenseUpdate update) throws EntityNotFoundException, ValidationException;
+    BulkResult bulkDeleteExpenses(String usernameOrEmail, BulkSelection selection) throws EntityNotFoundException, ValidationException;
 
 
 
@@ -0,0 +1,33 @@
+package com.cbfacademy.apiassessment.Service;
+
+import com.cbfacademy.apiassessment.DTO.ExportFormat;
+import com.cbfacademy.apiassessment.DTO.ExportJob;
+import com.cbfacademy.apiassessment.DTO.ExportStats;
+import com.cbfacademy.apiassessment.Exceptions.TooManyExportsException;
+import jakarta.persistence.EntityNotFoundException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.validation.ValidationException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+public interface IExportService {
+    ExportJob exportExpenses(String usernameOrEmail, ExportFormat format, boolean gzip)
+            throws EntityNotFoundException, TooManyExportsException;
+    ExportJob exportBudgets(String usernameOrEmail, ExportFormat format, boolean gzip)
+            throws ValidationException, EntityNotFoundException, TooManyExportsException;
+    ExportJob exportUsers(ExportFormat format, boolean gzip) throws ValidationException, TooManyExportsException;
+    ExportJob getExport(String usernameOrEmail, String jobId) throws EntityNotFoundException;
+    ExportJob getUsersExport(String jobId) throws EntityNotFoundException;
+    Path getExportFile(ExportJob job) throws EntityNotFoundException;
+    void sendExportFile(ExportJob job, String baseName, HttpServletRequest request, HttpServletResponse response)
+            throws EntityNotFoundException, IOException;
+    StreamingResponseBody streamExpenses(String usernameOrEmail, ExportFormat format, boolean gzip)
+            throws EntityNotFoundException;
+    StreamingResponseBody streamBudgets(String usernameOrEmail, ExportFormat format, boolean gzip)
+            throws ValidationException, EntityNotFoundException;
+    StreamingResponseBody streamUsers(ExportFormat format, boolean gzip) throws ValidationException;
+    ExportStats stats();
+}
@@ -0,0 +1,8 @@
+package com.cbfacademy.apiassessment.Service;
+
+import com.cbfacademy.apiassessment.DTO.LedgerReconciliationReport;
+import jakarta.validation.ValidationException;
+
+public interface ILedgerReconciliationService {
+    LedgerReconciliationReport reconcileBudgetLedgers(int chunkSize) throws ValidationException;
+}
@@ -0,0 +1,9 @@
+package com.cbfacademy.apiassessment.Service;
+
+import com.cbfacademy.apiassessment.DTO.UserDeletionJob;
+import jakarta.persistence.EntityNotFoundException;
+
+public interface IUserDeletionService {
+    UserDeletionJob deleteUser(Long userId, String... usernamesOrEmails);
+    UserDeletionJob getJob(String jobId) throws EntityNotFoundException;
+}
@@ -1,12 +1,15 @@
 package com.cbfacademy.apiassessment.Service;
 
+import com.cbfacademy.apiassessment.DTO.CursorPage;
 import com.cbfacademy.apiassessment.DTO.UserDTO;
+import com.cbfacademy.apiassessment.DTO.UserDeletionJob;
+import com.cbfacademy.apiassessment.DTO.UserIdentity;
 import com.cbfacademy.apiassessment.Entity.User;
 import jakarta.persistence.EntityExistsException;
 import jakarta.persistence.EntityNotFoundException;
+import jakarta.validation.ValidationException;
 
 import javax.naming.InsufficientResourcesException;
-import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
 
@@ -14,8 +17,10 @@ public interface IUserService {
     User saveUser(User user) throws InsufficientResourcesException, EntityExistsException;
     User updateUser(String usernameOrEmail, String name) throws EntityNotFoundException;
     User getUserByUsernameOrEmail(String usernameOrEmail) throws EntityNotFoundException;
-    List<User> getAllUsers() throws EntityNotFoundException;
-    void getAllUsersAsJSONFile() throws IOException;
-    void deleteUser(String usernameOrEmail)  throws EntityNotFoundException;
+    User getUserReference(String usernameOrEmail) throws EntityNotFoundException;
+    UserIdentity resolveUser(String usernameOrEmail) throws EntityNotFoundException;
+    CursorPage<UserDTO> getUsers(String search, String field, int limit, String after) throws ValidationException;
+    UserDeletionJob deleteUser(String usernameOrEmail)  throws EntityNotFoundException;
+    UserDeletionJob getUserDeletion(String jobId) throws EntityNotFoundException;
 
 }
@@ -0,0 +1,116 @@
+package com.cbfacademy.apiassessment.Service;
+
+import com.cbfacademy.apiassessment.Cache.SummaryCache;
+import com.cbfacademy.apiassessment.DTO.BudgetSpend;
+import com.cbfacademy.apiassessment.DTO.LedgerDrift;
+import com.cbfacademy.apiassessment.DTO.LedgerReconciliationReport;
+import com.cbfacademy.apiassessment.Entity.Budget;
+import com.cbfacademy.apiassessment.Repository.BudgetRepository;
+import jakarta.validation.ValidationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+@Service
+public class LedgerReconciliationService implements ILedgerReconciliationService {
+
+    private static final Logger log = LoggerFactory.getLogger(LedgerReconciliationService.class);
+
+    // Differences below half a penny come from summing doubles in a different order
+    private static final double TOLERANCE = 0.005;
+
+    private static final int MAX_CHUNK_SIZE = 5000;
+
+    @Autowired
+    BudgetRepository budgetRepository;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Autowired
+    SummaryCache summaryCache;
+
+
+    /**
+     * Recomputes every budget spend ledger from the expense rows and corrects the ones that drifted
+     * Budgets are processed in id order, one chunk per transaction. The budgets of a chunk are locked
+     * while it is checked, so expenses written at the same time are not lost from the ledger. The summaries of
+     * the users whose ledgers were corrected are evicted once the chunk has committed
+     *
+     * @param chunkSize The number of budgets to check per transaction
+     * @return A report of the budgets checked and the drift that was corrected
+     * @throws ValidationException If the chunk size is not valid
+     */
+    @Override
+    public LedgerReconciliationReport reconcileBudgetLedgers(int chunkSize) throws ValidationException {
+        if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE) {
+            throw new ValidationException("Chunk size must be between 1 and " + MAX_CHUNK_SIZE);
+        }
+
+        LedgerReconciliationReport report = new LedgerReconciliationReport();
+        report.setStartedAt(new Date());
+        report.setChunkSize(chunkSize);
+
+        long lastId = 0;
+        Set<Long> correctedUserIds = new HashSet<>();
+        while (true) {
+            final long afterId = lastId;
+            Long chunkLastId = transactionTemplate.execute(status -> reconcileChunk(afterId, chunkSize, report, correctedUserIds));
+            correctedUserIds.forEach(summaryCache::evict);
+            correctedUserIds.clear();
+            if (chunkLastId == null) {
+                break;
+            }
+            lastId = chunkLastId;
+            report.setChunksProcessed(report.getChunksProcessed() + 1);
+        }
+
+        report.setFinishedAt(new Date());
+        log.info("Budget ledger reconciliation checked {} budgets, corrected {}",
+                report.getBudgetsChecked(), report.getBudgetsCorrected());
+        return report;
+    }
+
+
+    // Checks one chunk of budgets, returns the last budget id of the chunk or null when there are none left.
+    // The users of the corrected budgets are added to correctedUserIds
+    private Long reconcileChunk(long afterId, int chunkSize, LedgerReconciliationReport report, Set<Long> correctedUserIds) {
+        List<Budget> budgets = budgetRepository.findChunkAfterIdForUpdate(afterId, PageRequest.of(0, chunkSize));
+        if (budgets.isEmpty()) {
+            return null;
+        }
+
+        Map<Long, BudgetSpend> actualSpend = budgetRepository
+                .findBudgetSpendByIds(budgets.stream().map(Budget::getId).collect(Collectors.toList()))
+                .stream().collect(Collectors.toMap(BudgetSpend::getBudgetId, Function.identity()));
+
+        for (Budget budget : budgets) {
+            BudgetSpend actual = actualSpend.get(budget.getId());
+            double actualSpent = actual != null ? actual.getAmountSpent() : 0;
+            long actualCount = actual != null ? actual.getExpenseCount() : 0;
+
+            if (Math.abs(budget.getSpent() - actualSpent) > TOLERANCE || budget.getExpenseCount() != actualCount) {
+                report.getDrift().add(new LedgerDrift(budget.getId(),
+                        budget.getSpent(), actualSpent,
+                        budget.getExpenseCount(), actualCount));
+                budgetRepository.setLedger(budget.getId(), actualSpent, actualCount);
+                correctedUserIds.add(budget.getUser().getId());
+                report.setBudgetsCorrected(report.getBudgetsCorrected() + 1);
+            }
+        }
+
+        report.setBudgetsChecked(report.getBudgetsChecked() + budgets.size());
+        return budgets.get(budgets.size() - 1).getId();
+    }
+}
@@ -1,9 +1,13 @@
 package com.cbfacademy.apiassessment.Service;
 
+import com.cbfacademy.apiassessment.Cache.SummaryCache;
+import com.cbfacademy.apiassessment.DTO.BudgetSpend;
 import com.cbfacademy.apiassessment.DTO.BudgetSummary;
 import com.cbfacademy.apiassessment.DTO.Summary;
-import com.cbfacademy.apiassessment.Entity.Budget;
-import com.cbfacademy.apiassessment.Entity.Expenses;
+import com.cbfacademy.apiassessment.Entity.User;
+import com.cbfacademy.apiassessment.Repository.BudgetRepository;
+import com.cbfacademy.apiassessment.Repository.ExpensesRepository;
+import jakarta.persistence.EntityNotFoundException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -14,58 +18,62 @@ import java.util.List;
 public class SummaryService implements ISummaryService {
 
     @Autowired
-    private BudgetService budgetService;
+    private UserService userService;
 
     @Autowired
-    private ExpensesService expensesService;
+    private BudgetRepository budgetRepository;
 
-    @Override
-    public Summary getSummary(String usernameOrEmail) {
-        Summary summary = new Summary();
-
-        List<Budget> budgets = budgetService.getAllBudgets(usernameOrEmail);
+    @Autowired
+    private ExpensesRepository expensesRepository;
 
-        if (budgets.isEmpty()) {
-            // No budgets available, set empty list
-            summary.setBudgetSummaries(new ArrayList<>());
+    @Autowired
+    private SummaryCache summaryCache;
+
+
+    /**
+     * Builds the budget and expense summary for a user
+     * The amount spent per budget is read from the budget spend ledgers in one query,
+     * so the cost does not grow with the number of budgets or expenses the user has
+     * Summaries are cached per user until one of the user's budgets or expenses changes
+     *
+     * @param usernameOrEmail The username or email of the user
+     * @return The summary of the user's budgets and expenses
+     * @throws EntityNotFoundException If the user does not exist
+     */
+    @Override
+    public Summary getSummary(String usernameOrEmail) throws EntityNotFoundException {
+        User user = userService.getUserReference(usernameOrEmail);
+        if (user == null) {
+            throw new EntityNotFoundException("User Does Not Exist, Cannot Get Summary");
         }
-        else {
-            List<BudgetSummary> budgetSummaries = new ArrayList<>();
-            
-
-            for (Budget budget : budgets) {
-                BudgetSummary budgetSummary = new BudgetSummary();
-                budgetSummary.setBudgetId(budget.getId());
-                budgetSummary.setBudgetCategory(budget.getBudgetCategory().name());
-                budgetSummary.setBudgetSubcategory(budget.getBudgetSubcategory().name());
-                budgetSummary.setBudgetAmount(budget.getBudgetAmount());
 
-                double amountSpent = 0;
-
-                List<Expenses> expensesByBudget = expensesService.getExpensesByBudget(usernameOrEmail, budget.getId());
-
-                if (!expensesByBudget.isEmpty()) {
-                    amountSpent = expensesByBudget.stream().mapToDouble(Expenses::getExpenseAmount).sum();
-                }
+        return summaryCache.get(user.getId(), userId -> buildSummary(user));
+    }
 
-                double amountLeft = budget.getBudgetAmount() - amountSpent;
-                budgetSummary.setAmountLeft(amountLeft);
 
-                budgetSummaries.add(budgetSummary);
-            }
-            summary.setBudgetSummaries(budgetSummaries);
+    private Summary buildSummary(User user) {
+        Summary summary = new Summary();
+        List<BudgetSummary> budgetSummaries = new ArrayList<>();
+        double totalBudgetAmount = 0;
+
+        // Budgets without expenses are returned with nothing spent
+        for (BudgetSpend budgetSpend : budgetRepository.findBudgetLedgerByUser(user)) {
+            BudgetSummary budgetSummary = new BudgetSummary();
+            budgetSummary.setBudgetId(budgetSpend.getBudgetId());
+            budgetSummary.setBudgetCategory(budgetSpend.getBudgetCategory().name());
+            budgetSummary.setBudgetSubcategory(budgetSpend.getBudgetSubcategory() != null ? budgetSpend.getBudgetSubcategory().name() : null);
+            budgetSummary.setBudgetAmount(budgetSpend.getBudgetAmount());
+            budgetSummary.setAmountLeft(budgetSpend.getBudgetAmount() - budgetSpend.getAmountSpent());
+
+            totalBudgetAmount += budgetSpend.getBudgetAmount();
+            budgetSummaries.add(budgetSummary);
         }
 
-        // Handling expenses separately
-        List<Expenses> expensesList = expensesService.getAllExpenses(usernameOrEmail);
-        if (expensesList.isEmpty()) {
-            // No expenses available, set total expenses to zero
-            summary.setTotalExpensesAmount(0);
-        }
-        else {
-            double totalExpensesAmount = expensesList.stream().mapToDouble(Expenses::getExpenseAmount).sum();
-            summary.setTotalExpensesAmount(totalExpensesAmount);
-        }
+        summary.setBudgetSummaries(budgetSummaries);
+        summary.setTotalBudgetAmount(totalBudgetAmount);
+
+        // Includes expenses that are not connected to a budget
+        summary.setTotalExpensesAmount(expensesRepository.sumExpenseAmountByUser(user));
 
         return summary;
     }
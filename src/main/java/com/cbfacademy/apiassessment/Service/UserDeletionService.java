@@ -0,0 +1,241 @@
+package com.cbfacademy.apiassessment.Service;
+
+import com.cbfacademy.apiassessment.Cache.RequestLookups;
+import com.cbfacademy.apiassessment.Cache.SummaryCache;
+import com.cbfacademy.apiassessment.Cache.UserResolverCache;
+import com.cbfacademy.apiassessment.DTO.UserDeletionJob;
+import com.cbfacademy.apiassessment.Entity.DeletedRow;
+import com.cbfacademy.apiassessment.Repository.BudgetRepository;
+import com.cbfacademy.apiassessment.Repository.DeletedRowRepository;
+import com.cbfacademy.apiassessment.Repository.ExpenseRollupRepository;
+import com.cbfacademy.apiassessment.Repository.ExpensesRepository;
+import com.cbfacademy.apiassessment.Repository.UserRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityNotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+
+// Deletes users with set-based statements instead of the entity cascade, which loads and deletes every
+// budget and expense one by one. Each chunk commits on its own, so no lock is held for the whole delete.
+// Users with more rows than the inline limit are deleted on a background thread
+@Service
+public class UserDeletionService implements IUserDeletionService {
+
+    private static final Logger log = LoggerFactory.getLogger(UserDeletionService.class);
+
+    // Finished jobs are kept for their progress to be read, the oldest are dropped first
+    static final int MAX_JOBS = 100;
+
+    @Autowired
+    UserRepository userRepository;
+    @Autowired
+    ExpensesRepository expensesRepository;
+    @Autowired
+    BudgetRepository budgetRepository;
+    @Autowired
+    ExpenseRollupRepository expenseRollupRepository;
+    @Autowired
+    SummaryCache summaryCache;
+    @Autowired
+    UserResolverCache userResolverCache;
+    @Autowired
+    RequestLookups requestLookups;
+    @Autowired
+    DeletedRowRepository deletedRowRepository;
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Value("${pf.user-deletion.chunk-size:1000}")
+    int chunkSize;
+    @Value("${pf.user-deletion.inline-limit:5000}")
+    long inlineLimit;
+
+    private final Map<String, UserDeletionJob> jobs = Collections.synchronizedMap(new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, UserDeletionJob> eldest) {
+            return size() > MAX_JOBS;
+        }
+    });
+    private ExecutorService executor;
+
+
+    @PostConstruct
+    void start() {
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "user-deletion");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Running deletes finish their current chunk, a restarted delete carries on with the rows that are left
+    @PreDestroy
+    void stop() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+
+    /**
+     * Deletes a user with their expenses, budgets and rollups
+     * Expenses and then budgets are deleted in chunks, each in a transaction of its own, then the rollups and
+     * the user row. A user with up to the inline limit of rows is deleted before this returns, a larger
+     * one is queued for the background thread and its progress is read with getJob
+     *
+     * @param userId The id of the user to delete
+     * @param usernamesOrEmails The names the user is resolved by, evicted again once the user row is deleted
+     * @return The job, completed when the user was deleted inline
+     */
+    @Override
+    public UserDeletionJob deleteUser(Long userId, String... usernamesOrEmails) {
+        long expensesTotal = expensesRepository.countByUserId(userId);
+        long budgetsTotal = budgetRepository.countByUserId(userId);
+
+        UserDeletionJob job = UserDeletionJob.builder()
+                .jobId(UUID.randomUUID().toString())
+                .userId(userId)
+                .status(UserDeletionJob.Status.QUEUED)
+                .chunkSize(chunkSize)
+                .expensesTotal(expensesTotal)
+                .budgetsTotal(budgetsTotal)
+                .createdAt(new Date())
+                .build();
+        jobs.put(job.getJobId(), job);
+
+        if (expensesTotal + budgetsTotal <= inlineLimit) {
+            run(job, usernamesOrEmails);
+        } else {
+            executor.execute(() -> {
+                try {
+                    run(job, usernamesOrEmails);
+                } catch (RuntimeException e) {
+                    log.error("Deleting user {} failed, {} expenses and {} budgets were deleted", userId,
+                            job.getExpensesDeleted(), job.getBudgetsDeleted(), e);
+                }
+            });
+        }
+        return snapshot(job);
+    }
+
+
+    /**
+     * Gets the progress of a user deletion
+     *
+     * @param jobId The id returned when the deletion started
+     * @return The job with the rows deleted so far
+     * @throws EntityNotFoundException If there is no job with the id
+     */
+    @Override
+    public UserDeletionJob getJob(String jobId) throws EntityNotFoundException {
+        UserDeletionJob job = jobs.get(jobId);
+        if (job == null) {
+            throw new EntityNotFoundException("User Deletion Does Not Exist");
+        }
+        return snapshot(job);
+    }
+
+
+    // The expenses go first so no budget is deleted while an expense still refers to it. A request resolving
+    // the user while the chunks run caches them again, so the names are evicted once the user row is gone
+    void run(UserDeletionJob job, String... usernamesOrEmails) {
+        Long userId = job.getUserId();
+        update(job, running -> {
+            running.setStatus(UserDeletionJob.Status.RUNNING);
+            running.setStartedAt(new Date());
+        });
+        try {
+            deleteInChunks(job, expensesRepository::findIdsByUserId, expensesRepository::deleteByUserIdUpTo,
+                    (deleting, deleted) -> deleting.setExpensesDeleted(deleting.getExpensesDeleted() + deleted));
+            deleteInChunks(job, budgetRepository::findIdsByUserId, budgetRepository::deleteByUserIdUpTo,
+                    (deleting, deleted) -> deleting.setBudgetsDeleted(deleting.getBudgetsDeleted() + deleted));
+
+            // Rows added while the chunks ran are deleted with the user in the last transaction
+            transactionTemplate.executeWithoutResult(status -> {
+                int expensesDeleted = expensesRepository.deleteByUserIdUpTo(userId, Long.MAX_VALUE);
+                int budgetsDeleted = budgetRepository.deleteByUserIdUpTo(userId, Long.MAX_VALUE);
+                int rollupsDeleted = expenseRollupRepository.deleteByUserId(userId);
+                userRepository.deleteUserRow(userId);
+                // One tombstone for the user stands for all of their rows in the change feed
+                deletedRowRepository.save(new DeletedRow(DeletedRow.Type.USER, userId, userId));
+                update(job, deleting -> {
+                    deleting.setExpensesDeleted(deleting.getExpensesDeleted() + expensesDeleted);
+                    deleting.setBudgetsDeleted(deleting.getBudgetsDeleted() + budgetsDeleted);
+                    deleting.setRollupsDeleted(rollupsDeleted);
+                    deleting.setChunksCommitted(deleting.getChunksCommitted() + 1);
+                });
+            });
+            summaryCache.evict(userId);
+            userResolverCache.evict(usernamesOrEmails);
+            requestLookups.evictUser(usernamesOrEmails);
+
+            update(job, completed -> {
+                completed.setStatus(UserDeletionJob.Status.COMPLETED);
+                completed.setFinishedAt(new Date());
+            });
+        } catch (RuntimeException e) {
+            update(job, failed -> {
+                failed.setStatus(UserDeletionJob.Status.FAILED);
+                failed.setFinishedAt(new Date());
+                failed.setError(e.getMessage());
+            });
+            throw e;
+        }
+    }
+
+
+    // Each chunk ends at the id chunkSize rows in, so a delete covers the rows up to it over the user index
+    private void deleteInChunks(UserDeletionJob job, BiFunction<Long, Pageable, List<Long>> findIds,
+                                BiFunction<Long, Long, Integer> deleteUpTo, ObjIntConsumer<UserDeletionJob> progress) {
+        Long userId = job.getUserId();
+        Pageable lastOfChunk = PageRequest.of(job.getChunkSize() - 1, 1);
+        while (!Thread.currentThread().isInterrupted()) {
+            Integer deleted = transactionTemplate.execute(status -> {
+                List<Long> lastId = findIds.apply(userId, lastOfChunk);
+                return lastId.isEmpty() ? -1 : deleteUpTo.apply(userId, lastId.get(0));
+            });
+            // Fewer rows than a chunk are left, they go with the user in the last transaction
+            if (deleted == null || deleted < 0) {
+                return;
+            }
+            update(job, deleting -> {
+                progress.accept(deleting, deleted);
+                deleting.setChunksCommitted(deleting.getChunksCommitted() + 1);
+            });
+        }
+        throw new IllegalStateException("User deletion was interrupted");
+    }
+
+
+    // The job is changed by the deleting thread and read by requests, both hold its lock
+    private static void update(UserDeletionJob job, Consumer<UserDeletionJob> change) {
+        synchronized (job) {
+            change.accept(job);
+        }
+    }
+
+    private static UserDeletionJob snapshot(UserDeletionJob job) {
+        synchronized (job) {
+            return job.toBuilder().build();
+        }
+    }
+}
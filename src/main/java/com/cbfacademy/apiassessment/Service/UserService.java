@@ -1,6 +1,16 @@
 package com.cbfacademy.apiassessment.Service;
 
+import com.cbfacademy.apiassessment.Cache.RequestLookups;
+import com.cbfacademy.apiassessment.Cache.SummaryCache;
+import com.cbfacademy.apiassessment.Cache.UserResolverCache;
+import com.cbfacademy.apiassessment.DTO.CursorPage;
+import com.cbfacademy.apiassessment.DTO.PageCursor;
+import com.cbfacademy.apiassessment.DTO.UserCursor;
 import com.cbfacademy.apiassessment.DTO.UserDTO;
+import com.cbfacademy.apiassessment.DTO.UserDeletionJob;
+import com.cbfacademy.apiassessment.DTO.UserIdentity;
+import com.cbfacademy.apiassessment.DTO.UserRow;
+import com.cbfacademy.apiassessment.DTO.UserSearchField;
 import com.cbfacademy.apiassessment.Entity.User;
 import com.cbfacademy.apiassessment.Entity.UserRoles;
 import com.cbfacademy.apiassessment.Mappers.UserMapper;
@@ -10,13 +20,11 @@ import jakarta.persistence.EntityNotFoundException;
 import jakarta.validation.ValidationException;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
-import com.google.gson.Gson;
+import org.springframework.transaction.annotation.Transactional;
 
 
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -30,6 +38,18 @@ public class UserService implements IUserService{
     @Autowired
     UserRepository userRepository;
 
+    @Autowired
+    SummaryCache summaryCache;
+
+    @Autowired
+    UserDeletionService userDeletionService;
+
+    @Autowired
+    UserResolverCache userResolverCache;
+
+    @Autowired
+    RequestLookups requestLookups;
+
     UserMapper userMapper;
 
 
@@ -54,6 +74,8 @@ public class UserService implements IUserService{
         if(!isValidEmail(user.getEmail())){
             throw new ValidationException("Please Enter a valid Email");
         }
+        userResolverCache.evict(user.getUsername(), user.getEmail());
+        requestLookups.evictUser(user.getUsername(), user.getEmail());
         return userRepository.save(user);
     }
 
@@ -67,6 +89,7 @@ public class UserService implements IUserService{
      * @throws EntityNotFoundException If the user does not exist
      */
     @Override
+    @Transactional
     public User updateUser(String usernameOrEmail, String name)
             throws EntityNotFoundException {
         User existingUser = getUserByUsernameOrEmail(usernameOrEmail);
@@ -74,6 +97,8 @@ public class UserService implements IUserService{
                 // Update the existing user with the new data
                 existingUser.setName(name);
                 existingUser.setUpdatedAt();
+                userResolverCache.evict(usernameOrEmail, existingUser.getUsername(), existingUser.getEmail());
+                requestLookups.evictUser(usernameOrEmail, existingUser.getUsername(), existingUser.getEmail());
                 return userRepository.save(existingUser);
             }
             throw new EntityNotFoundException("User Does Not Exist");
@@ -90,80 +115,117 @@ public class UserService implements IUserService{
     @Override
     public User getUserByUsernameOrEmail(String usernameOrEmail)
             throws EntityNotFoundException{
-        Optional<User> existingUser = userRepository.findByUsername(usernameOrEmail);
-
-        if (existingUser.isEmpty()) {
-            existingUser = userRepository.findByEmail(usernameOrEmail);
-        }
-        if (existingUser.isEmpty()) {
-            throw new EntityNotFoundException("User Does Not Exist");
-        }
+        UserIdentity identity = resolveUser(usernameOrEmail);
 
-        return existingUser.orElse(null);
+        return userRepository.findById(identity.getId())
+                .orElseThrow(() -> new EntityNotFoundException("User Does Not Exist"));
     }
 
 
     /**
-     * Retrieves all users and writes them to a JSON file.
+     * Gets a reference to a user by username or email, for callers that only need the user's id
+     * The reference is only loaded from the database when a field other than the id is read
+     * and is resolved once per web request
      *
-     * @throws IOException If an error occurs while generating the file.
-     * @throws EntityNotFoundException If no users are found
+     * @param usernameOrEmail The username or email of the user
+     * @return the user reference
+     * @throws EntityNotFoundException If the user does not exist
      */
     @Override
-    public void getAllUsersAsJSONFile() throws IOException, EntityNotFoundException {
-        List<UserDTO> userList = userRepository.findAll().stream().
-                map(userMapper.INSTANCE::userDTO).
-                collect(Collectors.toList());
-
-        if(userList.isEmpty()) throw new EntityNotFoundException("No Users Found");
-
-
-        String outputFile = "src/main/resources/AllUsers.JSON";
-        Gson gson = new Gson();
-
-        // Delete the existing file if it exists
-        File file = new File(outputFile);
-        if (file.exists()){
-            file.delete();
-        }
+    public User getUserReference(String usernameOrEmail) throws EntityNotFoundException {
+        return requestLookups.user(usernameOrEmail, key -> userRepository.getReferenceById(resolveUser(key).getId()));
+    }
 
-        try (FileWriter writer = new FileWriter(outputFile)) {
-            // Create a new file
-            gson.toJson(userList, writer);
-        } catch (IOException e) {
-            throw new IOException("Error generating File");
-        }
 
+    /**
+     * Resolves a username or email to the user's id and role
+     * Cached ids cost no query, otherwise both identifiers are matched in one query
+     *
+     * @param usernameOrEmail The username or email of the user
+     * @return the id and role of the user
+     * @throws EntityNotFoundException If the user does not exist
+     */
+    @Override
+    public UserIdentity resolveUser(String usernameOrEmail) throws EntityNotFoundException {
+        return userResolverCache.resolve(usernameOrEmail, key -> userRepository.findIdentityByUsernameOrEmail(key)
+                .stream()
+                .findFirst()
+                .orElseThrow(() -> new EntityNotFoundException("User Does Not Exist")));
     }
 
 
     /**
-     * Retrieves all users.
+     * Gets a page of users, optionally those whose username, email or name starts with a prefix
+     * Without a search the users are listed in id order, with one they are listed in the order of the searched
+     * field. Either way the page is read from an index after the cursor, so deep pages cost the same as the first
      *
-     * @return A list of all users.
-     * @throws EntityNotFoundException - If no users are found
+     * @param search The prefix to search for, or null to list every user
+     * @param field The field the prefix is matched against, username, email or name
+     * @param limit The maximum number of users to return
+     * @param after The cursor returned with the previous page, or null for the first page
+     * @return The page of users and the cursor of the next page
+     * @throws ValidationException If the field, limit or cursor is not valid
      */
     @Override
-    public List<User> getAllUsers() throws EntityNotFoundException {
-        List<User> users = userRepository.findAll();
-        if(users.isEmpty()) throw new EntityNotFoundException("No Users Found");
+    public CursorPage<UserDTO> getUsers(String search, String field, int limit, String after) throws ValidationException {
+        UserSearchField searchField = UserSearchField.resolve(field);
+        Pageable page = PageCursor.pageRequest(limit);
+        UserCursor cursor = UserCursor.decode(after);
+
+        List<UserRow> rows;
+        if (search == null || search.isEmpty()) {
+            rows = userRepository.findRowsAfterId(cursor.getId(), page);
+        } else {
+            String prefix = search.replace("!", "!!").replace("%", "!%").replace("_", "!_") + "%";
+            rows = switch (searchField) {
+                case USERNAME -> userRepository.findRowsByUsernamePrefix(prefix, cursor.getKey(), cursor.getId(), page);
+                case EMAIL -> userRepository.findRowsByEmailPrefix(prefix, cursor.getKey(), cursor.getId(), page);
+                case NAME -> userRepository.findRowsByNamePrefix(prefix, cursor.getKey(), cursor.getId(), page);
+            };
+        }
 
-        return users;
+        String nextCursor = null;
+        if (rows.size() > limit) {
+            rows = rows.subList(0, limit);
+            UserRow last = rows.get(limit - 1);
+            nextCursor = UserCursor.encode(search == null || search.isEmpty() ? "" : searchField.key(last), last.getId());
+        }
+        return new CursorPage<>(rows.stream().map(UserMapper.INSTANCE::userDTO).collect(Collectors.toList()), nextCursor, limit);
     }
 
 
     /**
      * Deletes a user identified by the provided username or email.
+     * Their expenses, budgets and rollups are deleted with set-based statements in chunks, a large account
+     * is deleted in the background and the returned job reports its progress
      *
      * @param usernameOrEmail The username or email of the user to be deleted.
+     * @return The deletion job, completed unless the account is deleted in the background
      * @throws EntityNotFoundException If the user does not exist.
      */
     @Override
-    public void deleteUser(String usernameOrEmail) throws EntityNotFoundException{
+    public UserDeletionJob deleteUser(String usernameOrEmail) throws EntityNotFoundException{
         User user = getUserByUsernameOrEmail(usernameOrEmail);
         if(user == null){
             throw new EntityNotFoundException("User Does not Exist");
         }
-        userRepository.delete(user);
+        UserDeletionJob job = userDeletionService.deleteUser(user.getId(), usernameOrEmail, user.getUsername(), user.getEmail());
+        summaryCache.evict(user.getId());
+        userResolverCache.evict(usernameOrEmail, user.getUsername(), user.getEmail());
+        requestLookups.evictUser(usernameOrEmail, user.getUsername(), user.getEmail());
+        return job;
+    }
+
+
+    /**
+     * Gets the progress of a user deletion
+     *
+     * @param jobId The id of the deletion job
+     * @return The deletion job
+     * @throws EntityNotFoundException If there is no deletion with the id
+     */
+    @Override
+    public UserDeletionJob getUserDeletion(String jobId) throws EntityNotFoundException {
+        return userDeletionService.getJob(jobId);
     }
 }
@@ -0,0 +1,40 @@
+package com.cbfacademy.apiassessment.Validators;
+
+import jakarta.validation.ValidationException;
+import org.springframework.data.domain.Sort;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Parses sort criteria such as "category,amount:desc" into a database Sort.
+
+public class SortCriteria {
+
+    //Builds a Sort from comma separated keys, each optionally followed by ":asc" or ":desc",
+    // keys are mapped to entity properties and the id is always added last so the order is stable
+    public static Sort parse(String sortBy, Map<String, String> properties) throws ValidationException {
+        if (sortBy == null || sortBy.isBlank()) {
+            throw new ValidationException("Invalid SortBy value");
+        }
+
+        List<Sort.Order> orders = new ArrayList<>();
+        for (String criterion : sortBy.split(",")) {
+            String[] parts = criterion.trim().split(":");
+            String property = properties.get(parts[0].toLowerCase());
+            if (property == null || parts.length > 2) {
+                throw new ValidationException("Invalid SortBy value");
+            }
+
+            Sort.Direction direction = Sort.Direction.ASC;
+            if (parts.length == 2) {
+                direction = Sort.Direction.fromOptionalString(parts[1])
+                        .orElseThrow(() -> new ValidationException("Invalid Sort direction"));
+            }
+            orders.add(new Sort.Order(direction, property));
+        }
+        orders.add(Sort.Order.asc("id"));
+
+        return Sort.by(orders);
+    }
+}
@@ -34,6 +34,13 @@ public class ValidateArgs {
     }
 
 
+    //Validates if an expense subcategory can be linked to a budget subcategory, they only have to match when both are set,
+    // returns True if the subcategories match, false otherwise
+    public static boolean isMatchingSubCategory(SubCategories budgetSubcategory, SubCategories expenseSubcategory) {
+        return budgetSubcategory == null || expenseSubcategory == null || budgetSubcategory == expenseSubcategory;
+    }
+
+
     //Validates if the given string is a valid date,
     // returns True if the date string is valid, false otherwise
     public static boolean isValidDate(String dateString) {
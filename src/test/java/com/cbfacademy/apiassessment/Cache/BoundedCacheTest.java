@@ -0,0 +1,82 @@
+package com.cbfacademy.apiassessment.Cache;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("The Bounded Cache")
+public class BoundedCacheTest {
+
+    // Clock that only moves when the test advances it
+    private static class TestClock extends Clock {
+        private long millis;
+
+        @Override
+        public ZoneOffset getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(java.time.ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+    }
+
+    @Test
+    @DisplayName("evicts the least recently used entry when full")
+    void testEvictsLeastRecentlyUsed() {
+        BoundedCache<Long, String> cache = new BoundedCache<>("test", 2, 60_000);
+        cache.put(1L, "one");
+        cache.put(2L, "two");
+        cache.get(1L);
+        cache.put(3L, "three");
+
+        assertEquals("one", cache.get(1L));
+        assertNull(cache.get(2L));
+        assertEquals("three", cache.get(3L));
+        assertEquals(1, cache.stats().getEvictions());
+        assertEquals(2, cache.stats().getSize());
+    }
+
+    @Test
+    @DisplayName("expires entries after their time to live")
+    void testExpiresEntries() {
+        TestClock clock = new TestClock();
+        BoundedCache<Long, String> cache = new BoundedCache<>("test", 10, 1_000, clock);
+        cache.put(1L, "one");
+
+        clock.millis = 999;
+        assertEquals("one", cache.get(1L));
+        clock.millis = 1_000;
+        assertNull(cache.get(1L));
+
+        assertEquals(1, cache.stats().getHits());
+        assertEquals(1, cache.stats().getMisses());
+        assertEquals(1, cache.stats().getExpirations());
+    }
+
+    @Test
+    @DisplayName("does not keep a value loaded while the key was invalidated")
+    void testInvalidateDuringLoad() {
+        BoundedCache<Long, String> cache = new BoundedCache<>("test", 10, 60_000);
+
+        String loaded = cache.get(1L, key -> {
+            cache.invalidate(key);
+            return "stale";
+        });
+
+        assertEquals("stale", loaded);
+        assertNull(cache.get(1L));
+        assertEquals(0.0, cache.stats().getHitRatio());
+    }
+}
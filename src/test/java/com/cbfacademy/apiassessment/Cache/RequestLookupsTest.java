@@ -0,0 +1,100 @@
+package com.cbfacademy.apiassessment.Cache;
+
+import com.cbfacademy.apiassessment.Entity.Budget;
+import com.cbfacademy.apiassessment.Entity.SubCategories;
+import com.cbfacademy.apiassessment.Entity.User;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("The Request Lookups")
+public class RequestLookupsTest {
+
+    private final RequestLookups requestLookups = new RequestLookups();
+
+    @AfterEach
+    void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    @DisplayName("resolves a user and budget once per request")
+    void testMemoizesWithinRequest() {
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        User user = user();
+        Budget budget = new Budget(100, SubCategories.Category.Food, SubCategories.Groceries, "Food");
+        AtomicInteger userLoads = new AtomicInteger();
+        AtomicInteger budgetLoads = new AtomicInteger();
+
+        for (int i = 0; i < 3; i++) {
+            assertSame(user, requestLookups.user("username", key -> {
+                userLoads.incrementAndGet();
+                return user;
+            }));
+            assertSame(budget, requestLookups.budget(user, 2L, id -> {
+                budgetLoads.incrementAndGet();
+                return budget;
+            }));
+        }
+
+        assertEquals(1, userLoads.get());
+        assertEquals(1, budgetLoads.get());
+        assertEquals(4, requestLookups.avoidedLookups());
+    }
+
+    @Test
+    @DisplayName("resolves a user and budget again after they are evicted")
+    void testEvict() {
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        User user = user();
+        AtomicInteger loads = new AtomicInteger();
+
+        requestLookups.budget(user, 2L, id -> new Budget());
+        requestLookups.evictBudget(user, 2L);
+        requestLookups.budget(user, 2L, id -> {
+            loads.incrementAndGet();
+            return new Budget();
+        });
+        requestLookups.user("username", key -> user);
+        requestLookups.evictUser("username");
+        requestLookups.user("username", key -> {
+            loads.incrementAndGet();
+            return user;
+        });
+
+        assertEquals(2, loads.get());
+        assertEquals(0, requestLookups.avoidedLookups());
+    }
+
+    @Test
+    @DisplayName("does not memoize outside a request")
+    void testNoRequest() {
+        User user = user();
+        AtomicInteger loads = new AtomicInteger();
+
+        requestLookups.user("username", key -> {
+            loads.incrementAndGet();
+            return user;
+        });
+        requestLookups.user("username", key -> {
+            loads.incrementAndGet();
+            return user;
+        });
+
+        assertEquals(2, loads.get());
+        assertEquals(0, requestLookups.avoidedLookups());
+    }
+
+    private static User user() {
+        User user = new User("name", "username", "user@email.com");
+        user.setId(1L);
+        return user;
+    }
+}
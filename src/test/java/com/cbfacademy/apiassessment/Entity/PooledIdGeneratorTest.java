@@ -0,0 +1,140 @@
+package com.cbfacademy.apiassessment.Entity;
+
+import com.cbfacademy.apiassessment.Repository.BudgetRepository;
+import com.cbfacademy.apiassessment.Repository.ExpensesRepository;
+import com.cbfacademy.apiassessment.Repository.UserRepository;
+import jakarta.persistence.EntityManager;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+@DataJpaTest(properties = {
+        "spring.jpa.properties.hibernate.dialect=com.cbfacademy.apiassessment.Service.QueryCountTest$LedgerH2Dialect",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+public class PooledIdGeneratorTest {
+
+    private static final Logger log = LoggerFactory.getLogger(PooledIdGeneratorTest.class);
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private BudgetRepository budgetRepository;
+
+    @Autowired
+    private ExpensesRepository expensesRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private DataSource dataSource;
+
+    // User and users both map the users table, so the user row is inserted directly with both id columns
+    @BeforeEach
+    void setUp() {
+        entityManager.createNativeQuery("INSERT INTO users (id, user_id, name, username, email, role, created_at) " +
+                "VALUES (41, 41, 'name', 'username', 'user@email.com', 'USER', CURRENT_TIMESTAMP)").executeUpdate();
+    }
+
+    @Test
+    @DisplayName("starts a table's first block after its largest id and hands out the following blocks in order")
+    void testReserve() throws SQLException {
+        // The test transaction's connection, so the id_sequence row is rolled back with the test
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+
+        assertEquals(42, PooledIdGenerator.reserve(connection, "users", "id", 10));
+        assertEquals(52, PooledIdGenerator.reserve(connection, "users", "id", 5));
+        assertEquals(57, PooledIdGenerator.reserve(connection, "users", "id", 1));
+    }
+
+    @Test
+    @DisplayName("retries the first block after a deadlock with another transaction inserting it")
+    void testReserveAfterDeadlock() throws SQLException {
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        AtomicInteger inserts = new AtomicInteger();
+        AtomicInteger rollbacks = new AtomicInteger();
+        // The first insert of the id_sequence row fails as the deadlock victim would. The rollback is counted
+        // rather than run, so the test transaction keeps the user inserted above
+        Connection deadlocking = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("rollback")) {
+                        rollbacks.incrementAndGet();
+                        return null;
+                    }
+                    if (method.getName().equals("prepareStatement") && ((String) args[0]).startsWith("INSERT")
+                            && inserts.getAndIncrement() == 0) {
+                        throw new SQLException("Deadlock found when trying to get lock", "40001");
+                    }
+                    return method.invoke(connection, args);
+                });
+
+        assertEquals(42, PooledIdGenerator.reserve(deadlocking, "users", "id", 10));
+        assertEquals(1, rollbacks.get());
+        assertEquals(52, PooledIdGenerator.reserve(connection, "users", "id", 10));
+        assertFalse(PooledIdGenerator.isRetryable(new SQLException("Syntax error", "42000")));
+    }
+
+    @Test
+    @DisplayName("assigns unique ids and inserts budgets in one batch")
+    void testBatchedInserts() {
+        User user = userRepository.getReferenceById(41L);
+        List<Budget> budgets = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            Budget budget = new Budget(100 + i, SubCategories.Category.Transport, SubCategories.Fuel, "Fuel " + i);
+            budget.setUser(user);
+            budgets.add(budget);
+        }
+
+        Statistics statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        budgetRepository.saveAll(budgets);
+        entityManager.flush();
+
+        assertEquals(120, budgets.stream().map(Budget::getId).distinct().count());
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    @DisplayName("inserts 60000 expenses through JPA")
+    void testInsertThroughput() {
+        for (int round = 0; round < 3; round++) {
+            long started = System.nanoTime();
+            for (int chunk = 0; chunk < 20; chunk++) {
+                User user = userRepository.getReferenceById(41L);
+                List<Expenses> expenses = new ArrayList<>();
+                for (int i = 0; i < 1000; i++) {
+                    Expenses expense = new Expenses(1 + i % 50, SubCategories.Category.Transport, SubCategories.Fuel, "Fuel " + i);
+                    expense.setUser(user);
+                    expenses.add(expense);
+                }
+                expensesRepository.saveAll(expenses);
+                entityManager.flush();
+                entityManager.clear();
+            }
+            long millis = (System.nanoTime() - started) / 1_000_000;
+            log.info("Inserted 20000 expenses in {} ms, {} inserts/s", millis, 20_000L * 1000 / Math.max(millis, 1));
+        }
+
+        assertEquals(60_000, expensesRepository.count());
+    }
+}
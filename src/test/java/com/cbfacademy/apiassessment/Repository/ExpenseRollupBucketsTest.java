@@ -0,0 +1,57 @@
+package com.cbfacademy.apiassessment.Repository;
+
+import com.cbfacademy.apiassessment.Entity.ExpenseRollup;
+import com.cbfacademy.apiassessment.Entity.RollupPeriod;
+import com.cbfacademy.apiassessment.Entity.SubCategories;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest(properties = {
+        "spring.jpa.properties.hibernate.dialect=com.cbfacademy.apiassessment.Service.QueryCountTest$LedgerH2Dialect"
+})
+public class ExpenseRollupBucketsTest {
+
+    private static final LocalDate DAY = LocalDate.of(2024, 3, 14);
+
+    @Autowired
+    private ExpenseRollupRepository expenseRollupRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Test
+    @DisplayName("inserts a missing bucket once, with or without a subcategory")
+    void testInsertMissingBuckets() {
+        List<ExpenseRollup> buckets = List.of(
+                new ExpenseRollup(1L, RollupPeriod.DAY, DAY, SubCategories.Category.Food, null),
+                new ExpenseRollup(1L, RollupPeriod.DAY, DAY, SubCategories.Category.Food, SubCategories.Restaurant),
+                new ExpenseRollup(1L, RollupPeriod.MONTH, DAY.withDayOfMonth(1), SubCategories.Category.Food, null));
+
+        assertEquals(3, expenseRollupRepository.insertMissingBuckets(buckets));
+        assertEquals(0, expenseRollupRepository.insertMissingBuckets(buckets));
+
+        ExpenseRollup locked = expenseRollupRepository.findBucketForUpdate(1L, RollupPeriod.DAY, DAY,
+                SubCategories.Category.Food, null).orElseThrow();
+        assertEquals(0, locked.getExpenseCount());
+        assertEquals("", locked.getSubcategoryKey());
+    }
+
+    @Test
+    @DisplayName("keeps a single bucket without a subcategory")
+    void testBucketKeyWithoutSubcategory() {
+        expenseRollupRepository.saveAndFlush(new ExpenseRollup(1L, RollupPeriod.DAY, DAY, SubCategories.Category.Food, null));
+
+        assertThrows(DataIntegrityViolationException.class, () -> expenseRollupRepository.saveAndFlush(
+                new ExpenseRollup(1L, RollupPeriod.DAY, DAY, SubCategories.Category.Food, null)));
+        entityManager.clear();
+    }
+}
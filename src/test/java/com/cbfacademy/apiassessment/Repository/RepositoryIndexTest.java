@@ -0,0 +1,249 @@
+package com.cbfacademy.apiassessment.Repository;
+
+import com.cbfacademy.apiassessment.DTO.PageCursor;
+import com.cbfacademy.apiassessment.Entity.Budget;
+import com.cbfacademy.apiassessment.Entity.Expenses;
+import com.cbfacademy.apiassessment.Entity.SubCategories;
+import com.cbfacademy.apiassessment.Entity.User;
+import jakarta.persistence.EntityManager;
+import org.hibernate.Session;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Runs every list query against the embedded database and checks with EXPLAIN that it is served by the expected index
+@DataJpaTest(properties = {
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.properties.hibernate.session_factory.statement_inspector=" +
+                "com.cbfacademy.apiassessment.Repository.RepositoryIndexTest$CapturingInspector"
+})
+public class RepositoryIndexTest {
+
+    private static final Date AFTER_CREATED_AT = new Date(0);
+    private static final long AFTER_ID = 0L;
+    private static final PageRequest PAGE = PageRequest.of(0, 51);
+
+    @Autowired
+    private ExpensesRepository expensesRepository;
+
+    @Autowired
+    private BudgetRepository budgetRepository;
+
+    @Autowired
+    private DeletedRowRepository deletedRowRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    private User user;
+    private Budget budget;
+
+    // The plan only depends on the query shape, so the parameters are never persisted
+    @BeforeEach
+    void setUp() {
+        user = new User("name", "username", "user@email.com");
+        user.setId(1L);
+        budget = new Budget(100.0, SubCategories.Category.Transport, SubCategories.Fuel, "budget");
+        budget.setId(1L);
+        budget.setUser(user);
+    }
+
+    @Test
+    void testExpensesByUserUsesCreatedIndex() {
+        assertNoTableScan(() -> expensesRepository.findPageByUser(user, AFTER_CREATED_AT, AFTER_ID, PAGE));
+        assertIndexUsed("IDX_EXPENSES_USER_CREATED",
+                () -> expensesRepository.findExpensesByDateRange(user, new Date(0), new Date(), AFTER_CREATED_AT, AFTER_ID, PAGE));
+        assertIndexUsed("IDX_EXPENSES_USER_CREATED",
+                () -> expensesRepository.findExpensesBefore(user, new Date(), AFTER_CREATED_AT, AFTER_ID, PAGE));
+        assertIndexUsed("IDX_EXPENSES_USER_CREATED",
+                () -> expensesRepository.findExpensesAfter(user, new Date(0), AFTER_CREATED_AT, AFTER_ID, PAGE));
+    }
+
+    @Test
+    void testExpensesByAmountUsesAmountIndex() {
+        assertIndexUsed("IDX_EXPENSES_USER_AMOUNT",
+                () -> expensesRepository.findExpensesGreaterThan(user, 10.0, AFTER_CREATED_AT, AFTER_ID, PAGE));
+        assertIndexUsed("IDX_EXPENSES_USER_AMOUNT",
+                () -> expensesRepository.findExpensesLessThan(user, 10.0, AFTER_CREATED_AT, AFTER_ID, PAGE));
+        assertIndexUsed("IDX_EXPENSES_USER_AMOUNT",
+                () -> expensesRepository.findExpensesInPriceRange(user, 10.0, 20.0, AFTER_CREATED_AT, AFTER_ID, PAGE));
+        assertNoTableScan(() -> expensesRepository.findDtoByUser(user, PageRequest.of(0, 50, Sort.by("expenseAmount", "id"))));
+    }
+
+    @Test
+    void testExpensesByCategoryUsesCategoryIndex() {
+        assertIndexUsed("IDX_EXPENSES_USER_CATEGORY",
+                () -> expensesRepository.findByUserAndExpenseCategory(user, SubCategories.Category.Transport,
+                        AFTER_CREATED_AT, AFTER_ID, PAGE));
+    }
+
+    @Test
+    void testExpensesByBudgetUsesIndex() {
+        assertIndexUsed("IDX_EXPENSES_BUDGET",
+                () -> expensesRepository.findByUserAndBudget(user, budget, AFTER_CREATED_AT, AFTER_ID, PAGE));
+    }
+
+    @Test
+    void testExpensesSearchUsesIndex() {
+        Specification<Expenses> specification = Specification.where(SearchSpecifications.<Expenses>equal("user", user))
+                .and(SearchSpecifications.equal("expenseCategory", SubCategories.Category.Transport))
+                .and(SearchSpecifications.atLeast("expenseAmount", 10.0))
+                .and(SearchSpecifications.equal("budget.id", budget.getId()))
+                .and(SearchSpecifications.contains("description", "fuel"))
+                .and(SearchSpecifications.after(PageCursor.decode(null)));
+        assertIndexUsed("IDX_EXPENSES_", () -> expensesRepository.search(specification, Sort.by("createdAt", "id"), 51));
+    }
+
+    @Test
+    void testBudgetsByUserUsesCreatedIndex() {
+        assertNoTableScan(() -> budgetRepository.findPageByUser(user, AFTER_CREATED_AT, AFTER_ID, PAGE));
+        assertIndexUsed("IDX_BUDGET_USER_CREATED",
+                () -> budgetRepository.findBudgetsByDateRange(user, new Date(0), new Date(), AFTER_CREATED_AT, AFTER_ID, PAGE));
+        assertIndexUsed("IDX_BUDGET_USER_CREATED",
+                () -> budgetRepository.findBudgetsBefore(user, new Date(), AFTER_CREATED_AT, AFTER_ID, PAGE));
+        assertIndexUsed("IDX_BUDGET_USER_CREATED",
+                () -> budgetRepository.findBudgetsAfter(user, new Date(0), AFTER_CREATED_AT, AFTER_ID, PAGE));
+    }
+
+    @Test
+    void testBudgetsByAmountUsesAmountIndex() {
+        assertIndexUsed("IDX_BUDGET_USER_AMOUNT",
+                () -> budgetRepository.findBudgetsGreaterThan(user, 10.0, AFTER_CREATED_AT, AFTER_ID, PAGE));
+        assertIndexUsed("IDX_BUDGET_USER_AMOUNT",
+                () -> budgetRepository.findBudgetsLessThan(user, 10.0, AFTER_CREATED_AT, AFTER_ID, PAGE));
+        assertIndexUsed("IDX_BUDGET_USER_AMOUNT",
+                () -> budgetRepository.findBudgetsInPriceRange(user, 10.0, 20.0, AFTER_CREATED_AT, AFTER_ID, PAGE));
+    }
+
+    @Test
+    void testBudgetsByCategoryUsesCategoryIndex() {
+        assertIndexUsed("IDX_BUDGET_USER_CATEGORY",
+                () -> budgetRepository.findByUserIdAndBudgetCategory(user.getId(), SubCategories.Category.Transport,
+                        AFTER_CREATED_AT, AFTER_ID, PAGE));
+    }
+
+    @Test
+    void testBudgetsSearchUsesIndex() {
+        Specification<Budget> specification = Specification.where(SearchSpecifications.<Budget>equal("user", user))
+                .and(SearchSpecifications.atLeast("budgetAmount", 10.0))
+                .and(SearchSpecifications.atMost("budgetAmount", 20.0));
+        assertIndexUsed("IDX_BUDGET_USER_AMOUNT", () -> budgetRepository.search(specification, Sort.by("createdAt", "id"), 51));
+    }
+
+    @Test
+    void testChangeFeedUsesUpdatedIndex() {
+        Date until = new Date();
+        assertIndexUsed("IDX_EXPENSES_USER_UPDATED",
+                () -> expensesRepository.findChangesByUserId(user.getId(), AFTER_CREATED_AT, AFTER_ID, until, PAGE));
+        assertIndexUsed("IDX_EXPENSES_UPDATED",
+                () -> expensesRepository.findChanges(AFTER_CREATED_AT, AFTER_ID, until, PAGE));
+        assertIndexUsed("IDX_BUDGET_USER_UPDATED",
+                () -> budgetRepository.findChangesByUserId(user.getId(), AFTER_CREATED_AT, AFTER_ID, until, PAGE));
+        assertIndexUsed("IDX_BUDGET_UPDATED",
+                () -> budgetRepository.findChanges(AFTER_CREATED_AT, AFTER_ID, until, PAGE));
+        assertIndexUsed("IDX_DELETED_ROW_USER_CREATED",
+                () -> deletedRowRepository.findDeletedByUserId(user.getId(), AFTER_CREATED_AT, AFTER_ID, until, PAGE));
+        assertIndexUsed("IDX_DELETED_ROW_CREATED",
+                () -> deletedRowRepository.findDeleted(AFTER_CREATED_AT, AFTER_ID, until, PAGE));
+    }
+
+    @Test
+    void testUserPrefixSearchUsesIndex() {
+        assertIndexUsed("IDX_USERS_ID", () -> userRepository.findRowsAfterId(AFTER_ID, PAGE));
+        assertIndexUsed("IDX_USERS_NAME", () -> userRepository.findRowsByNamePrefix("ann%", "", AFTER_ID, PAGE));
+        // The unique constraints are the username and email indexes, H2 names them after the constraint
+        assertIndexUsed("PUBLIC.UK_", () -> userRepository.findRowsByUsernamePrefix("ann%", "", AFTER_ID, PAGE));
+        assertIndexUsed("PUBLIC.UK_", () -> userRepository.findRowsByEmailPrefix("ann%", "", AFTER_ID, PAGE));
+    }
+
+    @Test
+    void testDtoQueriesReadForeignKeysWithoutJoin() {
+        assertNoJoin(() -> expensesRepository.findPageByUser(user, AFTER_CREATED_AT, AFTER_ID, PAGE));
+        assertNoJoin(() -> expensesRepository.findDtoByUserAndId(user, 1L));
+        assertNoJoin(() -> expensesRepository.search(SearchSpecifications.equal("user", user), Sort.by("createdAt", "id"), 51));
+        assertNoJoin(() -> budgetRepository.findPageByUser(user, AFTER_CREATED_AT, AFTER_ID, PAGE));
+        assertNoJoin(() -> budgetRepository.findDtoByUserAndId(user, 1L));
+    }
+
+    private void assertIndexUsed(String indexName, Runnable query) {
+        String plan = explain(query);
+        assertTrue(plan.contains(indexName), () -> "Expected " + indexName + " in\n" + plan);
+        assertFalse(plan.contains("tableScan"), () -> "Table scan in\n" + plan);
+    }
+
+    // H2 does not credit an index for the ORDER BY after an equality prefix, so queries filtered on the
+    // user alone may be planned on the user_id foreign key index, MySQL picks the composite index for them
+    private void assertNoTableScan(Runnable query) {
+        String plan = explain(query);
+        assertTrue(plan.contains("USER_ID = ?1"), () -> "Expected a user_id index in\n" + plan);
+        assertFalse(plan.contains("tableScan"), () -> "Table scan in\n" + plan);
+    }
+
+    private void assertNoJoin(Runnable query) {
+        String sql = explain(query);
+        assertFalse(sql.toLowerCase().contains(" join "), () -> "Unexpected join in\n" + sql);
+    }
+
+    // Runs the query, then explains the SQL Hibernate generated for it
+    private String explain(Runnable query) {
+        CapturingInspector.STATEMENTS.clear();
+        query.run();
+        assertFalse(CapturingInspector.STATEMENTS.isEmpty(), "No statement captured");
+        String sql = CapturingInspector.STATEMENTS.get(CapturingInspector.STATEMENTS.size() - 1);
+        return sql + "\n" + explain(sql);
+    }
+
+    private String explain(String sql) {
+        return entityManager.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement("EXPLAIN " + sql)) {
+                ParameterMetaData metaData = statement.getParameterMetaData();
+                for (int i = 1; i <= metaData.getParameterCount(); i++) {
+                    bindSample(statement, i, metaData.getParameterType(i));
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    StringBuilder plan = new StringBuilder();
+                    while (resultSet.next()) {
+                        plan.append(resultSet.getString(1)).append('\n');
+                    }
+                    return plan.toString();
+                }
+            }
+        });
+    }
+
+    // EXPLAIN only needs values of the right type, the plan does not depend on them
+    private static void bindSample(PreparedStatement statement, int index, int type) throws SQLException {
+        switch (type) {
+            case Types.TIMESTAMP, Types.TIMESTAMP_WITH_TIMEZONE, Types.DATE ->
+                    statement.setTimestamp(index, new Timestamp(0));
+            case Types.VARCHAR, Types.CHAR, Types.LONGVARCHAR ->
+                    statement.setString(index, SubCategories.Category.Transport.name());
+            default -> statement.setLong(index, 1L);
+        }
+    }
+
+    public static class CapturingInspector implements StatementInspector {
+        static final List<String> STATEMENTS = new ArrayList<>();
+
+        @Override
+        public String inspect(String sql) {
+            STATEMENTS.add(sql);
+            return sql;
+        }
+    }
+}
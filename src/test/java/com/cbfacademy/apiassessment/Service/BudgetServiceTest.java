@@ -1,9 +1,17 @@
 package com.cbfacademy.apiassessment.Service;
 
+import com.cbfacademy.apiassessment.Cache.RequestLookups;
+import com.cbfacademy.apiassessment.Cache.SummaryCache;
+import com.cbfacademy.apiassessment.DTO.BudgetDTO;
+import com.cbfacademy.apiassessment.DTO.CursorPage;
+import com.cbfacademy.apiassessment.DTO.PageCursor;
+import com.cbfacademy.apiassessment.DTO.SearchFilter;
 import com.cbfacademy.apiassessment.Entity.Budget;
 import com.cbfacademy.apiassessment.Entity.SubCategories;
 import com.cbfacademy.apiassessment.Entity.User;
+import com.cbfacademy.apiassessment.Mappers.BudgetMapper;
 import com.cbfacademy.apiassessment.Repository.BudgetRepository;
+import jakarta.validation.ValidationException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -12,9 +20,14 @@ import org.junit.jupiter.params.provider.MethodSource;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Stream;
 
@@ -24,12 +37,19 @@ import static org.mockito.Mockito.*;
 
 @DisplayName("The Budget Service")
 public class BudgetServiceTest {
-
+    private static final int LIMIT = PageCursor.DEFAULT_LIMIT;
+    private static final PageCursor FIRST_PAGE = PageCursor.decode(null);
 
     @Mock
     private UserService userService;
     @Mock
     private BudgetRepository budgetRepository;
+    @Mock
+    private SummaryCache summaryCache;
+    @Mock
+    private ChangeFeedService changeFeedService;
+    @Spy
+    private RequestLookups requestLookups = new RequestLookups();
 
     @InjectMocks
     private BudgetService budgetService;
@@ -61,7 +81,7 @@ public class BudgetServiceTest {
         savedBudget.setUser(user);
         savedBudget.setId(1L);
 
-        when(userService.getUserByUsernameOrEmail(usernameOrEmail)).thenReturn(user);
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
         when(budgetRepository.save(inputBudget)).thenReturn(savedBudget);
 
         // Act
@@ -101,7 +121,7 @@ public class BudgetServiceTest {
             case "description" -> updatedBudget.setDescription(value);
         }
 
-        when(userService.getUserByUsernameOrEmail(usernameOrEmail)).thenReturn(user);
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
         when(budgetRepository.findByUserAndId(user, budgetId)).thenReturn(java.util.Optional.of(existingBudget));
         when(budgetRepository.save(any(Budget.class))).thenReturn(updatedBudget);
 
@@ -121,6 +141,57 @@ public class BudgetServiceTest {
         );
     }
 
+    @Test
+    @DisplayName("updates several fields of a Budget with one patch")
+    void testPatchBudget() {
+        // Arrange
+        String usernameOrEmail = "user@email.com";
+        Budget existingBudget = new Budget(1000, SubCategories.Category.Food, SubCategories.Groceries, "Food");
+        existingBudget.setId(1L);
+        existingBudget.setUser(user);
+        existingBudget.setExpenseCount(2);
+
+        Map<String, Object> patch = new HashMap<>();
+        patch.put("amount", 1500);
+        patch.put("subcategory", null);
+        patch.put("description", "Food and Drink");
+
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
+        when(budgetRepository.findByUserAndId(user, 1L)).thenReturn(Optional.of(existingBudget));
+        when(budgetRepository.save(existingBudget)).thenReturn(existingBudget);
+
+        // Act
+        Budget result = budgetService.patchBudget(usernameOrEmail, 1L, patch);
+
+        // Assert
+        assertEquals(1500, result.getBudgetAmount());
+        assertNull(result.getBudgetSubcategory());
+        assertEquals("Food and Drink", result.getDescription());
+        verify(budgetRepository, times(1)).hasConflictingExpenses(1L, SubCategories.Category.Food, null);
+        verify(budgetRepository, times(1)).save(existingBudget);
+    }
+
+    @Test
+    @DisplayName("rejects a patch to a category its expenses do not match")
+    void testPatchBudgetConflictingExpenses() {
+        // Arrange
+        String usernameOrEmail = "user@email.com";
+        Budget existingBudget = new Budget(1000, SubCategories.Category.Food, null, "Food");
+        existingBudget.setId(1L);
+        existingBudget.setUser(user);
+        existingBudget.setExpenseCount(2);
+
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
+        when(budgetRepository.findByUserAndId(user, 1L)).thenReturn(Optional.of(existingBudget));
+        when(budgetRepository.hasConflictingExpenses(1L, SubCategories.Category.Transport, null)).thenReturn(true);
+
+        // Act and Assert
+        assertThrows(ValidationException.class, () -> budgetService.patchBudget(usernameOrEmail, 1L,
+                Map.of("amount", 500, "category", "Transport")));
+        assertEquals(1000, existingBudget.getBudgetAmount());
+        verify(budgetRepository, never()).save(any(Budget.class));
+    }
+
 
     @Test
     @DisplayName("can get Budget by ID")
@@ -134,7 +205,7 @@ public class BudgetServiceTest {
         savedBudget1.setId(1L);
 
 
-        when(userService.getUserByUsernameOrEmail(usernameOrEmail)).thenReturn(user);
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
         when(budgetRepository.findByUserAndId(user, budgetId)).thenReturn(java.util.Optional.of(savedBudget1));
 
         // Act
@@ -161,18 +232,18 @@ public class BudgetServiceTest {
 
 
 
-        List<Budget> budgetList = Arrays.asList(savedBudget1, savedBudget2);
+        List<BudgetDTO> budgetList = toDTOs(savedBudget1, savedBudget2);
 
 
-        when(userService.getUserByUsernameOrEmail(usernameOrEmail)).thenReturn(user);
-        when(budgetRepository.findByUser(user)).thenReturn(java.util.Optional.of(budgetList));
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
+        when(budgetRepository.findPageByUser(user, FIRST_PAGE.getCreatedAt(), FIRST_PAGE.getId(), PageCursor.pageRequest(LIMIT))).thenReturn(budgetList);
 
         // Act
-        List<Budget> result = budgetService.getAllBudgets(usernameOrEmail);
+        CursorPage<BudgetDTO> result = budgetService.getAllBudgets(usernameOrEmail, LIMIT, null);
 
         // Assert
         assertNotNull(result);
-        assertEquals(budgetList, result);
+        assertEquals(budgetList, result.getItems());
     }
 
     @Test
@@ -194,17 +265,17 @@ public class BudgetServiceTest {
         savedBudget3.setId(3L);
 
 
-        List<Budget> ansBudgetList = Arrays.asList(savedBudget1, savedBudget3);
+        List<BudgetDTO> ansBudgetList = toDTOs(savedBudget1, savedBudget3);
 
-        when(userService.getUserByUsernameOrEmail(usernameOrEmail)).thenReturn(user);
-        when(budgetRepository.findByUserIdAndBudgetCategory(user.getId(), SubCategories.Category.Food)).thenReturn(ansBudgetList);
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
+        when(budgetRepository.findByUserIdAndBudgetCategory(user.getId(), SubCategories.Category.Food, FIRST_PAGE.getCreatedAt(), FIRST_PAGE.getId(), PageCursor.pageRequest(LIMIT))).thenReturn(ansBudgetList);
 
         // Act
-        List<Budget> result = budgetService.getBudgetsByCategory(usernameOrEmail, "Food");
+        CursorPage<BudgetDTO> result = budgetService.getBudgetsByCategory(usernameOrEmail, "Food", LIMIT, null);
 
         // Assert
         assertNotNull(result);
-        assertEquals(ansBudgetList, result);
+        assertEquals(ansBudgetList, result.getItems());
     }
 
     @Test
@@ -226,17 +297,17 @@ public class BudgetServiceTest {
         savedBudget3.setId(3L);
 
 
-        List<Budget> ansBudgetList = Arrays.asList(savedBudget2, savedBudget3);
+        List<BudgetDTO> ansBudgetList = toDTOs(savedBudget2, savedBudget3);
 
-        when(userService.getUserByUsernameOrEmail(usernameOrEmail)).thenReturn(user);
-        when(budgetRepository.findBudgetsInPriceRange(user, 10, 100)).thenReturn(ansBudgetList);
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
+        when(budgetRepository.findBudgetsInPriceRange(user, 10, 100, FIRST_PAGE.getCreatedAt(), FIRST_PAGE.getId(), PageCursor.pageRequest(LIMIT))).thenReturn(ansBudgetList);
 
         // Act
-        List<Budget> result = budgetService.getBudgetsInPriceRange(usernameOrEmail, 10, 100);
+        CursorPage<BudgetDTO> result = budgetService.getBudgetsInPriceRange(usernameOrEmail, 10, 100, LIMIT, null);
 
         // Assert
         assertNotNull(result);
-        assertEquals(ansBudgetList, result);
+        assertEquals(ansBudgetList, result.getItems());
     }
 
     @Test
@@ -259,17 +330,17 @@ public class BudgetServiceTest {
 
 
 
-        List<Budget> ansBudgetList = Arrays.asList(savedBudget1, savedBudget2);
+        List<BudgetDTO> ansBudgetList = toDTOs(savedBudget1, savedBudget2);
 
-        when(userService.getUserByUsernameOrEmail(usernameOrEmail)).thenReturn(user);
-        when(budgetRepository.findBudgetsGreaterThan(user, 10)).thenReturn(ansBudgetList);
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
+        when(budgetRepository.findBudgetsGreaterThan(user, 10, FIRST_PAGE.getCreatedAt(), FIRST_PAGE.getId(), PageCursor.pageRequest(LIMIT))).thenReturn(ansBudgetList);
 
         // Act
-        List<Budget> result = budgetService.getBudgetsGreaterThan(usernameOrEmail, 10);
+        CursorPage<BudgetDTO> result = budgetService.getBudgetsGreaterThan(usernameOrEmail, 10, LIMIT, null);
 
         // Assert
         assertNotNull(result);
-        assertEquals(ansBudgetList, result);
+        assertEquals(ansBudgetList, result.getItems());
     }
 
     @Test
@@ -290,23 +361,23 @@ public class BudgetServiceTest {
         savedBudget3.setUser(user);
         savedBudget3.setId(3L);
 
-        List<Budget> ansBudgetList = Arrays.asList(savedBudget2, savedBudget3);
+        List<BudgetDTO> ansBudgetList = toDTOs(savedBudget2, savedBudget3);
 
-        when(userService.getUserByUsernameOrEmail(usernameOrEmail)).thenReturn(user);
-        when(budgetRepository.findBudgetsLessThan(user, 50)).thenReturn(ansBudgetList);
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
+        when(budgetRepository.findBudgetsLessThan(user, 50, FIRST_PAGE.getCreatedAt(), FIRST_PAGE.getId(), PageCursor.pageRequest(LIMIT))).thenReturn(ansBudgetList);
 
         // Act
-        List<Budget> result = budgetService.getBudgetsLessThan(usernameOrEmail, 50);
+        CursorPage<BudgetDTO> result = budgetService.getBudgetsLessThan(usernameOrEmail, 50, LIMIT, null);
 
         // Assert
         assertNotNull(result);
-        assertEquals(ansBudgetList, result);
+        assertEquals(ansBudgetList, result.getItems());
     }
 
     @ParameterizedTest
     @MethodSource("DiffSortScenarios")
     @DisplayName("can sort Budget")
-    void testSortBudget(String sortBy){
+    void testSortBudget(String sortBy, Sort sort){
         // Arrange
         String usernameOrEmail = "user@email.com";
 
@@ -324,45 +395,94 @@ public class BudgetServiceTest {
 
 
 
-        List<Budget> budgetList = Arrays.asList(savedBudget1, savedBudget2, savedBudget3);
+        List<BudgetDTO> budgetList = toDTOs(savedBudget1, savedBudget2, savedBudget3);
 
 
         switch (sortBy){
-            case "amount" -> budgetList = Arrays.asList( savedBudget3, savedBudget2, savedBudget1);
-            case "category" -> budgetList = Arrays.asList( savedBudget1, savedBudget3, savedBudget2);
-            case "subcategory" -> budgetList = Arrays.asList( savedBudget1, savedBudget2, savedBudget3);
+            case "amount" -> budgetList = toDTOs( savedBudget3, savedBudget2, savedBudget1);
+            case "category" -> budgetList = toDTOs( savedBudget1, savedBudget3, savedBudget2);
+            case "category,amount:desc" -> budgetList = toDTOs( savedBudget1, savedBudget3, savedBudget2);
+            case "subcategory" -> budgetList = toDTOs( savedBudget1, savedBudget2, savedBudget3);
         }
 
-        when(userService.getUserByUsernameOrEmail(usernameOrEmail)).thenReturn(user);
-        when(budgetRepository.findByUser(user)).thenReturn(Optional.of(budgetList));
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
+        when(budgetRepository.findDtoByUser(user, PageRequest.of(0, LIMIT, sort))).thenReturn(budgetList);
 
         // Act
-        List<Budget> result = budgetService.sortBudgetsBy(usernameOrEmail, sortBy);
+        List<BudgetDTO> result = budgetService.sortBudgetsBy(usernameOrEmail, sortBy, LIMIT);
 
         // Assert
         assertEquals(budgetList, result);
     }
 
-    private static Stream<String> DiffSortScenarios() {
+    private static Stream<Object[]> DiffSortScenarios() {
         return Stream.of(
-                "amount", "category", "subcategory"
+                new Object[]{"amount", Sort.by(Sort.Order.asc("budgetAmount"), Sort.Order.asc("id"))},
+                new Object[]{"category", Sort.by(Sort.Order.asc("budgetCategory"), Sort.Order.asc("id"))},
+                new Object[]{"subcategory", Sort.by(Sort.Order.asc("budgetSubcategory"), Sort.Order.asc("id"))},
+                new Object[]{"category,amount:desc", Sort.by(Sort.Order.asc("budgetCategory"), Sort.Order.desc("budgetAmount"), Sort.Order.asc("id"))}
         );
     }
 
+    @Test
+    @DisplayName("rejects invalid sort criteria")
+    void testSortBudgetInvalidCriteria() {
+        when(userService.getUserReference(user.getEmail())).thenReturn(user);
+
+        assertThrows(ValidationException.class, () -> budgetService.sortBudgetsBy(user.getEmail(), "colour", LIMIT));
+        assertThrows(ValidationException.class, () -> budgetService.sortBudgetsBy(user.getEmail(), "amount:sideways", LIMIT));
+        assertThrows(ValidationException.class, () -> budgetService.sortBudgetsBy(user.getEmail(), "amount", 0));
+    }
+
     @Test
     @DisplayName("can delete budget")
     void testDeleteBudget(){
         // Arrange
-        Budget savedBudget1 = new Budget(190, SubCategories.Category.Food, null, "Food");
+        when(budgetRepository.lockIdsMatching(any())).thenReturn(List.of(1L));
+        when(budgetRepository.lockExpenseIdsOfMatching(any())).thenReturn(List.of());
+        when(budgetRepository.aggregateExpensesOfMatching(any())).thenReturn(List.of());
+        when(userService.getUserReference(user.getEmail())).thenReturn(user);
+
+        assertAll(() -> budgetService.deleteBudget(user.getEmail(), 1L));
+        verify(budgetRepository, times(1)).deleteExpensesOfMatching(any());
+        verify(budgetRepository, times(1)).deleteMatching(any());
+        verify(budgetRepository, never()).delete(any(Budget.class));
+    }
+
+    @Test
+    @DisplayName("can search budgets with combined conditions")
+    void testSearchBudgets() {
+        Budget savedBudget1 = new Budget(90, SubCategories.Category.Food, null, "Food");
         savedBudget1.setUser(user);
         savedBudget1.setId(1L);
 
+        when(userService.getUserReference(user.getEmail())).thenReturn(user);
+        when(budgetRepository.search(any(), eq(Sort.by("createdAt", "id")), eq(LIMIT + 1))).thenReturn(toDTOs(savedBudget1));
 
-        when(budgetRepository.findByUserAndId(user, 1L)).thenReturn(Optional.of(savedBudget1));
-        when(userService.getUserByUsernameOrEmail(user.getEmail())).thenReturn(user);
-        doNothing().when(budgetRepository).delete(savedBudget1);
+        CursorPage<BudgetDTO> result = budgetService.searchBudgets(user.getEmail(), SearchFilter.builder()
+                .category("Food")
+                .maxAmount(100.0)
+                .startDate("2023-01-01")
+                .endDate("2023-12-31")
+                .build(), null, LIMIT, null);
 
-        assertAll(() -> budgetService.deleteBudget(user.getEmail(), 1L));
+        assertEquals(toDTOs(savedBudget1), result.getItems());
+        assertNull(result.getNextCursor());
     }
 
+    @Test
+    @DisplayName("rejects invalid budget search conditions")
+    void testSearchBudgetsInvalid() {
+        when(userService.getUserReference(user.getEmail())).thenReturn(user);
+
+        assertThrows(ValidationException.class, () -> budgetService.searchBudgets(user.getEmail(),
+                SearchFilter.builder().subcategory("Invalid").build(), null, LIMIT, null));
+        assertThrows(ValidationException.class, () -> budgetService.searchBudgets(user.getEmail(),
+                new SearchFilter(), "invalid", LIMIT, null));
+        verify(budgetRepository, never()).search(any(), any(), anyInt());
+    }
+
+    private static List<BudgetDTO> toDTOs(Budget... budgets) {
+        return Arrays.stream(budgets).map(BudgetMapper.INSTANCE::budgetDTO).toList();
+    }
 }
@@ -0,0 +1,185 @@
+package com.cbfacademy.apiassessment.Service;
+
+import com.cbfacademy.apiassessment.Cache.RequestLookups;
+import com.cbfacademy.apiassessment.Cache.SummaryCache;
+import com.cbfacademy.apiassessment.Cache.UserResolverCache;
+import com.cbfacademy.apiassessment.DTO.BulkBudgetUpdate;
+import com.cbfacademy.apiassessment.DTO.BulkExpenseUpdate;
+import com.cbfacademy.apiassessment.DTO.BulkResult;
+import com.cbfacademy.apiassessment.DTO.BulkSelection;
+import com.cbfacademy.apiassessment.DTO.SearchFilter;
+import com.cbfacademy.apiassessment.Entity.*;
+import com.cbfacademy.apiassessment.Repository.BudgetRepository;
+import com.cbfacademy.apiassessment.Repository.ExpenseRollupRepository;
+import com.cbfacademy.apiassessment.Repository.ExpensesRepository;
+import com.cbfacademy.apiassessment.Repository.UserRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.validation.ValidationException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Runs the bulk changes against the embedded database, the category checks are part of the SQL statements
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.dialect=com.cbfacademy.apiassessment.Service.QueryCountTest$LedgerH2Dialect")
+@Import({ExpensesService.class, BudgetService.class, ChangeFeedService.class, UserService.class, UserDeletionService.class,
+        ExpenseRollupService.class, SummaryCache.class, UserResolverCache.class, RequestLookups.class})
+public class BulkChangeTest {
+
+    private static final String USERNAME = "username";
+
+    @Autowired
+    private ExpensesService expensesService;
+
+    @Autowired
+    private BudgetService budgetService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private BudgetRepository budgetRepository;
+
+    @Autowired
+    private ExpensesRepository expensesRepository;
+
+    @Autowired
+    private ExpenseRollupRepository expenseRollupRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    private User user;
+    private long fuelBudgetId;
+    private long emptyBudgetId;
+    private long linkedExpenseId;
+    private long unlinkedExpenseId;
+
+    // User and users both map the users table, so the user row is inserted directly with both id columns
+    @BeforeEach
+    void setUp() {
+        entityManager.createNativeQuery("INSERT INTO users (id, user_id, name, username, email, role, created_at) " +
+                "VALUES (1, 1, 'name', '" + USERNAME + "', 'user@email.com', 'USER', CURRENT_TIMESTAMP)").executeUpdate();
+        user = userRepository.findByUsername(USERNAME).orElseThrow();
+
+        fuelBudgetId = budgetService.saveBudget(USERNAME,
+                new Budget(200, SubCategories.Category.Transport, SubCategories.Fuel, "Fuel")).getId();
+        emptyBudgetId = budgetService.saveBudget(USERNAME,
+                new Budget(50, SubCategories.Category.Transport, SubCategories.Fuel, "Spare")).getId();
+
+        linkedExpenseId = expensesService.saveExpenses(USERNAME, fuelBudgetId,
+                new Expenses(10, SubCategories.Category.Transport, SubCategories.Fuel, "Fuel")).getId();
+        expensesService.saveExpenses(USERNAME, fuelBudgetId,
+                new Expenses(30, SubCategories.Category.Transport, SubCategories.Fuel, "More Fuel"));
+        unlinkedExpenseId = expensesService.saveExpenses(USERNAME,
+                new Expenses(5, SubCategories.Category.Transport, SubCategories.Fuel, "Bus fuel")).getId();
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    @Test
+    @DisplayName("recategorizes only the expenses that still match their budget")
+    void testBulkUpdateExpenses() {
+        BulkResult result = expensesService.bulkUpdateExpenses(USERNAME, new BulkExpenseUpdate(
+                SearchFilter.builder().category("Transport").build(), null, "Food", null, "Moved"));
+        entityManager.flush();
+        entityManager.clear();
+
+        assertEquals(new BulkResult(3, 1, 2, 0), result);
+        Expenses moved = expensesRepository.findById(unlinkedExpenseId).orElseThrow();
+        assertEquals(SubCategories.Category.Food, moved.getExpenseCategory());
+        assertNull(moved.getExpenseSubcategory());
+        assertEquals("Moved", moved.getDescription());
+        assertEquals(SubCategories.Category.Transport, expensesRepository.findById(linkedExpenseId).orElseThrow().getExpenseCategory());
+
+        // The rollups follow the expense to its new category
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        assertEquals(5, expenseRollupRepository.findBucketForUpdate(user.getId(), RollupPeriod.DAY, today,
+                SubCategories.Category.Food, null).orElseThrow().getTotalAmount());
+        assertEquals(40, expenseRollupRepository.findBucketForUpdate(user.getId(), RollupPeriod.DAY, today,
+                SubCategories.Category.Transport, SubCategories.Fuel).orElseThrow().getTotalAmount());
+    }
+
+    @Test
+    @DisplayName("deletes the selected expenses and takes them off the budget ledger")
+    void testBulkDeleteExpenses() {
+        BulkResult result = expensesService.bulkDeleteExpenses(USERNAME, new BulkSelection(
+                SearchFilter.builder().minAmount(8.0).build(), List.of(linkedExpenseId, unlinkedExpenseId)));
+        entityManager.flush();
+        entityManager.clear();
+
+        assertEquals(new BulkResult(1, 1, 0, 1), result);
+        assertFalse(expensesRepository.existsById(linkedExpenseId));
+        assertTrue(expensesRepository.existsById(unlinkedExpenseId));
+        Budget budget = budgetRepository.findById(fuelBudgetId).orElseThrow();
+        assertEquals(30, budget.getSpent());
+        assertEquals(1, budget.getExpenseCount());
+        assertEquals(0, budgetRepository.findById(emptyBudgetId).orElseThrow().getExpenseCount());
+        ExpenseRollup bucket = expenseRollupRepository.findBucketForUpdate(user.getId(), RollupPeriod.MONTH,
+                LocalDate.now(ZoneOffset.UTC).withDayOfMonth(1), SubCategories.Category.Transport, SubCategories.Fuel).orElseThrow();
+        assertEquals(35, bucket.getTotalAmount());
+        assertEquals(2, bucket.getExpenseCount());
+        assertEquals(5, bucket.getMinAmount());
+    }
+
+    @Test
+    @DisplayName("recategorizes only the budgets whose expenses still match")
+    void testBulkUpdateBudgets() {
+        BulkResult result = budgetService.bulkUpdateBudgets(USERNAME, new BulkBudgetUpdate(
+                null, List.of(fuelBudgetId, emptyBudgetId), 75.0, "Food", null, null));
+        entityManager.clear();
+
+        assertEquals(new BulkResult(2, 1, 1, 0), result);
+        Budget updated = budgetRepository.findById(emptyBudgetId).orElseThrow();
+        assertEquals(SubCategories.Category.Food, updated.getBudgetCategory());
+        assertEquals(75, updated.getBudgetAmount());
+        Budget kept = budgetRepository.findById(fuelBudgetId).orElseThrow();
+        assertEquals(SubCategories.Category.Transport, kept.getBudgetCategory());
+        assertEquals(200, kept.getBudgetAmount());
+
+        // Without a category change every selected budget is updated
+        assertEquals(new BulkResult(2, 2, 0, 0), budgetService.bulkUpdateBudgets(USERNAME, new BulkBudgetUpdate(
+                null, List.of(fuelBudgetId, emptyBudgetId), 80.0, null, null, null)));
+    }
+
+    @Test
+    @DisplayName("deletes the selected budgets with their expenses")
+    void testBulkDeleteBudgets() {
+        BulkResult result = budgetService.bulkDeleteBudgets(USERNAME, new BulkSelection(
+                SearchFilter.builder().minAmount(100.0).build(), null));
+        entityManager.flush();
+        entityManager.clear();
+
+        assertEquals(new BulkResult(1, 1, 0, 2), result);
+        assertFalse(budgetRepository.existsById(fuelBudgetId));
+        assertTrue(budgetRepository.existsById(emptyBudgetId));
+        assertEquals(1, expensesRepository.count());
+        assertEquals(5, expenseRollupRepository.findBucketForUpdate(user.getId(), RollupPeriod.DAY, LocalDate.now(ZoneOffset.UTC),
+                SubCategories.Category.Transport, SubCategories.Fuel).orElseThrow().getTotalAmount());
+    }
+
+    @Test
+    @DisplayName("rejects bulk changes without a filter or ids and invalid fields")
+    void testBulkInvalidRequest() {
+        assertThrows(ValidationException.class, () -> expensesService.bulkDeleteExpenses(USERNAME,
+                new BulkSelection(new SearchFilter(), null)));
+        assertThrows(ValidationException.class, () -> budgetService.bulkDeleteBudgets(USERNAME,
+                new BulkSelection(null, Collections.nCopies(BulkSelection.MAX_IDS + 1, 1L))));
+        assertThrows(ValidationException.class, () -> expensesService.bulkUpdateExpenses(USERNAME,
+                new BulkExpenseUpdate(null, List.of(linkedExpenseId), null, null, null)));
+        assertThrows(ValidationException.class, () -> expensesService.bulkUpdateExpenses(USERNAME,
+                new BulkExpenseUpdate(null, List.of(linkedExpenseId), "Rent", null, null)));
+        assertThrows(ValidationException.class, () -> budgetService.bulkUpdateBudgets(USERNAME,
+                new BulkBudgetUpdate(null, List.of(fuelBudgetId), -5.0, null, null, null)));
+        assertEquals(3, expensesRepository.count());
+    }
+}
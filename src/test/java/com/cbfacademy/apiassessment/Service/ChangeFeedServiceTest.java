@@ -0,0 +1,148 @@
+package com.cbfacademy.apiassessment.Service;
+
+import com.cbfacademy.apiassessment.Cache.RequestLookups;
+import com.cbfacademy.apiassessment.Cache.SummaryCache;
+import com.cbfacademy.apiassessment.Cache.UserResolverCache;
+import com.cbfacademy.apiassessment.DTO.BudgetDTO;
+import com.cbfacademy.apiassessment.DTO.BulkSelection;
+import com.cbfacademy.apiassessment.DTO.ChangeFeed;
+import com.cbfacademy.apiassessment.DTO.ExpensesDTO;
+import com.cbfacademy.apiassessment.DTO.SearchFilter;
+import com.cbfacademy.apiassessment.DTO.Tombstone;
+import com.cbfacademy.apiassessment.Entity.Budget;
+import com.cbfacademy.apiassessment.Entity.DeletedRow;
+import com.cbfacademy.apiassessment.Entity.Expenses;
+import com.cbfacademy.apiassessment.Entity.SubCategories;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityNotFoundException;
+import jakarta.validation.ValidationException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Without a settle window the rows written by the test are in the feed straight away
+@DataJpaTest(properties = {
+        "spring.jpa.properties.hibernate.dialect=com.cbfacademy.apiassessment.Service.QueryCountTest$LedgerH2Dialect",
+        "pf.changes.settle-seconds=0"
+})
+@Import({ChangeFeedService.class, ExpensesService.class, BudgetService.class, UserService.class, UserDeletionService.class,
+        ExpenseRollupService.class, SummaryCache.class, UserResolverCache.class, RequestLookups.class})
+public class ChangeFeedServiceTest {
+
+    private static final String USERNAME = "username";
+
+    @Autowired
+    private ChangeFeedService changeFeedService;
+
+    @Autowired
+    private ExpensesService expensesService;
+
+    @Autowired
+    private BudgetService budgetService;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    private long budgetId;
+    private long expenseId;
+
+    // User and users both map the users table, so the user rows are inserted directly with both id columns
+    @BeforeEach
+    void setUp() {
+        entityManager.createNativeQuery("INSERT INTO users (id, user_id, name, username, email, role, created_at) " +
+                "VALUES (1, 1, 'name', '" + USERNAME + "', 'user@email.com', 'USER', CURRENT_TIMESTAMP)").executeUpdate();
+        entityManager.createNativeQuery("INSERT INTO users (id, user_id, name, username, email, role, created_at) " +
+                "VALUES (2, 2, 'other', 'other', 'other@email.com', 'USER', CURRENT_TIMESTAMP)").executeUpdate();
+
+        budgetId = budgetService.saveBudget(USERNAME,
+                new Budget(100, SubCategories.Category.Transport, SubCategories.Fuel, "Fuel")).getId();
+        expenseId = expensesService.saveExpenses(USERNAME, budgetId,
+                new Expenses(10, SubCategories.Category.Transport, SubCategories.Fuel, "Fuel")).getId();
+        expensesService.saveExpenses(USERNAME,
+                new Expenses(5, SubCategories.Category.Transport, SubCategories.Fuel, "Bus fuel"));
+        expensesService.saveExpenses("other", new Expenses(7, SubCategories.Category.Food, null, "Lunch"));
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    @Test
+    @DisplayName("returns a user's expenses and budgets in updatedAt order")
+    void testGetChanges() {
+        ChangeFeed feed = changeFeedService.getChanges(USERNAME, null, 50);
+
+        assertEquals(2, feed.getExpenses().size());
+        assertEquals(List.of(budgetId), feed.getBudgets().stream().map(BudgetDTO::getId).toList());
+        assertTrue(feed.getDeleted().isEmpty());
+        assertFalse(feed.isHasMore());
+        for (int i = 1; i < feed.getExpenses().size(); i++) {
+            assertFalse(feed.getExpenses().get(i).getUpdated().before(feed.getExpenses().get(i - 1).getUpdated()));
+        }
+
+        // Nothing changed since the watermark
+        ChangeFeed next = changeFeedService.getChanges(USERNAME, feed.getWatermark(), 50);
+        assertTrue(next.getExpenses().isEmpty());
+        assertTrue(next.getBudgets().isEmpty());
+        assertTrue(next.getDeleted().isEmpty());
+        assertEquals(feed.getWatermark(), next.getWatermark());
+    }
+
+    @Test
+    @DisplayName("continues after the watermark until every change was read")
+    void testGetChangesByPage() {
+        List<Object> rows = new ArrayList<>();
+        String watermark = null;
+        ChangeFeed feed;
+        do {
+            feed = changeFeedService.getAllChanges(watermark, 1);
+            rows.addAll(feed.getExpenses());
+            rows.addAll(feed.getBudgets());
+            watermark = feed.getWatermark();
+        } while (feed.isHasMore());
+        assertEquals(4, rows.size());
+
+        // Only the updated expense is returned after the last watermark
+        expensesService.updateExpensesByID(USERNAME, expenseId, "description", "Diesel");
+        entityManager.flush();
+        feed = changeFeedService.getAllChanges(watermark, 50);
+        assertEquals(List.of(expenseId), feed.getExpenses().stream().map(ExpensesDTO::getId).toList());
+        assertEquals("Diesel", feed.getExpenses().get(0).getDescription());
+        assertTrue(feed.getBudgets().isEmpty());
+    }
+
+    @Test
+    @DisplayName("returns tombstones for deleted expenses and budgets")
+    void testDeletedRows() {
+        String watermark = changeFeedService.getChanges(USERNAME, null, 50).getWatermark();
+
+        expensesService.bulkDeleteExpenses(USERNAME, new BulkSelection(SearchFilter.builder().maxAmount(6.0).build(), null));
+        budgetService.deleteBudget(USERNAME, budgetId);
+        entityManager.flush();
+
+        ChangeFeed feed = changeFeedService.getChanges(USERNAME, watermark, 50);
+        assertEquals(List.of(DeletedRow.Type.EXPENSE, DeletedRow.Type.EXPENSE, DeletedRow.Type.BUDGET),
+                feed.getDeleted().stream().map(Tombstone::getType).toList());
+        assertEquals(List.of(budgetId), feed.getDeleted().stream()
+                .filter(tombstone -> tombstone.getType() == DeletedRow.Type.BUDGET).map(Tombstone::getId).toList());
+        assertTrue(feed.getDeleted().stream().anyMatch(tombstone -> tombstone.getId() == expenseId));
+        assertTrue(feed.getExpenses().isEmpty());
+
+        // The other user's feed has no tombstones
+        assertTrue(changeFeedService.getChanges("other", null, 50).getDeleted().isEmpty());
+    }
+
+    @Test
+    @DisplayName("rejects invalid watermarks, limits and users")
+    void testInvalidRequest() {
+        assertThrows(ValidationException.class, () -> changeFeedService.getAllChanges("not a watermark", 50));
+        assertThrows(ValidationException.class, () -> changeFeedService.getAllChanges(null, 0));
+        assertThrows(EntityNotFoundException.class, () -> changeFeedService.getChanges("missing", null, 50));
+    }
+}
@@ -0,0 +1,196 @@
+package com.cbfacademy.apiassessment.Service;
+
+import com.cbfacademy.apiassessment.Cache.RequestLookups;
+import com.cbfacademy.apiassessment.Cache.SummaryCache;
+import com.cbfacademy.apiassessment.Cache.UserResolverCache;
+import com.cbfacademy.apiassessment.DTO.ExpenseImportError;
+import com.cbfacademy.apiassessment.DTO.ExpenseImportReport;
+import com.cbfacademy.apiassessment.DTO.ExpenseImportRow;
+import com.cbfacademy.apiassessment.Entity.*;
+import com.cbfacademy.apiassessment.Repository.BudgetRepository;
+import com.cbfacademy.apiassessment.Repository.ExpenseRollupRepository;
+import com.cbfacademy.apiassessment.Repository.UserRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.validation.ValidationException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Imports into the embedded database, the ledger update needs the same dialect fix as the query count test
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.dialect=com.cbfacademy.apiassessment.Service.QueryCountTest$LedgerH2Dialect")
+@Import({ExpenseImportService.class, ExpensesService.class, BudgetService.class, ChangeFeedService.class, UserService.class,
+        UserDeletionService.class, ExpenseRollupService.class, SummaryCache.class, UserResolverCache.class, RequestLookups.class})
+public class ExpenseImportServiceTest {
+
+    private static final Logger log = LoggerFactory.getLogger(ExpenseImportServiceTest.class);
+
+    private static final String USERNAME = "username";
+
+    @Autowired
+    private ExpenseImportService expenseImportService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private BudgetRepository budgetRepository;
+
+    @Autowired
+    private ExpenseRollupRepository expenseRollupRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    private User user;
+    private long budgetId;
+
+    // User and users both map the users table, so the user row is inserted directly with both id columns
+    @BeforeEach
+    void setUp() {
+        entityManager.createNativeQuery("INSERT INTO users (id, user_id, name, username, email, role, created_at) " +
+                "VALUES (1, 1, 'name', '" + USERNAME + "', 'user@email.com', 'USER', CURRENT_TIMESTAMP)").executeUpdate();
+        user = userRepository.findByUsername(USERNAME).orElseThrow();
+
+        Budget budget = new Budget(200, SubCategories.Category.Transport, SubCategories.Fuel, "Fuel");
+        budget.setUser(user);
+        budgetId = budgetRepository.save(budget).getId();
+        entityManager.flush();
+    }
+
+    @Test
+    @DisplayName("imports rows and adds them to the budget ledger and rollups")
+    void testImportExpenses() {
+        List<ExpenseImportRow> rows = List.of(
+                new ExpenseImportRow("10", "Transport", "Fuel", "Fuel", String.valueOf(budgetId), "2023-01-05"),
+                new ExpenseImportRow("30", "Transport", "Fuel", "More Fuel", String.valueOf(budgetId), "2023-01-05"),
+                new ExpenseImportRow("5.5", "Food", null, "Lunch", null, "2023-01-20"));
+
+        ExpenseImportReport report = expenseImportService.importExpenses(USERNAME, rows, 2);
+        entityManager.clear();
+
+        assertTrue(report.getErrors().isEmpty());
+        assertEquals(3, report.getRowsImported());
+        assertEquals(2, report.getChunksCommitted());
+        assertEquals(3, countExpenses());
+
+        Budget budget = budgetRepository.findById(budgetId).orElseThrow();
+        assertEquals(40, budget.getSpent());
+        assertEquals(2, budget.getExpenseCount());
+
+        ExpenseRollup day = expenseRollupRepository.findBucketForUpdate(user.getId(), RollupPeriod.DAY, LocalDate.of(2023, 1, 5),
+                SubCategories.Category.Transport, SubCategories.Fuel).orElseThrow();
+        assertEquals(40, day.getTotalAmount());
+        assertEquals(2, day.getExpenseCount());
+        assertEquals(10, day.getMinAmount());
+        assertEquals(30, day.getMaxAmount());
+        ExpenseRollup month = expenseRollupRepository.findBucketForUpdate(user.getId(), RollupPeriod.MONTH, LocalDate.of(2023, 1, 1),
+                SubCategories.Category.Food, null).orElseThrow();
+        assertEquals(5.5, month.getTotalAmount());
+    }
+
+    @Test
+    @DisplayName("reports every invalid row and imports nothing")
+    void testImportInvalidRows() {
+        List<ExpenseImportRow> rows = List.of(
+                new ExpenseImportRow("10", "Transport", "Fuel", "Fuel", null, null),
+                new ExpenseImportRow("-1", "Transport", "Fuel", "Fuel", null, null),
+                new ExpenseImportRow("10", "Transport", "Fuel", "Fuel", "999", null),
+                new ExpenseImportRow("10", "Food", null, "Lunch", String.valueOf(budgetId), null),
+                new ExpenseImportRow("10", "Food", null, "Lunch", null, "2023-13-01"),
+                new ExpenseImportRow("10", "Transport", "CarInsurance", "Insurance", String.valueOf(budgetId), null));
+
+        ExpenseImportReport report = expenseImportService.importExpenses(USERNAME, rows, 100);
+
+        assertEquals(List.of(
+                new ExpenseImportError(2, "Invalid Amount"),
+                new ExpenseImportError(3, "Budget Does Not Exist"),
+                new ExpenseImportError(4, "Budget Category Transport and Expense Category Food do not match"),
+                new ExpenseImportError(5, "Invalid Date"),
+                new ExpenseImportError(6, "Budget Subcategory Fuel and Expense Subcategory CarInsurance do not match")), report.getErrors());
+        assertEquals(0, report.getRowsImported());
+        assertEquals(0, countExpenses());
+    }
+
+    @Test
+    @DisplayName("links rows to a budget when only one of the subcategories is set")
+    void testImportWithoutSubcategory() {
+        Budget food = new Budget(100, SubCategories.Category.Food, null, "Food");
+        food.setUser(user);
+        long foodBudgetId = budgetRepository.save(food).getId();
+        entityManager.flush();
+
+        List<ExpenseImportRow> rows = List.of(
+                new ExpenseImportRow("12", "Food", "Restaurant", "Dinner", String.valueOf(foodBudgetId), "2023-01-05"),
+                new ExpenseImportRow("8", "Transport", null, "Fuel", String.valueOf(budgetId), "2023-01-05"));
+
+        ExpenseImportReport report = expenseImportService.importExpenses(USERNAME, rows, 100);
+        entityManager.clear();
+
+        assertTrue(report.getErrors().isEmpty());
+        assertEquals(2, report.getRowsImported());
+        assertEquals(12, budgetRepository.findById(foodBudgetId).orElseThrow().getSpent());
+        assertEquals(8, budgetRepository.findById(budgetId).orElseThrow().getSpent());
+    }
+
+    @Test
+    @DisplayName("imports CSV with the columns in any order and quoted fields")
+    void testImportExpensesCsv() {
+        String csv = "category,amount,description\r\n" +
+                "Food,12.5,\"Lunch, with \"\"friends\"\"\"\r\n" +
+                "\r\n" +
+                "Transport,20,Train\r\n";
+
+        ExpenseImportReport report = expenseImportService.importExpensesCsv(USERNAME, csv, 100);
+
+        assertTrue(report.getErrors().isEmpty());
+        assertEquals(2, report.getRowsImported());
+        assertEquals(2, countExpenses());
+        assertEquals(List.of(List.of("a", "b,c\nd", "")), ExpenseImportService.parseCsv("a,\"b,c\nd\","));
+    }
+
+    @Test
+    @DisplayName("rejects CSV without the required columns and invalid chunk sizes")
+    void testImportInvalidRequest() {
+        assertThrows(ValidationException.class, () -> expenseImportService.importExpensesCsv(USERNAME, "amount,price\n1,2", 100));
+        assertThrows(ValidationException.class, () -> expenseImportService.importExpensesCsv(USERNAME, "amount\n1", 100));
+        assertThrows(ValidationException.class, () -> expenseImportService.importExpenses(USERNAME, List.of(), 100));
+        assertThrows(ValidationException.class, () -> expenseImportService.importExpenses(USERNAME,
+                List.of(new ExpenseImportRow("1", "Food", null, null, null, null)), 0));
+    }
+
+    @Test
+    @DisplayName("imports 100000 rows in JDBC batches")
+    // A year of expenses in date order, as they come out of the apps users migrate from
+    void testImportThroughput() {
+        List<ExpenseImportRow> rows = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            rows.add(new ExpenseImportRow(String.valueOf(1 + i % 50), "Transport", "Fuel", "Fuel " + i,
+                    i % 2 == 0 ? String.valueOf(budgetId) : null, LocalDate.of(2023, 1, 1).plusDays(i / 274).toString()));
+        }
+
+        long started = System.nanoTime();
+        ExpenseImportReport report = expenseImportService.importExpenses(USERNAME, rows, 1000);
+        long millis = (System.nanoTime() - started) / 1_000_000;
+        log.info("Imported {} rows in {} ms, {} rows/s", report.getRowsImported(), millis, report.getRowsImported() * 1000 / Math.max(millis, 1));
+
+        assertEquals(100_000, report.getRowsImported());
+        assertEquals(100, report.getChunksCommitted());
+        assertEquals(100_000, countExpenses());
+    }
+
+    private long countExpenses() {
+        return entityManager.createQuery("SELECT COUNT(e) FROM Expenses e WHERE e.user.id = :userId", Long.class)
+                .setParameter("userId", user.getId()).getSingleResult();
+    }
+}
@@ -0,0 +1,247 @@
+package com.cbfacademy.apiassessment.Service;
+
+import com.cbfacademy.apiassessment.Cache.RequestLookups;
+import com.cbfacademy.apiassessment.Cache.SummaryCache;
+import com.cbfacademy.apiassessment.Cache.UserResolverCache;
+import com.cbfacademy.apiassessment.DTO.ExpenseImportRow;
+import com.cbfacademy.apiassessment.DTO.IngestAck;
+import com.cbfacademy.apiassessment.Entity.Budget;
+import com.cbfacademy.apiassessment.Entity.SubCategories;
+import com.cbfacademy.apiassessment.Entity.User;
+import com.cbfacademy.apiassessment.Exceptions.IngestQueueFullException;
+import com.cbfacademy.apiassessment.Repository.BudgetRepository;
+import com.cbfacademy.apiassessment.Repository.UserRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityNotFoundException;
+import jakarta.validation.ValidationException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The thresholds are set so the background thread never writes, the tests write the queue with flushPending
+@DataJpaTest(properties = {
+        "spring.jpa.properties.hibernate.dialect=com.cbfacademy.apiassessment.Service.QueryCountTest$LedgerH2Dialect",
+        "pf.ingest.capacity=3",
+        "pf.ingest.batch-size=1000",
+        "pf.ingest.flush-millis=3600000",
+        "pf.ingest.offer-timeout-millis=10",
+        "pf.ingest.spool-path=target/ingest-test/expense-ingest.spool"
+})
+@Import({ExpenseIngestionService.class, ExpenseImportService.class, ExpensesService.class, BudgetService.class,
+        ChangeFeedService.class, UserService.class, UserDeletionService.class, ExpenseRollupService.class, SummaryCache.class,
+        UserResolverCache.class, RequestLookups.class})
+public class ExpenseIngestionServiceTest {
+
+    private static final String USERNAME = "username";
+    private static final String SPOOL = "target/ingest-test/expense-ingest.spool";
+    private static final String OUTAGE_SPOOL = "target/ingest-test/expense-ingest-outage.spool";
+
+    @Autowired
+    private ExpenseIngestionService expenseIngestionService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private BudgetRepository budgetRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    private User user;
+    private long budgetId;
+
+    // User and users both map the users table, so the user row is inserted directly with both id columns
+    @BeforeEach
+    void setUp() {
+        entityManager.createNativeQuery("INSERT INTO users (id, user_id, name, username, email, role, created_at) " +
+                "VALUES (1, 1, 'name', '" + USERNAME + "', 'user@email.com', 'USER', CURRENT_TIMESTAMP)").executeUpdate();
+        user = userRepository.findByUsername(USERNAME).orElseThrow();
+
+        Budget budget = new Budget(200, SubCategories.Category.Transport, SubCategories.Fuel, "Fuel");
+        budget.setUser(user);
+        budgetId = budgetRepository.save(budget).getId();
+        entityManager.flush();
+    }
+
+    // Leaves the queue and spool empty for the next test
+    @AfterEach
+    void tearDown() {
+        expenseIngestionService.flushPending();
+    }
+
+    @Test
+    @DisplayName("acknowledges queued expenses and writes each client id once")
+    void testIngestExpense() throws Exception {
+        IngestAck first = expenseIngestionService.ingestExpense(USERNAME, "card-1", fuel("10"));
+        IngestAck retried = expenseIngestionService.ingestExpense(USERNAME, "card-1", fuel("10"));
+        IngestAck generated = expenseIngestionService.ingestExpense(USERNAME, null, fuel("30"));
+
+        assertFalse(first.isDuplicate());
+        assertTrue(retried.isDuplicate());
+        assertNotNull(generated.getClientId());
+        assertEquals(2, expenseIngestionService.stats().getQueued());
+        assertEquals(2, Files.readAllLines(Paths.get(SPOOL)).size());
+
+        expenseIngestionService.flushPending();
+        // Sent again after it was written, the stored row is kept
+        expenseIngestionService.ingestExpense(USERNAME, "card-1", fuel("10"));
+        expenseIngestionService.flushPending();
+        entityManager.clear();
+
+        assertEquals(2, countExpenses());
+        Budget budget = budgetRepository.findById(budgetId).orElseThrow();
+        assertEquals(40, budget.getSpent());
+        assertEquals(2, budget.getExpenseCount());
+        assertEquals(0, expenseIngestionService.stats().getQueued());
+        assertTrue(Files.readAllLines(Paths.get(SPOOL)).isEmpty());
+    }
+
+    @Test
+    @DisplayName("validates expenses before they are queued")
+    void testIngestInvalidExpense() {
+        assertThrows(ValidationException.class, () -> expenseIngestionService.ingestExpense(USERNAME, "card-1",
+                new ExpenseImportRow("-5", "Transport", "Fuel", "Fuel", null, null)));
+        assertThrows(ValidationException.class, () -> expenseIngestionService.ingestExpense(USERNAME, "x".repeat(65), fuel("5")));
+        assertEquals(0, expenseIngestionService.stats().getQueued());
+    }
+
+    @Test
+    @DisplayName("turns expenses away while the queue is full")
+    void testBackpressure() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            expenseIngestionService.ingestExpense(USERNAME, "card-" + i, fuel("10"));
+        }
+
+        assertThrows(IngestQueueFullException.class, () -> expenseIngestionService.ingestExpense(USERNAME, "card-3", fuel("10")));
+
+        expenseIngestionService.flushPending();
+        expenseIngestionService.ingestExpense(USERNAME, "card-3", fuel("10"));
+        expenseIngestionService.flushPending();
+        assertEquals(4, countExpenses());
+    }
+
+    @Test
+    @DisplayName("queues the spooled expenses again after a restart")
+    void testSpoolReplay() throws Exception {
+        expenseIngestionService.ingestExpense(USERNAME, "card-1", fuel("10"));
+        expenseIngestionService.ingestExpense(USERNAME, "card-2", fuel("20"));
+
+        // A second instance reading the same spool stands in for the application starting after a crash
+        ExpenseIngestionService restarted = newInstance(SPOOL);
+        restarted.start();
+        try {
+            assertEquals(2, restarted.stats().getQueued());
+            restarted.flushPending();
+        } finally {
+            restarted.stop();
+        }
+
+        // The original instance still holds both expenses, they are already stored
+        expenseIngestionService.flushPending();
+        assertEquals(2, countExpenses());
+    }
+
+    @Test
+    @DisplayName("skips a torn spool line and queues the rest")
+    void testTornSpoolLine() throws Exception {
+        expenseIngestionService.ingestExpense(USERNAME, "card-1", fuel("10"));
+        String line = Files.readAllLines(Paths.get(SPOOL)).get(0);
+        Files.writeString(Paths.get(OUTAGE_SPOOL), line + "\n" + line.substring(0, line.length() / 2));
+
+        ExpenseIngestionService restarted = newInstance(OUTAGE_SPOOL);
+        restarted.start();
+        try {
+            assertEquals(1, restarted.stats().getQueued());
+            restarted.flushPending();
+        } finally {
+            restarted.stop();
+        }
+        assertEquals(1, countExpenses());
+    }
+
+    @Test
+    @DisplayName("keeps expenses queued and spooled while the database is unavailable")
+    void testDatabaseOutage() throws Exception {
+        Files.deleteIfExists(Paths.get(OUTAGE_SPOOL));
+        ExpenseIngestionService outage = newInstance(OUTAGE_SPOOL);
+        TransactionTemplate connected = outage.transactionTemplate;
+        outage.transactionTemplate = new TransactionTemplate() {
+            @Override
+            public <T> T execute(TransactionCallback<T> action) {
+                throw new CannotCreateTransactionException("Could not open JDBC Connection for transaction");
+            }
+        };
+        outage.start();
+        try {
+            outage.ingestExpense(USERNAME, "card-1", fuel("10"));
+            outage.ingestExpense(USERNAME, "card-2", fuel("20"));
+            outage.flushPending();
+
+            assertEquals(0, countExpenses());
+            assertEquals(0, outage.stats().getDropped());
+            assertEquals(2, outage.stats().getRetrying());
+            assertEquals(2, Files.readAllLines(Paths.get(OUTAGE_SPOOL)).size());
+            assertTrue(outage.ingestExpense(USERNAME, "card-1", fuel("10")).isDuplicate());
+
+            outage.transactionTemplate = connected;
+            outage.flushPending();
+
+            assertEquals(2, countExpenses());
+            assertEquals(0, outage.stats().getRetrying());
+            assertTrue(Files.readAllLines(Paths.get(OUTAGE_SPOOL)).isEmpty());
+        } finally {
+            outage.stop();
+        }
+    }
+
+    @Test
+    @DisplayName("classifies connection failures and deadlocks as transient")
+    void testIsTransient() {
+        assertTrue(ExpenseIngestionService.isTransient(new CannotCreateTransactionException("down")));
+        assertTrue(ExpenseIngestionService.isTransient(new RuntimeException(new SQLException("deadlock", "40001"))));
+        assertTrue(ExpenseIngestionService.isTransient(new RuntimeException(new SQLException("link failure", "08S01"))));
+        assertFalse(ExpenseIngestionService.isTransient(new RuntimeException(new SQLException("foreign key", "23506"))));
+        assertFalse(ExpenseIngestionService.isTransient(new EntityNotFoundException("Budget Does Not Exist")));
+    }
+
+    // A second instance sharing the beans of the injected one, its lifecycle is left to the test
+    private ExpenseIngestionService newInstance(String spoolPath) {
+        ExpenseIngestionService instance = new ExpenseIngestionService();
+        instance.userService = expenseIngestionService.userService;
+        instance.expenseImportService = expenseIngestionService.expenseImportService;
+        instance.summaryCache = expenseIngestionService.summaryCache;
+        instance.jdbcTemplate = expenseIngestionService.jdbcTemplate;
+        instance.transactionTemplate = expenseIngestionService.transactionTemplate;
+        instance.capacity = 3;
+        instance.batchSize = 1000;
+        instance.flushMillis = 3600000;
+        instance.offerTimeoutMillis = 10;
+        instance.spoolPath = spoolPath;
+        instance.spoolFsync = true;
+        instance.retryMaxMillis = 30000;
+        return instance;
+    }
+
+    private ExpenseImportRow fuel(String amount) {
+        return new ExpenseImportRow(amount, "Transport", "Fuel", "Fuel", String.valueOf(budgetId), null);
+    }
+
+    private long countExpenses() {
+        return entityManager.createQuery("SELECT COUNT(e) FROM Expenses e WHERE e.user.id = :userId", Long.class)
+                .setParameter("userId", user.getId()).getSingleResult();
+    }
+}
@@ -0,0 +1,312 @@
+package com.cbfacademy.apiassessment.Service;
+
+import com.cbfacademy.apiassessment.DTO.ExpenseTrendPoint;
+import com.cbfacademy.apiassessment.DTO.RollupAggregate;
+import com.cbfacademy.apiassessment.DTO.RollupBackfillReport;
+import com.cbfacademy.apiassessment.Entity.*;
+import com.cbfacademy.apiassessment.Repository.ExpenseRollupRepository;
+import com.cbfacademy.apiassessment.Repository.ExpensesRepository;
+import jakarta.persistence.EntityNotFoundException;
+import jakarta.validation.ValidationException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@DisplayName("The Expense Rollup Service")
+public class ExpenseRollupServiceTest {
+
+    @InjectMocks
+    private ExpenseRollupService expenseRollupService;
+
+    @Mock
+    private ExpenseRollupRepository expenseRollupRepository;
+    @Mock
+    private ExpensesRepository expensesRepository;
+    @Mock
+    private UserService userService;
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    private User user;
+    private Expenses expense;
+    private LocalDate day;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.initMocks(this);
+
+        when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+
+        user = User.builder().
+                username("tester").
+                name("Test User").
+                email("user@email.com").
+                build();
+        user.setId(1L);
+
+        expense = new Expenses(40, SubCategories.Category.Food, SubCategories.Restaurant, "Dinner");
+        expense.setUser(user);
+        expense.setId(1L);
+        day = expense.getCreatedAt().toInstant().atZone(ZoneOffset.UTC).toLocalDate();
+    }
+
+    private ExpenseRollup rollup(RollupPeriod period, LocalDate periodStart, double total, long count, double min, double max) {
+        ExpenseRollup rollup = new ExpenseRollup(1L, period, periodStart, SubCategories.Category.Food, SubCategories.Restaurant);
+        rollup.setTotalAmount(total);
+        rollup.setExpenseCount(count);
+        rollup.setMinAmount(min);
+        rollup.setMaxAmount(max);
+        return rollup;
+    }
+
+    @Test
+    @DisplayName("creates daily and monthly buckets for a user's first expense")
+    void testRecordExpenseCreatesBuckets() {
+        // Arrange
+        when(expenseRollupRepository.findBucketForUpdate(any(), any(), any(), any(), any())).thenReturn(Optional.empty());
+
+        // Act
+        expenseRollupService.recordExpense(expense);
+
+        // Assert
+        // The buckets are inserted before the first locking read, so two first writes do not race
+        InOrder inOrder = inOrder(expenseRollupRepository);
+        inOrder.verify(expenseRollupRepository).insertMissingBuckets(argThat(buckets -> buckets.size() == 2));
+        inOrder.verify(expenseRollupRepository, times(2)).findBucketForUpdate(any(), any(), any(), any(), any());
+        ArgumentCaptor<ExpenseRollup> captor = ArgumentCaptor.forClass(ExpenseRollup.class);
+        verify(expenseRollupRepository, times(2)).save(captor.capture());
+        List<ExpenseRollup> saved = captor.getAllValues();
+        assertEquals(RollupPeriod.DAY, saved.get(0).getPeriod());
+        assertEquals(day, saved.get(0).getPeriodStart());
+        assertEquals(RollupPeriod.MONTH, saved.get(1).getPeriod());
+        assertEquals(day.withDayOfMonth(1), saved.get(1).getPeriodStart());
+        for (ExpenseRollup rollup : saved) {
+            assertEquals(40, rollup.getTotalAmount());
+            assertEquals(1, rollup.getExpenseCount());
+            assertEquals(40, rollup.getMinAmount());
+            assertEquals(40, rollup.getMaxAmount());
+        }
+    }
+
+    @Test
+    @DisplayName("takes the day of an expense in the zone its date is stored in")
+    void testRecordExpenseInStoredZone() {
+        // Arrange
+        // The date line runs between these zones, so the expense falls on a different day in each
+        ZoneId zone = ZoneId.of("Pacific/Kiritimati");
+        expenseRollupService.zone = zone;
+        LocalDate storedDay = expense.getCreatedAt().toInstant().atZone(zone).toLocalDate();
+        assertNotEquals(storedDay, expense.getCreatedAt().toInstant().atZone(ZoneId.of("Etc/GMT+12")).toLocalDate());
+
+        // Act
+        expenseRollupService.recordExpense(expense);
+
+        // Assert
+        verify(expenseRollupRepository, times(1)).findBucketForUpdate(1L, RollupPeriod.DAY, storedDay,
+                SubCategories.Category.Food, SubCategories.Restaurant);
+    }
+
+    @Test
+    @DisplayName("adds an expense to existing buckets")
+    void testRecordExpenseUpdatesBuckets() {
+        // Arrange
+        ExpenseRollup daily = rollup(RollupPeriod.DAY, day, 60, 2, 20, 40);
+        when(expenseRollupRepository.findBucketForUpdate(1L, RollupPeriod.DAY, day, SubCategories.Category.Food, SubCategories.Restaurant))
+                .thenReturn(Optional.of(daily));
+        expense.setExpenseAmount(10);
+
+        // Act
+        expenseRollupService.recordExpense(expense);
+
+        // Assert
+        assertEquals(70, daily.getTotalAmount());
+        assertEquals(3, daily.getExpenseCount());
+        assertEquals(10, daily.getMinAmount());
+        assertEquals(40, daily.getMaxAmount());
+    }
+
+    @Test
+    @DisplayName("deletes a bucket when its last expense is removed")
+    void testRemoveLastExpenseDeletesBucket() {
+        // Arrange
+        ExpenseRollup daily = rollup(RollupPeriod.DAY, day, 40, 1, 40, 40);
+        when(expenseRollupRepository.findBucketForUpdate(1L, RollupPeriod.DAY, day, SubCategories.Category.Food, SubCategories.Restaurant))
+                .thenReturn(Optional.of(daily));
+
+        // Act
+        expenseRollupService.removeExpense(1L, expense.getCreatedAt(), SubCategories.Category.Food, SubCategories.Restaurant, 40);
+
+        // Assert
+        verify(expenseRollupRepository, times(1)).delete(daily);
+        verify(expenseRollupRepository, never()).save(any());
+    }
+
+    @Test
+    @DisplayName("subtracts an expense that is not the bucket's min or max")
+    void testRemoveExpenseSubtracts() {
+        // Arrange
+        ExpenseRollup daily = rollup(RollupPeriod.DAY, day, 100, 3, 20, 50);
+        when(expenseRollupRepository.findBucketForUpdate(1L, RollupPeriod.DAY, day, SubCategories.Category.Food, SubCategories.Restaurant))
+                .thenReturn(Optional.of(daily));
+
+        // Act
+        expenseRollupService.removeExpense(1L, expense.getCreatedAt(), SubCategories.Category.Food, SubCategories.Restaurant, 30);
+
+        // Assert
+        assertEquals(70, daily.getTotalAmount());
+        assertEquals(2, daily.getExpenseCount());
+        verify(expensesRepository, never()).aggregateRollupBucket(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    @DisplayName("moves a bucket's total by the difference when an amount inside its min and max changes")
+    void testChangeExpenseAmount() {
+        // Arrange
+        ExpenseRollup daily = rollup(RollupPeriod.DAY, day, 100, 3, 20, 50);
+        when(expenseRollupRepository.findBucketForUpdate(1L, RollupPeriod.DAY, day, SubCategories.Category.Food, SubCategories.Restaurant))
+                .thenReturn(Optional.of(daily));
+        expense.setExpenseAmount(60);
+
+        // Act
+        expenseRollupService.changeExpenseAmount(expense, 30);
+
+        // Assert
+        assertEquals(130, daily.getTotalAmount());
+        assertEquals(3, daily.getExpenseCount());
+        assertEquals(20, daily.getMinAmount());
+        assertEquals(60, daily.getMaxAmount());
+        verify(expensesRepository, never()).aggregateRollupBucket(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    @DisplayName("recomputes a bucket when its max expense is removed")
+    void testRemoveMaxExpenseRecomputes() {
+        // Arrange
+        ExpenseRollup daily = rollup(RollupPeriod.DAY, day, 100, 3, 20, 50);
+        when(expenseRollupRepository.findBucketForUpdate(1L, RollupPeriod.DAY, day, SubCategories.Category.Food, SubCategories.Restaurant))
+                .thenReturn(Optional.of(daily));
+        when(expensesRepository.aggregateRollupBucket(eq(1L), any(), any(), eq(SubCategories.Category.Food), eq(SubCategories.Restaurant)))
+                .thenReturn(new RollupAggregate(50.0, 2L, 20.0, 30.0));
+
+        // Act
+        expenseRollupService.removeExpense(1L, expense.getCreatedAt(), SubCategories.Category.Food, SubCategories.Restaurant, 50);
+
+        // Assert
+        assertEquals(50, daily.getTotalAmount());
+        assertEquals(2, daily.getExpenseCount());
+        assertEquals(20, daily.getMinAmount());
+        assertEquals(30, daily.getMaxAmount());
+    }
+
+    @Test
+    @DisplayName("removes the expenses of a deleted budget from their buckets")
+    void testRemoveAggregates() {
+        // Arrange
+        ExpenseRollup daily = rollup(RollupPeriod.DAY, day, 70, 2, 30, 40);
+        ExpenseRollup monthly = rollup(RollupPeriod.MONTH, day.withDayOfMonth(1), 170, 4, 10, 90);
+        when(expenseRollupRepository.findBucketsForUpdate(1L, RollupPeriod.DAY, day, day)).thenReturn(List.of(daily));
+        when(expenseRollupRepository.findBucketsForUpdate(1L, RollupPeriod.MONTH, day.withDayOfMonth(1), day.withDayOfMonth(1)))
+                .thenReturn(List.of(monthly));
+
+        // Act
+        expenseRollupService.removeAggregates(List.of(new RollupAggregate(1L, day.getYear(), day.getMonthValue(),
+                day.getDayOfMonth(), SubCategories.Category.Food, SubCategories.Restaurant, 70.0, 2L, 30.0, 40.0)));
+
+        // Assert
+        verify(expenseRollupRepository, times(1)).deleteAll(List.of(daily));
+        verify(expenseRollupRepository, times(1)).saveAll(List.of(monthly));
+        assertEquals(100, monthly.getTotalAmount());
+        assertEquals(2, monthly.getExpenseCount());
+        assertEquals(10, monthly.getMinAmount());
+        assertEquals(90, monthly.getMaxAmount());
+        verify(expensesRepository, never()).aggregateRollupBucket(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    @DisplayName("rebuilds daily rollups and folds them into monthly rollups")
+    void testBackfill() {
+        // Arrange
+        when(expensesRepository.findUserIdsWithExpensesAfter(eq(0L), any(Pageable.class))).thenReturn(List.of(1L));
+        when(expensesRepository.findUserIdsWithExpensesAfter(eq(1L), any(Pageable.class))).thenReturn(Collections.emptyList());
+        when(expensesRepository.findDailyAggregatesByUserIds(List.of(1L))).thenReturn(Arrays.asList(
+                new RollupAggregate(1L, 2024, 3, 1, SubCategories.Category.Food, SubCategories.Restaurant, 30.0, 2L, 10.0, 20.0),
+                new RollupAggregate(1L, 2024, 3, 2, SubCategories.Category.Food, SubCategories.Restaurant, 5.0, 1L, 5.0, 5.0)));
+        when(expenseRollupRepository.deleteWithoutExpenses()).thenReturn(4);
+
+        // Act
+        RollupBackfillReport report = expenseRollupService.backfill(100);
+
+        // Assert
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<ExpenseRollup>> captor = ArgumentCaptor.forClass(List.class);
+        verify(expenseRollupRepository, times(1)).deleteByUserIds(List.of(1L));
+        verify(expenseRollupRepository, times(1)).saveAll(captor.capture());
+
+        List<ExpenseRollup> rollups = captor.getValue();
+        assertEquals(3, rollups.size());
+        ExpenseRollup monthly = rollups.get(2);
+        assertEquals(RollupPeriod.MONTH, monthly.getPeriod());
+        assertEquals(LocalDate.of(2024, 3, 1), monthly.getPeriodStart());
+        assertEquals(35, monthly.getTotalAmount());
+        assertEquals(3, monthly.getExpenseCount());
+        assertEquals(5, monthly.getMinAmount());
+        assertEquals(20, monthly.getMaxAmount());
+
+        assertEquals(1, report.getUsersProcessed());
+        assertEquals(3, report.getRollupsWritten());
+        assertEquals(4, report.getStaleRollupsDeleted());
+    }
+
+    @Test
+    @DisplayName("rejects an invalid backfill chunk size")
+    void testBackfillInvalidChunkSize() {
+        assertThrows(ValidationException.class, () -> expenseRollupService.backfill(0));
+    }
+
+    @Test
+    @DisplayName("can get a monthly trend from the rollups")
+    void testGetTrend() {
+        // Arrange
+        when(userService.getUserReference("tester")).thenReturn(user);
+        when(expenseRollupRepository.findTrend(1L, RollupPeriod.MONTH, LocalDate.of(2024, 1, 1), LocalDate.of(2024, 3, 1), null, null))
+                .thenReturn(List.of(rollup(RollupPeriod.MONTH, LocalDate.of(2024, 2, 1), 100, 3, 20, 50)));
+
+        // Act
+        List<ExpenseTrendPoint> trend = expenseRollupService.getTrend("tester", RollupPeriod.MONTH, "2024-01-15", "2024-03-20", null, null);
+
+        // Assert
+        assertEquals(1, trend.size());
+        assertEquals("MONTH", trend.get(0).getPeriod());
+        assertEquals(LocalDate.of(2024, 2, 1), trend.get(0).getPeriodStart());
+        assertEquals("Food", trend.get(0).getCategory());
+        assertEquals(100, trend.get(0).getTotalAmount());
+    }
+
+    @Test
+    @DisplayName("throws when there are no rollups in the range")
+    void testGetTrendEmpty() {
+        when(userService.getUserReference("tester")).thenReturn(user);
+        when(expenseRollupRepository.findTrend(any(), any(), any(), any(), any(), any())).thenReturn(Collections.emptyList());
+
+        assertThrows(EntityNotFoundException.class,
+                () -> expenseRollupService.getTrend("tester", RollupPeriod.DAY, "2024-01-01", "2024-01-31", null, null));
+    }
+}
@@ -0,0 +1,94 @@
+package com.cbfacademy.apiassessment.Service;
+
+import com.cbfacademy.apiassessment.Cache.RequestLookups;
+import com.cbfacademy.apiassessment.Cache.SummaryCache;
+import com.cbfacademy.apiassessment.Cache.UserResolverCache;
+import com.cbfacademy.apiassessment.Entity.*;
+import com.cbfacademy.apiassessment.Repository.ExpenseRollupRepository;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Changes single expenses against the embedded database, so the buckets recomputed from the expense rows
+// see the rows as they are when the rollups are written
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.dialect=com.cbfacademy.apiassessment.Service.QueryCountTest$LedgerH2Dialect")
+@Import({ExpensesService.class, BudgetService.class, ChangeFeedService.class, UserService.class, UserDeletionService.class,
+        ExpenseRollupService.class, SummaryCache.class, UserResolverCache.class, RequestLookups.class})
+public class ExpenseRollupWriteTest {
+
+    private static final String USERNAME = "username";
+
+    @Autowired
+    private ExpensesService expensesService;
+
+    @Autowired
+    private ExpenseRollupRepository expenseRollupRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    private long smallExpenseId;
+    private long largeExpenseId;
+
+    // User and users both map the users table, so the user row is inserted directly with both id columns
+    @BeforeEach
+    void setUp() {
+        entityManager.createNativeQuery("INSERT INTO users (id, user_id, name, username, email, role, created_at) " +
+                "VALUES (1, 1, 'name', '" + USERNAME + "', 'user@email.com', 'USER', CURRENT_TIMESTAMP)").executeUpdate();
+
+        smallExpenseId = expensesService.saveExpenses(USERNAME,
+                new Expenses(10, SubCategories.Category.Transport, SubCategories.Fuel, "Fuel")).getId();
+        largeExpenseId = expensesService.saveExpenses(USERNAME,
+                new Expenses(30, SubCategories.Category.Transport, SubCategories.Fuel, "More Fuel")).getId();
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    @Test
+    @DisplayName("changes the amount of a bucket's max expense without counting it twice")
+    void testChangeMaxAmount() {
+        expensesService.updateExpensesByID(USERNAME, largeExpenseId, "amount", "25");
+        entityManager.flush();
+        entityManager.clear();
+
+        for (RollupPeriod period : RollupPeriod.values()) {
+            ExpenseRollup bucket = bucket(period);
+            assertEquals(35, bucket.getTotalAmount());
+            assertEquals(2, bucket.getExpenseCount());
+            assertEquals(10, bucket.getMinAmount());
+            assertEquals(25, bucket.getMaxAmount());
+        }
+    }
+
+    @Test
+    @DisplayName("keeps the bucket's total and count when a merge patch changes only the amount")
+    void testPatchAmount() {
+        expensesService.patchExpense(USERNAME, smallExpenseId, Map.of("amount", 15));
+        entityManager.flush();
+        entityManager.clear();
+
+        for (RollupPeriod period : RollupPeriod.values()) {
+            ExpenseRollup bucket = bucket(period);
+            assertEquals(45, bucket.getTotalAmount());
+            assertEquals(2, bucket.getExpenseCount());
+            assertEquals(15, bucket.getMinAmount());
+            assertEquals(30, bucket.getMaxAmount());
+        }
+    }
+
+    private ExpenseRollup bucket(RollupPeriod period) {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        return expenseRollupRepository.findBucketForUpdate(1L, period, period == RollupPeriod.MONTH ? today.withDayOfMonth(1) : today,
+                SubCategories.Category.Transport, SubCategories.Fuel).orElseThrow();
+    }
+}
@@ -1,8 +1,17 @@
 package com.cbfacademy.apiassessment.Service;
 
+import com.cbfacademy.apiassessment.Cache.SummaryCache;
+import com.cbfacademy.apiassessment.DTO.CursorPage;
+import com.cbfacademy.apiassessment.DTO.ExpensesDTO;
+import com.cbfacademy.apiassessment.DTO.PageCursor;
+import com.cbfacademy.apiassessment.DTO.SearchFilter;
 
 import com.cbfacademy.apiassessment.Entity.*;
+import com.cbfacademy.apiassessment.Mappers.ExpensesMapper;
+import com.cbfacademy.apiassessment.Repository.BudgetRepository;
 import com.cbfacademy.apiassessment.Repository.ExpensesRepository;
+import jakarta.persistence.EntityNotFoundException;
+import jakarta.validation.ValidationException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -12,19 +21,25 @@ import org.mockito.ArgumentMatchers;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
-import static org.mockito.Mockito.doNothing;
-import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.*;
 
 
 @DisplayName("The Expenses Service")
 public class ExpenseServiceTest {
+    private static final int LIMIT = PageCursor.DEFAULT_LIMIT;
+    private static final PageCursor FIRST_PAGE = PageCursor.decode(null);
+
     @InjectMocks
     private ExpensesService expensesService;
 
@@ -34,6 +49,14 @@ public class ExpenseServiceTest {
     private UserService userService;
     @Mock
     private ExpensesRepository expensesRepository;
+    @Mock
+    private BudgetRepository budgetRepository;
+    @Mock
+    private SummaryCache summaryCache;
+    @Mock
+    private ExpenseRollupService expenseRollupService;
+    @Mock
+    private ChangeFeedService changeFeedService;
 
 
     private User user;
@@ -79,7 +102,7 @@ public class ExpenseServiceTest {
         savedExpense.setBudget(budget2);
 
 
-        when(userService.getUserByUsernameOrEmail(usernameOrEmail)).thenReturn(user);
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
         when(budgetService.getBudgetById(usernameOrEmail, 2L)).thenReturn(budget2);
         when(expensesRepository.save(savedExpense)).thenReturn(savedExpense);
 
@@ -91,6 +114,32 @@ public class ExpenseServiceTest {
         assertEquals(savedExpense, result);
     }
 
+    @Test
+    @DisplayName("links an Expense to a budget when one of their subcategories is not set")
+    void testSaveExpensesWithoutSubcategory() {
+        // Arrange
+        String usernameOrEmail = "user@email.com";
+        Expenses restaurant = new Expenses(20, SubCategories.Category.Food, SubCategories.Restaurant, "Lunch");
+        restaurant.setId(1L);
+        Expenses savings = new Expenses(100, SubCategories.Category.Savings, null, "From 1st week Salary");
+        savings.setId(2L);
+
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
+        when(budgetService.getBudgetById(usernameOrEmail, 1L)).thenReturn(budget1);
+        when(budgetService.getBudgetById(usernameOrEmail, 2L)).thenReturn(budget2);
+        when(expensesRepository.save(any(Expenses.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        // Act
+        Expenses linkedToFood = expensesService.saveExpenses(usernameOrEmail, 1L, restaurant);
+        Expenses linkedToSavings = expensesService.saveExpenses(usernameOrEmail, 2L, savings);
+
+        // Assert
+        assertEquals(budget1, linkedToFood.getBudget());
+        assertEquals(budget2, linkedToSavings.getBudget());
+        Expenses mismatched = new Expenses(100, SubCategories.Category.Savings, SubCategories.Investments, "Shares");
+        assertThrows(ValidationException.class, () -> expensesService.saveExpenses(usernameOrEmail, 2L, mismatched));
+    }
+
     @Test
     @DisplayName("can save Expenses without budget")
     void testSaveExpensesWithoutBudget() {
@@ -106,7 +155,7 @@ public class ExpenseServiceTest {
 
 
 
-        when(userService.getUserByUsernameOrEmail(usernameOrEmail)).thenReturn(user);
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
         when(expensesRepository.save(savedExpense)).thenReturn(savedExpense);
 
         // Act
@@ -148,9 +197,9 @@ public class ExpenseServiceTest {
             case  "budget" -> updatedExpense.setBudget(budget2);
         }
 
-        when(userService.getUserByUsernameOrEmail(usernameOrEmail)).thenReturn(user);
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
         when(budgetService.getBudgetById(usernameOrEmail, 2L)).thenReturn(budget2);
-        when(expensesRepository.findByUserAndId(user, expenseId)).thenReturn(java.util.Optional.of(savedExpense));
+        when(expensesRepository.findWithBudgetByUserAndId(user, expenseId)).thenReturn(java.util.Optional.of(savedExpense));
         when(expensesRepository.save(ArgumentMatchers.any(Expenses.class))).thenReturn(updatedExpense);
 
         // Act
@@ -182,7 +231,7 @@ public class ExpenseServiceTest {
         updatedExpense.setId(1L);
 
 
-        when(userService.getUserByUsernameOrEmail(usernameOrEmail)).thenReturn(user);
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
         when(expensesRepository.findByUserAndId(user, expenseId)).thenReturn(java.util.Optional.of(updatedExpense));
 
         // Act
@@ -193,6 +242,31 @@ public class ExpenseServiceTest {
         assertEquals(updatedExpense, result);
     }
 
+    @Test
+    @DisplayName("can get Expense by ID without loading the entity")
+    void testGetExpenseDTOByID() {
+        // Arrange
+        String usernameOrEmail = "user@email.com";
+
+        Expenses savedExpense = new Expenses(100, SubCategories.Category.Savings, SubCategories.Basic, "From 1st week Salary");
+        savedExpense.setUser(user);
+        savedExpense.setBudget(budget2);
+        savedExpense.setId(1L);
+        ExpensesDTO expected = ExpensesMapper.INSTANCE.expensesDTO(savedExpense);
+
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
+        when(expensesRepository.findDtoByUserAndId(user, 1L)).thenReturn(Optional.of(expected));
+
+        // Act
+        ExpensesDTO result = expensesService.getExpensesDTOById(usernameOrEmail, 1L);
+
+        // Assert
+        assertEquals(expected, result);
+        assertEquals(2L, result.getBudget_id());
+        assertThrows(EntityNotFoundException.class, () -> expensesService.getExpensesDTOById(usernameOrEmail, 2L));
+        verify(expensesRepository, never()).findByUserAndId(any(), any());
+    }
+
     @Test
     @DisplayName("can get Expense by Budget")
     void testGetExpenseByBudget() {
@@ -210,19 +284,19 @@ public class ExpenseServiceTest {
         updatedExpense2.setId(2L);
 
 
-        List<Expenses> ansExpensesList = List.of(updatedExpense2);
+        List<ExpensesDTO> ansExpensesList = toDTOs(updatedExpense2);
 
-        when(userService.getUserByUsernameOrEmail(usernameOrEmail)).thenReturn(user);
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
         when(budgetService.getBudgetById(usernameOrEmail, 1L)).thenReturn(budget1);
-        when(expensesRepository.findByUserAndBudget(user, budget1)).thenReturn(ansExpensesList);
+        when(expensesRepository.findByUserAndBudget(user, budget1, FIRST_PAGE.getCreatedAt(), FIRST_PAGE.getId(), PageCursor.pageRequest(LIMIT))).thenReturn(ansExpensesList);
 
 
         // Act
-        List<Expenses> result = expensesService.getExpensesByBudget(usernameOrEmail, 1L);
+        CursorPage<ExpensesDTO> result = expensesService.getExpensesByBudget(usernameOrEmail, 1L, LIMIT, null);
 
         // Assert
         assertNotNull(result);
-        assertEquals(ansExpensesList, result);
+        assertEquals(ansExpensesList, result.getItems());
     }
 
     @Test
@@ -241,19 +315,19 @@ public class ExpenseServiceTest {
         updatedExpense2.setId(2L);
 
 
-        List<Expenses> expensesList = Arrays.asList(updatedExpense1, updatedExpense2);
+        List<ExpensesDTO> expensesList = toDTOs(updatedExpense1, updatedExpense2);
 
 
-        when(userService.getUserByUsernameOrEmail(usernameOrEmail)).thenReturn(user);
-        when(expensesRepository.findByUser(user)).thenReturn(expensesList);
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
+        when(expensesRepository.findPageByUser(user, FIRST_PAGE.getCreatedAt(), FIRST_PAGE.getId(), PageCursor.pageRequest(LIMIT))).thenReturn(expensesList);
 
 
         // Act
-        List<Expenses> result = expensesService.getAllExpenses(usernameOrEmail);
+        CursorPage<ExpensesDTO> result = expensesService.getAllExpenses(usernameOrEmail, LIMIT, null);
 
         // Assert
         assertNotNull(result);
-        assertEquals(expensesList, result);
+        assertEquals(expensesList, result.getItems());
     }
 
     @Test
@@ -271,18 +345,18 @@ public class ExpenseServiceTest {
         updatedExpense2.setUser(user);
         updatedExpense2.setId(2L);
 
-        List<Expenses> expensesList = List.of(updatedExpense2);
+        List<ExpensesDTO> expensesList = toDTOs(updatedExpense2);
 
 
-        when(userService.getUserByUsernameOrEmail(usernameOrEmail)).thenReturn(user);
-        when(expensesRepository.findByUserAndExpenseCategory(user, SubCategories.Category.Food)).thenReturn(expensesList);
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
+        when(expensesRepository.findByUserAndExpenseCategory(user, SubCategories.Category.Food, FIRST_PAGE.getCreatedAt(), FIRST_PAGE.getId(), PageCursor.pageRequest(LIMIT))).thenReturn(expensesList);
 
         // Act
-        List<Expenses> result = expensesService.getExpensesByCategory(usernameOrEmail, "Food");
+        CursorPage<ExpensesDTO> result = expensesService.getExpensesByCategory(usernameOrEmail, "Food", LIMIT, null);
 
         // Assert
         assertNotNull(result);
-        assertEquals(expensesList, result);
+        assertEquals(expensesList, result.getItems());
     }
 
     @Test
@@ -306,19 +380,19 @@ public class ExpenseServiceTest {
 
 
 
-        List<Expenses> expensesList = Arrays.asList(updatedExpense2, updatedExpense3);
+        List<ExpensesDTO> expensesList = toDTOs(updatedExpense2, updatedExpense3);
 
 
-        when(userService.getUserByUsernameOrEmail(usernameOrEmail)).thenReturn(user);
-        when(expensesRepository.findExpensesInPriceRange(user, 1, 50)).thenReturn(expensesList);
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
+        when(expensesRepository.findExpensesInPriceRange(user, 1, 50, FIRST_PAGE.getCreatedAt(), FIRST_PAGE.getId(), PageCursor.pageRequest(LIMIT))).thenReturn(expensesList);
 
 
         // Act
-        List<Expenses> result = expensesService.getExpensesInPriceRange(usernameOrEmail, 1, 50);
+        CursorPage<ExpensesDTO> result = expensesService.getExpensesInPriceRange(usernameOrEmail, 1, 50, LIMIT, null);
 
         // Assert
         assertNotNull(result);
-        assertEquals(expensesList, result);
+        assertEquals(expensesList, result.getItems());
     }
 
     @Test
@@ -341,19 +415,19 @@ public class ExpenseServiceTest {
         updatedExpense3.setId(3L);
 
 
-        List<Expenses> expensesList = List.of(updatedExpense1);
+        List<ExpensesDTO> expensesList = toDTOs(updatedExpense1);
 
 
-        when(userService.getUserByUsernameOrEmail(usernameOrEmail)).thenReturn(user);
-        when(expensesRepository.findExpensesGreaterThan(user, 20)).thenReturn(expensesList);
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
+        when(expensesRepository.findExpensesGreaterThan(user, 20, FIRST_PAGE.getCreatedAt(), FIRST_PAGE.getId(), PageCursor.pageRequest(LIMIT))).thenReturn(expensesList);
 
 
         // Act
-        List<Expenses> result = expensesService.getExpensesGreaterThan(usernameOrEmail, 20);
+        CursorPage<ExpensesDTO> result = expensesService.getExpensesGreaterThan(usernameOrEmail, 20, LIMIT, null);
 
         // Assert
         assertNotNull(result);
-        assertEquals(expensesList, result);
+        assertEquals(expensesList, result.getItems());
     }
 
     @Test
@@ -376,25 +450,25 @@ public class ExpenseServiceTest {
         updatedExpense3.setId(3L);
 
 
-        List<Expenses> expensesList = Arrays.asList(updatedExpense2, updatedExpense3 );
+        List<ExpensesDTO> expensesList = toDTOs(updatedExpense2, updatedExpense3);
 
 
-        when(userService.getUserByUsernameOrEmail(usernameOrEmail)).thenReturn(user);
-        when(expensesRepository.findExpensesLessThan(user, 20)).thenReturn(expensesList);
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
+        when(expensesRepository.findExpensesLessThan(user, 20, FIRST_PAGE.getCreatedAt(), FIRST_PAGE.getId(), PageCursor.pageRequest(LIMIT))).thenReturn(expensesList);
 
         // Act
-        List<Expenses> result = expensesService.getExpensesLessThan(usernameOrEmail, 20);
+        CursorPage<ExpensesDTO> result = expensesService.getExpensesLessThan(usernameOrEmail, 20, LIMIT, null);
 
 
         // Assert
         assertNotNull(result);
-        assertEquals(expensesList, result);
+        assertEquals(expensesList, result.getItems());
     }
 
     @ParameterizedTest
     @MethodSource("DiffSortScenarios")
     @DisplayName("can sort Expenses by different values")
-    void testSortExpensesBy(String sortBy){
+    void testSortExpensesBy(String sortBy, Sort sort){
         // Arrange
         String usernameOrEmail = "user@email.com";
 
@@ -412,28 +486,32 @@ public class ExpenseServiceTest {
         updatedExpense3.setId(3L);
 
 
-        List<Expenses> expensesList = Arrays.asList(updatedExpense1, updatedExpense2, updatedExpense3 );
+        List<ExpensesDTO> expensesList = toDTOs(updatedExpense1, updatedExpense2, updatedExpense3);
 
 
         switch (sortBy){
-            case "amount" -> expensesList = Arrays.asList(updatedExpense3, updatedExpense2, updatedExpense1);
-            case "category", "subcategory" -> expensesList = Arrays.asList(updatedExpense2, updatedExpense3, updatedExpense1);
+            case "amount" -> expensesList = toDTOs(updatedExpense3, updatedExpense2, updatedExpense1);
+            case "category", "subcategory" -> expensesList = toDTOs(updatedExpense2, updatedExpense3, updatedExpense1);
+            case "category,amount:desc" -> expensesList = toDTOs(updatedExpense2, updatedExpense3, updatedExpense1);
         }
 
-        when(userService.getUserByUsernameOrEmail(usernameOrEmail)).thenReturn(user);
-        when(expensesRepository.findByUser(user)).thenReturn(expensesList);
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
+        when(expensesRepository.findDtoByUser(user, PageRequest.of(0, LIMIT, sort))).thenReturn(expensesList);
 
 
         // Act
-        List<Expenses> result = expensesService.sortExpensesBy(usernameOrEmail, sortBy);
+        List<ExpensesDTO> result = expensesService.sortExpensesBy(usernameOrEmail, sortBy, LIMIT);
 
         // Assert
         assertEquals(expensesList, result);
     }
 
-    private static Stream<String> DiffSortScenarios() {
+    private static Stream<Object[]> DiffSortScenarios() {
         return Stream.of(
-                "amount", "category", "subcategory"
+                new Object[]{"amount", Sort.by(Sort.Order.asc("expenseAmount"), Sort.Order.asc("id"))},
+                new Object[]{"category", Sort.by(Sort.Order.asc("expenseCategory"), Sort.Order.asc("id"))},
+                new Object[]{"subcategory", Sort.by(Sort.Order.asc("expenseSubcategory"), Sort.Order.asc("id"))},
+                new Object[]{"category,amount:desc", Sort.by(Sort.Order.asc("expenseCategory"), Sort.Order.desc("expenseAmount"), Sort.Order.asc("id"))}
         );
     }
 
@@ -448,9 +526,291 @@ public class ExpenseServiceTest {
 
 
         when(expensesRepository.findByUserAndId(user, 1L)).thenReturn(Optional.of(updatedExpense1));
-        when(userService.getUserByUsernameOrEmail(user.getEmail())).thenReturn(user);
+        when(userService.getUserReference(user.getEmail())).thenReturn(user);
         doNothing().when(expensesRepository).delete(updatedExpense1);
 
         assertAll(() -> expensesService.deleteExpense(user.getEmail(), 1L));
     }
+
+    @Test
+    @DisplayName("adds a new expense to its budget's ledger")
+    void testSaveExpensesUpdatesLedger() {
+        // Arrange
+        String usernameOrEmail = "user@email.com";
+
+        Expenses newExpense = new Expenses(100, SubCategories.Category.Savings, SubCategories.Basic, "From 1st week Salary" );
+        newExpense.setId(1L);
+
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
+        when(budgetService.getBudgetById(usernameOrEmail, 2L)).thenReturn(budget2);
+        when(expensesRepository.save(newExpense)).thenReturn(newExpense);
+
+        // Act
+        expensesService.saveExpenses(usernameOrEmail, 2L, newExpense);
+
+        // Assert
+        verify(budgetRepository, times(1)).adjustLedger(2L, 100, 1);
+    }
+
+    @Test
+    @DisplayName("moves an expense between budget ledgers when its budget changes")
+    void testUpdateExpensesBudgetMovesLedger() {
+        // Arrange
+        String usernameOrEmail = "user@email.com";
+
+        Budget previousBudget = new Budget(500, SubCategories.Category.Savings, SubCategories.Basic, "Old Savings");
+        previousBudget.setUser(user);
+        previousBudget.setId(3L);
+
+        Expenses savedExpense = new Expenses(100, SubCategories.Category.Savings, SubCategories.Basic, "From 1st week Salary");
+        savedExpense.setUser(user);
+        savedExpense.setBudget(previousBudget);
+        savedExpense.setId(1L);
+
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
+        when(budgetService.getBudgetById(usernameOrEmail, 2L)).thenReturn(budget2);
+        when(expensesRepository.findWithBudgetByUserAndId(user, 1L)).thenReturn(Optional.of(savedExpense));
+        when(expensesRepository.save(savedExpense)).thenReturn(savedExpense);
+
+        // Act
+        expensesService.updateExpensesByID(usernameOrEmail, 1L, "budget", "2");
+
+        // Assert
+        verify(budgetRepository, times(1)).adjustLedger(3L, -100, -1);
+        verify(budgetRepository, times(1)).adjustLedger(2L, 100, 1);
+        verifyNoInteractions(expenseRollupService);
+    }
+
+    @Test
+    @DisplayName("adjusts the budget ledger by the difference when the amount changes")
+    void testUpdateExpensesAmountAdjustsLedger() {
+        // Arrange
+        String usernameOrEmail = "user@email.com";
+
+        Expenses savedExpense = new Expenses(100, SubCategories.Category.Savings, SubCategories.Basic, "From 1st week Salary");
+        savedExpense.setUser(user);
+        savedExpense.setBudget(budget2);
+        savedExpense.setId(1L);
+
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
+        when(expensesRepository.findWithBudgetByUserAndId(user, 1L)).thenReturn(Optional.of(savedExpense));
+        when(expensesRepository.save(savedExpense)).thenReturn(savedExpense);
+
+        // Act
+        expensesService.updateExpensesByID(usernameOrEmail, 1L, "amount", "150");
+
+        // Assert
+        verify(budgetRepository, times(1)).adjustLedger(2L, 50, 0);
+        verify(expenseRollupService, times(1)).changeExpenseAmount(savedExpense, 100);
+        verify(expenseRollupService, never()).recordExpense(any(Expenses.class));
+    }
+
+    @Test
+    @DisplayName("moves an expense to another category and budget with one patch")
+    void testPatchExpense() {
+        // Arrange
+        String usernameOrEmail = "user@email.com";
+
+        Budget fuelBudget = new Budget(300, SubCategories.Category.Transport, SubCategories.Fuel, "Fuel");
+        fuelBudget.setUser(user);
+        fuelBudget.setId(3L);
+
+        Expenses savedExpense = new Expenses(100, SubCategories.Category.Savings, SubCategories.Basic, "From 1st week Salary");
+        savedExpense.setUser(user);
+        savedExpense.setBudget(budget2);
+        savedExpense.setId(1L);
+
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
+        when(budgetService.getBudgetById(usernameOrEmail, 3L)).thenReturn(fuelBudget);
+        when(expensesRepository.findWithBudgetByUserAndId(user, 1L)).thenReturn(Optional.of(savedExpense));
+        when(expensesRepository.save(savedExpense)).thenReturn(savedExpense);
+
+        // Act
+        Expenses result = expensesService.patchExpense(usernameOrEmail, 1L,
+                Map.of("amount", 40, "category", "Transport", "subcategory", "Fuel", "budget", 3));
+
+        // Assert
+        assertEquals(40, result.getExpenseAmount());
+        assertEquals(SubCategories.Category.Transport, result.getExpenseCategory());
+        assertEquals(SubCategories.Fuel, result.getExpenseSubcategory());
+        assertEquals(fuelBudget, result.getBudget());
+        verify(expensesRepository, times(1)).save(savedExpense);
+        verify(budgetRepository, times(1)).adjustLedger(2L, -100, -1);
+        verify(budgetRepository, times(1)).adjustLedger(3L, 40, 1);
+    }
+
+    @Test
+    @DisplayName("rejects a patch that leaves the expense in another category than its budget")
+    void testPatchExpenseInvalid() {
+        // Arrange
+        String usernameOrEmail = "user@email.com";
+
+        Expenses savedExpense = new Expenses(100, SubCategories.Category.Savings, SubCategories.Basic, "From 1st week Salary");
+        savedExpense.setUser(user);
+        savedExpense.setBudget(budget2);
+        savedExpense.setId(1L);
+
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
+        when(expensesRepository.findWithBudgetByUserAndId(user, 1L)).thenReturn(Optional.of(savedExpense));
+
+        // Act and Assert
+        assertThrows(ValidationException.class, () -> expensesService.patchExpense(usernameOrEmail, 1L,
+                Map.of("amount", 40, "category", "Transport")));
+        assertThrows(ValidationException.class, () -> expensesService.patchExpense(usernameOrEmail, 1L,
+                Map.of("price", 40)));
+        assertEquals(100, savedExpense.getExpenseAmount());
+
+        // Nothing is written when the patch changes nothing
+        expensesService.patchExpense(usernameOrEmail, 1L, Map.of("amount", "100", "budget", 2));
+        verify(expensesRepository, never()).save(any(Expenses.class));
+        verifyNoInteractions(budgetRepository);
+    }
+
+    @Test
+    @DisplayName("removes a deleted expense from its budget's ledger")
+    void testDeleteExpenseUpdatesLedger(){
+        // Arrange
+        Expenses updatedExpense1 = new Expenses(100, SubCategories.Category.Savings, SubCategories.Basic, "From 1st week Salary");
+        updatedExpense1.setUser(user);
+        updatedExpense1.setBudget(budget2);
+        updatedExpense1.setId(1L);
+
+        when(expensesRepository.findByUserAndId(user, 1L)).thenReturn(Optional.of(updatedExpense1));
+        when(userService.getUserReference(user.getEmail())).thenReturn(user);
+
+        // Act
+        expensesService.deleteExpense(user.getEmail(), 1L);
+
+        // Assert
+        verify(budgetRepository, times(1)).adjustLedger(2L, -100, -1);
+        verify(expenseRollupService, times(1)).removeExpense(user.getId(), updatedExpense1.getCreatedAt(),
+                SubCategories.Category.Savings, SubCategories.Basic, 100);
+    }
+
+    @Test
+    @DisplayName("returns a cursor to the next page of Expenses")
+    void testGetAllExpensesNextPage() {
+        // Arrange
+        String usernameOrEmail = "user@email.com";
+
+        Expenses expense1 = new Expenses(100, SubCategories.Category.Savings, SubCategories.Basic, "From 1st week Salary");
+        expense1.setUser(user);
+        expense1.setId(1L);
+
+        Expenses expense2 = new Expenses(10, SubCategories.Category.Food, null,  "KFC");
+        expense2.setUser(user);
+        expense2.setId(2L);
+
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
+        when(expensesRepository.findPageByUser(user, FIRST_PAGE.getCreatedAt(), FIRST_PAGE.getId(), PageCursor.pageRequest(1)))
+                .thenReturn(toDTOs(expense1, expense2));
+        when(expensesRepository.findPageByUser(user, expense1.getCreatedAt(), 1L, PageCursor.pageRequest(1)))
+                .thenReturn(toDTOs(expense2));
+
+        // Act
+        CursorPage<ExpensesDTO> firstPage = expensesService.getAllExpenses(usernameOrEmail, 1, null);
+        CursorPage<ExpensesDTO> secondPage = expensesService.getAllExpenses(usernameOrEmail, 1, firstPage.getNextCursor());
+
+        // Assert
+        assertEquals(toDTOs(expense1), firstPage.getItems());
+        assertNotNull(firstPage.getNextCursor());
+        assertEquals(toDTOs(expense2), secondPage.getItems());
+        assertNull(secondPage.getNextCursor());
+    }
+
+    @Test
+    @DisplayName("rejects an invalid page limit or cursor")
+    void testGetAllExpensesInvalidPage() {
+        when(userService.getUserReference(user.getEmail())).thenReturn(user);
+
+        assertThrows(ValidationException.class, () -> expensesService.getAllExpenses(user.getEmail(), 0, null));
+        assertThrows(ValidationException.class, () -> expensesService.getAllExpenses(user.getEmail(), PageCursor.MAX_LIMIT + 1, null));
+        assertThrows(ValidationException.class, () -> expensesService.getAllExpenses(user.getEmail(), LIMIT, "not-a-cursor"));
+    }
+
+    @Test
+    @DisplayName("can search expenses with combined conditions")
+    void testSearchExpenses() {
+        // Arrange
+        String usernameOrEmail = "user@email.com";
+
+        Expenses expense1 = new Expenses(10, SubCategories.Category.Food, null,  "KFC");
+        expense1.setUser(user);
+        expense1.setBudget(budget1);
+        expense1.setId(1L);
+
+        SearchFilter filter = SearchFilter.builder()
+                .category("Food")
+                .minAmount(5.0)
+                .maxAmount(20.0)
+                .startDate("2023-01-01")
+                .budgetId(1L)
+                .description("kfc")
+                .build();
+
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
+        when(expensesRepository.search(ArgumentMatchers.<Specification<Expenses>>any(), eq(Sort.by("createdAt", "id")), eq(LIMIT + 1)))
+                .thenReturn(toDTOs(expense1));
+
+        // Act
+        CursorPage<ExpensesDTO> result = expensesService.searchExpenses(usernameOrEmail, filter, null, LIMIT, null);
+
+        // Assert
+        assertEquals(toDTOs(expense1), result.getItems());
+        assertNull(result.getNextCursor());
+    }
+
+    @Test
+    @DisplayName("can search expenses sorted by the database")
+    void testSearchExpensesSorted() {
+        // Arrange
+        String usernameOrEmail = "user@email.com";
+
+        Expenses expense1 = new Expenses(10, SubCategories.Category.Food, null,  "KFC");
+        expense1.setUser(user);
+        expense1.setId(1L);
+
+        Sort sort = Sort.by(Sort.Order.desc("expenseAmount"), Sort.Order.asc("id"));
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
+        when(expensesRepository.search(ArgumentMatchers.<Specification<Expenses>>any(), eq(sort), eq(LIMIT)))
+                .thenReturn(toDTOs(expense1));
+
+        // Act
+        CursorPage<ExpensesDTO> result = expensesService.searchExpenses(usernameOrEmail,
+                SearchFilter.builder().category("Food").build(), "amount:desc", LIMIT, null);
+
+        // Assert
+        assertEquals(toDTOs(expense1), result.getItems());
+        assertNull(result.getNextCursor());
+    }
+
+    @Test
+    @DisplayName("rejects invalid search conditions")
+    void testSearchExpensesInvalid() {
+        when(userService.getUserReference(user.getEmail())).thenReturn(user);
+
+        assertThrows(ValidationException.class, () -> expensesService.searchExpenses(user.getEmail(),
+                SearchFilter.builder().category("Invalid").build(), null, LIMIT, null));
+        assertThrows(ValidationException.class, () -> expensesService.searchExpenses(user.getEmail(),
+                SearchFilter.builder().minAmount(-1.0).build(), null, LIMIT, null));
+        assertThrows(ValidationException.class, () -> expensesService.searchExpenses(user.getEmail(),
+                SearchFilter.builder().endDate("2023-13-01").build(), null, LIMIT, null));
+        assertThrows(ValidationException.class, () -> expensesService.searchExpenses(user.getEmail(),
+                new SearchFilter(), "amount", LIMIT, "cursor"));
+        verify(expensesRepository, never()).search(any(), any(), anyInt());
+    }
+
+    @Test
+    @DisplayName("throws when no expenses match the search")
+    void testSearchExpensesNoMatch() {
+        when(userService.getUserReference(user.getEmail())).thenReturn(user);
+        when(expensesRepository.search(any(), any(), anyInt())).thenReturn(List.of());
+
+        assertThrows(EntityNotFoundException.class, () -> expensesService.searchExpenses(user.getEmail(),
+                SearchFilter.builder().subcategory("Groceries").build(), null, LIMIT, null));
+    }
+
+    private static List<ExpensesDTO> toDTOs(Expenses... expenses) {
+        return Arrays.stream(expenses).map(ExpensesMapper.INSTANCE::expensesDTO).toList();
+    }
 }
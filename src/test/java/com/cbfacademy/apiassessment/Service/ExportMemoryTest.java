@@ -0,0 +1,78 @@
+package com.cbfacademy.apiassessment.Service;
+
+import com.cbfacademy.apiassessment.DTO.ExportFormat;
+import com.cbfacademy.apiassessment.DTO.ExpensesDTO;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// Runs in the bounded-heap surefire execution, a forked JVM with a 64 MB heap that a million rows held at once
+// would not fit in. The pages come from a stub, so nothing but the export writer is measured
+@Tag("bounded-heap")
+public class ExportMemoryTest {
+
+    private static final int ROWS = 1_000_000;
+    private static final int PAGE_SIZE = 1_000;
+
+    @Test
+    @DisplayName("streams a million expenses in cursor order within a small heap")
+    void testWriteExpenses() throws Exception {
+        assumeTrue(Runtime.getRuntime().maxMemory() <= 128L * 1024 * 1024, "needs the bounded-heap execution");
+        ExportService exportService = new ExportService();
+        exportService.pageSize = PAGE_SIZE;
+        List<Long> pages = new ArrayList<>();
+        CountingWriter writer = new CountingWriter();
+
+        long rows = exportService.writeExpenses(ExportMemoryTest::nextPage, ExportFormat.JSON, writer, pages::add);
+
+        assertEquals(ROWS, rows);
+        // Each page is written before the next is read, so no more than a page of rows is held
+        assertEquals(ROWS / PAGE_SIZE, pages.size());
+        assertEquals(PAGE_SIZE, pages.get(0));
+        assertEquals(ROWS, writer.rows);
+        assertEquals(']', writer.last);
+    }
+
+    // The page after the last id written, rows are numbered from 1 so the ids check the cursor is followed
+    private static List<ExpensesDTO> nextPage(ExpensesDTO last) {
+        long from = last == null ? 1 : last.getId() + 1;
+        List<ExpensesDTO> page = new ArrayList<>(PAGE_SIZE);
+        for (long id = from; id < from + PAGE_SIZE && id <= ROWS; id++) {
+            page.add(new ExpensesDTO(id, 10.0, "Transport", "Fuel", "Fuel " + id, 1L));
+        }
+        return page;
+    }
+
+    // Discards what is written, counting the rows of the JSON array by their opening brace
+    private static class CountingWriter extends Writer {
+        private long rows;
+        private char last;
+
+        @Override
+        public void write(char[] chars, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                if (chars[i] == '{') {
+                    rows++;
+                }
+            }
+            if (length > 0) {
+                last = chars[offset + length - 1];
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
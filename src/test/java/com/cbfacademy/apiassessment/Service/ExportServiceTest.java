@@ -0,0 +1,340 @@
+package com.cbfacademy.apiassessment.Service;
+
+import com.cbfacademy.apiassessment.Cache.RequestLookups;
+import com.cbfacademy.apiassessment.Cache.SummaryCache;
+import com.cbfacademy.apiassessment.Cache.UserResolverCache;
+import com.cbfacademy.apiassessment.Columnar.ExpenseColumnsReader;
+import com.cbfacademy.apiassessment.DTO.ExportFormat;
+import com.cbfacademy.apiassessment.DTO.ExportJob;
+import com.cbfacademy.apiassessment.DTO.ExportStats;
+import com.cbfacademy.apiassessment.DTO.ExpensesDTO;
+import com.cbfacademy.apiassessment.Exceptions.TooManyExportsException;
+import com.google.gson.Gson;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityNotFoundException;
+import jakarta.validation.ValidationException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.transaction.TestTransaction;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// One worker and one export per user, so a blocked worker keeps the next export queued
+@DataJpaTest(properties = {
+        "spring.jpa.properties.hibernate.dialect=com.cbfacademy.apiassessment.Service.QueryCountTest$LedgerH2Dialect",
+        "pf.export.dir=target/export-test",
+        "pf.export.workers=1",
+        "pf.export.max-per-user=1",
+        "pf.export.page-size=500"
+})
+@Import({ExportService.class, UserService.class, UserDeletionService.class, ExpenseRollupService.class,
+        SummaryCache.class, UserResolverCache.class, RequestLookups.class})
+public class ExportServiceTest {
+
+    private static final Logger log = LoggerFactory.getLogger(ExportServiceTest.class);
+
+    private static final String USERNAME = "username";
+
+    @Autowired
+    private ExportService exportService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    // User and users both map the users table, so the user row is inserted directly with both id columns
+    @BeforeEach
+    void setUp() {
+        entityManager.createNativeQuery("INSERT INTO users (id, user_id, name, username, email, role, created_at) " +
+                "VALUES (1, 1, 'name', '" + USERNAME + "', 'user@email.com', 'USER', CURRENT_TIMESTAMP)").executeUpdate();
+    }
+
+    // Tests that commit their rows for the export workers remove them again
+    @AfterEach
+    void tearDown() {
+        if (!TestTransaction.isActive()) {
+            jdbcTemplate.update("DELETE FROM expenses WHERE user_id = 1");
+            jdbcTemplate.update("DELETE FROM users WHERE id = 1");
+        }
+    }
+
+    @Test
+    @DisplayName("writes an export job to its own file for download")
+    void testExportJob() throws Exception {
+        insertExpenses(1_200);
+        TestTransaction.flagForCommit();
+        TestTransaction.end();
+
+        ExportJob queued = exportService.exportExpenses(USERNAME, ExportFormat.JSON, false);
+        ExportJob job = awaitExport(queued.getJobId());
+
+        assertEquals(ExportJob.Status.COMPLETED, job.getStatus());
+        assertEquals(1_200, job.getRows());
+        Path file = exportService.getExportFile(job);
+        assertEquals(Files.size(file), job.getBytes());
+        assertEquals(1_200, new Gson().fromJson(Files.readString(file), ExpensesDTO[].class).length);
+        assertNotNull(job.getExpiresAt());
+
+        // Another user cannot read the export
+        assertThrows(EntityNotFoundException.class, () -> exportService.getUsersExport(job.getJobId()));
+    }
+
+    @Test
+    @DisplayName("sends the export file or the byte range asked for")
+    void testSendExportFile() throws Exception {
+        insertExpenses(300);
+        TestTransaction.flagForCommit();
+        TestTransaction.end();
+        ExportJob job = awaitExport(exportService.exportExpenses(USERNAME, ExportFormat.JSON, false).getJobId());
+        byte[] content = Files.readAllBytes(exportService.getExportFile(job));
+        String etag = "\"" + job.getJobId() + "\"";
+
+        MockHttpServletResponse whole = send(job, null, null);
+        assertEquals(200, whole.getStatus());
+        assertEquals("bytes", whole.getHeader(HttpHeaders.ACCEPT_RANGES));
+        assertEquals("attachment; filename=AllExpenses.json", whole.getHeader(HttpHeaders.CONTENT_DISPOSITION));
+        assertArrayEquals(content, whole.getContentAsByteArray());
+
+        // A resumed download gets the rest of the file from where it stopped
+        MockHttpServletResponse rest = send(job, "bytes=100-", etag);
+        assertEquals(206, rest.getStatus());
+        assertEquals("bytes 100-" + (content.length - 1) + "/" + content.length, rest.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertArrayEquals(Arrays.copyOfRange(content, 100, content.length), rest.getContentAsByteArray());
+
+        MockHttpServletResponse suffix = send(job, "bytes=-10", null);
+        assertArrayEquals(Arrays.copyOfRange(content, content.length - 10, content.length), suffix.getContentAsByteArray());
+
+        // An If-Range for another export gets the whole file
+        assertEquals(200, send(job, "bytes=100-", "\"other\"").getStatus());
+        MockHttpServletResponse outside = send(job, "bytes=" + content.length + "-", null);
+        assertEquals(416, outside.getStatus());
+        assertEquals("bytes */" + content.length, outside.getHeader(HttpHeaders.CONTENT_RANGE));
+
+        // Where the connector supports sendfile the range is left to it and nothing is written
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(HttpHeaders.RANGE, "bytes=10-19");
+        request.setAttribute(ExportService.SENDFILE_SUPPORT, Boolean.TRUE);
+        MockHttpServletResponse sendfile = new MockHttpServletResponse();
+        exportService.sendExportFile(job, "AllExpenses", request, sendfile);
+        assertEquals(206, sendfile.getStatus());
+        assertEquals(10, sendfile.getContentLengthLong());
+        assertEquals(10L, request.getAttribute(ExportService.SENDFILE_START));
+        assertEquals(20L, request.getAttribute(ExportService.SENDFILE_END));
+        assertEquals(0, sendfile.getContentAsByteArray().length);
+    }
+
+    @Test
+    @DisplayName("writes expenses as NDJSON and CSV")
+    void testWriteFormats() throws Exception {
+        insertExpenses(3);
+        jdbcTemplate.update("UPDATE expenses SET description = '=SUM(A1), \"total\"' WHERE id = 1000001");
+
+        StringWriter ndjson = new StringWriter();
+        assertEquals(3, exportService.writeExpenses(1L, ExportFormat.NDJSON, ndjson, rows -> {}));
+        String[] lines = ndjson.toString().split("\n");
+        assertEquals(3, lines.length);
+        assertEquals(1_000_002L, new Gson().fromJson(lines[2], ExpensesDTO.class).getId());
+
+        StringWriter csv = new StringWriter();
+        exportService.writeExpenses(1L, ExportFormat.CSV, csv, rows -> {});
+        String[] csvLines = csv.toString().split("\r\n");
+        assertEquals(4, csvLines.length);
+        assertEquals(String.join(",", ExportService.EXPENSE_COLUMNS), csvLines[0]);
+        assertTrue(csvLines[1].startsWith("1000000,"));
+        // The formula is disarmed and the cell quoted for its comma and quotes
+        assertTrue(csvLines[2].contains(",\"'=SUM(A1), \"\"total\"\"\","));
+
+        // The format parameter wins over the Accept header, which wins over the JSON default
+        assertEquals(ExportFormat.CSV, ExportFormat.resolve("csv", "application/x-ndjson"));
+        assertEquals(ExportFormat.NDJSON, ExportFormat.resolve(null, "application/x-ndjson, */*"));
+        assertEquals(ExportFormat.JSON, ExportFormat.resolve(null, "*/*"));
+        assertThrows(ValidationException.class, () -> ExportFormat.resolve("xml", null));
+    }
+
+    @Test
+    @DisplayName("round trips expenses through the columnar export in a fraction of the JSON size")
+    void testColumnarExport() throws Exception {
+        insertExpenses(20_000);
+        // Repeated descriptions, fractional amounts, missing subcategories and some updates, as real expenses have
+        jdbcTemplate.update("UPDATE expenses SET description = CONCAT('Fuel ', MOD(id, 25)), amount = 10 + MOD(id, 7) * 1.25, " +
+                "subcategory = CASE WHEN MOD(id, 5) = 0 THEN NULL ELSE subcategory END, " +
+                "updated_at = CASE WHEN MOD(id, 3) = 0 THEN DATEADD('MINUTE', 5, created_at) END");
+
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(json, StandardCharsets.UTF_8)) {
+            exportService.writeExpenses(1L, ExportFormat.JSON, writer, rows -> {});
+        }
+        ByteArrayOutputStream columns = new ByteArrayOutputStream();
+        assertEquals(20_000, exportService.writeExpenseColumns(1L, columns, rows -> {}));
+
+        long jsonStart = System.nanoTime();
+        ExpensesDTO[] expected = new Gson().fromJson(json.toString(StandardCharsets.UTF_8), ExpensesDTO[].class);
+        long jsonMillis = (System.nanoTime() - jsonStart) / 1_000_000;
+        long columnsStart = System.nanoTime();
+        List<ExpenseColumnsReader.Row> rows = new ArrayList<>();
+        try (ExpenseColumnsReader reader = new ExpenseColumnsReader(new ByteArrayInputStream(columns.toByteArray()))) {
+            assertEquals(1L, reader.getUserId());
+            for (ExpenseColumnsReader.Row row = reader.next(); row != null; row = reader.next()) {
+                rows.add(row);
+            }
+        }
+        long columnsMillis = (System.nanoTime() - columnsStart) / 1_000_000;
+        log.info("20000 expenses: JSON {} bytes parsed in {} ms, columnar {} bytes read in {} ms",
+                json.size(), jsonMillis, columns.size(), columnsMillis);
+
+        assertEquals(expected.length, rows.size());
+        for (int i = 0; i < expected.length; i++) {
+            ExpensesDTO expense = expected[i];
+            ExpenseColumnsReader.Row row = rows.get(i);
+            assertEquals(expense.getId(), row.id());
+            assertEquals(expense.getCreated().getTime(), row.createdAt());
+            assertEquals(expense.getUpdated() == null ? null : expense.getUpdated().getTime(), row.updatedAt());
+            assertEquals(expense.getAmount(), row.amount().doubleValue());
+            assertEquals(expense.getCategory(), row.category());
+            assertEquals(expense.getSubcategory(), row.subcategory());
+            assertEquals(expense.getDescription(), row.description());
+            assertEquals(expense.getBudget_id(), row.budgetId());
+        }
+        assertTrue(columns.size() * 5 < json.size());
+
+        // Budgets and users have no columnar layout
+        assertThrows(ValidationException.class, () -> exportService.exportBudgets(USERNAME, ExportFormat.COLUMNAR, false));
+        assertThrows(ValidationException.class, () -> exportService.streamUsers(ExportFormat.COLUMNAR, false));
+    }
+
+    @Test
+    @DisplayName("compresses a gzip export and reports its rate and ratio")
+    void testGzipExport() throws Exception {
+        insertExpenses(2_000);
+        TestTransaction.flagForCommit();
+        TestTransaction.end();
+
+        ExportJob job = awaitExport(exportService.exportExpenses(USERNAME, ExportFormat.CSV, true).getJobId());
+
+        assertEquals(ExportJob.Status.COMPLETED, job.getStatus());
+        Path file = exportService.getExportFile(job);
+        assertEquals(Files.size(file), job.getBytes());
+        String content;
+        try (GZIPInputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            content = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        assertEquals(job.getUncompressedBytes(), content.getBytes(StandardCharsets.UTF_8).length);
+        assertEquals(2_001, content.split("\r\n").length);
+        assertTrue(job.getCompressionRatio() > 1);
+        assertTrue(job.getBytesPerSecond() > 0);
+
+        ExportStats stats = exportService.stats();
+        assertTrue(stats.getCompleted() >= 1);
+        assertTrue(stats.getUncompressedBytes() > stats.getBytes());
+        assertEquals("attachment; filename=AllExpenses.csv.gz",
+                send(job, null, null).getHeader(HttpHeaders.CONTENT_DISPOSITION));
+    }
+
+    @Test
+    @DisplayName("limits the exports a user can run at once")
+    void testExportLimit() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        exportService.executor.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        ExportJob queued;
+        try {
+            queued = exportService.exportExpenses(USERNAME, ExportFormat.JSON, false);
+            assertEquals(ExportJob.Status.QUEUED, queued.getStatus());
+            assertThrows(TooManyExportsException.class, () -> exportService.exportBudgets(USERNAME, ExportFormat.JSON, false));
+            // The limit is per user, the users export is counted apart
+            assertEquals(ExportJob.Status.QUEUED, exportService.exportUsers(ExportFormat.JSON, false).getStatus());
+        } finally {
+            release.countDown();
+        }
+
+        // Once the queued export has finished the user can start another
+        awaitExport(queued.getJobId());
+        awaitExport(exportService.exportBudgets(USERNAME, ExportFormat.JSON, false).getJobId());
+    }
+
+    @Test
+    @DisplayName("removes expired exports with their files")
+    void testRemoveExpired() throws Exception {
+        exportService.ttlMinutes = 0;
+        try {
+            ExportJob job = awaitExport(exportService.exportExpenses(USERNAME, ExportFormat.JSON, false).getJobId());
+            Path file = exportService.getExportFile(job);
+
+            exportService.removeExpired();
+
+            assertFalse(Files.exists(file));
+            assertThrows(EntityNotFoundException.class, () -> exportService.getExport(USERNAME, job.getJobId()));
+        } finally {
+            exportService.ttlMinutes = 60;
+        }
+    }
+
+    private MockHttpServletResponse send(ExportJob job, String range, String ifRange) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        if (range != null) {
+            request.addHeader(HttpHeaders.RANGE, range);
+        }
+        if (ifRange != null) {
+            request.addHeader(HttpHeaders.IF_RANGE, ifRange);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        exportService.sendExportFile(job, "AllExpenses", request, response);
+        return response;
+    }
+
+    private ExportJob awaitExport(String jobId) throws InterruptedException {
+        for (int i = 0; i < 300; i++) {
+            ExportJob job = exportService.getExport(USERNAME, jobId);
+            if (job.getStatus() == ExportJob.Status.COMPLETED || job.getStatus() == ExportJob.Status.FAILED) {
+                return job;
+            }
+            Thread.sleep(100);
+        }
+        return fail("Export did not finish");
+    }
+
+    private void insertExpenses(int count) {
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+        List<Object[]> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            rows.add(new Object[]{1_000_000L + i, 10.0, "Transport", "Fuel", "Fuel " + i, 1L,
+                    Timestamp.valueOf(start.plusSeconds(i))});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO expenses (id, amount, category, subcategory, description, user_id, created_at) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?)", rows);
+    }
+}
@@ -0,0 +1,107 @@
+package com.cbfacademy.apiassessment.Service;
+
+import com.cbfacademy.apiassessment.Cache.SummaryCache;
+import com.cbfacademy.apiassessment.DTO.BudgetSpend;
+import com.cbfacademy.apiassessment.DTO.LedgerReconciliationReport;
+import com.cbfacademy.apiassessment.Entity.Budget;
+import com.cbfacademy.apiassessment.Entity.SubCategories;
+import com.cbfacademy.apiassessment.Entity.User;
+import com.cbfacademy.apiassessment.Repository.BudgetRepository;
+import jakarta.validation.ValidationException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@DisplayName("The Ledger Reconciliation Service")
+public class LedgerReconciliationServiceTest {
+
+    @InjectMocks
+    private LedgerReconciliationService ledgerReconciliationService;
+
+    @Mock
+    private BudgetRepository budgetRepository;
+    @Mock
+    private TransactionTemplate transactionTemplate;
+    @Mock
+    private SummaryCache summaryCache;
+
+    private Budget budget1;
+    private Budget budget2;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.initMocks(this);
+
+        when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+
+        budget1 = new Budget(120, SubCategories.Category.Food, SubCategories.Restaurant, "Food");
+        budget1.setId(1L);
+        budget1.setSpent(8.98);
+        budget1.setExpenseCount(2);
+        budget1.setUser(user(1L));
+
+        budget2 = new Budget(400, SubCategories.Category.Savings, SubCategories.Basic, "From Weekend Bar Shift");
+        budget2.setId(2L);
+        budget2.setSpent(50);
+        budget2.setExpenseCount(1);
+        budget2.setUser(user(2L));
+    }
+
+    @Test
+    @DisplayName("corrects ledgers that drifted from the expense rows")
+    void testReconcileBudgetLedgers() {
+        // Arrange
+        when(budgetRepository.findChunkAfterIdForUpdate(eq(0L), any(Pageable.class)))
+                .thenReturn(Arrays.asList(budget1, budget2));
+        when(budgetRepository.findChunkAfterIdForUpdate(eq(2L), any(Pageable.class)))
+                .thenReturn(Collections.emptyList());
+        when(budgetRepository.findBudgetSpendByIds(Arrays.asList(1L, 2L))).thenReturn(Arrays.asList(
+                new BudgetSpend(1L, 120.0, SubCategories.Category.Food, SubCategories.Restaurant, 8.98, 2L),
+                new BudgetSpend(2L, 400.0, SubCategories.Category.Savings, SubCategories.Basic, 100.0, 1L)));
+
+        // Act
+        LedgerReconciliationReport report = ledgerReconciliationService.reconcileBudgetLedgers(500);
+
+        // Assert
+        assertEquals(2, report.getBudgetsChecked());
+        assertEquals(1, report.getBudgetsCorrected());
+        assertEquals(1, report.getChunksProcessed());
+        assertEquals(2L, report.getDrift().get(0).getBudgetId());
+        assertEquals(50, report.getDrift().get(0).getLedgerSpent());
+        assertEquals(100, report.getDrift().get(0).getActualSpent());
+        verify(budgetRepository, times(1)).setLedger(2L, 100, 1);
+        // Only the corrected budget's user gets fresh totals, after its chunk committed
+        InOrder inOrder = inOrder(transactionTemplate, summaryCache);
+        inOrder.verify(transactionTemplate).execute(any());
+        inOrder.verify(summaryCache).evict(2L);
+        verify(summaryCache, never()).evict(1L);
+        verify(budgetRepository, never()).setLedger(eq(1L), anyDouble(), anyLong());
+    }
+
+    @Test
+    @DisplayName("rejects an invalid chunk size")
+    void testReconcileInvalidChunkSize() {
+        assertThrows(ValidationException.class, () -> ledgerReconciliationService.reconcileBudgetLedgers(0));
+    }
+
+    private static User user(Long id) {
+        User user = new User("name", "username" + id, "user" + id + "@email.com");
+        user.setId(id);
+        return user;
+    }
+}
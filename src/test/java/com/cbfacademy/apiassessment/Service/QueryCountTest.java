@@ -0,0 +1,262 @@
+package com.cbfacademy.apiassessment.Service;
+
+import com.cbfacademy.apiassessment.Cache.RequestLookups;
+import com.cbfacademy.apiassessment.Cache.SummaryCache;
+import com.cbfacademy.apiassessment.Cache.UserResolverCache;
+import com.cbfacademy.apiassessment.DTO.BulkBudgetUpdate;
+import com.cbfacademy.apiassessment.DTO.BulkExpenseUpdate;
+import com.cbfacademy.apiassessment.DTO.BulkSelection;
+import com.cbfacademy.apiassessment.DTO.SearchFilter;
+import com.cbfacademy.apiassessment.Entity.Budget;
+import com.cbfacademy.apiassessment.Entity.Expenses;
+import com.cbfacademy.apiassessment.Entity.SubCategories;
+import com.cbfacademy.apiassessment.Entity.User;
+import com.cbfacademy.apiassessment.Repository.BudgetRepository;
+import com.cbfacademy.apiassessment.Repository.ExpensesRepository;
+import com.cbfacademy.apiassessment.Repository.UserRepository;
+import jakarta.persistence.EntityManager;
+import org.hibernate.SessionFactory;
+import org.hibernate.dialect.H2Dialect;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+
+import java.sql.Types;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Runs the services against the embedded database and counts the SQL statements of each method,
+// so an association that starts loading eagerly again shows up as extra statements
+@DataJpaTest(properties = {
+        "spring.jpa.properties.hibernate.dialect=com.cbfacademy.apiassessment.Service.QueryCountTest$LedgerH2Dialect",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@Import({ExpensesService.class, BudgetService.class, ChangeFeedService.class, UserService.class, UserDeletionService.class,
+        ExpenseRollupService.class, SummaryCache.class, UserResolverCache.class, RequestLookups.class})
+public class QueryCountTest {
+
+    private static final String USERNAME = "username";
+    private static final int LIMIT = 50;
+
+    @Autowired
+    private ExpensesService expensesService;
+
+    @Autowired
+    private BudgetService budgetService;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private UserResolverCache userResolverCache;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private BudgetRepository budgetRepository;
+
+    @Autowired
+    private ExpensesRepository expensesRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    private Statistics statistics;
+    private long budgetId;
+    private long otherBudgetId;
+    private long expenseId;
+
+    // User and users both map the users table, so the user row is inserted directly with both id columns
+    @BeforeEach
+    void setUp() {
+        entityManager.createNativeQuery("INSERT INTO users (id, user_id, name, username, email, role, created_at) " +
+                "VALUES (1, 1, 'name', '" + USERNAME + "', 'user@email.com', 'USER', CURRENT_TIMESTAMP)").executeUpdate();
+        User user = userRepository.findByUsername(USERNAME).orElseThrow();
+
+        Budget budget = new Budget(200, SubCategories.Category.Transport, SubCategories.Fuel, "Fuel");
+        budget.setUser(user);
+        budgetId = budgetRepository.save(budget).getId();
+
+        Budget otherBudget = new Budget(100, SubCategories.Category.Transport, SubCategories.Fuel, "More Fuel");
+        otherBudget.setUser(user);
+        otherBudgetId = budgetRepository.save(otherBudget).getId();
+
+        for (int i = 0; i < 3; i++) {
+            Expenses expenses = new Expenses(10 + i, SubCategories.Category.Transport, SubCategories.Fuel, "Fuel " + i);
+            expenses.setUser(user);
+            expenses.setBudget(budget);
+            Expenses saved = expensesRepository.save(expenses);
+            expenseId = saved.getId();
+        }
+
+        // The caller is resolved from the cache in every counted call, as it is once a user is active
+        userResolverCache.evict(USERNAME);
+        userService.getUserReference(USERNAME);
+
+        entityManager.flush();
+        entityManager.clear();
+        statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+    }
+
+    @Test
+    @DisplayName("resolving a user takes at most one query for the username or email")
+    void testGetUser() {
+        assertStatements(0, () -> userService.getUserReference(USERNAME));
+        assertStatements(1, () -> userService.getUserByUsernameOrEmail(USERNAME));
+        userResolverCache.evict(USERNAME);
+        assertStatements(1, () -> userService.getUserReference(USERNAME));
+        userResolverCache.evict(USERNAME);
+        assertStatements(2, () -> userService.getUserByUsernameOrEmail(USERNAME));
+    }
+
+    @Test
+    @DisplayName("saving an expense against a budget does not load the user's other data")
+    void testSaveExpensesWithBudget() {
+        // budget, insert, ledger update, one lookup of the stored rollup buckets, day and month rollup locks and
+        // updates. The missing buckets are inserted with JDBC and not counted here
+        assertStatements(8, () -> expensesService.saveExpenses(USERNAME, budgetId,
+                new Expenses(5, SubCategories.Category.Transport, SubCategories.Fuel, "Fuel")));
+    }
+
+    @Test
+    @DisplayName("saving an expense without a budget does not load the user's other data")
+    void testSaveExpenses() {
+        assertStatements(6, () -> expensesService.saveExpenses(USERNAME,
+                new Expenses(5, SubCategories.Category.Transport, SubCategories.Fuel, "Fuel")));
+    }
+
+    @Test
+    @DisplayName("updating an expense loads its budget in the same query")
+    void testUpdateExpenses() {
+        // expense with budget, update, the ledger is untouched while the budget and amount stay the same
+        assertStatements(2, () -> expensesService.updateExpensesByID(USERNAME, expenseId, "description", "Diesel"));
+        // Several fields are one UPDATE, an unchanged value writes nothing
+        assertStatements(2, () -> expensesService.patchExpense(USERNAME, expenseId,
+                Map.of("description", "Petrol", "amount", 12)));
+        assertStatements(1, () -> expensesService.updateExpensesByID(USERNAME, expenseId, "subcategory", "Fuel"));
+    }
+
+    @Test
+    @DisplayName("moving an expense to another budget does not load either budget's expenses")
+    void testUpdateExpensesBudget() {
+        assertStatements(5, () -> expensesService.updateExpensesByID(USERNAME, expenseId, "budget", String.valueOf(otherBudgetId)));
+    }
+
+    @Test
+    @DisplayName("getting an expense does not load its user or budget")
+    void testGetExpenses() {
+        assertStatements(1, () -> expensesService.getExpensesById(USERNAME, expenseId));
+        assertStatements(1, () -> expensesService.getExpensesDTOById(USERNAME, expenseId));
+    }
+
+    @Test
+    @DisplayName("listing expenses runs one query per page")
+    void testListExpenses() {
+        assertStatements(1, () -> expensesService.getAllExpenses(USERNAME, LIMIT, null));
+        assertStatements(2, () -> expensesService.getExpensesByBudget(USERNAME, budgetId, LIMIT, null));
+        assertStatements(1, () -> expensesService.getExpensesByCategory(USERNAME, "Transport", LIMIT, null));
+        assertStatements(1, () -> expensesService.getExpensesInPriceRange(USERNAME, 1, 100, LIMIT, null));
+        assertStatements(1, () -> expensesService.getExpensesGreaterThan(USERNAME, 1, LIMIT, null));
+        assertStatements(1, () -> expensesService.getExpensesLessThan(USERNAME, 100, LIMIT, null));
+        assertStatements(1, () -> expensesService.getExpensesInDateRange(USERNAME, "2000-01-01", "2100-01-01", LIMIT, null));
+        assertStatements(1, () -> expensesService.getExpensesBefore(USERNAME, "2100-01-01", LIMIT, null));
+        assertStatements(1, () -> expensesService.getExpensesAfter(USERNAME, "2000-01-01", LIMIT, null));
+        assertStatements(1, () -> expensesService.searchExpenses(USERNAME,
+                SearchFilter.builder().category("Transport").build(), null, LIMIT, null));
+        assertStatements(1, () -> expensesService.sortExpensesBy(USERNAME, "amount", LIMIT));
+    }
+
+    @Test
+    @DisplayName("deleting an expense does not load its budget")
+    void testDeleteExpense() {
+        // expense, ledger update, day and month rollup lookups, delete
+        assertStatements(5, () -> expensesService.deleteExpense(USERNAME, expenseId));
+    }
+
+    @Test
+    @DisplayName("saving a budget does not load the user's other data")
+    void testSaveBudget() {
+        assertStatements(1, () -> budgetService.saveBudget(USERNAME,
+                new Budget(50, SubCategories.Category.Transport, SubCategories.Fuel, "Fuel")));
+    }
+
+    @Test
+    @DisplayName("updating a budget does not load its expenses")
+    void testUpdateBudget() {
+        assertStatements(2, () -> budgetService.updateBudgetByID(USERNAME, budgetId, "description", "Petrol"));
+        // budget and one UPDATE for every field
+        assertStatements(2, () -> budgetService.patchBudget(USERNAME, budgetId,
+                Map.of("amount", 250, "category", "Transport", "subcategory", "Fuel", "description", "Diesel")));
+    }
+
+    @Test
+    @DisplayName("getting a budget does not load its user or expenses")
+    void testGetBudget() {
+        assertStatements(1, () -> budgetService.getBudgetById(USERNAME, budgetId));
+        assertStatements(1, () -> budgetService.getBudgetDTOById(USERNAME, budgetId));
+    }
+
+    @Test
+    @DisplayName("listing budgets runs one query per page")
+    void testListBudgets() {
+        assertStatements(1, () -> budgetService.getAllBudgets(USERNAME, LIMIT, null));
+        assertStatements(1, () -> budgetService.getBudgetsByCategory(USERNAME, "Transport", LIMIT, null));
+        assertStatements(1, () -> budgetService.getBudgetsInPriceRange(USERNAME, 1, 1000, LIMIT, null));
+        assertStatements(1, () -> budgetService.getBudgetsGreaterThan(USERNAME, 1, LIMIT, null));
+        assertStatements(1, () -> budgetService.getBudgetsLessThan(USERNAME, 1000, LIMIT, null));
+        assertStatements(1, () -> budgetService.getBudgetsByDateRange(USERNAME, "2000-01-01", "2100-01-01", LIMIT, null));
+        assertStatements(1, () -> budgetService.getBudgetsBefore(USERNAME, "2100-01-01", LIMIT, null));
+        assertStatements(1, () -> budgetService.getBudgetsAfter(USERNAME, "2000-01-01", LIMIT, null));
+        assertStatements(1, () -> budgetService.searchBudgets(USERNAME,
+                SearchFilter.builder().category("Transport").build(), null, LIMIT, null));
+        assertStatements(1, () -> budgetService.sortBudgetsBy(USERNAME, "amount", LIMIT));
+    }
+
+    @Test
+    @DisplayName("deleting a budget deletes its expenses without loading them")
+    void testDeleteBudget() {
+        // the locked budget and expense ids, one grouped query over the expenses, expense delete, budget delete,
+        // the daily and monthly rollups of the deleted expenses are locked with one query each
+        assertStatements(7, () -> budgetService.deleteBudget(USERNAME, budgetId));
+    }
+
+    @Test
+    @DisplayName("bulk changes run as single statements whatever the number of rows")
+    void testBulkChanges() {
+        // count and update, the category check is a subquery of the update
+        assertStatements(2, () -> expensesService.bulkUpdateExpenses(USERNAME, new BulkExpenseUpdate(
+                SearchFilter.builder().category("Transport").build(), null, null, null, "Diesel")));
+        assertStatements(2, () -> budgetService.bulkUpdateBudgets(USERNAME, new BulkBudgetUpdate(
+                null, List.of(budgetId, otherBudgetId), null, "Food", null, null)));
+        // the locked expense and budget ids for the change feed, one grouped query over the expenses, expense delete,
+        // budget delete, the daily and monthly rollups they touched are locked with one query each. The tombstones
+        // are a JDBC batch and not counted here
+        assertStatements(7, () -> budgetService.bulkDeleteBudgets(USERNAME, new BulkSelection(
+                SearchFilter.builder().description("fuel").build(), null)));
+    }
+
+    // Starts from an empty persistence context like a new request, and flushes so pending writes are counted
+    private void assertStatements(long expected, Runnable serviceCall) {
+        entityManager.clear();
+        statistics.clear();
+        serviceCall.run();
+        entityManager.flush();
+        assertEquals(expected, statistics.getPrepareStatementCount());
+    }
+
+    // H2Dialect renders a parameter cast to double as float($p) without filling in the precision,
+    // which breaks the relative ledger updates on H2 only
+    public static class LedgerH2Dialect extends H2Dialect {
+        @Override
+        protected String columnType(int sqlTypeCode) {
+            return sqlTypeCode == Types.FLOAT || sqlTypeCode == Types.DOUBLE ? "double precision" : super.columnType(sqlTypeCode);
+        }
+    }
+}
@@ -1,24 +1,27 @@
 package com.cbfacademy.apiassessment.Service;
 
+import com.cbfacademy.apiassessment.Cache.SummaryCache;
 
 import com.cbfacademy.apiassessment.DTO.*;
-import com.cbfacademy.apiassessment.Entity.Budget;
-import com.cbfacademy.apiassessment.Entity.Expenses;
 import com.cbfacademy.apiassessment.Entity.SubCategories;
 import com.cbfacademy.apiassessment.Entity.User;
+import com.cbfacademy.apiassessment.Repository.BudgetRepository;
+import com.cbfacademy.apiassessment.Repository.ExpensesRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.mockito.Mockito.when;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.*;
 
 @DisplayName("The Summary Service can")
 public class SummaryServiceTest {
@@ -26,54 +29,27 @@ public class SummaryServiceTest {
     private SummaryService summaryService;
 
     @Mock
-    private BudgetService budgetService;
+    private UserService userService;
     @Mock
-    private ExpensesService expensesService;
+    private BudgetRepository budgetRepository;
+    @Mock
+    private ExpensesRepository expensesRepository;
+    @Spy
+    private SummaryCache summaryCache = new SummaryCache(100, 60);
 
 
-    private Budget budget1;
-    private Budget budget2;
-    private Expenses updatedExpense1;
-    private Expenses updatedExpense2;
-    private Expenses updatedExpense3;
+    private User user;
 
 
     @BeforeEach
     void setUp() {
         MockitoAnnotations.initMocks(this);
-        User user = User.builder().
+        user = User.builder().
                 username("tester").
                 name("Test User").
                 email("user@email.com").
                 build();
         user.setId(1L);
-
-        budget1 = new Budget(120, SubCategories.Category.Food, SubCategories.Restaurant, "Food");
-        budget1.setUser(user);
-        budget1.setId(1L);
-
-
-        budget2 = new Budget(400, SubCategories.Category.Savings, SubCategories.Basic, "From Weekend Bar Shift");
-        budget2.setUser(user);
-        budget2.setId(2L);
-
-        updatedExpense1 = new Expenses(100, SubCategories.Category.Savings, SubCategories.Basic, "From 1st week Salary");
-        updatedExpense1.setUser(user);
-        updatedExpense1.setBudget(budget2);
-        updatedExpense1.setId(1L);
-
-
-        updatedExpense2 = new Expenses(5.49, SubCategories.Category.Food, SubCategories.Restaurant,  "KFC");
-        updatedExpense2.setUser(user);
-        updatedExpense1.setBudget(budget1);
-        updatedExpense2.setId(2L);
-
-
-        updatedExpense3 = new Expenses(3.49, SubCategories.Category.Food, SubCategories.Restaurant,  "Kebab Shop");
-        updatedExpense3.setUser(user);
-        updatedExpense1.setBudget(budget1);
-        updatedExpense3.setId(3L);
-
     }
 
 
@@ -83,16 +59,13 @@ public class SummaryServiceTest {
         // Arrange
         String usernameOrEmail = "user@email.com";
 
-        List<Budget> budgets = Arrays.asList(budget1, budget2);
-        List<Expenses> expensesForBudget1 = Arrays.asList(updatedExpense2, updatedExpense3);
-        List<Expenses> expensesForBudget2 = Collections.singletonList(updatedExpense1);
-        List<Expenses> expenses = Arrays.asList(updatedExpense1, updatedExpense2, updatedExpense3);
-
+        List<BudgetSpend> budgetSpend = Arrays.asList(
+                new BudgetSpend(1L, 120.0, SubCategories.Category.Food, SubCategories.Restaurant, 8.98, 2L),
+                new BudgetSpend(2L, 400.0, SubCategories.Category.Savings, SubCategories.Basic, 100.0, 1L));
 
-        when(budgetService.getAllBudgets(usernameOrEmail)).thenReturn(budgets);
-        when(expensesService.getAllExpenses(usernameOrEmail)).thenReturn(expenses);
-        when(expensesService.getExpensesByBudget(usernameOrEmail, 1L)).thenReturn(expensesForBudget1);
-        when(expensesService.getExpensesByBudget(usernameOrEmail, 2L)).thenReturn(expensesForBudget2);
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
+        when(budgetRepository.findBudgetLedgerByUser(user)).thenReturn(budgetSpend);
+        when(expensesRepository.sumExpenseAmountByUser(user)).thenReturn(108.98);
 
 
         // Act
@@ -100,6 +73,7 @@ public class SummaryServiceTest {
 
         // Assert
         assertEquals(108.98, result.getTotalExpensesAmount());
+        assertEquals(520, result.getTotalBudgetAmount());
         assertEquals(2, result.getBudgetSummaries().size());
 
         BudgetSummary budgetSummary1 = result.getBudgetSummaries().get(0);
@@ -115,5 +89,55 @@ public class SummaryServiceTest {
         assertEquals("Basic", budgetSummary2.getBudgetSubcategory());
         assertEquals(400, budgetSummary2.getBudgetAmount());
         assertEquals(300, budgetSummary2.getAmountLeft());
+
+        // Verify the summary is built from the aggregate queries only
+        verify(budgetRepository, times(1)).findBudgetLedgerByUser(user);
+        verify(expensesRepository, times(1)).sumExpenseAmountByUser(user);
+    }
+
+    @Test
+    @DisplayName("can get summary when a budget has no expenses")
+    void testGetSummaryBudgetWithoutExpenses(){
+        // Arrange
+        String usernameOrEmail = "user@email.com";
+
+        List<BudgetSpend> budgetSpend = Collections.singletonList(
+                new BudgetSpend(1L, 120.0, SubCategories.Category.Food, null, 0.0, 0L));
+
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
+        when(budgetRepository.findBudgetLedgerByUser(user)).thenReturn(budgetSpend);
+        when(expensesRepository.sumExpenseAmountByUser(user)).thenReturn(0.0);
+
+        // Act
+        Summary result = summaryService.getSummary(usernameOrEmail);
+
+        // Assert
+        assertEquals(0, result.getTotalExpensesAmount());
+        assertEquals(1, result.getBudgetSummaries().size());
+        assertNull(result.getBudgetSummaries().get(0).getBudgetSubcategory());
+        assertEquals(120, result.getBudgetSummaries().get(0).getAmountLeft());
+    }
+
+    @Test
+    @DisplayName("serves a repeated summary from the cache until the user's data changes")
+    void testGetSummaryCached(){
+        // Arrange
+        String usernameOrEmail = "user@email.com";
+
+        when(userService.getUserReference(usernameOrEmail)).thenReturn(user);
+        when(budgetRepository.findBudgetLedgerByUser(user)).thenReturn(Collections.emptyList());
+        when(expensesRepository.sumExpenseAmountByUser(user)).thenReturn(10.0);
+
+        // Act
+        summaryService.getSummary(usernameOrEmail);
+        summaryService.getSummary(usernameOrEmail);
+        summaryCache.evict(user.getId());
+        summaryService.getSummary(usernameOrEmail);
+
+        // Assert
+        verify(budgetRepository, times(2)).findBudgetLedgerByUser(user);
+        assertEquals(1, summaryCache.stats().getHits());
+        assertEquals(2, summaryCache.stats().getMisses());
+        assertEquals(1, summaryCache.stats().getInvalidations());
     }
 }
@@ -0,0 +1,149 @@
+package com.cbfacademy.apiassessment.Service;
+
+import com.cbfacademy.apiassessment.Cache.RequestLookups;
+import com.cbfacademy.apiassessment.Cache.SummaryCache;
+import com.cbfacademy.apiassessment.Cache.UserResolverCache;
+import com.cbfacademy.apiassessment.DTO.UserDeletionJob;
+import com.cbfacademy.apiassessment.Entity.Budget;
+import com.cbfacademy.apiassessment.Entity.DeletedRow;
+import com.cbfacademy.apiassessment.Entity.Expenses;
+import com.cbfacademy.apiassessment.Entity.SubCategories;
+import com.cbfacademy.apiassessment.Repository.BudgetRepository;
+import com.cbfacademy.apiassessment.Repository.DeletedRowRepository;
+import com.cbfacademy.apiassessment.Repository.ExpenseRollupRepository;
+import com.cbfacademy.apiassessment.Repository.ExpensesRepository;
+import com.cbfacademy.apiassessment.Repository.UserRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityNotFoundException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The chunks are two rows so the five expenses and three budgets take several, the inline limit keeps the
+// deletion on the test thread where it joins the test transaction
+@DataJpaTest(properties = {
+        "spring.jpa.properties.hibernate.dialect=com.cbfacademy.apiassessment.Service.QueryCountTest$LedgerH2Dialect",
+        "pf.user-deletion.chunk-size=2",
+        "pf.user-deletion.inline-limit=100"
+})
+@Import({UserDeletionService.class, UserService.class, ExpensesService.class, BudgetService.class, ChangeFeedService.class,
+        ExpenseRollupService.class, SummaryCache.class, UserResolverCache.class, RequestLookups.class})
+public class UserDeletionServiceTest {
+
+    private static final String USERNAME = "username";
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private UserDeletionService userDeletionService;
+
+    @Autowired
+    private ExpensesService expensesService;
+
+    @Autowired
+    private BudgetService budgetService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ExpensesRepository expensesRepository;
+
+    @Autowired
+    private BudgetRepository budgetRepository;
+
+    @Autowired
+    private ExpenseRollupRepository expenseRollupRepository;
+
+    @Autowired
+    private DeletedRowRepository deletedRowRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    // User and users both map the users table, so the user rows are inserted directly with both id columns
+    @BeforeEach
+    void setUp() {
+        entityManager.createNativeQuery("INSERT INTO users (id, user_id, name, username, email, role, created_at) " +
+                "VALUES (1, 1, 'name', '" + USERNAME + "', 'user@email.com', 'USER', CURRENT_TIMESTAMP)").executeUpdate();
+        entityManager.createNativeQuery("INSERT INTO users (id, user_id, name, username, email, role, created_at) " +
+                "VALUES (2, 2, 'other', 'other', 'other@email.com', 'USER', CURRENT_TIMESTAMP)").executeUpdate();
+
+        long budgetId = 0;
+        for (int i = 0; i < 3; i++) {
+            budgetId = budgetService.saveBudget(USERNAME,
+                    new Budget(100, SubCategories.Category.Transport, SubCategories.Fuel, "Fuel " + i)).getId();
+        }
+        for (int i = 0; i < 5; i++) {
+            expensesService.saveExpenses(USERNAME, budgetId,
+                    new Expenses(10, SubCategories.Category.Transport, SubCategories.Fuel, "Fuel " + i));
+        }
+        budgetService.saveBudget("other", new Budget(50, SubCategories.Category.Food, null, "Food"));
+        expensesService.saveExpenses("other", new Expenses(5, SubCategories.Category.Food, null, "Lunch"));
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    @Test
+    @DisplayName("deletes the expenses, budgets, rollups and user in chunks")
+    void testDeleteUser() {
+        UserDeletionJob job = userService.deleteUser(USERNAME);
+        entityManager.flush();
+        entityManager.clear();
+
+        assertEquals(UserDeletionJob.Status.COMPLETED, job.getStatus());
+        assertEquals(5, job.getExpensesTotal());
+        assertEquals(5, job.getExpensesDeleted());
+        assertEquals(3, job.getBudgetsTotal());
+        assertEquals(3, job.getBudgetsDeleted());
+        assertTrue(job.getRollupsDeleted() > 0);
+        // Two chunks of expenses, one of budgets and the last transaction with the remaining rows
+        assertEquals(4, job.getChunksCommitted());
+        assertNotNull(job.getFinishedAt());
+
+        assertFalse(userRepository.existsById(1L));
+        assertEquals(0, expensesRepository.countByUserId(1L));
+        assertEquals(0, budgetRepository.countByUserId(1L));
+        assertEquals(0, expenseRollupRepository.deleteByUserId(1L));
+        assertEquals(job, userService.getUserDeletion(job.getJobId()));
+        // A single tombstone stands for the user's rows in the change feed
+        assertEquals(List.of(DeletedRow.Type.USER), deletedRowRepository.findAll().stream().map(DeletedRow::getEntityType).toList());
+        assertEquals(1L, deletedRowRepository.findAll().get(0).getEntityId());
+
+        // The other user's rows are kept
+        assertTrue(userRepository.existsById(2L));
+        assertEquals(1, expensesRepository.countByUserId(2L));
+        assertEquals(1, budgetRepository.countByUserId(2L));
+    }
+
+    @Test
+    @DisplayName("evicts the user's names once a background deletion removed the user row")
+    void testBackgroundDeleteEvictsUser() {
+        // A request between queueing the job and its last transaction caches the user again
+        assertNotNull(userService.getUserReference(USERNAME));
+        UserDeletionJob job = UserDeletionJob.builder().jobId("job").userId(1L).chunkSize(2).build();
+
+        userDeletionService.run(job, USERNAME, "user@email.com");
+        entityManager.flush();
+        entityManager.clear();
+
+        assertEquals(UserDeletionJob.Status.COMPLETED, job.getStatus());
+        assertThrows(EntityNotFoundException.class, () -> userService.getUserReference(USERNAME));
+        assertThrows(EntityNotFoundException.class, () -> userService.getUserReference("user@email.com"));
+    }
+
+    @Test
+    @DisplayName("throws for unknown users and deletion jobs")
+    void testDeleteUserNotFound() {
+        assertThrows(EntityNotFoundException.class, () -> userService.deleteUser("missing"));
+        assertThrows(EntityNotFoundException.class, () -> userService.getUserDeletion("missing"));
+    }
+}
@@ -0,0 +1,71 @@
+package com.cbfacademy.apiassessment.Service;
+
+import com.cbfacademy.apiassessment.Cache.RequestLookups;
+import com.cbfacademy.apiassessment.Cache.SummaryCache;
+import com.cbfacademy.apiassessment.Cache.UserResolverCache;
+import com.cbfacademy.apiassessment.DTO.CursorPage;
+import com.cbfacademy.apiassessment.DTO.UserDTO;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Pages through the users with the prefix queries run by the embedded database
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.dialect=com.cbfacademy.apiassessment.Service.QueryCountTest$LedgerH2Dialect")
+@Import({UserService.class, UserDeletionService.class, ExpenseRollupService.class, SummaryCache.class,
+        UserResolverCache.class, RequestLookups.class})
+public class UserListingTest {
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    // User and users both map the users table, so the user rows are inserted directly with both id columns
+    @BeforeEach
+    void setUp() {
+        String[][] users = {{"ann", "Ann Lee"}, {"anna", "Anna Lee"}, {"ann_b", "Ann Lee"}, {"annxb", "Ann Lee"}, {"bob", "Bob"}};
+        for (int i = 0; i < users.length; i++) {
+            entityManager.createNativeQuery("INSERT INTO users (id, user_id, name, username, email, role, created_at) " +
+                    "VALUES (" + (i + 1) + ", " + (i + 1) + ", '" + users[i][1] + "', '" + users[i][0] + "', '" +
+                    users[i][0] + "@email.com', 'USER', CURRENT_TIMESTAMP)").executeUpdate();
+        }
+    }
+
+    @Test
+    @DisplayName("pages through every user in id order")
+    void testListUsers() {
+        assertEquals(List.of("ann", "anna", "ann_b", "annxb", "bob"), usernames(null, "username", 2));
+    }
+
+    @Test
+    @DisplayName("pages through the users whose field starts with the prefix")
+    void testSearchUsers() {
+        assertEquals(List.of("ann", "ann_b", "anna", "annxb"), usernames("ann", "username", 3));
+        // The underscore is matched as itself, not as any character
+        assertEquals(List.of("ann_b"), usernames("ann_", "username", 3));
+        assertEquals(List.of("bob"), usernames("bob@", "email", 3));
+        // Names are not unique, the id orders users with the same name across pages
+        assertEquals(List.of("ann", "ann_b", "annxb"), usernames("Ann Lee", "name", 1));
+    }
+
+    private List<String> usernames(String search, String field, int limit) {
+        List<String> usernames = new ArrayList<>();
+        String after = null;
+        do {
+            CursorPage<UserDTO> page = userService.getUsers(search, field, limit, after);
+            page.getItems().forEach(user -> usernames.add(user.getUsername()));
+            after = page.getNextCursor();
+        } while (after != null);
+        return usernames;
+    }
+}
@@ -2,16 +2,29 @@ package com.cbfacademy.apiassessment.Service;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import com.cbfacademy.apiassessment.Cache.RequestLookups;
+import com.cbfacademy.apiassessment.Cache.SummaryCache;
+import com.cbfacademy.apiassessment.Cache.UserResolverCache;
+import com.cbfacademy.apiassessment.DTO.CursorPage;
+import com.cbfacademy.apiassessment.DTO.UserCursor;
+import com.cbfacademy.apiassessment.DTO.UserDTO;
+import com.cbfacademy.apiassessment.DTO.UserIdentity;
+import com.cbfacademy.apiassessment.DTO.UserRow;
 import com.cbfacademy.apiassessment.Entity.User;
+import com.cbfacademy.apiassessment.Entity.UserRoles;
 import com.cbfacademy.apiassessment.Repository.UserRepository;
+import jakarta.persistence.EntityNotFoundException;
+import jakarta.validation.ValidationException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.data.domain.Pageable;
 
-import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
 import java.util.Optional;
 
@@ -24,6 +37,14 @@ public class UserServiceTest {
     private UserService userService;
     @Mock
     private UserRepository userRepository;
+    @Mock
+    private SummaryCache summaryCache;
+    @Mock
+    private UserDeletionService userDeletionService;
+    @Spy
+    private UserResolverCache userResolverCache = new UserResolverCache(100, 60);
+    @Spy
+    private RequestLookups requestLookups = new RequestLookups();
 
     @BeforeEach
     void setUp() {
@@ -57,8 +78,10 @@ public class UserServiceTest {
         String newName = "New Name";
 
         User existingUser = User.builder().username("newUser").email("example@email.com").name("Old name").build();
+        existingUser.setId(1L);
 
-        when(userRepository.findByEmail(usernameOrEmail)).thenReturn(Optional.ofNullable(existingUser));
+        when(userRepository.findIdentityByUsernameOrEmail(usernameOrEmail)).thenReturn(List.of(new UserIdentity(1L, UserRoles.USER)));
+        when(userRepository.findById(1L)).thenReturn(Optional.of(existingUser));
         when(userRepository.save(any(User.class))).thenAnswer(invocation -> {
             User savedUser = invocation.getArgument(0);
             if (existingUser != null) {
@@ -80,8 +103,10 @@ public class UserServiceTest {
         String usernameOrEmail = "example@email.com";
 
         User existingUser = User.builder().username("newUser").email("example@email.com").name("Ham").build();
+        existingUser.setId(1L);
 
-        when(userRepository.findByEmail(usernameOrEmail)).thenReturn(Optional.ofNullable(existingUser));
+        when(userRepository.findIdentityByUsernameOrEmail(usernameOrEmail)).thenReturn(List.of(new UserIdentity(1L, UserRoles.USER)));
+        when(userRepository.findById(1L)).thenReturn(Optional.of(existingUser));
 
 
         // Act
@@ -97,8 +122,10 @@ public class UserServiceTest {
         String usernameOrEmail = "newUser";
 
         User existingUser = User.builder().username("newUser").email("example@email.com").name("Ham").build();
+        existingUser.setId(1L);
 
-        when(userRepository.findByUsername(usernameOrEmail)).thenReturn(Optional.ofNullable(existingUser));
+        when(userRepository.findIdentityByUsernameOrEmail(usernameOrEmail)).thenReturn(List.of(new UserIdentity(1L, UserRoles.USER)));
+        when(userRepository.findById(1L)).thenReturn(Optional.of(existingUser));
 
         // Act
         User user = userService.getUserByUsernameOrEmail(usernameOrEmail);
@@ -108,32 +135,37 @@ public class UserServiceTest {
     }
 
     @Test
-    @DisplayName("can get all Users")
+    @DisplayName("can get all Users a page at a time")
     void testGetAllUsers(){
         // Arrange
-        User user1 =  User.builder().
-                name("User One").
-                username("user1").
-                email( "user1@example.com").
-                build();
-        User user2 =  User.builder().
-                name("User Two").
-                username("user2").
-                email( "user2@example.com").
-                build();
+        UserRow user1 = new UserRow(1L, new Date(), "User One", "user1", "user1@example.com", null);
+        UserRow user2 = new UserRow(2L, new Date(), "User Two", "user2", "user2@example.com", null);
+        when(userRepository.findRowsAfterId(eq(0L), any(Pageable.class))).thenReturn(List.of(user1, user2));
 
+        // Act
+        CursorPage<UserDTO> result = userService.getUsers(null, null, 1, null);
 
-        List<User> userList = Arrays.asList(user1, user2);
+        // Assert
+        assertEquals(List.of("user1"), result.getItems().stream().map(UserDTO::getUsername).toList());
+        assertNotNull(result.getNextCursor());
+        assertEquals(1L, UserCursor.decode(result.getNextCursor()).getId());
+    }
 
-        when(userRepository.findAll()).thenReturn(userList);
+    @Test
+    @DisplayName("searches Users by an escaped prefix of the field")
+    void testSearchUsers(){
+        // Arrange
+        UserRow user = new UserRow(3L, new Date(), "Ann_Lee", "ann", "ann@example.com", null);
+        when(userRepository.findRowsByNamePrefix(eq("Ann!_%"), eq(""), eq(0L), any(Pageable.class))).thenReturn(List.of(user));
 
         // Act
-        List<User> result = userService.getAllUsers();
+        CursorPage<UserDTO> result = userService.getUsers("Ann_", "name", 50, null);
 
         // Assert
-        assertNotNull(result);
-        assertEquals(userList.size(), result.size());
-        assertEquals(result, userList);
+        assertEquals(List.of("Ann_Lee"), result.getItems().stream().map(UserDTO::getName).toList());
+        assertNull(result.getNextCursor());
+        assertThrows(ValidationException.class, () -> userService.getUsers("Ann", "role", 50, null));
+        assertThrows(ValidationException.class, () -> userService.getUsers("Ann", "name", 0, null));
     }
 
     @Test
@@ -145,13 +177,69 @@ public class UserServiceTest {
                 username("user1").
                 email( "user1@example.com").
                 build();
+        user1.setId(1L);
 
 
-        when(userRepository.findByUsername("user1")).thenReturn(Optional.ofNullable(user1));
-        doNothing().when(userRepository).delete(user1);
-
+        when(userRepository.findIdentityByUsernameOrEmail("user1")).thenReturn(List.of(new UserIdentity(1L, UserRoles.USER)));
+        when(userRepository.findById(1L)).thenReturn(Optional.of(user1));
         assertAll(() -> userService.deleteUser("user1"));
+        verify(userDeletionService).deleteUser(1L, "user1", "user1", "user1@example.com");
     }
 
-}
+    @Test
+    @DisplayName("throws when neither the username nor the email match")
+    void testGetUserNotFound() {
+        when(userRepository.findIdentityByUsernameOrEmail("unknown")).thenReturn(List.of());
+
+        assertThrows(EntityNotFoundException.class, () -> userService.getUserReference("unknown"));
+        assertThrows(EntityNotFoundException.class, () -> userService.getUserByUsernameOrEmail("unknown"));
+        verify(userRepository, never()).findById(any());
+    }
 
+    @Test
+    @DisplayName("resolves a known username or email from the cache")
+    void testGetUserCached(){
+        // Arrange
+        User reference = User.builder().build();
+        reference.setId(1L);
+
+        when(userRepository.findIdentityByUsernameOrEmail("newUser")).thenReturn(List.of(new UserIdentity(1L, UserRoles.USER)));
+        when(userRepository.getReferenceById(1L)).thenReturn(reference);
+
+        // Act
+        User first = userService.getUserReference("newUser");
+        User second = userService.getUserReference("newUser");
+
+        // Assert
+        assertSame(reference, first);
+        assertSame(reference, second);
+        verify(userRepository, times(1)).findIdentityByUsernameOrEmail("newUser");
+        verify(userRepository, never()).findByUsername(any());
+        verify(userRepository, never()).findByEmail(any());
+        assertEquals(1, userResolverCache.stats().getHits());
+        assertEquals(1, userResolverCache.stats().getMisses());
+    }
+
+    @Test
+    @DisplayName("resolves the user again after it is updated or deleted")
+    void testGetUserAfterWrite(){
+        // Arrange
+        User existingUser = User.builder().username("newUser").email("example@email.com").name("Ham").build();
+        existingUser.setId(1L);
+
+        when(userRepository.findIdentityByUsernameOrEmail(any())).thenReturn(List.of(new UserIdentity(1L, UserRoles.USER)));
+        when(userRepository.findById(1L)).thenReturn(Optional.of(existingUser));
+        when(userRepository.save(any(User.class))).thenReturn(existingUser);
+
+        // Act
+        userService.getUserReference("example@email.com");
+        userService.updateUser("example@email.com", "New Name");
+        userService.getUserReference("example@email.com");
+        userService.deleteUser("newUser");
+        userService.getUserReference("newUser");
+
+        // Assert
+        verify(userRepository, times(2)).findIdentityByUsernameOrEmail("example@email.com");
+        verify(userRepository, times(2)).findIdentityByUsernameOrEmail("newUser");
+    }
+}